@@ -0,0 +1,171 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth;
+
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Content of a bMessage body, written while the bMessage is read from a {@link BmessageReader}.
+ *
+ * <p>Small bodies stay in memory. Once a body grows past the memory threshold it is moved to a
+ * temporary file, so MMS and email with large attachments are never held as one byte array next to
+ * the String they get decoded to.
+ *
+ * <p>The temporary file is deleted by {@link #close}.
+ */
+public final class BmessageBody extends OutputStream {
+    private static final String TAG = BmessageBody.class.getSimpleName();
+
+    public static final int DEFAULT_MEMORY_THRESHOLD = 256 * 1024;
+
+    private final File mDirectory;
+    private final int mMemoryThreshold;
+
+    private byte[] mMemory = new byte[1024];
+    private int mMemoryLength;
+    private File mFile;
+    private OutputStream mFileOutput;
+    private long mLength;
+
+    /** Body spilled to the default temporary directory past {@link #DEFAULT_MEMORY_THRESHOLD}. */
+    public BmessageBody() {
+        this(null, DEFAULT_MEMORY_THRESHOLD);
+    }
+
+    /**
+     * @param directory where to spill large bodies, null for the default temporary directory
+     * @param memoryThreshold size past which the body is spilled to a file
+     */
+    @VisibleForTesting
+    public BmessageBody(File directory, int memoryThreshold) {
+        mDirectory = directory;
+        mMemoryThreshold = memoryThreshold;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (mFileOutput == null && mMemoryLength + len > mMemoryThreshold) {
+            spill();
+        }
+        if (mFileOutput != null) {
+            mFileOutput.write(b, off, len);
+        } else {
+            if (mMemoryLength + len > mMemory.length) {
+                mMemory =
+                        Arrays.copyOf(
+                                mMemory,
+                                Math.min(
+                                        mMemoryThreshold,
+                                        Math.max(mMemory.length * 2, mMemoryLength + len)));
+            }
+            System.arraycopy(b, off, mMemory, mMemoryLength, len);
+            mMemoryLength += len;
+        }
+        mLength += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (mFileOutput != null) {
+            mFileOutput.flush();
+        }
+    }
+
+    /** Number of bytes written. */
+    public long length() {
+        return mLength;
+    }
+
+    /** Whether the body was moved to a temporary file. */
+    public boolean isSpilled() {
+        return mFile != null;
+    }
+
+    /** Read the body back from the start. */
+    public InputStream openInputStream() throws IOException {
+        if (mFile == null) {
+            return new ByteArrayInputStream(mMemory, 0, mMemoryLength);
+        }
+        mFileOutput.flush();
+        return new BufferedInputStream(new FileInputStream(mFile));
+    }
+
+    /** Decode the body, straight from the file if it was spilled. */
+    public String toString(Charset charset) throws IOException {
+        if (mFile == null) {
+            return new String(mMemory, 0, mMemoryLength, charset);
+        }
+        StringBuilder sb = new StringBuilder((int) Math.min(mLength, Integer.MAX_VALUE));
+        char[] chars = new char[8192];
+        try (Reader reader = new InputStreamReader(openInputStream(), charset)) {
+            int read;
+            while ((read = reader.read(chars)) != -1) {
+                sb.append(chars, 0, read);
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Drop the content, deleting the temporary file if there is one. */
+    @Override
+    public void close() {
+        if (mFileOutput != null) {
+            try {
+                mFileOutput.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close spilled body", e);
+            }
+            mFileOutput = null;
+        }
+        if (mFile != null && !mFile.delete()) {
+            Log.w(TAG, "Failed to delete spilled body " + mFile);
+        }
+        mFile = null;
+        mMemory = new byte[0];
+        mMemoryLength = 0;
+        mLength = 0;
+    }
+
+    private void spill() throws IOException {
+        mFile = File.createTempFile("bmsg", ".body", mDirectory);
+        mFileOutput = new BufferedOutputStream(new FileOutputStream(mFile));
+        mFileOutput.write(mMemory, 0, mMemoryLength);
+        mMemory = new byte[0];
+        mMemoryLength = 0;
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Byte oriented reader of a bMessage (MAP specification, section 3.1.3), reading straight from
+ * the OBEX input stream.
+ *
+ * <p>The stream is read in blocks and the current line is kept as bytes, so properties can be
+ * matched without decoding them and a line is only turned into a String when asked for. Message
+ * content is copied as raw bytes with {@link #readBody} and {@link #readUntil}, so it never has to
+ * go through a String and keeps its empty lines.
+ *
+ * <p>Lines end with CRLF and empty lines are skipped. A lone LF doesn't end a line.
+ */
+public final class BmessageReader {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InputStream mInput;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mPos;
+    private int mLimit;
+    private long mConsumed;
+
+    private byte[] mLine = new byte[256];
+    private int mLineLength;
+
+    public BmessageReader(InputStream input) {
+        mInput = input;
+    }
+
+    /**
+     * Move to the next non-empty line.
+     *
+     * @return false at the end of the stream
+     */
+    public boolean nextLine() throws IOException {
+        mLineLength = 0;
+        while (true) {
+            if (mPos == mLimit && !fill()) {
+                return mLineLength > 0;
+            }
+            int end = indexOf((byte) '\n', mPos, mLimit);
+            if (end == -1) {
+                appendToLine(mPos, mLimit);
+                mPos = mLimit;
+                continue;
+            }
+            appendToLine(mPos, end);
+            mPos = end + 1;
+            if (mLineLength > 0 && mLine[mLineLength - 1] == '\r') {
+                mLineLength--;
+                if (mLineLength > 0) {
+                    return true;
+                }
+            } else if (mLineLength > 0) {
+                appendToLine(end, end + 1);
+            }
+        }
+    }
+
+    /**
+     * Read the next non-empty line.
+     *
+     * @return the line without its CRLF, or null at the end of the stream
+     */
+    public String readLine() throws IOException {
+        return nextLine() ? line() : null;
+    }
+
+    /** The current line, decoded as UTF-8. */
+    public String line() {
+        return new String(mLine, 0, mLineLength, StandardCharsets.UTF_8);
+    }
+
+    /** Whether the current line is the given ASCII text, ignoring surrounding whitespace. */
+    public boolean lineEquals(String ascii) {
+        int start = 0;
+        int end = mLineLength;
+        while (start < end && mLine[start] <= ' ') {
+            start++;
+        }
+        while (end > start && mLine[end - 1] <= ' ') {
+            end--;
+        }
+        if (end - start != ascii.length()) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length(); i++) {
+            if (mLine[start + i] != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Write the current line and a CRLF to a stream. */
+    public void writeLine(OutputStream out) throws IOException {
+        out.write(mLine, 0, mLineLength);
+        out.write('\r');
+        out.write('\n');
+    }
+
+    /**
+     * Copy the next bytes of the stream, whatever they contain.
+     *
+     * @param length number of bytes to copy
+     * @param out where to copy them
+     * @return the number of bytes copied, less than {@code length} if the stream ended first
+     */
+    public long readBody(long length, OutputStream out) throws IOException {
+        long copied = 0;
+        while (copied < length) {
+            if (mPos == mLimit && !fill()) {
+                break;
+            }
+            int count = (int) Math.min(length - copied, mLimit - mPos);
+            out.write(mBuffer, mPos, count);
+            mPos += count;
+            copied += count;
+        }
+        return copied;
+    }
+
+    /**
+     * Copy the next bytes of the stream, whatever they contain, up to a terminator.
+     *
+     * @param terminator bytes ending the copy, consumed but not copied
+     * @param out where to copy the bytes before the terminator
+     * @return the number of bytes copied, or -1 if the stream ended before the terminator
+     */
+    public long readUntil(byte[] terminator, OutputStream out) throws IOException {
+        long copied = 0;
+        int matched = 0;
+        while (matched < terminator.length) {
+            if (mPos == mLimit && !fill()) {
+                return -1;
+            }
+            byte b = mBuffer[mPos++];
+            if (b == terminator[matched]) {
+                matched++;
+                continue;
+            }
+            // Keep the longest end of the partial match that can still start the terminator
+            int kept = matched;
+            while (kept > 0 && !endsWithPrefix(terminator, matched, b, kept)) {
+                kept--;
+            }
+            int dropped = matched + 1 - kept;
+            if (dropped > matched) {
+                out.write(terminator, 0, matched);
+                out.write(b);
+            } else {
+                out.write(terminator, 0, dropped);
+            }
+            copied += dropped;
+            matched = kept;
+        }
+        return copied;
+    }
+
+    /**
+     * Read the next bytes of the stream, whatever they contain.
+     *
+     * @return the bytes, or null if the stream ended first
+     */
+    public byte[] readBytes(int length) throws IOException {
+        byte[] data = new byte[length];
+        int read = 0;
+        while (read < length) {
+            if (mPos == mLimit && !fill()) {
+                return null;
+            }
+            int count = Math.min(length - read, mLimit - mPos);
+            System.arraycopy(mBuffer, mPos, data, read, count);
+            mPos += count;
+            read += count;
+        }
+        return data;
+    }
+
+    /** Number of bytes consumed from the stream so far. */
+    public long position() {
+        return mConsumed + mPos;
+    }
+
+    /**
+     * Find a character that isn't escaped with a backslash.
+     *
+     * @return the index of the first unescaped {@code c} at or after {@code from}, or -1
+     */
+    public static int indexOfUnescaped(String text, char c, int from) {
+        for (int i = Math.max(from, 0); i < text.length(); i++) {
+            if (text.charAt(i) == c && (i == 0 || text.charAt(i - 1) != '\\')) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean fill() throws IOException {
+        mConsumed += mLimit;
+        mPos = 0;
+        mLimit = 0;
+        int read = mInput.read(mBuffer, 0, mBuffer.length);
+        if (read <= 0) {
+            return false;
+        }
+        mLimit = read;
+        return true;
+    }
+
+    private int indexOf(byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (mBuffer[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Whether the first {@code matched} bytes of the terminator followed by {@code b} end with its
+     * first {@code length} bytes.
+     */
+    private static boolean endsWithPrefix(byte[] terminator, int matched, byte b, int length) {
+        if (terminator[length - 1] != b) {
+            return false;
+        }
+        int offset = matched + 1 - length;
+        for (int i = 0; i < length - 1; i++) {
+            if (terminator[offset + i] != terminator[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void appendToLine(int from, int to) {
+        int count = to - from;
+        if (mLineLength + count > mLine.length) {
+            mLine = Arrays.copyOf(mLine, Math.max(mLine.length * 2, mLineLength + count));
+        }
+        System.arraycopy(mBuffer, from, mLine, mLineLength, count);
+        mLineLength += count;
+    }
+}
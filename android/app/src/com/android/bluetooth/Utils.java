@@ -73,6 +73,7 @@ import androidx.annotation.VisibleForTesting;
 import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.flags.Flags;
+import com.android.bluetooth.util.AddressCodec;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -216,13 +217,7 @@ public final class Utils {
     }
 
     public static String getAddressStringFromByte(byte[] address) {
-        if (address == null || address.length != BD_ADDR_LEN) {
-            return null;
-        }
-
-        return String.format(
-                "%02X:%02X:%02X:%02X:%02X:%02X",
-                address[0], address[1], address[2], address[3], address[4], address[5]);
+        return AddressCodec.toString(address);
     }
 
     public static String getRedactedAddressStringFromByte(byte[] address) {
@@ -300,6 +295,12 @@ public final class Utils {
     }
 
     public static byte[] getBytesFromAddress(String address) {
+        byte[] bytes = AddressCodec.toBytes(address);
+        if (bytes != null) {
+            return bytes;
+        }
+
+        // Lenient parsing of addresses that are not in the canonical form
         int i, j = 0;
         byte[] output = new byte[BD_ADDR_LEN];
 
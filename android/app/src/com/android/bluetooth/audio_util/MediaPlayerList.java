@@ -1023,7 +1023,11 @@ public class MediaPlayerList {
         // Always have items in the queue
         if (data.queue.size() == 0) {
             Log.i(TAG, "sendMediaUpdate: Creating a one item queue for a player with no queue");
-            data.queue.add(data.metadata);
+            // The queue list is shared with the player's queue cache, don't modify it in place.
+            List<Metadata> queue = new ArrayList<>(1);
+            queue.add(data.metadata);
+            data.queue = queue;
+            data.queueVersion = MediaData.UNKNOWN_QUEUE_VERSION;
         }
 
         Log.d(TAG, "sendMediaUpdate state=" + data.state);
@@ -27,11 +27,14 @@ import android.os.Message;
 import android.util.Log;
 
 import com.android.bluetooth.BluetoothEventLogger;
+import com.android.bluetooth.flags.Flags;
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 /*
  * A class to synchronize Media Controller Callbacks and only pass through
@@ -55,6 +58,34 @@ public class MediaPlayerWrapper {
 
     private MediaData mCurrentData;
 
+    // Queue versions are unique across players so that data coming from different players never
+    // looks identical.
+    private static final AtomicLong sQueueVersion = new AtomicLong(0);
+
+    // Converted queue of the session. It's only rebuilt when the session reports a new queue, or
+    // when a queue change may have been missed, rather than on every media update.
+    private final Object mQueueLock = new Object();
+
+    @GuardedBy("mQueueLock")
+    private List<Metadata> mCachedQueue;
+
+    @GuardedBy("mQueueLock")
+    private long mCachedQueueVersion = MediaData.UNKNOWN_QUEUE_VERSION;
+
+    @GuardedBy("mQueueLock")
+    private boolean mQueueDirty = false;
+
+    // Queue and playing metadata last merged by getCurrentQueue(), with the merged queue. Merging
+    // them again would give the same result.
+    @GuardedBy("mQueueLock")
+    private List<Metadata> mMergedSourceQueue;
+
+    @GuardedBy("mQueueLock")
+    private List<Metadata> mMergedQueue;
+
+    @GuardedBy("mQueueLock")
+    private Metadata mMergedMetadata;
+
     @GuardedBy("mCallbackLock")
     private MediaControllerListener mControllerCallbacks = null;
 
@@ -95,10 +126,7 @@ public class MediaPlayerWrapper {
                         PLAYBACK_STATE_CHANGE_EVENT_LOGGER_SIZE,
                         PLAYBACK_STATE_CHANGE_LOGGER_EVENT_TITLE);
 
-        mCurrentData = new MediaData(null, null, null);
-        mCurrentData.queue = Util.toMetadataList(mContext, getQueue());
-        mCurrentData.metadata = Util.toMetadata(mContext, getMetadata());
-        mCurrentData.state = getPlaybackState();
+        mCurrentData = newMediaData(true);
     }
 
     void cleanup() {
@@ -139,15 +167,33 @@ public class MediaPlayerWrapper {
     }
 
     List<Metadata> getCurrentQueue() {
+        return getCurrentQueue(mCurrentData);
+    }
+
+    private List<Metadata> getCurrentQueue(MediaData currentData) {
         // MediaSession#QueueItem's MediaDescription doesn't necessarily include media duration,
         // so the playing media info metadata should be obtained by the MediaController.
         // MediaSession doesn't include the Playlist Metadata, only the current song one.
         Metadata mediaPlayingMetadata = getCurrentMetadata();
 
+        List<Metadata> queue = currentData.queue;
+
         // The queue metadata is built with QueueId in place of MediaId, so we can't compare it.
         // MediaDescription is usually compared via its title, artist and album.
-        if (mediaPlayingMetadata != null) {
-            for (Metadata metadata : mCurrentData.queue) {
+        if (mediaPlayingMetadata == null) {
+            return queue;
+        }
+        synchronized (mQueueLock) {
+            if (Flags.avrcpQueueVersion()
+                    && queue == mMergedSourceQueue
+                    && mediaPlayingMetadata.equals(mMergedMetadata)) {
+                // Nothing changed since the last merge, skip scanning the whole queue again.
+                return mMergedQueue;
+            }
+            // The cached queue is shared with every caller, merge into copies of its items.
+            List<Metadata> merged = null;
+            for (int i = 0; i < queue.size(); i++) {
+                Metadata metadata = queue.get(i);
                 if (metadata.title == null || metadata.artist == null || metadata.album == null) {
                     // if one of the informations is missing we can't assume it is the same media.
                     continue;
@@ -155,20 +201,78 @@ public class MediaPlayerWrapper {
                 if (metadata.title.equals(mediaPlayingMetadata.title)
                         && metadata.artist.equals(mediaPlayingMetadata.artist)
                         && metadata.album.equals(mediaPlayingMetadata.album)) {
+                    if (merged == null) {
+                        merged = new ArrayList<>(queue);
+                    }
                     // Replace default values by MediaController non default values.
-                    metadata.replaceDefaults(mediaPlayingMetadata);
+                    Metadata copy = metadata.clone();
+                    copy.replaceDefaults(mediaPlayingMetadata);
+                    merged.set(i, copy);
                 }
             }
+            mMergedSourceQueue = queue;
+            mMergedQueue = merged != null ? merged : queue;
+            mMergedMetadata = mediaPlayingMetadata;
+            return mMergedQueue;
         }
-        return mCurrentData.queue;
     }
 
     // We don't return the cached info here in order to always provide the freshest data.
     MediaData getCurrentMediaData() {
-        MediaData data = new MediaData(getCurrentMetadata(), getPlaybackState(), getCurrentQueue());
+        // Read once, the queue and its version must come from the same data
+        MediaData currentData = mCurrentData;
+        MediaData data =
+                new MediaData(
+                        getCurrentMetadata(), getPlaybackState(), getCurrentQueue(currentData));
+        data.queueVersion = currentData.queueVersion;
         return data;
     }
 
+    /** Get the version of the cached queue, it changes whenever the queue contents change. */
+    @VisibleForTesting
+    long getQueueVersion() {
+        synchronized (mQueueLock) {
+            return mCachedQueueVersion;
+        }
+    }
+
+    /**
+     * Build the media data of the session, with a queue and a queue version that match.
+     *
+     * @param refreshQueue convert the session queue again even if no change was missed
+     */
+    private MediaData newMediaData(boolean refreshQueue) {
+        Metadata metadata = Util.toMetadata(mContext, getMetadata());
+        PlaybackState state = getPlaybackState();
+        if (!Flags.avrcpQueueVersion()) {
+            return new MediaData(metadata, state, Util.toMetadataList(mContext, getQueue()));
+        }
+        synchronized (mQueueLock) {
+            refreshQueue |= mQueueDirty || mCachedQueue == null;
+        }
+        List<Metadata> converted =
+                refreshQueue ? Util.toMetadataList(mContext, getQueue()) : null;
+        synchronized (mQueueLock) {
+            if (converted != null) {
+                updateQueue(converted);
+            }
+            MediaData data = new MediaData(metadata, state, mCachedQueue);
+            data.queueVersion = mCachedQueueVersion;
+            return data;
+        }
+    }
+
+    /** Keep the cached list if the contents of the queue didn't change. */
+    private void updateQueue(List<Metadata> queue) {
+        synchronized (mQueueLock) {
+            mQueueDirty = false;
+            if (mCachedQueue == null || !mCachedQueue.equals(queue)) {
+                mCachedQueue = queue;
+                mCachedQueueVersion = sQueueVersion.incrementAndGet();
+            }
+        }
+    }
+
     void playItemFromQueue(long qid) {
         // Return immediately if no queue exists.
         if (getQueue() == null) {
@@ -303,11 +407,7 @@ public class MediaPlayerWrapper {
 
         // Update the current data since it could have changed while we weren't registered for
         // updates
-        mCurrentData =
-                new MediaData(
-                        Util.toMetadata(mContext, getMetadata()),
-                        getPlaybackState(),
-                        Util.toMetadataList(mContext, getQueue()));
+        mCurrentData = newMediaData(true);
 
         synchronized (mCallbackLock) {
             mControllerCallbacks = new MediaControllerListener(mMediaController, mLooper);
@@ -340,11 +440,7 @@ public class MediaPlayerWrapper {
 
             // Update the current data since it could be different on the new controller for the
             // player
-            mCurrentData =
-                    new MediaData(
-                            Util.toMetadata(mContext, getMetadata()),
-                            getPlaybackState(),
-                            Util.toMetadataList(mContext, getQueue()));
+            mCurrentData = newMediaData(true);
 
             mControllerCallbacks = new MediaControllerListener(mMediaController, mLooper);
         }
@@ -352,11 +448,7 @@ public class MediaPlayerWrapper {
     }
 
     private void sendMediaUpdate() {
-        MediaData newData =
-                new MediaData(
-                        Util.toMetadata(mContext, getMetadata()),
-                        getPlaybackState(),
-                        Util.toMetadataList(mContext, getQueue()));
+        MediaData newData = newMediaData(false);
 
         if (newData.equals(mCurrentData)) {
             // This may happen if the controller is fully synced by the time the
@@ -532,6 +624,10 @@ public class MediaPlayerWrapper {
         public void onQueueChanged(@Nullable List<MediaSession.QueueItem> queue) {
             if (!isPlaybackStateReady() || !isMetadataReady()) {
                 Log.v(TAG, "onQueueChanged(): " + mPackageName + " tried to update with no queue");
+                // Pick the queue up on the next update instead.
+                synchronized (mQueueLock) {
+                    mQueueDirty = true;
+                }
                 return;
             }
 
@@ -549,6 +645,10 @@ public class MediaPlayerWrapper {
                 return;
             }
 
+            if (Flags.avrcpQueueVersion()) {
+                updateQueue(current_queue);
+            }
+
             // The following is a large enough debug operation such that we want to guard it was an
             // isLoggable check
             if (Log.isLoggable(TAG, Log.DEBUG)) {
@@ -623,7 +723,11 @@ public class MediaPlayerWrapper {
         sb.append("Current Data:\n");
         sb.append("  Song: ").append(mCurrentData.metadata).append("\n");
         sb.append("  PlayState: ").append(mCurrentData.state).append("\n");
-        sb.append("  Queue: size=").append(mCurrentData.queue.size()).append("\n");
+        sb.append("  Queue: size=")
+                .append(mCurrentData.queue.size())
+                .append(", version=")
+                .append(mCurrentData.queueVersion)
+                .append("\n");
         for (Metadata data : mCurrentData.queue) {
             sb.append("    ").append(data).append("\n");
         }
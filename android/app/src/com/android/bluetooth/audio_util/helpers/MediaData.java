@@ -25,16 +25,32 @@ import java.util.Objects;
  * Helper class to transport metadata around AVRCP
  */
 public class MediaData {
+    /** Version of a queue whose contents aren't tracked, forces item by item comparisons. */
+    public static final long UNKNOWN_QUEUE_VERSION = -1;
+
     public List<Metadata> queue;
     public PlaybackState state;
     public Metadata metadata;
 
+    /**
+     * Version of {@link #queue}. Two MediaData with the same known version share the same queue
+     * contents, which lets consumers skip comparing the queues item by item.
+     */
+    public long queueVersion = UNKNOWN_QUEUE_VERSION;
+
     public MediaData(Metadata m, PlaybackState s, List<Metadata> q) {
         metadata = m;
         state = s;
         queue = q;
     }
 
+    /** Returns whether both queues are known to be identical without looking at their items. */
+    public boolean hasSameQueueVersion(MediaData other) {
+        return other != null
+                && queueVersion != UNKNOWN_QUEUE_VERSION
+                && queueVersion == other.queueVersion;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (o == null) return false;
@@ -50,7 +66,7 @@ public class MediaData {
             return false;
         }
 
-        if (!Objects.equals(queue, u.queue)) {
+        if (!hasSameQueueVersion(u) && !Objects.equals(queue, u.queue)) {
             return false;
         }
 
@@ -117,7 +117,9 @@ public class AvrcpTargetService extends ProfileService {
 
             boolean metadata = !Objects.equals(mCurrentData.metadata, data.metadata);
             boolean state = !MediaPlayerWrapper.playstateEquals(mCurrentData.state, data.state);
-            boolean queue = isQueueUpdated(mCurrentData.queue, data.queue);
+            boolean queue =
+                    !data.hasSameQueueVersion(mCurrentData)
+                            && isQueueUpdated(mCurrentData.queue, data.queue);
 
             Log.d(
                     TAG,
@@ -16,11 +16,11 @@
 
 package com.android.bluetooth.avrcpcontroller;
 
-import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.util.Log;
 
+import com.android.bluetooth.util.AddressCodec;
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
@@ -120,7 +120,7 @@ public class AvrcpControllerNativeInterface {
     // Called by JNI when a device has connected or disconnected.
     void onConnectionStateChanged(
             boolean remoteControlConnected, boolean browsingConnected, byte[] address) {
-        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        BluetoothDevice device = AddressCodec.getDevice(address);
         Log.d(
                 TAG,
                 "onConnectionStateChanged: "
@@ -135,7 +135,7 @@ public class AvrcpControllerNativeInterface {
     // Called by JNI to notify Avrcp of a remote device's Cover Art PSM
     @VisibleForTesting
     void getRcPsm(byte[] address, int psm) {
-        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        BluetoothDevice device = AddressCodec.getDevice(address);
         Log.d(TAG, "getRcPsm: device=" + device + " psm=" + psm);
 
         mAvrcpController.getRcPsm(device, psm);
@@ -143,7 +143,7 @@ public class AvrcpControllerNativeInterface {
 
     // Called by JNI to report remote Player's capabilities
     void handlePlayerAppSetting(byte[] address, byte[] playerAttribRsp, int rspLen) {
-        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        BluetoothDevice device = AddressCodec.getDevice(address);
         Log.d(TAG, "handlePlayerAppSetting: device=" + device + " rspLen=" + rspLen);
 
         mAvrcpController.handlePlayerAppSetting(device, playerAttribRsp, rspLen);
@@ -151,7 +151,7 @@ public class AvrcpControllerNativeInterface {
 
     @VisibleForTesting
     void onPlayerAppSettingChanged(byte[] address, byte[] playerAttribRsp, int rspLen) {
-        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        BluetoothDevice device = AddressCodec.getDevice(address);
         Log.d(TAG, "onPlayerAppSettingChanged: device=" + device);
 
         mAvrcpController.onPlayerAppSettingChanged(device, playerAttribRsp, rspLen);
@@ -159,7 +159,7 @@ public class AvrcpControllerNativeInterface {
 
     // Called by JNI when remote wants to set absolute volume.
     void handleSetAbsVolume(byte[] address, byte absVol, byte label) {
-        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        BluetoothDevice device = AddressCodec.getDevice(address);
         Log.d(TAG, "handleSetAbsVolume: device=" + device);
 
         mAvrcpController.handleSetAbsVolume(device, absVol, label);
@@ -167,7 +167,7 @@ public class AvrcpControllerNativeInterface {
 
     // Called by JNI when remote wants to receive absolute volume notifications.
     void handleRegisterNotificationAbsVol(byte[] address, byte label) {
-        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        BluetoothDevice device = AddressCodec.getDevice(address);
         Log.d(TAG, "handleRegisterNotificationAbsVol: device=" + device);
 
         mAvrcpController.handleRegisterNotificationAbsVol(device, label);
@@ -175,7 +175,7 @@ public class AvrcpControllerNativeInterface {
 
     // Called by JNI when a track changes and local AvrcpController is registered for updates.
     void onTrackChanged(byte[] address, byte numAttributes, int[] attributes, String[] attribVals) {
-        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        BluetoothDevice device = AddressCodec.getDevice(address);
         Log.d(TAG, "onTrackChanged: device=" + device);
 
         mAvrcpController.onTrackChanged(device, numAttributes, attributes, attribVals);
@@ -183,7 +183,7 @@ public class AvrcpControllerNativeInterface {
 
     // Called by JNI periodically based upon timer to update play position
     void onPlayPositionChanged(byte[] address, int songLen, int currSongPosition) {
-        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        BluetoothDevice device = AddressCodec.getDevice(address);
         Log.d(TAG, "onPlayPositionChanged: device=" + device + " pos=" + currSongPosition);
 
         mAvrcpController.onPlayPositionChanged(device, songLen, currSongPosition);
@@ -191,7 +191,7 @@ public class AvrcpControllerNativeInterface {
 
     // Called by JNI on changes of play status
     void onPlayStatusChanged(byte[] address, byte playStatus) {
-        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        BluetoothDevice device = AddressCodec.getDevice(address);
         Log.d(TAG, "onPlayStatusChanged: device=" + device + " playStatus=" + playStatus);
 
         mAvrcpController.onPlayStatusChanged(device, toPlaybackStateFromJni(playStatus));
@@ -199,7 +199,7 @@ public class AvrcpControllerNativeInterface {
 
     // Browsing related JNI callbacks.
     void handleGetFolderItemsRsp(byte[] address, int status, AvrcpItem[] items) {
-        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        BluetoothDevice device = AddressCodec.getDevice(address);
         Log.d(
                 TAG,
                 "handleGetFolderItemsRsp:"
@@ -211,7 +211,7 @@ public class AvrcpControllerNativeInterface {
     }
 
     void handleGetPlayerItemsRsp(byte[] address, AvrcpPlayer[] items) {
-        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        BluetoothDevice device = AddressCodec.getDevice(address);
         Log.d(
                 TAG,
                 "handleGetFolderItemsRsp:"
@@ -224,7 +224,7 @@ public class AvrcpControllerNativeInterface {
     // JNI Helper functions to convert native objects to java.
     static AvrcpItem createFromNativeMediaItem(
             byte[] address, long uid, int type, String name, int[] attrIds, String[] attrVals) {
-        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        BluetoothDevice device = AddressCodec.getDevice(address);
         Log.d(
                 TAG,
                 "createFromNativeMediaItem:"
@@ -248,7 +248,7 @@ public class AvrcpControllerNativeInterface {
 
     static AvrcpItem createFromNativeFolderItem(
             byte[] address, long uid, int type, String name, int playable) {
-        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        BluetoothDevice device = AddressCodec.getDevice(address);
         Log.d(
                 TAG,
                 "createFromNativeFolderItem:"
@@ -277,7 +277,7 @@ public class AvrcpControllerNativeInterface {
             byte[] transportFlags,
             int playStatus,
             int playerType) {
-        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        BluetoothDevice device = AddressCodec.getDevice(address);
         Log.d(
                 TAG,
                 "createFromNativePlayerItem:"
@@ -297,41 +297,41 @@ public class AvrcpControllerNativeInterface {
     }
 
     void handleChangeFolderRsp(byte[] address, int count) {
-        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        BluetoothDevice device = AddressCodec.getDevice(address);
         Log.d(TAG, "handleChangeFolderRsp: device=" + device + " count=" + count);
 
         mAvrcpController.handleChangeFolderRsp(device, count);
     }
 
     void handleSetBrowsedPlayerRsp(byte[] address, int items, int depth) {
-        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        BluetoothDevice device = AddressCodec.getDevice(address);
         Log.d(TAG, "handleSetBrowsedPlayerRsp: device=" + device + " depth=" + depth);
 
         mAvrcpController.handleSetBrowsedPlayerRsp(device, items, depth);
     }
 
     void handleSetAddressedPlayerRsp(byte[] address, int status) {
-        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        BluetoothDevice device = AddressCodec.getDevice(address);
         Log.d(TAG, "handleSetAddressedPlayerRsp device=" + device + " status=" + status);
 
         mAvrcpController.handleSetAddressedPlayerRsp(device, status);
     }
 
     void handleAddressedPlayerChanged(byte[] address, int id) {
-        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        BluetoothDevice device = AddressCodec.getDevice(address);
         Log.d(TAG, "handleAddressedPlayerChanged: device=" + device + " id=" + id);
 
         mAvrcpController.handleAddressedPlayerChanged(device, id);
     }
 
     void handleNowPlayingContentChanged(byte[] address) {
-        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        BluetoothDevice device = AddressCodec.getDevice(address);
         Log.d(TAG, "handleNowPlayingContentChanged: device=" + device);
         mAvrcpController.handleNowPlayingContentChanged(device);
     }
 
     void onAvailablePlayerChanged(byte[] address) {
-        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        BluetoothDevice device = AddressCodec.getDevice(address);
         Log.d(TAG, "onAvailablePlayerChanged: device=" + device);
         mAvrcpController.onAvailablePlayerChanged(device);
     }
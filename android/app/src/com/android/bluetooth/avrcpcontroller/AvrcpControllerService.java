@@ -362,6 +362,68 @@ public class AvrcpControllerService extends ProfileService {
         return new BrowseResult(contents, BrowseResult.SUCCESS);
     }
 
+    /**
+     * Get a page of MediaItems that are children of the specified media Id
+     *
+     * <p>Folders that can be browsed page by page only fetch the windows of items covering the
+     * requested page, and the window following it, rather than the whole folder. Other nodes, the
+     * folders already fetched as a whole and the pages larger than {@link
+     * BrowseWindowCache#MAX_PAGE_SIZE} are fetched as a whole and the page is cut out of their
+     * contents.
+     *
+     * @param parentMediaId The player or folder to get the contents of
+     * @param page The index of the page, starting at 0
+     * @param pageSize The number of items in a page
+     * @return The page if available, an empty list if it's past the end of the folder, or null if
+     *     the page is still being downloaded.
+     */
+    public synchronized BrowseResult getContents(String parentMediaId, int page, int pageSize) {
+        Log.d(TAG, "getContents(" + parentMediaId + ", page=" + page + ", size=" + pageSize + ")");
+        if (page < 0 || pageSize < 1) {
+            return new BrowseResult(new ArrayList(0), BrowseResult.ERROR_MEDIA_ID_INVALID);
+        }
+
+        BrowseTree.BrowseNode requestedNode = null;
+        AvrcpControllerStateMachine owner = null;
+        for (AvrcpControllerStateMachine stateMachine : mDeviceStateMap.values()) {
+            requestedNode = stateMachine.findNode(parentMediaId);
+            if (requestedNode != null) {
+                owner = stateMachine;
+                break;
+            }
+        }
+
+        int start = page * pageSize;
+        if (requestedNode == null
+                || !requestedNode.isWindowable()
+                || requestedNode.isCached()
+                || pageSize > BrowseWindowCache.MAX_PAGE_SIZE) {
+            BrowseResult result = getContents(parentMediaId);
+            List<MediaItem> contents = result.getResults();
+            if (contents == null) {
+                return result;
+            }
+            int from = Math.min(start, contents.size());
+            int to = Math.min(start + pageSize, contents.size());
+            return new BrowseResult(
+                    new ArrayList<>(contents.subList(from, to)), result.getStatus());
+        }
+
+        BluetoothDevice device = requestedNode.getDevice();
+        if (device != null) {
+            setActiveDevice(device);
+        }
+
+        requestedNode.enableWindows();
+        List<MediaItem> contents = requestedNode.getWindowedContents(start, pageSize);
+        owner.requestContentsWindow(requestedNode, start, pageSize);
+        if (contents == null) {
+            Log.d(TAG, "getContents(" + parentMediaId + ", page=" + page + "): download pending");
+            return new BrowseResult(null, BrowseResult.DOWNLOAD_PENDING);
+        }
+        return new BrowseResult(contents, BrowseResult.SUCCESS);
+    }
+
     @Override
     protected IProfileServiceBinder initBinder() {
         return new AvrcpControllerServiceBinder(this);
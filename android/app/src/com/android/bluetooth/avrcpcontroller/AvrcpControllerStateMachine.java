@@ -404,6 +404,32 @@ class AvrcpControllerStateMachine extends StateMachine {
         debug("requestContents(node=" + node + ")");
     }
 
+    /**
+     * Request the windows of a folder covering a page of contents, plus the window right after it
+     * so that scrolling forward finds its contents already fetched.
+     */
+    void requestContentsWindow(BrowseTree.BrowseNode node, int start, int count) {
+        int windowSize = node.getWindowSize();
+        int firstWindow = start / windowSize;
+        int lastWindow = (start + Math.max(count, 1) - 1) / windowSize + 1;
+        node.setWindowAnchor(firstWindow, lastWindow);
+        for (int window = firstWindow; window <= lastWindow; window++) {
+            if (node.requestWindow(window)) {
+                sendMessage(
+                        obtainMessage(
+                                MESSAGE_GET_FOLDER_ITEMS, window * windowSize, windowSize, node));
+                debug(
+                        "requestContentsWindow(node="
+                                + node
+                                + ", start="
+                                + (window * windowSize)
+                                + ", count="
+                                + windowSize
+                                + ")");
+            }
+        }
+    }
+
     public void playItem(BrowseTree.BrowseNode node) {
         sendMessage(MESSAGE_PLAY_ITEM, node);
     }
@@ -848,6 +874,12 @@ class AvrcpControllerStateMachine extends StateMachine {
         BrowseTree.BrowseNode mBrowseNode;
         BrowseTree.BrowseNode mNextStep;
 
+        // Range of a windowed fetch, mWindowCount is 0 when fetching the whole folder.
+        int mWindowStart;
+        int mWindowCount;
+        int mWindowReceived;
+        boolean mWindowComplete;
+
         @Override
         public void enter() {
             debug("GetFolderList: Entering GetFolderList");
@@ -858,7 +890,16 @@ class AvrcpControllerStateMachine extends StateMachine {
             Message msg = getCurrentMessage();
             if (msg.what == MESSAGE_GET_FOLDER_ITEMS) {
                 mBrowseNode = (BrowseTree.BrowseNode) msg.obj;
-                debug("GetFolderList: new fetch request, node=" + mBrowseNode);
+                mWindowStart = msg.arg1;
+                mWindowCount = msg.arg2;
+                mWindowReceived = 0;
+                mWindowComplete = false;
+                debug(
+                        "GetFolderList: new fetch request, node="
+                                + mBrowseNode
+                                + (mWindowCount > 0
+                                        ? ", window start=" + mWindowStart
+                                        : ""));
             }
 
             if (mBrowseNode == null) {
@@ -866,6 +907,15 @@ class AvrcpControllerStateMachine extends StateMachine {
             } else if (!mBrowsingConnected) {
                 warn("GetFolderList: Browsing not connected, node=" + mBrowseNode);
                 transitionTo(mConnected);
+            } else if (mWindowCount > 0) {
+                if (!mBrowseNode.isWindowPending(mWindowStart)) {
+                    // The window was fetched or cancelled while this request was queued.
+                    debug("GetFolderList: Window no longer requested, node=" + mBrowseNode);
+                    transitionTo(mConnected);
+                } else {
+                    mBrowseNode.enableWindows();
+                    navigateToFolderOrRetrieve(mBrowseNode);
+                }
             } else {
                 int scope = mBrowseNode.getScope();
                 if (scope == AvrcpControllerService.BROWSE_SCOPE_PLAYER_LIST
@@ -896,6 +946,27 @@ class AvrcpControllerStateMachine extends StateMachine {
                         }
                     }
 
+                    if (mWindowCount > 0) {
+                        int added =
+                                mBrowseNode.addWindowedChildren(
+                                        mWindowStart + mWindowReceived, folderList);
+                        mWindowReceived += added;
+                        debug("GetFolderList: Added " + added + " items to window " + mWindowStart);
+                        if (folderList.size() == 0
+                                || mWindowReceived >= mWindowCount
+                                || mWindowStart + mWindowReceived > endIndicator) {
+                            mWindowComplete = true;
+                            transitionTo(mConnected);
+                        } else if (mAbort) {
+                            transitionTo(mConnected);
+                        } else {
+                            fetchContents(mBrowseNode);
+                            removeMessages(MESSAGE_INTERNAL_CMD_TIMEOUT);
+                            sendMessageDelayed(MESSAGE_INTERNAL_CMD_TIMEOUT, CMD_TIMEOUT_MILLIS);
+                        }
+                        break;
+                    }
+
                     // Always update the node so that the user does not wait forever
                     // for the list to populate.
                     int newSize = mBrowseNode.addChildren(folderList);
@@ -1007,6 +1078,8 @@ class AvrcpControllerStateMachine extends StateMachine {
                 case MESSAGE_INTERNAL_CMD_TIMEOUT:
                     // We have timed out to execute the request, we should simply send
                     // whatever listing we have gotten until now.
+                    // A window fetched in part stays unloaded, so the next request for it fetches
+                    // the missing items.
                     warn("GetFolderList: Timeout waiting for download, node=" + mBrowseNode);
                     transitionTo(mConnected);
                     break;
@@ -1015,12 +1088,22 @@ class AvrcpControllerStateMachine extends StateMachine {
                     // If we have gotten an error for OUT OF RANGE we have
                     // already sent all the items to the client hence simply
                     // transition to Connected state here.
+                    mWindowComplete = true;
                     transitionTo(mConnected);
                     break;
 
                 case MESSAGE_GET_FOLDER_ITEMS:
                     BrowseTree.BrowseNode requested = (BrowseTree.BrowseNode) msg.obj;
-                    if (!mBrowseNode.equals(requested) || requested.isNowPlaying()) {
+                    if (mBrowseNode.equals(requested)
+                            && (msg.arg2 != mWindowCount || msg.arg1 != mWindowStart)) {
+                        // Another window of the folder we're fetching, serve it afterwards.
+                        deferMessage(msg);
+                        debug(
+                                "GetFolderList: Enqueue new window for node="
+                                        + requested
+                                        + ", start="
+                                        + msg.arg1);
+                    } else if (!mBrowseNode.equals(requested) || requested.isNowPlaying()) {
                         if (shouldAbort(mBrowseNode.getScope(), requested.getScope())) {
                             mAbort = true;
                         }
@@ -1062,12 +1145,31 @@ class AvrcpControllerStateMachine extends StateMachine {
         }
 
         private void fetchContents(BrowseTree.BrowseNode target) {
-            int start = target.getChildrenCount();
-            int end =
-                    Math.min(
-                                    target.getExpectedChildren(),
-                                    target.getChildrenCount() + ITEM_PAGE_SIZE)
-                            - 1;
+            int start;
+            int end;
+            if (mWindowCount > 0 && target.equals(mBrowseNode)) {
+                start = mWindowStart + mWindowReceived;
+                end =
+                        Math.min(
+                                        Math.min(
+                                                target.getExpectedChildren(),
+                                                mWindowStart + mWindowCount),
+                                        start + ITEM_PAGE_SIZE)
+                                - 1;
+                if (end < start) {
+                    // Nothing left in this window, the folder ends before it.
+                    mWindowComplete = true;
+                    transitionTo(mConnected);
+                    return;
+                }
+            } else {
+                start = target.getChildrenCount();
+                end =
+                        Math.min(
+                                        target.getExpectedChildren(),
+                                        target.getChildrenCount() + ITEM_PAGE_SIZE)
+                                - 1;
+            }
             debug(
                     "GetFolderList: fetchContents(title="
                             + target.getID()
@@ -1175,12 +1277,20 @@ class AvrcpControllerStateMachine extends StateMachine {
             removeMessages(MESSAGE_INTERNAL_CMD_TIMEOUT);
 
             // Whatever we have, notify on it so the UI doesn't hang
-            if (mBrowseNode != null) {
+            if (mBrowseNode != null && mWindowCount > 0) {
+                mBrowseNode.onWindowFetchFinished(mWindowStart, mWindowComplete);
+                if (mAbort) {
+                    // The client moved to another folder, drop the queued windows of this one.
+                    mBrowseNode.cancelWindowFetches();
+                }
+                notifyNodeChanged(mBrowseNode);
+            } else if (mBrowseNode != null) {
                 mBrowseNode.setCached(true);
                 notifyNodeChanged(mBrowseNode);
             }
 
             mBrowseNode = null;
+            mWindowCount = 0;
             super.exit();
         }
     }
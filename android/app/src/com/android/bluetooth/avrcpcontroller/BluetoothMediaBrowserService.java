@@ -23,6 +23,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.media.AudioManager;
 import android.os.Bundle;
+import android.support.v4.media.MediaBrowserCompat;
 import android.support.v4.media.MediaBrowserCompat.MediaItem;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaControllerCompat;
@@ -228,6 +229,17 @@ public class BluetoothMediaBrowserService extends MediaBrowserServiceCompat {
         }
     }
 
+    BrowseResult getContents(final String parentMediaId, int page, int pageSize) {
+        AvrcpControllerService avrcpControllerService =
+                AvrcpControllerService.getAvrcpControllerService();
+        if (avrcpControllerService == null) {
+            Log.w(TAG, "getContents(id=" + parentMediaId + "): AVRCP Controller Service not ready");
+            return new BrowseResult(null, BrowseResult.ERROR_NO_AVRCP_SERVICE);
+        } else {
+            return avrcpControllerService.getContents(parentMediaId, page, pageSize);
+        }
+    }
+
     BrowseResult getContents(final String parentMediaId) {
         AvrcpControllerService avrcpControllerService =
                 AvrcpControllerService.getAvrcpControllerService();
@@ -293,6 +305,32 @@ public class BluetoothMediaBrowserService extends MediaBrowserServiceCompat {
         }
     }
 
+    @Override
+    public synchronized void onLoadChildren(
+            final String parentMediaId, final Result<List<MediaItem>> result, Bundle options) {
+        int page = options == null ? -1 : options.getInt(MediaBrowserCompat.EXTRA_PAGE, -1);
+        int pageSize =
+                options == null ? -1 : options.getInt(MediaBrowserCompat.EXTRA_PAGE_SIZE, -1);
+        if (!Flags.avrcpControllerPagedBrowsing()) {
+            super.onLoadChildren(parentMediaId, result, options);
+            return;
+        }
+        if (page < 0 || pageSize < 1) {
+            onLoadChildren(parentMediaId, result);
+            return;
+        }
+
+        Log.d(TAG, "Request for page, id= " + parentMediaId + ", page=" + page + "/" + pageSize);
+        BrowseResult contents = getContents(parentMediaId, page, pageSize);
+        List<MediaItem> results = contents.getResults();
+        if (contents.getStatus() == BrowseResult.DOWNLOAD_PENDING && results == null) {
+            Log.i(TAG, "Download pending - no results, id= " + parentMediaId + ", page=" + page);
+            result.detach();
+        } else {
+            result.sendResult(results);
+        }
+    }
+
     @Override
     public BrowserRoot onGetRoot(String clientPackageName, int clientUid, Bundle rootHints) {
         Log.i(TAG, "Browser Client Connection Request, client='" + clientPackageName + "')");
@@ -162,6 +162,10 @@ public class BrowseTree {
         private final List<BrowseNode> mChildren = new ArrayList<BrowseNode>();
         private int mExpectedChildrenCount;
 
+        // Resident children of a folder browsed page by page, null until a page is requested. The
+        // children fetched as a whole for other clients are kept apart in mChildren.
+        private BrowseWindowCache<BrowseNode> mWindows;
+
         BrowseNode(AvrcpItem item) {
             Objects.requireNonNull(item, "Cannot have a browse node with a null item");
             mItem = item;
@@ -204,6 +208,10 @@ public class BrowseTree {
         }
 
         synchronized void setExpectedChildren(int count) {
+            if (mWindows != null && count != mExpectedChildrenCount) {
+                // The folder changed size, what we hold may no longer match the remote indices.
+                forgetChildren(mWindows.clear());
+            }
             mExpectedChildrenCount = count;
         }
 
@@ -226,24 +234,143 @@ public class BrowseTree {
 
         synchronized boolean addChild(BrowseNode node) {
             if (node != null) {
-                node.mParent = this;
-                if (this.mBrowseScope == AvrcpControllerService.BROWSE_SCOPE_NOW_PLAYING) {
-                    node.mBrowseScope = this.mBrowseScope;
-                }
                 mChildren.add(node);
-                mBrowseMap.put(node.getID(), node);
-
-                // Each time we add a node to the tree, check for an image handle so we can add
-                // the artwork URI once it has been downloaded
-                String imageUuid = node.getCoverArtUuid();
-                if (imageUuid != null) {
-                    indicateCoverArtUsed(node.getID(), imageUuid);
-                }
+                attachChild(node);
                 return true;
             }
             return false;
         }
 
+        private void attachChild(BrowseNode node) {
+            node.mParent = this;
+            if (this.mBrowseScope == AvrcpControllerService.BROWSE_SCOPE_NOW_PLAYING) {
+                node.mBrowseScope = this.mBrowseScope;
+            }
+            mBrowseMap.put(node.getID(), node);
+
+            // Each time we add a node to the tree, check for an image handle so we can add
+            // the artwork URI once it has been downloaded
+            String imageUuid = node.getCoverArtUuid();
+            if (imageUuid != null) {
+                indicateCoverArtUsed(node.getID(), imageUuid);
+            }
+        }
+
+        private void forgetChildren(List<BrowseNode> children) {
+            for (BrowseNode child : children) {
+                if (Flags.uncachePlayerWhenBrowsedPlayerChanges()) {
+                    child.setCached(false);
+                }
+                mBrowseMap.remove(child.getID());
+                indicateCoverArtUnused(child.getID(), child.getCoverArtUuid());
+            }
+        }
+
+        // Only VFS folders and players can be browsed page by page. The player list and the now
+        // playing list are small and always fetched as a whole.
+        synchronized boolean isWindowable() {
+            return mBrowseScope == AvrcpControllerService.BROWSE_SCOPE_VFS
+                    && isBrowsable()
+                    && !isNowPlaying();
+        }
+
+        synchronized boolean isWindowed() {
+            return mWindows != null;
+        }
+
+        /**
+         * Allow this folder to be fetched page by page. The children fetched as a whole are kept,
+         * so clients browsing with and without pages can share the folder.
+         */
+        synchronized void enableWindows() {
+            if (mWindows == null) {
+                Log.d(TAG, "Enable windows, node=" + toString());
+                mWindows = new BrowseWindowCache<BrowseNode>();
+            }
+        }
+
+        synchronized int getWindowSize() {
+            return mWindows != null ? mWindows.getWindowSize() : BrowseWindowCache.WINDOW_SIZE;
+        }
+
+        /**
+         * Record that the client is looking at the given window and mark it as being fetched.
+         *
+         * @return true if the window needs to be fetched
+         */
+        synchronized boolean requestWindow(int window) {
+            if (mWindows == null) {
+                return false;
+            }
+            int expected = getExpectedChildren();
+            if (expected > 0 && mWindows.windowStart(window) >= expected) {
+                return false;
+            }
+            return mWindows.markPending(window);
+        }
+
+        synchronized void setWindowAnchor(int firstWindow, int lastWindow) {
+            if (mWindows != null) {
+                mWindows.setAnchorWindows(firstWindow, lastWindow);
+            }
+        }
+
+        synchronized boolean isWindowPending(int start) {
+            return mWindows != null && mWindows.isPending(mWindows.windowOf(start));
+        }
+
+        synchronized void onWindowFetchFinished(int start, boolean complete) {
+            if (mWindows != null) {
+                mWindows.onFetchFinished(mWindows.windowOf(start), complete);
+            }
+        }
+
+        synchronized void cancelWindowFetches() {
+            if (mWindows != null) {
+                mWindows.cancelPending();
+            }
+        }
+
+        /** Add children fetched for a window, starting at the given index in the folder. */
+        synchronized int addWindowedChildren(int start, List<AvrcpItem> items) {
+            if (mWindows == null) {
+                Log.w(TAG, "addWindowedChildren: node isn't windowed, node=" + toString());
+                return 0;
+            }
+            List<BrowseNode> nodes = new ArrayList<>(items.size());
+            for (AvrcpItem item : items) {
+                BrowseNode node = new BrowseNode(item);
+                attachChild(node);
+                nodes.add(node);
+            }
+            forgetChildren(mWindows.putAll(start, nodes));
+            return nodes.size();
+        }
+
+        /**
+         * Get a page of contents of a windowed folder.
+         *
+         * @return the items, or null if part of the page still has to be fetched
+         */
+        synchronized List<MediaItem> getWindowedContents(int start, int count) {
+            if (mWindows == null) {
+                return null;
+            }
+            int expected = getExpectedChildren();
+            if (expected > 0) {
+                count = Math.min(count, expected - start);
+            }
+            List<BrowseNode> nodes = mWindows.getRange(start, count);
+            if (nodes == null) {
+                return null;
+            }
+            List<MediaItem> contents = new ArrayList<MediaItem>(nodes.size());
+            for (BrowseNode node : nodes) {
+                contents.add(node.getMediaItem());
+            }
+            return contents;
+        }
+
         synchronized void removeChild(BrowseNode node) {
             mChildren.remove(node);
             mBrowseMap.remove(node.getID());
@@ -308,14 +435,11 @@ public class BrowseTree {
             Log.d(TAG, "Set cached=" + cached + ", node=" + toString());
             mCached = cached;
             if (!cached) {
-                for (BrowseNode child : mChildren) {
-                    if (Flags.uncachePlayerWhenBrowsedPlayerChanges()) {
-                        child.setCached(false);
-                    }
-                    mBrowseMap.remove(child.getID());
-                    indicateCoverArtUnused(child.getID(), child.getCoverArtUuid());
-                }
+                forgetChildren(mChildren);
                 mChildren.clear();
+                if (mWindows != null) {
+                    forgetChildren(mWindows.clear());
+                }
             }
         }
 
@@ -377,6 +501,11 @@ public class BrowseTree {
             for (BrowseNode node : mChildren) {
                 node.toTreeString(depth + 1, sb);
             }
+            if (mWindows != null) {
+                for (BrowseNode node : mWindows.values()) {
+                    node.toTreeString(depth + 1, sb);
+                }
+            }
         }
 
         @Override
@@ -388,7 +517,8 @@ public class BrowseTree {
                     + ", cached="
                     + isCached()
                     + ", size="
-                    + mChildren.size()
+                    + getChildrenCount()
+                    + (mWindows != null ? ", windows=" + mWindows : "")
                     + "]";
         }
 
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.avrcpcontroller;
+
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Holds the resident children of a folder that is browsed page by page.
+ *
+ * <p>Children are addressed by their absolute index in the remote folder and grouped into fixed
+ * size windows. A window is either loaded, meaning a fetch for it completed, or missing. Only a
+ * bounded number of windows are kept; when the limit is exceeded the windows furthest away from
+ * the most recently requested page are evicted first, so scrolling through a huge folder keeps a
+ * flat memory footprint. The windows of the requested page are never evicted, which is why a page
+ * can't be larger than {@link #MAX_PAGE_SIZE}.
+ *
+ * <p>This class is not thread safe, callers are expected to hold the lock of the owning node.
+ */
+class BrowseWindowCache<T> {
+    // Number of items in a single window
+    static final int WINDOW_SIZE = 100;
+
+    // Maximum number of windows kept in memory for a single folder
+    static final int MAX_RESIDENT_WINDOWS = 8;
+
+    // Largest page whose windows, plus the prefetched one, fit in the resident windows. A page
+    // that isn't aligned on a window overlaps one more window than its size.
+    static final int MAX_PAGE_SIZE = (MAX_RESIDENT_WINDOWS - 2) * WINDOW_SIZE;
+
+    private final int mWindowSize;
+    private final int mMaxResidentWindows;
+
+    // Absolute item index -> item
+    private final SparseArray<T> mItems = new SparseArray<>();
+
+    // Window index -> number of resident items in that window
+    private final SparseArray<Integer> mWindowFill = new SparseArray<>();
+
+    private final Set<Integer> mLoadedWindows = new HashSet<>();
+    private final Set<Integer> mPendingWindows = new HashSet<>();
+    private int mAnchorFirstWindow = 0;
+    private int mAnchorLastWindow = 0;
+
+    BrowseWindowCache() {
+        this(WINDOW_SIZE, MAX_RESIDENT_WINDOWS);
+    }
+
+    BrowseWindowCache(int windowSize, int maxResidentWindows) {
+        if (windowSize <= 0 || maxResidentWindows <= 0) {
+            throw new IllegalArgumentException(
+                    "Invalid window configuration, size="
+                            + windowSize
+                            + ", maxResident="
+                            + maxResidentWindows);
+        }
+        mWindowSize = windowSize;
+        mMaxResidentWindows = maxResidentWindows;
+    }
+
+    int getWindowSize() {
+        return mWindowSize;
+    }
+
+    int windowOf(int index) {
+        return index / mWindowSize;
+    }
+
+    int windowStart(int window) {
+        return window * mWindowSize;
+    }
+
+    boolean isLoaded(int window) {
+        return mLoadedWindows.contains(window);
+    }
+
+    boolean isPending(int window) {
+        return mPendingWindows.contains(window);
+    }
+
+    /**
+     * Mark a window as being fetched.
+     *
+     * @return true if a fetch should be issued, false if the window is loaded or already pending
+     */
+    boolean markPending(int window) {
+        if (window < 0 || isLoaded(window)) {
+            return false;
+        }
+        return mPendingWindows.add(window);
+    }
+
+    /**
+     * Indicate that the fetch of a window finished.
+     *
+     * @param complete true if every item of the window (or the end of the folder) was received
+     */
+    void onFetchFinished(int window, boolean complete) {
+        mPendingWindows.remove(window);
+        if (complete) {
+            mLoadedWindows.add(window);
+        }
+    }
+
+    /** Forget about any pending fetch, used when a fetch sequence is aborted. */
+    void cancelPending() {
+        mPendingWindows.clear();
+    }
+
+    /**
+     * Set the windows the client is currently looking at, used to pick eviction victims. These
+     * windows are never evicted.
+     */
+    void setAnchorWindows(int firstWindow, int lastWindow) {
+        mAnchorFirstWindow = firstWindow;
+        mAnchorLastWindow = Math.max(firstWindow, lastWindow);
+    }
+
+    /**
+     * Store items starting at the given absolute index.
+     *
+     * @return items that are no longer part of the cache, either replaced or evicted
+     */
+    List<T> putAll(int start, List<T> items) {
+        List<T> removed = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            int index = start + i;
+            T previous = mItems.get(index);
+            if (previous != null) {
+                removed.add(previous);
+            } else {
+                int window = windowOf(index);
+                mWindowFill.put(window, mWindowFill.get(window, 0) + 1);
+            }
+            mItems.put(index, items.get(i));
+        }
+        evictFarWindows(windowOf(start), removed);
+        return removed;
+    }
+
+    /**
+     * Get the items in [start, start + count).
+     *
+     * @return the resident items, possibly fewer than count at the end of a folder, or null if any
+     *     window overlapping the range isn't loaded yet
+     */
+    List<T> getRange(int start, int count) {
+        if (count <= 0) {
+            return new ArrayList<>(0);
+        }
+        int end = start + count;
+        for (int window = windowOf(start); window <= windowOf(end - 1); window++) {
+            if (!isLoaded(window)) {
+                return null;
+            }
+        }
+        List<T> range = new ArrayList<>(count);
+        for (int index = start; index < end; index++) {
+            T item = mItems.get(index);
+            if (item != null) {
+                range.add(item);
+            }
+        }
+        return range;
+    }
+
+    /** Get all resident items, ordered by their index in the folder. */
+    List<T> values() {
+        List<T> values = new ArrayList<>(mItems.size());
+        for (int i = 0; i < mItems.size(); i++) {
+            values.add(mItems.valueAt(i));
+        }
+        return values;
+    }
+
+    int size() {
+        return mItems.size();
+    }
+
+    int getResidentWindowCount() {
+        return mWindowFill.size();
+    }
+
+    /**
+     * Drop every item and loaded window. Pending fetches are kept so in flight responses are still
+     * accounted for.
+     *
+     * @return the items that were resident
+     */
+    List<T> clear() {
+        List<T> removed = values();
+        mItems.clear();
+        mWindowFill.clear();
+        mLoadedWindows.clear();
+        return removed;
+    }
+
+    private void evictFarWindows(int keepWindow, List<T> removed) {
+        while (mWindowFill.size() > mMaxResidentWindows) {
+            int victim = -1;
+            int victimDistance = -1;
+            for (int i = 0; i < mWindowFill.size(); i++) {
+                int window = mWindowFill.keyAt(i);
+                int distance = distanceToAnchor(window);
+                if (distance == 0) {
+                    continue;
+                }
+                if (window == keepWindow) {
+                    // Only evict the window being filled if all the others are requested
+                    distance = 0;
+                }
+                if (distance > victimDistance) {
+                    victim = window;
+                    victimDistance = distance;
+                }
+            }
+            if (victim < 0) {
+                return;
+            }
+            evictWindow(victim, removed);
+        }
+    }
+
+    private int distanceToAnchor(int window) {
+        if (window < mAnchorFirstWindow) {
+            return mAnchorFirstWindow - window;
+        }
+        return Math.max(window - mAnchorLastWindow, 0);
+    }
+
+    private void evictWindow(int window, List<T> removed) {
+        int start = windowStart(window);
+        for (int index = start; index < start + mWindowSize; index++) {
+            T item = mItems.get(index);
+            if (item != null) {
+                removed.add(item);
+                mItems.remove(index);
+            }
+        }
+        mWindowFill.remove(window);
+        mLoadedWindows.remove(window);
+    }
+
+    @Override
+    public String toString() {
+        return "[BrowseWindowCache items="
+                + mItems.size()
+                + ", windows="
+                + mWindowFill.size()
+                + ", loaded="
+                + mLoadedWindows
+                + ", pending="
+                + mPendingWindows
+                + ", anchor="
+                + mAnchorFirstWindow
+                + "-"
+                + mAnchorLastWindow
+                + "]";
+    }
+}
@@ -30,6 +30,7 @@ import android.util.Log;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.btservice.ProfileService;
+import com.android.bluetooth.btservice.StateMachineLanes;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
 import com.android.internal.annotations.VisibleForTesting;
 
@@ -50,6 +51,7 @@ public class BatteryService extends ProfileService {
     private AdapterService mAdapterService;
     private DatabaseManager mDatabaseManager;
     private HandlerThread mStateMachinesThread;
+    private StateMachineLanes mStateMachineLanes;
     private Handler mHandler;
     private final Map<BluetoothDevice, BatteryStateMachine> mStateMachines = new HashMap<>();
 
@@ -84,8 +86,11 @@ public class BatteryService extends ProfileService {
 
         mHandler = new Handler(Looper.getMainLooper());
         mStateMachines.clear();
-        mStateMachinesThread = new HandlerThread("BatteryService.StateMachines");
-        mStateMachinesThread.start();
+        mStateMachineLanes = mAdapterService.getStateMachineLanes();
+        if (mStateMachineLanes == null) {
+            mStateMachinesThread = new HandlerThread("BatteryService.StateMachines");
+            mStateMachinesThread.start();
+        }
 
         setBatteryService(this);
     }
@@ -125,6 +130,7 @@ public class BatteryService extends ProfileService {
             mHandler = null;
         }
 
+        mStateMachineLanes = null;
         mAdapterService = null;
     }
 
@@ -371,6 +377,15 @@ public class BatteryService extends ProfileService {
         mAdapterService.setBatteryLevel(device, batteryLevel, /* isBas= */ true);
     }
 
+    /**
+     * Get the handler to deliver the GATT callbacks of a device with, or null to use the handler
+     * of its state machine.
+     */
+    Handler getGattCallbackHandler(BluetoothDevice device) {
+        StateMachineLanes lanes = mStateMachineLanes;
+        return lanes != null ? lanes.getHandler(device) : null;
+    }
+
     private BatteryStateMachine getOrCreateStateMachine(BluetoothDevice device) {
         if (device == null) {
             Log.e(TAG, "getOrCreateGatt failed: device cannot be null");
@@ -383,7 +398,11 @@ public class BatteryService extends ProfileService {
             }
 
             Log.d(TAG, "Creating a new state machine for " + device);
-            sm = BatteryStateMachine.make(device, this, mStateMachinesThread.getLooper());
+            Looper looper =
+                    mStateMachineLanes != null
+                            ? mStateMachineLanes.getLooper(device)
+                            : mStateMachinesThread.getLooper();
+            sm = BatteryStateMachine.make(device, this, looper);
             mStateMachines.put(device, sm);
             return sm;
         }
@@ -29,6 +29,7 @@ import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
+import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
@@ -231,6 +232,8 @@ public class BatteryStateMachine extends StateMachine {
             Log.w(TAG, "Trying connectGatt with existing BluetoothGatt instance.");
             mBluetoothGatt.close();
         }
+        // On a lane, callbacks run on the same thread through its handler, to count in its depth
+        Handler handler = service.getGattCallbackHandler(mDevice);
         mBluetoothGatt =
                 mDevice.connectGatt(
                         service,
@@ -239,7 +242,7 @@ public class BatteryStateMachine extends StateMachine {
                         TRANSPORT_LE,
                         /* opportunistic= */ true,
                         PHY_LE_1M_MASK | PHY_LE_2M_MASK,
-                        getHandler());
+                        handler != null ? handler : getHandler());
         return mBluetoothGatt != null;
     }
 
@@ -130,7 +130,9 @@ class BaseData {
         List<BaseInformation> levelTwo = new ArrayList<>();
         List<BaseInformation> levelThree = new ArrayList<>();
         int numOfBISIndices = 0;
-        log("BASE input" + Arrays.toString(serviceData));
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            log("BASE input" + Arrays.toString(serviceData));
+        }
 
         // Parse Level 1 base
         levelOne.level = METADATA_LEVEL1;
@@ -28,7 +28,9 @@ import static com.android.bluetooth.flags.Flags.leaudioBroadcastAudioHandoverPol
 import static com.android.bluetooth.flags.Flags.leaudioBroadcastExtractPeriodicScannerFromStateMachine;
 import static com.android.bluetooth.flags.Flags.leaudioBroadcastFeatureSupport;
 import static com.android.bluetooth.flags.Flags.leaudioBroadcastMonitorSourceSyncStatus;
+import static com.android.bluetooth.flags.Flags.leaudioBroadcastPeriodicReportCache;
 import static com.android.bluetooth.flags.Flags.leaudioBroadcastResyncHelper;
+import static com.android.bluetooth.flags.Flags.leaudioBroadcastSyncSlotScheduler;
 
 import android.annotation.RequiresPermission;
 import android.annotation.SuppressLint;
@@ -105,7 +107,7 @@ import java.util.stream.Collectors;
 /** Broadcast Assistant Scan Service */
 public class BassClientService extends ProfileService {
     private static final String TAG = BassClientService.class.getSimpleName();
-    private static final int MAX_ACTIVE_SYNCED_SOURCES_NUM = 4;
+    private static final int MAX_ACTIVE_SYNCED_SOURCES_NUM = SyncSlotScheduler.MAX_SLOTS;
     private static final int MAX_BIS_DISCOVERY_TRIES_NUM = 5;
 
     private static final int STATUS_LOCAL_STREAM_REQUESTED = 0;
@@ -126,6 +128,7 @@ public class BassClientService extends ProfileService {
     @VisibleForTesting static final int MESSAGE_SYNC_TIMEOUT = 1;
     @VisibleForTesting static final int MESSAGE_BIG_CHECK_START = 2;
     @VisibleForTesting static final int MESSAGE_BIG_CHECK_STOP = 3;
+    @VisibleForTesting static final int MESSAGE_ROTATE_SYNC_SLOTS = 4;
 
     /* 1 minute timeout for primary device reconnection in Private Broadcast case */
     private static final int DIALING_OUT_TIMEOUT_MS = 60000;
@@ -155,12 +158,10 @@ public class BassClientService extends ProfileService {
     private final Object mSearchScanCallbackLock = new Object();
     private final Map<Integer, ScanResult> mCachedBroadcasts = new HashMap<>();
 
-    private final List<Integer> mActiveSyncedSources = new ArrayList<>();
     private final Map<Integer, PeriodicAdvertisingCallback> mPeriodicAdvCallbacksMap =
             new HashMap<>();
     private final PriorityQueue<SourceSyncRequest> mSourceSyncRequestsQueue =
             new PriorityQueue<>(sSourceSyncRequestComparator);
-    private final Map<Integer, Integer> mBisDiscoveryCounterMap = new HashMap<>();
     private final List<AddSourceData> mPendingSourcesToAdd = new ArrayList<>();
 
     private final Map<BluetoothDevice, List<Pair<Integer, Object>>> mPendingGroupOp =
@@ -189,12 +190,8 @@ public class BassClientService extends ProfileService {
     /* This is stored at service so that each device state machine can access
     and use it as needed. Once the periodic sync in cancelled, this data will bre
     removed to ensure stable data won't used */
-    /* syncHandle, broadcastSrcDevice */
-    private Map<Integer, BluetoothDevice> mSyncHandleToDeviceMap = new HashMap<>();
-    /*syncHandle, parsed BaseData data*/
-    private Map<Integer, BaseData> mSyncHandleToBaseDataMap = new HashMap<>();
-    /*syncHandle, broadcast id */
-    private Map<Integer, Integer> mSyncHandleToBroadcastIdMap = new HashMap<>();
+    /* syncHandle: broadcastSrcDevice, broadcast id, parsed BaseData data and sync slot */
+    @VisibleForTesting SyncSlotScheduler mSyncSlots = new SyncSlotScheduler();
     /*bcastSrcDevice, corresponding broadcast id and PeriodicAdvertisementResult*/
     private Map<BluetoothDevice, HashMap<Integer, PeriodicAdvertisementResult>>
             mPeriodicAdvertisementResultMap = new HashMap<>();
@@ -267,6 +264,12 @@ public class BassClientService extends ProfileService {
                                 mHandler.sendMessageDelayed(newMsg, sBigMonitorTimeout.toMillis());
                                 break;
                             }
+                        case MESSAGE_ROTATE_SYNC_SLOTS:
+                            {
+                                log("MESSAGE_ROTATE_SYNC_SLOTS");
+                                handleSelectSourceRequest();
+                                break;
+                            }
                         default:
                             break;
                     }
@@ -285,10 +288,16 @@ public class BassClientService extends ProfileService {
     private static class SourceSyncRequest {
         private ScanResult mScanResult;
         private boolean mHasPriority;
+        private boolean mIsRetry;
 
         SourceSyncRequest(ScanResult scanResult, boolean hasPriority) {
+            this(scanResult, hasPriority, false);
+        }
+
+        SourceSyncRequest(ScanResult scanResult, boolean hasPriority, boolean isRetry) {
             this.mScanResult = scanResult;
             this.mHasPriority = hasPriority;
+            this.mIsRetry = isRetry;
         }
 
         public ScanResult getScanResult() {
@@ -303,6 +312,10 @@ public class BassClientService extends ProfileService {
             return mHasPriority;
         }
 
+        public boolean isRetry() {
+            return mIsRetry;
+        }
+
         @Override
         public String toString() {
             return "SourceSyncRequest{"
@@ -310,6 +323,8 @@ public class BassClientService extends ProfileService {
                     + mScanResult
                     + ", mHasPriority="
                     + mHasPriority
+                    + ", mIsRetry="
+                    + mIsRetry
                     + '}';
         }
     }
@@ -322,6 +337,9 @@ public class BassClientService extends ProfileService {
                         return -1;
                     } else if (!ssr1.hasPriority() && ssr2.hasPriority()) {
                         return 1;
+                    } else if (ssr1.isRetry() != ssr2.isRetry()) {
+                        // Sources that already had a sync slot go after the new ones
+                        return ssr1.isRetry() ? 1 : -1;
                     } else {
                         return Integer.compare(ssr2.getRssi(), ssr1.getRssi());
                     }
@@ -359,7 +377,6 @@ public class BassClientService extends ProfileService {
         log("updatePeriodicAdvertisementResultMap: advInterval: " + advInterval);
         log("updatePeriodicAdvertisementResultMap: broadcastId: " + bId);
         log("updatePeriodicAdvertisementResultMap: broadcastName: " + broadcastName);
-        log("mSyncHandleToDeviceMap" + mSyncHandleToDeviceMap);
         log("mPeriodicAdvertisementResultMap" + mPeriodicAdvertisementResultMap);
         if (mPeriodicAdvertisementResultMap != null) {
             HashMap<Integer, PeriodicAdvertisementResult> paResMap =
@@ -432,9 +449,7 @@ public class BassClientService extends ProfileService {
                     paRes.updateAdvSid(advSid);
                 }
                 if (syncHandle != BassConstants.INVALID_SYNC_HANDLE) {
-                    if (mSyncHandleToDeviceMap != null) {
-                        mSyncHandleToDeviceMap.put(syncHandle, device);
-                    }
+                    mSyncSlots.setDevice(syncHandle, device);
                     paRes.updateSyncHandle(syncHandle);
                     if (paRes.getBroadcastId() != BassConstants.INVALID_BROADCAST_ID) {
                         // broadcast successfully synced
@@ -495,20 +510,12 @@ public class BassClientService extends ProfileService {
     }
 
     void updateBase(int syncHandlemap, BaseData base) {
-        if (mSyncHandleToBaseDataMap == null) {
-            Log.e(TAG, "updateBase: mSyncHandleToBaseDataMap is null");
-            return;
-        }
-        log("updateBase : mSyncHandleToBaseDataMap>>");
-        mSyncHandleToBaseDataMap.put(syncHandlemap, base);
+        log("updateBase : syncHandle " + syncHandlemap);
+        mSyncSlots.setBase(syncHandlemap, base);
     }
 
     BaseData getBase(int syncHandlemap) {
-        if (mSyncHandleToBaseDataMap == null) {
-            Log.e(TAG, "getBase: mSyncHandleToBaseDataMap is null");
-            return null;
-        }
-        BaseData base = mSyncHandleToBaseDataMap.get(syncHandlemap);
+        BaseData base = mSyncSlots.getBase(syncHandlemap);
         log("getBase returns " + base);
         return base;
     }
@@ -610,9 +617,9 @@ public class BassClientService extends ProfileService {
         log("removeActiveSyncedSource, syncHandle: " + syncHandle);
         if (syncHandle == null) {
             // remove all sources
-            mActiveSyncedSources.clear();
+            mSyncSlots.clearActive();
         } else {
-            mActiveSyncedSources.removeIf(e -> e.equals(syncHandle));
+            mSyncSlots.removeActive(syncHandle);
         }
         sEventLogger.logd(TAG, "Broadcast Source Unsynced: syncHandle= " + syncHandle);
     }
@@ -620,16 +627,15 @@ public class BassClientService extends ProfileService {
     void addActiveSyncedSource(Integer syncHandle) {
         log("addActiveSyncedSource, syncHandle: " + syncHandle);
         if (syncHandle != BassConstants.INVALID_SYNC_HANDLE) {
-            if (!mActiveSyncedSources.contains(syncHandle)) {
-                mActiveSyncedSources.add(syncHandle);
-            }
+            mSyncSlots.addActive(syncHandle);
         }
         sEventLogger.logd(TAG, "Broadcast Source Synced: syncHandle= " + syncHandle);
     }
 
     List<Integer> getActiveSyncedSources() {
-        log("getActiveSyncedSources: sources num: " + mActiveSyncedSources.size());
-        return mActiveSyncedSources;
+        List<Integer> activeSyncedSources = mSyncSlots.getActiveSyncHandles();
+        log("getActiveSyncedSources: sources num: " + activeSyncedSources.size());
+        return activeSyncedSources;
     }
 
     ScanResult getCachedBroadcast(int broadcastId) {
@@ -670,15 +676,11 @@ public class BassClientService extends ProfileService {
 
         setBassClientService(this);
         // While removing leaudioBroadcastExtractPeriodicScannerFromStateMachine remove all checks
-        // against null for: mSyncHandleToDeviceMap, mPeriodicAdvertisementResultMap,
-        // mSyncHandleToBaseDataMap, mSyncHandleToBroadcastIdMap as they never be null
+        // against null for mPeriodicAdvertisementResultMap as it is never null
         if (!leaudioBroadcastExtractPeriodicScannerFromStateMachine()) {
             // Saving PSync stuff for future addition
-            mSyncHandleToDeviceMap = new HashMap<Integer, BluetoothDevice>();
             mPeriodicAdvertisementResultMap =
                     new HashMap<BluetoothDevice, HashMap<Integer, PeriodicAdvertisementResult>>();
-            mSyncHandleToBaseDataMap = new HashMap<Integer, BaseData>();
-            mSyncHandleToBroadcastIdMap = new HashMap<Integer, Integer>();
             mSearchScanCallback = null;
         }
     }
@@ -731,10 +733,7 @@ public class BassClientService extends ProfileService {
 
         setBassClientService(null);
         if (!leaudioBroadcastExtractPeriodicScannerFromStateMachine()) {
-            if (mSyncHandleToDeviceMap != null) {
-                mSyncHandleToDeviceMap.clear();
-                mSyncHandleToDeviceMap = null;
-            }
+            mSyncSlots.clear();
             if (mPeriodicAdvertisementResultMap != null) {
                 mPeriodicAdvertisementResultMap.clear();
                 mPeriodicAdvertisementResultMap = null;
@@ -754,14 +753,6 @@ public class BassClientService extends ProfileService {
             if (mBroadcastMetadataMap != null) {
                 mBroadcastMetadataMap.clear();
             }
-            if (mSyncHandleToBroadcastIdMap != null) {
-                mSyncHandleToBroadcastIdMap.clear();
-                mSyncHandleToBroadcastIdMap = null;
-            }
-            if (mSyncHandleToBaseDataMap != null) {
-                mSyncHandleToBaseDataMap.clear();
-                mSyncHandleToBaseDataMap = null;
-            }
         } else {
             synchronized (mSearchScanCallbackLock) {
                 if (mBluetoothLeScannerWrapper != null && mSearchScanCallback != null) {
@@ -780,48 +771,20 @@ public class BassClientService extends ProfileService {
     }
 
     BluetoothDevice getDeviceForSyncHandle(int syncHandle) {
-        if (mSyncHandleToDeviceMap == null) {
-            return null;
-        }
-        return mSyncHandleToDeviceMap.get(syncHandle);
+        return mSyncSlots.getDevice(syncHandle);
     }
 
     int getSyncHandleForBroadcastId(int broadcastId) {
-        if (mSyncHandleToBroadcastIdMap == null) {
-            return BassConstants.INVALID_SYNC_HANDLE;
-        }
-
-        int syncHandle = BassConstants.INVALID_SYNC_HANDLE;
-        for (Map.Entry<Integer, Integer> entry : mSyncHandleToBroadcastIdMap.entrySet()) {
-            Integer value = entry.getValue();
-            if (value == broadcastId) {
-                syncHandle = entry.getKey();
-                break;
-            }
-        }
-        return syncHandle;
+        return mSyncSlots.getSyncHandle(broadcastId);
     }
 
     int getBroadcastIdForSyncHandle(int syncHandle) {
-        if (mSyncHandleToBroadcastIdMap == null) {
-            return BassConstants.INVALID_BROADCAST_ID;
-        }
-
-        if (mSyncHandleToBroadcastIdMap.containsKey(syncHandle)) {
-            return mSyncHandleToBroadcastIdMap.get(syncHandle);
-        }
-        return BassConstants.INVALID_BROADCAST_ID;
+        return mSyncSlots.getBroadcastId(syncHandle);
     }
 
     void updateSyncHandleForBroadcastId(int syncHandle, int broadcastId) {
-        if (mSyncHandleToBroadcastIdMap == null) {
-            Log.e(TAG, "mSyncHandleToBroadcastIdMap is null");
-            return;
-        }
-
-        mSyncHandleToBroadcastIdMap.entrySet().removeIf(entry -> entry.getValue() == broadcastId);
-        mSyncHandleToBroadcastIdMap.put(syncHandle, broadcastId);
-        log("Updated mSyncHandleToBroadcastIdMap: " + mSyncHandleToBroadcastIdMap);
+        mSyncSlots.setBroadcastId(syncHandle, broadcastId);
+        log("Updated broadcast id of syncHandle " + syncHandle + ": " + broadcastId);
     }
 
     private static synchronized void setBassClientService(BassClientService instance) {
@@ -1991,13 +1954,10 @@ public class BassClientService extends ProfileService {
         mPendingSourcesToAdd.clear();
 
         cancelActiveSync(null);
-        mActiveSyncedSources.clear();
         mPeriodicAdvCallbacksMap.clear();
-        mBisDiscoveryCounterMap.clear();
+        mHandler.removeMessages(MESSAGE_ROTATE_SYNC_SLOTS);
 
-        mSyncHandleToDeviceMap.clear();
-        mSyncHandleToBaseDataMap.clear();
-        mSyncHandleToBroadcastIdMap.clear();
+        mSyncSlots.clear();
         mPeriodicAdvertisementResultMap.clear();
     }
 
@@ -2072,7 +2032,15 @@ public class BassClientService extends ProfileService {
                         mPeriodicAdvCallbacksMap.remove(BassConstants.INVALID_SYNC_HANDLE);
                     }
                 }
-                mBisDiscoveryCounterMap.put(syncHandle, MAX_BIS_DISCOVERY_TRIES_NUM);
+                mSyncSlots.setBisDiscoveryTries(syncHandle, MAX_BIS_DISCOVERY_TRIES_NUM);
+                if (leaudioBroadcastSyncSlotScheduler() && getBase(syncHandle) == null) {
+                    // Source synced again after giving up its slot, its BASE is already known.
+                    // It is still refreshed from the first periodic advertising report.
+                    BaseData base = mSyncSlots.getCachedBase(broadcastId);
+                    if (base != null) {
+                        updateBase(syncHandle, base);
+                    }
+                }
 
                 synchronized (mPendingSourcesToAdd) {
                     Iterator<AddSourceData> iterator = mPendingSourcesToAdd.iterator();
@@ -2124,15 +2092,15 @@ public class BassClientService extends ProfileService {
         public void onPeriodicAdvertisingReport(PeriodicAdvertisingReport report) {
             int syncHandle = report.getSyncHandle();
             log("onPeriodicAdvertisingReport " + syncHandle);
-            Integer bisCounter = mBisDiscoveryCounterMap.get(syncHandle);
+            int bisCounter = mSyncSlots.getBisDiscoveryTries(syncHandle);
 
             // Parse the BIS indices from report's service data
-            if (bisCounter != null && bisCounter != 0) {
+            if (bisCounter != 0) {
                 if (parseScanRecord(syncHandle, report.getData())) {
-                    mBisDiscoveryCounterMap.put(syncHandle, 0);
+                    mSyncSlots.setBisDiscoveryTries(syncHandle, 0);
                 } else {
                     bisCounter--;
-                    mBisDiscoveryCounterMap.put(syncHandle, bisCounter);
+                    mSyncSlots.setBisDiscoveryTries(syncHandle, bisCounter);
                     if (bisCounter == 0) {
                         cancelActiveSync(syncHandle);
                     }
@@ -2169,6 +2137,7 @@ public class BassClientService extends ProfileService {
                                     baseData, srcDevice, syncHandle, pbData.isEncrypted());
                     log("Notify broadcast source found");
                     mCallbacks.notifySourceFound(metaData);
+                    onSyncedSourceReported(syncHandle);
                 }
             }
         }
@@ -2224,6 +2193,7 @@ public class BassClientService extends ProfileService {
                                 baseData, srcDevice, syncHandle, encrypted);
                 log("Notify broadcast source found");
                 mCallbacks.notifySourceFound(metaData);
+                onSyncedSourceReported(syncHandle);
             }
             if (mPausedBroadcastIds.containsKey(broadcastId)) {
                 mBigInfoReportExistForBroadcast.add(broadcastId);
@@ -2239,15 +2209,26 @@ public class BassClientService extends ProfileService {
         }
     }
 
+    private void onSyncedSourceReported(int syncHandle) {
+        mSyncSlots.onSourceReported(syncHandle);
+        if (leaudioBroadcastSyncSlotScheduler()) {
+            synchronized (mSourceSyncRequestsQueue) {
+                if (mSourceSyncRequestsQueue.isEmpty()) {
+                    return;
+                }
+            }
+            // The slot of the reported source can go to a source waiting for one
+            mHandler.removeMessages(MESSAGE_ROTATE_SYNC_SLOTS);
+            mHandler.sendEmptyMessage(MESSAGE_ROTATE_SYNC_SLOTS);
+        }
+    }
+
     private void clearAllDataForSyncHandle(Integer syncHandle) {
         removeActiveSyncedSource(syncHandle);
         mPeriodicAdvCallbacksMap.remove(syncHandle);
-        mSyncHandleToBaseDataMap.remove(syncHandle);
-        mBisDiscoveryCounterMap.remove(syncHandle);
         BluetoothDevice srcDevice = getDeviceForSyncHandle(syncHandle);
-        mSyncHandleToDeviceMap.remove(syncHandle);
         int broadcastId = getBroadcastIdForSyncHandle(syncHandle);
-        mSyncHandleToBroadcastIdMap.remove(syncHandle);
+        mSyncSlots.remove(syncHandle);
         if (srcDevice != null) {
             mPeriodicAdvertisementResultMap.get(srcDevice).remove(broadcastId);
             if (mPeriodicAdvertisementResultMap.get(srcDevice).isEmpty()) {
@@ -2402,7 +2383,10 @@ public class BassClientService extends ProfileService {
 
     boolean parseBaseData(int syncHandle, byte[] serviceData) {
         log("parseBaseData" + Arrays.toString(serviceData));
-        BaseData base = BaseData.parseBaseData(serviceData);
+        BaseData base =
+                leaudioBroadcastSyncSlotScheduler()
+                        ? mSyncSlots.parseBase(getBroadcastIdForSyncHandle(syncHandle), serviceData)
+                        : BaseData.parseBaseData(serviceData);
         if (base != null) {
             updateBase(syncHandle, base);
             base.print();
@@ -2414,6 +2398,20 @@ public class BassClientService extends ProfileService {
     }
 
     boolean parseScanRecord(int syncHandle, ScanRecord record) {
+        if (!leaudioBroadcastPeriodicReportCache()) {
+            return parseScanRecordData(syncHandle, record);
+        }
+        byte[] reportData = record.getBytes();
+        if (mSyncSlots.isPayloadUnchanged(syncHandle, reportData)) {
+            // Same train as the last report, parsing it again gives the same result
+            return mSyncSlots.isPayloadParsed(syncHandle);
+        }
+        boolean parsed = parseScanRecordData(syncHandle, record);
+        mSyncSlots.setPayload(syncHandle, reportData, parsed);
+        return parsed;
+    }
+
+    private boolean parseScanRecordData(int syncHandle, ScanRecord record) {
         int broadcastId = getBroadcastIdForSyncHandle(syncHandle);
         log(
                 "parseScanRecord: syncHandle="
@@ -2508,10 +2506,11 @@ public class BassClientService extends ProfileService {
                 mPeriodicAdvCallbacksMap.put(BassConstants.INVALID_SYNC_HANDLE, paCb);
             }
         }
-        ScanResult scanRes;
+        SourceSyncRequest request;
         synchronized (mSourceSyncRequestsQueue) {
-            scanRes = mSourceSyncRequestsQueue.poll().getScanResult();
+            request = mSourceSyncRequestsQueue.poll();
         }
+        ScanResult scanRes = request.getScanResult();
         ScanRecord scanRecord = scanRes.getScanRecord();
 
         sEventLogger.logd(TAG, "Select Broadcast Source, result: " + scanRes);
@@ -2528,7 +2527,10 @@ public class BassClientService extends ProfileService {
             }
             if (listOfUuids.containsKey(BassConstants.PUBLIC_BROADCAST_UUID)) {
                 byte[] pbAnnouncement = listOfUuids.get(BassConstants.PUBLIC_BROADCAST_UUID);
-                pbData = PublicBroadcastData.parsePublicBroadcastData(pbAnnouncement);
+                pbData =
+                        leaudioBroadcastSyncSlotScheduler()
+                                ? mSyncSlots.parsePublicBroadcastData(broadcastId, pbAnnouncement)
+                                : PublicBroadcastData.parsePublicBroadcastData(pbAnnouncement);
             }
         }
 
@@ -2555,7 +2557,21 @@ public class BassClientService extends ProfileService {
         // Check if there are resources for sync
         if (activeSyncedSrc.size() >= MAX_ACTIVE_SYNCED_SOURCES_NUM) {
             log("handleSelectSourceRequest: reached max allowed active source");
-            if (!leaudioBroadcastResyncHelper()) {
+            if (leaudioBroadcastSyncSlotScheduler()) {
+                int syncHandle = mSyncSlots.pickSlotToRotate(this::isAnyReceiverSyncedToBroadcast);
+                if (syncHandle == BassConstants.INVALID_SYNC_HANDLE) {
+                    long delayMs = mSyncSlots.getMillisUntilRotation();
+                    log("handleSelectSourceRequest: wait " + delayMs + "ms for a sync slot");
+                    synchronized (mSourceSyncRequestsQueue) {
+                        mSourceSyncRequestsQueue.add(request);
+                    }
+                    mPeriodicAdvCallbacksMap.remove(BassConstants.INVALID_SYNC_HANDLE);
+                    mHandler.removeMessages(MESSAGE_ROTATE_SYNC_SLOTS);
+                    mHandler.sendEmptyMessageDelayed(MESSAGE_ROTATE_SYNC_SLOTS, delayMs);
+                    return;
+                }
+                rotateSyncSlot(syncHandle);
+            } else if (!leaudioBroadcastResyncHelper()) {
                 int syncHandle = activeSyncedSrc.get(0);
                 // removing the 1st synced source before proceeding to add new
                 cancelActiveSync(syncHandle);
@@ -2604,6 +2620,30 @@ public class BassClientService extends ProfileService {
                 broadcastName);
     }
 
+    /** Give up the sync slot of a source, queueing it again if it wasn't reported yet. */
+    private void rotateSyncSlot(int syncHandle) {
+        int broadcastId = getBroadcastIdForSyncHandle(syncHandle);
+        boolean reported = mSyncSlots.isReported(syncHandle);
+        sEventLogger.logd(
+                TAG,
+                "Rotate sync slot: syncHandle= "
+                        + syncHandle
+                        + ", broadcastId= "
+                        + broadcastId
+                        + ", reported= "
+                        + reported);
+        cancelActiveSync(syncHandle);
+        if (reported || !mSyncSlots.canRetry(broadcastId)) {
+            return;
+        }
+        ScanResult scanRes = getCachedBroadcast(broadcastId);
+        if (scanRes != null) {
+            synchronized (mSourceSyncRequestsQueue) {
+                mSourceSyncRequestsQueue.add(new SourceSyncRequest(scanRes, false, true));
+            }
+        }
+    }
+
     void selectSource(BluetoothDevice sink, ScanResult result, boolean autoTrigger) {
         if (leaudioBroadcastExtractPeriodicScannerFromStateMachine()) {
             throw new RuntimeException(
@@ -4133,6 +4173,9 @@ public class BassClientService extends ProfileService {
             }
         }
 
+        sb.append("\n");
+        mSyncSlots.dump(sb);
+
         sb.append("\n\n");
         sEventLogger.dump(sb);
         sb.append("\n");
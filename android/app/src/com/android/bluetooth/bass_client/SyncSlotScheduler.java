@@ -0,0 +1,514 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.bass_client;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.bluetooth.btservice.ProfileService;
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+import java.util.function.LongSupplier;
+
+/**
+ * State of the periodic advertising syncs of {@link BassClientService}, one record per sync handle.
+ *
+ * <p>The sync handles holding one of the {@link #MAX_SLOTS} sync slots are kept in the order they
+ * were synced. When more broadcast sources wait for a sync than there are slots, {@link
+ * #pickSlotToRotate} hands the slots out in time slices: a source keeps its slot until it has been
+ * reported or for {@link #SLOT_TIME_SLICE_MS}, whichever comes first. Slots used by a receiver are
+ * only given up when every slot is.
+ *
+ * <p>Parsed BASE and public broadcast data are kept per broadcast id, so a source synced again
+ * after giving up its slot isn't parsed again as long as it advertises the same data. Each sync
+ * handle also remembers the last periodic advertising payload it parsed, so repeated reports of an
+ * unchanged train aren't parsed again while looking for the BASE.
+ */
+class SyncSlotScheduler {
+    private static final String TAG = SyncSlotScheduler.class.getSimpleName();
+
+    static final int MAX_SLOTS = 4;
+
+    @VisibleForTesting static final long SLOT_TIME_SLICE_MS = 3000;
+
+    // Slices given to a source that doesn't get reported, before it stops being synced again
+    @VisibleForTesting static final int MAX_SLICES_PER_SOURCE = 2;
+
+    private static final int MAX_CACHED_SOURCES = 64;
+
+    private final LongSupplier mClock;
+
+    @GuardedBy("this")
+    private final Map<Integer, SyncState> mStates = new HashMap<>();
+
+    @GuardedBy("this")
+    private final Map<Integer, Integer> mSyncHandleByBroadcastId = new HashMap<>();
+
+    @GuardedBy("this")
+    private final List<Integer> mActiveSyncHandles = new ArrayList<>();
+
+    @GuardedBy("this")
+    private final Map<Integer, Integer> mSlicesByBroadcastId = new HashMap<>();
+
+    @GuardedBy("this")
+    private final Map<Integer, CachedSource> mCachedSources =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, CachedSource> eldest) {
+                    return size() > MAX_CACHED_SOURCES;
+                }
+            };
+
+    @GuardedBy("this")
+    private long mNextRotationMillis;
+
+    // Metrics, kept for the lifetime of the service
+    private final long mCreatedAtMillis;
+
+    @GuardedBy("this")
+    private long mLastSlotChangeMillis;
+
+    @GuardedBy("this")
+    private long mBusySlotMillis;
+
+    @GuardedBy("this")
+    private long mSyncsEstablished;
+
+    @GuardedBy("this")
+    private long mRotations;
+
+    @GuardedBy("this")
+    private long mDeferredRotations;
+
+    @GuardedBy("this")
+    private long mSourcesReported;
+
+    @GuardedBy("this")
+    private long mTimeToReportMillis;
+
+    @GuardedBy("this")
+    private long mCacheHits;
+
+    @GuardedBy("this")
+    private long mCacheMisses;
+
+    @GuardedBy("this")
+    private long mSkippedReports;
+
+    SyncSlotScheduler() {
+        this(SystemClock::uptimeMillis);
+    }
+
+    @VisibleForTesting
+    SyncSlotScheduler(LongSupplier clock) {
+        mClock = clock;
+        mCreatedAtMillis = clock.getAsLong();
+        mLastSlotChangeMillis = mCreatedAtMillis;
+    }
+
+    synchronized BluetoothDevice getDevice(int syncHandle) {
+        SyncState state = mStates.get(syncHandle);
+        return state != null ? state.mDevice : null;
+    }
+
+    synchronized void setDevice(int syncHandle, BluetoothDevice device) {
+        getOrCreateState(syncHandle).mDevice = device;
+    }
+
+    synchronized int getBroadcastId(int syncHandle) {
+        SyncState state = mStates.get(syncHandle);
+        return state != null ? state.mBroadcastId : BassConstants.INVALID_BROADCAST_ID;
+    }
+
+    synchronized int getSyncHandle(int broadcastId) {
+        Integer syncHandle = mSyncHandleByBroadcastId.get(broadcastId);
+        return syncHandle != null ? syncHandle : BassConstants.INVALID_SYNC_HANDLE;
+    }
+
+    /** Assign a broadcast to a sync handle, taking it away from the handle it was assigned to. */
+    synchronized void setBroadcastId(int syncHandle, int broadcastId) {
+        Integer previousSyncHandle = mSyncHandleByBroadcastId.remove(broadcastId);
+        if (previousSyncHandle != null && previousSyncHandle != syncHandle) {
+            SyncState previous = mStates.get(previousSyncHandle);
+            if (previous != null) {
+                previous.mBroadcastId = BassConstants.INVALID_BROADCAST_ID;
+                removeIfUnused(previous);
+            }
+        }
+        SyncState state = getOrCreateState(syncHandle);
+        if (state.mBroadcastId != BassConstants.INVALID_BROADCAST_ID) {
+            mSyncHandleByBroadcastId.remove(state.mBroadcastId);
+        }
+        state.mBroadcastId = broadcastId;
+        if (broadcastId != BassConstants.INVALID_BROADCAST_ID) {
+            mSyncHandleByBroadcastId.put(broadcastId, syncHandle);
+        }
+    }
+
+    synchronized BaseData getBase(int syncHandle) {
+        SyncState state = mStates.get(syncHandle);
+        return state != null ? state.mBase : null;
+    }
+
+    synchronized void setBase(int syncHandle, BaseData base) {
+        getOrCreateState(syncHandle).mBase = base;
+    }
+
+    /**
+     * Whether a periodic advertising payload is the one last recorded for a sync handle with
+     * {@link #setPayload}. Counted as a skipped report when it is.
+     */
+    synchronized boolean isPayloadUnchanged(int syncHandle, byte[] payload) {
+        SyncState state = mStates.get(syncHandle);
+        if (state == null
+                || state.mPayload == null
+                || payload == null
+                || !Arrays.equals(state.mPayload, payload)) {
+            return false;
+        }
+        mSkippedReports++;
+        return true;
+    }
+
+    /** Record the periodic advertising payload parsed for a sync handle and how it went. */
+    synchronized void setPayload(int syncHandle, byte[] payload, boolean parsed) {
+        SyncState state = getOrCreateState(syncHandle);
+        state.mPayload = payload != null ? payload.clone() : null;
+        state.mPayloadParsed = parsed;
+    }
+
+    /** Whether the last payload recorded for a sync handle could be parsed. */
+    synchronized boolean isPayloadParsed(int syncHandle) {
+        SyncState state = mStates.get(syncHandle);
+        return state != null && state.mPayloadParsed;
+    }
+
+    /** Number of periodic advertising reports left to find the BASE of the source. */
+    synchronized int getBisDiscoveryTries(int syncHandle) {
+        SyncState state = mStates.get(syncHandle);
+        return state != null ? state.mBisDiscoveryTries : 0;
+    }
+
+    synchronized void setBisDiscoveryTries(int syncHandle, int tries) {
+        getOrCreateState(syncHandle).mBisDiscoveryTries = tries;
+    }
+
+    /** Forget everything about a sync handle, including the slot it holds. */
+    synchronized void remove(int syncHandle) {
+        removeActive(syncHandle);
+        SyncState state = mStates.remove(syncHandle);
+        if (state != null && state.mBroadcastId != BassConstants.INVALID_BROADCAST_ID) {
+            mSyncHandleByBroadcastId.remove(state.mBroadcastId);
+        }
+    }
+
+    /** Forget every sync handle and slot. Parsed data and metrics are kept. */
+    synchronized void clear() {
+        clearActive();
+        mStates.clear();
+        mSyncHandleByBroadcastId.clear();
+        mSlicesByBroadcastId.clear();
+    }
+
+    /**
+     * Give a slot to a sync handle.
+     *
+     * @return false if the handle already holds a slot
+     */
+    synchronized boolean addActive(int syncHandle) {
+        if (mActiveSyncHandles.contains(syncHandle)) {
+            return false;
+        }
+        accountSlotTime();
+        mActiveSyncHandles.add(syncHandle);
+        SyncState state = getOrCreateState(syncHandle);
+        state.mSyncedAtMillis = mLastSlotChangeMillis;
+        state.mReported = false;
+        if (state.mBroadcastId != BassConstants.INVALID_BROADCAST_ID) {
+            mSlicesByBroadcastId.merge(state.mBroadcastId, 1, Integer::sum);
+        }
+        mSyncsEstablished++;
+        return true;
+    }
+
+    synchronized void removeActive(int syncHandle) {
+        if (mActiveSyncHandles.contains(syncHandle)) {
+            accountSlotTime();
+            mActiveSyncHandles.remove(Integer.valueOf(syncHandle));
+        }
+    }
+
+    synchronized void clearActive() {
+        accountSlotTime();
+        mActiveSyncHandles.clear();
+    }
+
+    /** Sync handles holding a slot, in the order they were synced. */
+    synchronized List<Integer> getActiveSyncHandles() {
+        return new ArrayList<>(mActiveSyncHandles);
+    }
+
+    /** Record that the source synced on a handle has been reported, so its slot can be reused. */
+    synchronized void onSourceReported(int syncHandle) {
+        SyncState state = mStates.get(syncHandle);
+        if (state == null || state.mReported) {
+            return;
+        }
+        state.mReported = true;
+        if (mActiveSyncHandles.contains(syncHandle)) {
+            mSourcesReported++;
+            mTimeToReportMillis += mClock.getAsLong() - state.mSyncedAtMillis;
+        }
+    }
+
+    synchronized boolean isReported(int syncHandle) {
+        SyncState state = mStates.get(syncHandle);
+        return state != null && state.mReported;
+    }
+
+    /** Whether a source that lost its slot before being reported should get another slice. */
+    synchronized boolean canRetry(int broadcastId) {
+        return mSlicesByBroadcastId.getOrDefault(broadcastId, 0) < MAX_SLICES_PER_SOURCE;
+    }
+
+    /**
+     * Pick the slot to give to a new sync request, when every slot is taken.
+     *
+     * <p>The oldest slot whose source has been reported or whose time slice is over is picked,
+     * skipping slots used by a receiver. If every slot is used by a receiver, the oldest one is
+     * picked since waiting won't free any.
+     *
+     * @param isBroadcastInUse whether a receiver uses the given broadcast id
+     * @return the sync handle to give up, or {@link BassConstants#INVALID_SYNC_HANDLE} if the
+     *     request has to wait {@link #getMillisUntilRotation} for a slot
+     */
+    synchronized int pickSlotToRotate(IntPredicate isBroadcastInUse) {
+        if (mActiveSyncHandles.isEmpty()) {
+            return BassConstants.INVALID_SYNC_HANDLE;
+        }
+        long now = mClock.getAsLong();
+        long nextRotation = Long.MAX_VALUE;
+        for (int syncHandle : mActiveSyncHandles) {
+            SyncState state = mStates.get(syncHandle);
+            if (isBroadcastInUse.test(state.mBroadcastId)) {
+                continue;
+            }
+            long sliceEnd = state.mSyncedAtMillis + SLOT_TIME_SLICE_MS;
+            if (state.mReported || sliceEnd <= now) {
+                mRotations++;
+                return syncHandle;
+            }
+            nextRotation = Math.min(nextRotation, sliceEnd);
+        }
+        if (nextRotation != Long.MAX_VALUE) {
+            mNextRotationMillis = nextRotation;
+            mDeferredRotations++;
+            return BassConstants.INVALID_SYNC_HANDLE;
+        }
+        mRotations++;
+        return mActiveSyncHandles.get(0);
+    }
+
+    /** Time until the earliest time slice ends, after {@link #pickSlotToRotate} deferred. */
+    synchronized long getMillisUntilRotation() {
+        return Math.max(0, mNextRotationMillis - mClock.getAsLong());
+    }
+
+    /**
+     * Parse the BASE of a source, reusing the last result for the broadcast if the data didn't
+     * change.
+     *
+     * @return the parsed BASE, or null if it can't be parsed
+     */
+    synchronized BaseData parseBase(int broadcastId, byte[] serviceData) {
+        CachedSource cached = mCachedSources.get(broadcastId);
+        if (cached != null
+                && cached.mBase != null
+                && Arrays.equals(cached.mBaseBytes, serviceData)) {
+            mCacheHits++;
+            return cached.mBase;
+        }
+        mCacheMisses++;
+        BaseData base = BaseData.parseBaseData(serviceData);
+        if (base != null && broadcastId != BassConstants.INVALID_BROADCAST_ID) {
+            cached = getOrCreateCachedSource(broadcastId);
+            cached.mBaseBytes = serviceData.clone();
+            cached.mBase = base;
+        }
+        return base;
+    }
+
+    /** Last BASE parsed for a broadcast, or null if it never was. */
+    synchronized BaseData getCachedBase(int broadcastId) {
+        CachedSource cached = mCachedSources.get(broadcastId);
+        return cached != null ? cached.mBase : null;
+    }
+
+    /**
+     * Parse the public broadcast announcement of a source, reusing the last result for the
+     * broadcast if the data didn't change.
+     *
+     * @return the parsed announcement, or null if it can't be parsed
+     */
+    synchronized PublicBroadcastData parsePublicBroadcastData(int broadcastId, byte[] serviceData) {
+        CachedSource cached = mCachedSources.get(broadcastId);
+        if (cached != null
+                && cached.mPublicBroadcastData != null
+                && Arrays.equals(cached.mPublicBroadcastBytes, serviceData)) {
+            mCacheHits++;
+            return cached.mPublicBroadcastData;
+        }
+        mCacheMisses++;
+        PublicBroadcastData data = PublicBroadcastData.parsePublicBroadcastData(serviceData);
+        if (data != null && broadcastId != BassConstants.INVALID_BROADCAST_ID) {
+            cached = getOrCreateCachedSource(broadcastId);
+            cached.mPublicBroadcastBytes = serviceData.clone();
+            cached.mPublicBroadcastData = data;
+        }
+        return data;
+    }
+
+    /** Share of the slot time used since the service started, in percent. */
+    synchronized int getSlotUtilizationPercent() {
+        long now = mClock.getAsLong();
+        long elapsed = (now - mCreatedAtMillis) * MAX_SLOTS;
+        if (elapsed <= 0) {
+            return 0;
+        }
+        long busy = mBusySlotMillis + (now - mLastSlotChangeMillis) * mActiveSyncHandles.size();
+        return (int) (busy * 100 / elapsed);
+    }
+
+    synchronized long getRotations() {
+        return mRotations;
+    }
+
+    synchronized long getDeferredRotations() {
+        return mDeferredRotations;
+    }
+
+    synchronized long getSkippedReports() {
+        return mSkippedReports;
+    }
+
+    synchronized void dump(StringBuilder sb) {
+        sb.append("Periodic sync slots:\n");
+        ProfileService.println(sb, "active: " + mActiveSyncHandles + " of " + MAX_SLOTS);
+        for (SyncState state : mStates.values()) {
+            ProfileService.println(sb, "  " + state);
+        }
+        ProfileService.println(sb, "utilization: " + getSlotUtilizationPercent() + "%");
+        ProfileService.println(
+                sb,
+                "syncs: "
+                        + mSyncsEstablished
+                        + ", rotations: "
+                        + mRotations
+                        + ", deferred rotations: "
+                        + mDeferredRotations);
+        ProfileService.println(
+                sb,
+                "sources reported: "
+                        + mSourcesReported
+                        + ", average time to report: "
+                        + (mSourcesReported > 0 ? mTimeToReportMillis / mSourcesReported : 0)
+                        + "ms");
+        ProfileService.println(
+                sb,
+                "cached sources: "
+                        + mCachedSources.size()
+                        + ", parse cache hits: "
+                        + mCacheHits
+                        + ", misses: "
+                        + mCacheMisses);
+        ProfileService.println(sb, "unchanged reports skipped: " + mSkippedReports);
+    }
+
+    @GuardedBy("this")
+    private SyncState getOrCreateState(int syncHandle) {
+        return mStates.computeIfAbsent(syncHandle, SyncState::new);
+    }
+
+    @GuardedBy("this")
+    private CachedSource getOrCreateCachedSource(int broadcastId) {
+        return mCachedSources.computeIfAbsent(broadcastId, unused -> new CachedSource());
+    }
+
+    @GuardedBy("this")
+    private void removeIfUnused(SyncState state) {
+        if (state.mDevice == null
+                && state.mBase == null
+                && state.mBroadcastId == BassConstants.INVALID_BROADCAST_ID
+                && !mActiveSyncHandles.contains(state.mSyncHandle)) {
+            Log.v(TAG, "Dropping unused sync handle " + state.mSyncHandle);
+            mStates.remove(state.mSyncHandle);
+        }
+    }
+
+    @GuardedBy("this")
+    private void accountSlotTime() {
+        long now = mClock.getAsLong();
+        mBusySlotMillis += (now - mLastSlotChangeMillis) * mActiveSyncHandles.size();
+        mLastSlotChangeMillis = now;
+    }
+
+    private static final class SyncState {
+        final int mSyncHandle;
+        BluetoothDevice mDevice;
+        int mBroadcastId = BassConstants.INVALID_BROADCAST_ID;
+        BaseData mBase;
+        int mBisDiscoveryTries;
+        long mSyncedAtMillis;
+        boolean mReported;
+        byte[] mPayload;
+        boolean mPayloadParsed;
+
+        SyncState(int syncHandle) {
+            mSyncHandle = syncHandle;
+        }
+
+        @Override
+        public String toString() {
+            return "syncHandle="
+                    + mSyncHandle
+                    + " broadcastId="
+                    + mBroadcastId
+                    + " device="
+                    + mDevice
+                    + " hasBase="
+                    + (mBase != null)
+                    + " reported="
+                    + mReported;
+        }
+    }
+
+    private static final class CachedSource {
+        byte[] mBaseBytes;
+        BaseData mBase;
+        byte[] mPublicBroadcastBytes;
+        PublicBroadcastData mPublicBroadcastData;
+    }
+}
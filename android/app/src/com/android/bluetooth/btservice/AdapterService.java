@@ -56,6 +56,7 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothAdapter.ActiveDeviceProfile;
 import android.bluetooth.BluetoothAdapter.ActiveDeviceUse;
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothDeviceSnapshot;
 import android.bluetooth.BluetoothFrameworkInitializer;
 import android.bluetooth.BluetoothMap;
 import android.bluetooth.BluetoothProfile;
@@ -70,6 +71,7 @@ import android.bluetooth.BluetoothUtils;
 import android.bluetooth.BluetoothUuid;
 import android.bluetooth.BufferConstraints;
 import android.bluetooth.IBluetooth;
+import android.bluetooth.IBluetoothActiveDeviceCallback;
 import android.bluetooth.IBluetoothActivityEnergyInfoListener;
 import android.bluetooth.IBluetoothCallback;
 import android.bluetooth.IBluetoothConnectionCallback;
@@ -153,6 +155,7 @@ import com.android.bluetooth.sap.SapService;
 import com.android.bluetooth.sdp.SdpManager;
 import com.android.bluetooth.tbs.TbsService;
 import com.android.bluetooth.telephony.BluetoothInCallService;
+import com.android.bluetooth.util.AddressCodec;
 import com.android.bluetooth.vc.VolumeControlService;
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
@@ -162,7 +165,6 @@ import com.android.modules.utils.BytesMatcher;
 
 import libcore.util.SneakyThrow;
 
-import com.google.common.base.Ascii;
 import com.google.common.collect.EvictingQueue;
 import com.google.protobuf.InvalidProtocolBufferException;
 
@@ -285,6 +287,8 @@ public class AdapterService extends Service {
     /* TODO: Consider to remove the search API from this class, if changed to use call-back */
     private SdpManager mSdpManager = null;
 
+    private StateMachineLanes mStateMachineLanes = null;
+
     private boolean mNativeAvailable;
     private boolean mCleaningUp;
     private boolean mQuietmode = false;
@@ -751,6 +755,10 @@ public class AdapterService extends Service {
 
         mSilenceDeviceManager.start();
 
+        if (Flags.sharedStateMachineLanes()) {
+            mStateMachineLanes = new StateMachineLanes();
+        }
+
         mBtCompanionManager = new CompanionManager(this, new ServiceFactory());
 
         mBluetoothSocketManagerBinder = new BluetoothSocketManagerBinder(this);
@@ -1468,6 +1476,7 @@ public class AdapterService extends Service {
         if (mRemoteDevices != null) {
             mRemoteDevices.reset();
         }
+        AddressCodec.clearCaches();
 
         if (mSdpManager != null) {
             mSdpManager.cleanup();
@@ -1499,6 +1508,11 @@ public class AdapterService extends Service {
 
         mSilenceDeviceManager.cleanup();
 
+        if (mStateMachineLanes != null) {
+            mStateMachineLanes.quit();
+            mStateMachineLanes = null;
+        }
+
         if (mActiveDeviceManager != null) {
             mActiveDeviceManager.cleanup();
         }
@@ -2267,6 +2281,9 @@ public class AdapterService extends Service {
     /** Update Adapter Properties when BT profiles connection state changes. */
     public void updateProfileConnectionAdapterProperties(
             BluetoothDevice device, int profile, int state, int prevState) {
+        if (Flags.remoteDeviceSnapshot()) {
+            mRemoteDevices.setProfileConnectionState(device, profile, state);
+        }
         mHandler.post(
                 () ->
                         mAdapterProperties.updateOnProfileConnectionChanged(
@@ -2534,6 +2551,23 @@ public class AdapterService extends Service {
             return service.startDiscovery(source);
         }
 
+        @Override
+        public boolean startBatchedDiscovery(AttributionSource source) {
+            AdapterService service = getService();
+            if (service == null
+                    || !callerIsSystemOrActiveOrManagedUser(
+                            service, TAG, "startBatchedDiscovery")) {
+                return false;
+            }
+
+            if (!Utils.checkScanPermissionForDataDelivery(service, source, "Starting discovery.")) {
+                return false;
+            }
+
+            Log.i(TAG, "startBatchedDiscovery: from " + Utils.getUidPidString());
+            return service.startDiscovery(source, true);
+        }
+
         @Override
         public boolean cancelDiscovery(AttributionSource source) {
             AdapterService service = getService();
@@ -2590,6 +2624,26 @@ public class AdapterService extends Service {
             return service.mDatabaseManager.getMostRecentlyConnectedDevices();
         }
 
+        @Override
+        public BluetoothDeviceSnapshot getRemoteDeviceSnapshot(
+                int properties, long knownGeneration, AttributionSource source) {
+            // don't check caller, may be called from system UI
+            AdapterService service = getService();
+            if (service == null
+                    || !Utils.checkConnectPermissionForDataDelivery(
+                            service, source, "AdapterService getRemoteDeviceSnapshot")) {
+                return new BluetoothDeviceSnapshot(-1, properties, Collections.emptyList());
+            }
+
+            service.enforceCallingOrSelfPermission(BLUETOOTH_PRIVILEGED, null);
+
+            if (knownGeneration == service.mRemoteDevices.getSnapshotGeneration()) {
+                // Let the caller reuse its snapshot instead of sending it back over binder
+                return null;
+            }
+            return service.mRemoteDevices.getDeviceSnapshot(properties);
+        }
+
         @Override
         public List<BluetoothDevice> getBondedDevices(AttributionSource source) {
             // don't check caller, may be called from system UI
@@ -2878,6 +2932,56 @@ public class AdapterService extends Service {
             return service.setActiveDevice(device, profiles);
         }
 
+        @Override
+        public void setActiveDeviceAsync(
+                BluetoothDevice device,
+                @ActiveDeviceUse int profiles,
+                IBluetoothActiveDeviceCallback callback,
+                AttributionSource source) {
+            AdapterService service = getService();
+            if (service == null
+                    || !callerIsSystemOrActiveOrManagedUser(service, TAG, "setActiveDeviceAsync")) {
+                sendActiveDeviceResult(callback, BluetoothStatusCodes.ERROR_BLUETOOTH_NOT_ALLOWED);
+                return;
+            }
+            if (!Utils.checkConnectPermissionForDataDelivery(service, source, TAG)) {
+                sendActiveDeviceResult(
+                        callback, BluetoothStatusCodes.ERROR_MISSING_BLUETOOTH_CONNECT_PERMISSION);
+                return;
+            }
+
+            service.enforceCallingOrSelfPermission(MODIFY_PHONE_STATE, null);
+            service.enforceCallingOrSelfPermission(BLUETOOTH_PRIVILEGED, null);
+
+            Log.i(
+                    TAG,
+                    "setActiveDeviceAsync: device="
+                            + device
+                            + ", profiles="
+                            + profiles
+                            + ", from "
+                            + Utils.getUidPidString());
+
+            service.setActiveDeviceAsync(device, profiles)
+                    .whenComplete(
+                            (status, e) -> {
+                                if (e != null) {
+                                    Log.e(TAG, "setActiveDeviceAsync: failed", e);
+                                    status = BluetoothStatusCodes.ERROR_UNKNOWN;
+                                }
+                                sendActiveDeviceResult(callback, status);
+                            });
+        }
+
+        private static void sendActiveDeviceResult(
+                IBluetoothActiveDeviceCallback callback, int status) {
+            try {
+                callback.onActiveDeviceSet(status);
+            } catch (RemoteException e) {
+                Log.e(TAG, "onActiveDeviceSet: RemoteException", e);
+            }
+        }
+
         @Override
         public List<BluetoothDevice> getActiveDevices(
                 @ActiveDeviceProfile int profile, AttributionSource source) {
@@ -4707,6 +4811,16 @@ public class AdapterService extends Service {
     }
 
     boolean startDiscovery(AttributionSource source) {
+        return startDiscovery(source, false);
+    }
+
+    /**
+     * Start discovery on behalf of the calling package.
+     *
+     * @param batched whether the package receives the found devices with {@link
+     *     BluetoothDevice#ACTION_FOUND_BATCH} instead of {@link BluetoothDevice#ACTION_FOUND}
+     */
+    boolean startDiscovery(AttributionSource source, boolean batched) {
         UserHandle callingUser = Binder.getCallingUserHandle();
         Log.d(TAG, "startDiscovery");
         String callingPackage = source.getPackageName();
@@ -4735,7 +4849,8 @@ public class AdapterService extends Service {
 
         synchronized (mDiscoveringPackages) {
             mDiscoveringPackages.add(
-                    new DiscoveringPackage(callingPackage, permission, hasDisavowedLocation));
+                    new DiscoveringPackage(
+                            callingPackage, permission, hasDisavowedLocation, batched));
         }
         return mNativeInterface.startDiscovery();
     }
@@ -4758,6 +4873,15 @@ public class AdapterService extends Service {
         return mDatabaseManager;
     }
 
+    /**
+     * Get the threads shared by the profile state machines
+     *
+     * @return {@link StateMachineLanes} or null if profiles must use their own threads
+     */
+    public StateMachineLanes getStateMachineLanes() {
+        return mStateMachineLanes;
+    }
+
     public byte[] getByteIdentityAddress(BluetoothDevice device) {
         DeviceProperties deviceProp = mRemoteDevices.getDeviceProperties(device);
         if (deviceProp != null && deviceProp.getIdentityAddress() != null) {
@@ -4775,14 +4899,13 @@ public class AdapterService extends Service {
     public BluetoothDevice getDeviceFromByte(byte[] address) {
         BluetoothDevice device = mRemoteDevices.getDevice(address);
         if (device == null) {
-            device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+            device = AddressCodec.getDevice(address);
         }
         return device;
     }
 
     public String getIdentityAddress(String address) {
-        BluetoothDevice device =
-                BluetoothAdapter.getDefaultAdapter().getRemoteDevice(Ascii.toUpperCase(address));
+        BluetoothDevice device = AddressCodec.getDevice(address);
         DeviceProperties deviceProp = mRemoteDevices.getDeviceProperties(device);
         if (deviceProp != null && deviceProp.getIdentityAddress() != null) {
             return deviceProp.getIdentityAddress();
@@ -5151,6 +5274,76 @@ public class AdapterService extends Service {
         return true;
     }
 
+    /**
+     * Set the active device without blocking the caller on the audio routing.
+     *
+     * <p>With audio routing centralization, a single profile is handed to the {@link
+     * AudioRoutingManager}, which activates the related profiles of the device itself and coalesces
+     * the activations of devices of the same group. Otherwise the profile services set their
+     * active device directly and the result is immediate.
+     *
+     * @return a future completed with a {@link BluetoothStatusCodes} value
+     */
+    public CompletableFuture<Integer> setActiveDeviceAsync(
+            BluetoothDevice device, @ActiveDeviceUse int profiles) {
+        if (getState() != BluetoothAdapter.STATE_ON) {
+            Log.e(TAG, "setActiveDeviceAsync: Bluetooth is not enabled");
+            return CompletableFuture.completedFuture(
+                    BluetoothStatusCodes.ERROR_BLUETOOTH_NOT_ENABLED);
+        }
+        if (device == null
+                || (profiles != BluetoothAdapter.ACTIVE_DEVICE_AUDIO
+                        && profiles != BluetoothAdapter.ACTIVE_DEVICE_PHONE_CALL
+                        && profiles != BluetoothAdapter.ACTIVE_DEVICE_ALL)) {
+            return CompletableFuture.completedFuture(BluetoothStatusCodes.ERROR_BAD_PARAMETERS);
+        }
+        if (!Flags.audioRoutingCentralization()
+                || !(mActiveDeviceManager instanceof AudioRoutingManager)) {
+            return CompletableFuture.completedFuture(
+                    setActiveDevice(device, profiles)
+                            ? BluetoothStatusCodes.SUCCESS
+                            : BluetoothStatusCodes.ERROR_UNKNOWN);
+        }
+
+        int profile;
+        if (mLeAudioService != null
+                && mLeAudioService.getConnectionPolicy(device)
+                        == BluetoothProfile.CONNECTION_POLICY_ALLOWED) {
+            profile = BluetoothProfile.LE_AUDIO;
+        } else if (mHearingAidService != null
+                && mHearingAidService.getConnectionPolicy(device)
+                        == BluetoothProfile.CONNECTION_POLICY_ALLOWED) {
+            profile = BluetoothProfile.HEARING_AID;
+        } else if (profiles != BluetoothAdapter.ACTIVE_DEVICE_PHONE_CALL
+                && mA2dpService != null
+                && mA2dpService.getConnectionPolicy(device)
+                        == BluetoothProfile.CONNECTION_POLICY_ALLOWED) {
+            profile = BluetoothProfile.A2DP;
+        } else if (profiles != BluetoothAdapter.ACTIVE_DEVICE_AUDIO
+                && mHeadsetService != null
+                && mHeadsetService.getConnectionPolicy(device)
+                        == BluetoothProfile.CONNECTION_POLICY_ALLOWED) {
+            profile = BluetoothProfile.HEADSET;
+        } else {
+            Log.w(TAG, "setActiveDeviceAsync: No audio profile allowed for " + device);
+            return CompletableFuture.completedFuture(
+                    BluetoothStatusCodes.ERROR_PROFILE_NOT_CONNECTED);
+        }
+        Log.i(
+                TAG,
+                "setActiveDeviceAsync: Activating "
+                        + BluetoothProfile.getProfileName(profile)
+                        + " for "
+                        + device);
+        return ((AudioRoutingManager) mActiveDeviceManager)
+                .activateDeviceProfile(device, profile)
+                .thenApply(
+                        activated ->
+                                activated
+                                        ? BluetoothStatusCodes.SUCCESS
+                                        : BluetoothStatusCodes.ERROR_UNKNOWN);
+    }
+
     /**
      * Checks if all supported classic audio profiles are active on this LE Audio device.
      *
@@ -5791,6 +5984,11 @@ public class AdapterService extends Service {
         return mAdapterProperties.getLeMaximumAdvertisingDataLength();
     }
 
+    /** Number of advertising sets supported by the controller. */
+    public int getNumOfAdvertisementInstancesSupported() {
+        return mAdapterProperties.getNumOfAdvertisementInstancesSupported();
+    }
+
     /**
      * Get the maximum number of connected audio devices.
      *
@@ -6374,6 +6572,9 @@ public class AdapterService extends Service {
         }
         mSilenceDeviceManager.dump(fd, writer, args);
         mDatabaseManager.dump(writer);
+        if (mStateMachineLanes != null) {
+            mStateMachineLanes.dump(writer);
+        }
 
         writer.write(sb.toString());
         writer.flush();
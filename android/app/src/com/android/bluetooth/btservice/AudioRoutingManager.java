@@ -41,6 +41,7 @@ import com.android.bluetooth.BluetoothMethodProxy;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.a2dp.A2dpService;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
+import com.android.bluetooth.flags.Flags;
 import com.android.bluetooth.hearingaid.HearingAidService;
 import com.android.bluetooth.hfp.HeadsetService;
 import com.android.bluetooth.le_audio.LeAudioService;
@@ -102,6 +103,10 @@ public class AudioRoutingManager extends ActiveDeviceManager {
     public CompletableFuture<Boolean> activateDeviceProfile(BluetoothDevice device, int profile) {
         CompletableFuture<Boolean> future = new CompletableFuture<>();
 
+        if (Flags.asyncActiveDeviceActivation()) {
+            mHandler.post(() -> mHandler.requestActivation(device, profile, future));
+            return future;
+        }
         mHandler.post(
                 () ->
                         future.complete(
@@ -242,6 +247,8 @@ public class AudioRoutingManager extends ActiveDeviceManager {
         private final ArrayMap<BluetoothDevice, AudioRoutingDevice> mConnectedDevices =
                 new ArrayMap<>();
         private final SparseArray<List<BluetoothDevice>> mActiveDevices = new SparseArray<>();
+        private final ArrayMap<ActivationKey, PendingActivation> mPendingActivations =
+                new ArrayMap<>();
         private int mAudioMode;
 
         AudioRoutingHandler(Looper looper) {
@@ -407,6 +414,79 @@ public class AudioRoutingManager extends ActiveDeviceManager {
             }
         }
 
+        /**
+         * Queue the activation of a profile, joining the one already queued for the same group.
+         *
+         * <p>Activating any device of an LE Audio group or of a hearing aid pair activates the
+         * whole group, so requests for members of a group that arrive before the queued activation
+         * ran are done once, for the device requested last, and complete with the same result.
+         */
+        void requestActivation(
+                BluetoothDevice device, int profile, CompletableFuture<Boolean> future) {
+            ActivationKey key = new ActivationKey(profile, getActivationGroup(device, profile));
+            PendingActivation pending = mPendingActivations.get(key);
+            if (pending != null) {
+                Log.d(
+                        TAG,
+                        "requestActivation: "
+                                + device
+                                + " joins the queued activation of "
+                                + pending.mDevice
+                                + " for "
+                                + BluetoothProfile.getProfileName(profile));
+                pending.mDevice = device;
+                pending.mFutures.add(future);
+                return;
+            }
+            pending = new PendingActivation(device);
+            pending.mFutures.add(future);
+            mPendingActivations.put(key, pending);
+            post(() -> runActivation(key));
+        }
+
+        private void runActivation(ActivationKey key) {
+            PendingActivation pending = mPendingActivations.remove(key);
+            if (pending == null) {
+                // Failed by resetState
+                return;
+            }
+            boolean result =
+                    activateDeviceProfile(getAudioRoutingDevice(pending.mDevice), key.mProfile);
+            for (CompletableFuture<Boolean> future : pending.mFutures) {
+                future.complete(result);
+            }
+        }
+
+        private Object getActivationGroup(BluetoothDevice device, int profile) {
+            switch (profile) {
+                case BluetoothProfile.LE_AUDIO:
+                    {
+                        final LeAudioService leAudioService = mFactory.getLeAudioService();
+                        if (leAudioService == null) {
+                            break;
+                        }
+                        int groupId = leAudioService.getGroupId(device);
+                        if (groupId != LE_AUDIO_GROUP_ID_INVALID) {
+                            return groupId;
+                        }
+                        break;
+                    }
+                case BluetoothProfile.HEARING_AID:
+                    {
+                        final HearingAidService hearingAidService = mFactory.getHearingAidService();
+                        if (hearingAidService == null) {
+                            break;
+                        }
+                        long hiSyncId = hearingAidService.getHiSyncId(device);
+                        if (hiSyncId != BluetoothHearingAid.HI_SYNC_ID_INVALID) {
+                            return hiSyncId;
+                        }
+                        break;
+                    }
+            }
+            return device;
+        }
+
         // TODO: handle the connection policy change events.
         private AudioRoutingDevice getAudioRoutingDevice(@NonNull BluetoothDevice device) {
             Objects.requireNonNull(device);
@@ -744,6 +824,49 @@ public class AudioRoutingManager extends ActiveDeviceManager {
         private void resetState() {
             mConnectedDevices.clear();
             mActiveDevices.clear();
+            for (int i = 0; i < mPendingActivations.size(); i++) {
+                for (CompletableFuture<Boolean> future : mPendingActivations.valueAt(i).mFutures) {
+                    future.complete(false);
+                }
+            }
+            mPendingActivations.clear();
+        }
+
+        private static final class ActivationKey {
+            final int mProfile;
+            // LE Audio group id, hearing aid HiSyncId, or the device itself
+            final Object mGroup;
+
+            ActivationKey(int profile, Object group) {
+                mProfile = profile;
+                mGroup = group;
+            }
+
+            @Override
+            public int hashCode() {
+                return Objects.hash(mProfile, mGroup);
+            }
+
+            @Override
+            public boolean equals(Object obj) {
+                if (this == obj) {
+                    return true;
+                }
+                if (!(obj instanceof ActivationKey)) {
+                    return false;
+                }
+                ActivationKey other = (ActivationKey) obj;
+                return mProfile == other.mProfile && mGroup.equals(other.mGroup);
+            }
+        }
+
+        private static final class PendingActivation {
+            BluetoothDevice mDevice;
+            final List<CompletableFuture<Boolean>> mFutures = new ArrayList<>();
+
+            PendingActivation(BluetoothDevice device) {
+                mDevice = device;
+            }
         }
 
         private static class AudioRoutingDevice {
@@ -16,6 +16,8 @@
 
 package com.android.bluetooth.btservice;
 
+import static android.Manifest.permission.BLUETOOTH_SCAN;
+
 import android.annotation.NonNull;
 import android.annotation.Nullable;
 
@@ -23,14 +25,29 @@ final class DiscoveringPackage {
     private @NonNull String mPackageName;
     private @Nullable String mPermission;
     private boolean mHasDisavowedLocation;
+    private boolean mBatched;
+    private @NonNull String[] mBroadcastPermissions;
 
     DiscoveringPackage(
             @NonNull String packageName,
             @Nullable String permission,
             boolean hasDisavowedLocation) {
+        this(packageName, permission, hasDisavowedLocation, false);
+    }
+
+    DiscoveringPackage(
+            @NonNull String packageName,
+            @Nullable String permission,
+            boolean hasDisavowedLocation,
+            boolean batched) {
         mPackageName = packageName;
         mPermission = permission;
         mHasDisavowedLocation = hasDisavowedLocation;
+        mBatched = batched;
+        mBroadcastPermissions =
+                permission == null
+                        ? new String[] {BLUETOOTH_SCAN}
+                        : new String[] {BLUETOOTH_SCAN, permission};
     }
 
     public @NonNull String getPackageName() {
@@ -44,4 +61,14 @@ final class DiscoveringPackage {
     public boolean hasDisavowedLocation() {
         return mHasDisavowedLocation;
     }
+
+    /** Whether found devices are delivered to this package in batches. */
+    public boolean isBatched() {
+        return mBatched;
+    }
+
+    /** Permissions the receiver must hold to get the discovery results of this package. */
+    public @NonNull String[] getBroadcastPermissions() {
+        return mBroadcastPermissions;
+    }
 }
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.android.bluetooth.Utils;
+import com.android.bluetooth.flags.Flags;
+import com.android.bluetooth.util.AddressCodec;
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * Delivers the devices found during discovery to the packages that started it.
+ *
+ * <p>Inquiry reports the same device many times in a discovery session, mostly with only a new
+ * RSSI. A result identical to the one delivered for the same device less than {@link
+ * #DEDUPE_WINDOW_MS} ago is dropped. Packages that started a batched discovery receive the results
+ * with {@link BluetoothDevice#ACTION_FOUND_BATCH}, at most every {@link #BATCH_INTERVAL_MS}.
+ *
+ * <p>Decisions that don't change during a discovery session, such as the restriction on unnamed
+ * devices and the permissions required by each package, are only computed once per session.
+ */
+class DiscoveryDispatcher {
+    private static final String TAG = "BluetoothDiscoveryDispatcher";
+
+    private static final String RESTRICT_DISCOVERED_DEVICE_PROPERTY =
+            "bluetooth.restrict_discovered_device.enabled";
+
+    @VisibleForTesting static final long DEDUPE_WINDOW_MS = 1000;
+    @VisibleForTesting static final long BATCH_INTERVAL_MS = 500;
+    @VisibleForTesting static final int MAX_BATCH_SIZE = 32;
+
+    // Bound on the number of devices remembered for deduplication in a session
+    private static final int MAX_TRACKED_DEVICES = 512;
+
+    private final AdapterService mAdapterService;
+    private final Handler mHandler;
+    private final Predicate<BluetoothDevice> mLocationDenylistPredicate;
+    private final Runnable mFlushRunnable = this::flushBatches;
+
+    @GuardedBy("this")
+    private final RemoteDeviceTable<Delivery> mDeliveries =
+            new RemoteDeviceTable<>(MAX_TRACKED_DEVICES);
+
+    @GuardedBy("this")
+    private final Map<DiscoveringPackage, ArrayList<Bundle>> mBatches = new IdentityHashMap<>();
+
+    @GuardedBy("this")
+    private Boolean mRestrictUnnamedDevices;
+
+    @GuardedBy("this")
+    private boolean mFlushScheduled;
+
+    DiscoveryDispatcher(
+            AdapterService service,
+            Handler handler,
+            Predicate<BluetoothDevice> locationDenylistPredicate) {
+        mAdapterService = service;
+        mHandler = handler;
+        mLocationDenylistPredicate = locationDenylistPredicate;
+    }
+
+    /** Start a new discovery session: forget the results delivered in the previous one. */
+    synchronized void onDiscoveryStarted() {
+        mDeliveries.clear();
+        mRestrictUnnamedDevices = null;
+    }
+
+    /** End the discovery session, delivering the pending batches. */
+    synchronized void onDiscoveryStopped() {
+        flushBatches();
+        mDeliveries.clear();
+        mRestrictUnnamedDevices = null;
+    }
+
+    /** Drop the pending batches and the session state without delivering anything. */
+    synchronized void reset() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        mFlushScheduled = false;
+        mBatches.clear();
+        mDeliveries.clear();
+        mRestrictUnnamedDevices = null;
+    }
+
+    /** Deliver a device found during discovery to every discovering package. */
+    synchronized void onDeviceFound(
+            BluetoothDevice device,
+            String name,
+            int bluetoothClass,
+            short rssi,
+            boolean isCoordinatedSetMember) {
+        if (restrictUnnamedDevices() && TextUtils.isEmpty(name)) {
+            Log.w(TAG, "onDeviceFound: Device name is null or empty: " + device);
+            return;
+        }
+        if (Flags.coalescedDiscoveryDelivery()
+                && isDuplicate(device, name, bluetoothClass, isCoordinatedSetMember)) {
+            Log.v(TAG, "onDeviceFound: Skipping repeated result for " + device);
+            return;
+        }
+
+        Log.i(TAG, "onDeviceFound: Remote Address is:" + device);
+        Bundle extras = new Bundle();
+        extras.putParcelable(BluetoothDevice.EXTRA_DEVICE, device);
+        extras.putParcelable(BluetoothDevice.EXTRA_CLASS, new BluetoothClass(bluetoothClass));
+        extras.putShort(BluetoothDevice.EXTRA_RSSI, rssi);
+        extras.putString(BluetoothDevice.EXTRA_NAME, name);
+        extras.putBoolean(BluetoothDevice.EXTRA_IS_COORDINATED_SET_MEMBER, isCoordinatedSetMember);
+
+        Intent intent = null;
+        Boolean denylisted = null;
+        final List<DiscoveringPackage> packages = mAdapterService.getDiscoveringPackages();
+        synchronized (packages) {
+            for (DiscoveringPackage pkg : packages) {
+                if (pkg.hasDisavowedLocation()) {
+                    if (denylisted == null) {
+                        denylisted = mLocationDenylistPredicate.test(device);
+                    }
+                    if (denylisted) {
+                        continue;
+                    }
+                }
+
+                if (pkg.isBatched()) {
+                    queue(pkg, extras);
+                    continue;
+                }
+
+                if (intent == null) {
+                    intent = new Intent(BluetoothDevice.ACTION_FOUND);
+                    intent.putExtras(extras);
+                }
+                intent.setPackage(pkg.getPackageName());
+                mAdapterService.sendBroadcastMultiplePermissions(
+                        intent, pkg.getBroadcastPermissions(), Utils.getTempBroadcastOptions());
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private boolean restrictUnnamedDevices() {
+        if (mRestrictUnnamedDevices == null) {
+            mRestrictUnnamedDevices =
+                    SystemProperties.getBoolean(RESTRICT_DISCOVERED_DEVICE_PROPERTY, false);
+        }
+        return mRestrictUnnamedDevices;
+    }
+
+    @GuardedBy("this")
+    private boolean isDuplicate(
+            BluetoothDevice device,
+            String name,
+            int bluetoothClass,
+            boolean isCoordinatedSetMember) {
+        long key = AddressCodec.toLong(device.getAddress());
+        if (key == AddressCodec.INVALID) {
+            return false;
+        }
+        long now = SystemClock.uptimeMillis();
+        Delivery last = mDeliveries.get(key);
+        if (last != null
+                && now - last.mTimeMillis < DEDUPE_WINDOW_MS
+                && last.mBluetoothClass == bluetoothClass
+                && last.mIsCoordinatedSetMember == isCoordinatedSetMember
+                && Objects.equals(last.mName, name)) {
+            return true;
+        }
+        if (last != null) {
+            // Re-insert to move the device at the end of the eviction order
+            mDeliveries.remove(key);
+        }
+        mDeliveries.put(key, new Delivery(now, name, bluetoothClass, isCoordinatedSetMember));
+        mDeliveries.trimTo(MAX_TRACKED_DEVICES, delivery -> false);
+        return false;
+    }
+
+    @GuardedBy("this")
+    private void queue(DiscoveringPackage pkg, Bundle result) {
+        ArrayList<Bundle> batch = mBatches.computeIfAbsent(pkg, unused -> new ArrayList<>());
+        batch.add(result);
+        if (batch.size() >= MAX_BATCH_SIZE) {
+            mBatches.remove(pkg);
+            sendBatch(pkg, batch);
+        } else if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(mFlushRunnable, BATCH_INTERVAL_MS);
+        }
+    }
+
+    @VisibleForTesting
+    synchronized void flushBatches() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        mFlushScheduled = false;
+        for (Map.Entry<DiscoveringPackage, ArrayList<Bundle>> entry : mBatches.entrySet()) {
+            sendBatch(entry.getKey(), entry.getValue());
+        }
+        mBatches.clear();
+    }
+
+    private void sendBatch(DiscoveringPackage pkg, ArrayList<Bundle> batch) {
+        Log.d(TAG, "sendBatch: " + batch.size() + " devices to " + pkg.getPackageName());
+        Intent intent = new Intent(BluetoothDevice.ACTION_FOUND_BATCH);
+        intent.setPackage(pkg.getPackageName());
+        intent.putParcelableArrayListExtra(BluetoothDevice.EXTRA_FOUND_RESULTS, batch);
+        mAdapterService.sendBroadcastMultiplePermissions(
+                intent, pkg.getBroadcastPermissions(), Utils.getTempBroadcastOptions());
+    }
+
+    private static final class Delivery {
+        final long mTimeMillis;
+        final String mName;
+        final int mBluetoothClass;
+        final boolean mIsCoordinatedSetMember;
+
+        Delivery(long timeMillis, String name, int bluetoothClass, boolean isCoordinatedSetMember) {
+            mTimeMillis = timeMillis;
+            mName = name;
+            mBluetoothClass = bluetoothClass;
+            mIsCoordinatedSetMember = isCoordinatedSetMember;
+        }
+    }
+}
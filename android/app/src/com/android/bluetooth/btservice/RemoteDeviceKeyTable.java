@@ -0,0 +1,225 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import static com.android.bluetooth.btservice.RemoteDeviceTable.INVALID_KEY;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Map from a remote device key to another, as packed by {@link RemoteDeviceTable#addressToKey}.
+ *
+ * <p>The primitive counterpart of {@link RemoteDeviceTable} for tables whose values are keys
+ * themselves: keys and values are stored in parallel {@code long} arrays with linear probing, so
+ * neither is ever boxed. Reads are lock free unless a write happens concurrently.
+ */
+class RemoteDeviceKeyTable {
+    private final StampedLock mLock = new StampedLock();
+
+    // Always a power of two, at most half full. Empty slots hold INVALID_KEY.
+    private long[] mKeys;
+    private long[] mValues;
+    private int mSize = 0;
+
+    RemoteDeviceKeyTable(int expectedSize) {
+        allocate(Integer.highestOneBit(Math.max(expectedSize, 8) - 1) << 2);
+    }
+
+    /** Get the value for the key, or {@link RemoteDeviceTable#INVALID_KEY} if there is none. */
+    long get(long key) {
+        long stamp = mLock.tryOptimisticRead();
+        if (stamp != 0) {
+            long value = find(key);
+            if (mLock.validate(stamp)) {
+                return value;
+            }
+        }
+        stamp = mLock.readLock();
+        try {
+            return find(key);
+        } finally {
+            mLock.unlockRead(stamp);
+        }
+    }
+
+    /** Associate the value with the key, replacing any previous value. */
+    void put(long key, long value) {
+        if (key == INVALID_KEY || value == INVALID_KEY) {
+            throw new IllegalArgumentException("Invalid entry key=" + key + " value=" + value);
+        }
+        long stamp = mLock.writeLock();
+        try {
+            int slot = findSlot(key);
+            if (mKeys[slot] == INVALID_KEY) {
+                if (2 * (mSize + 1) > mKeys.length) {
+                    grow();
+                    slot = findSlot(key);
+                }
+                mSize++;
+            }
+            // Write the value first, an optimistic read that sees the key then sees its value.
+            mValues[slot] = value;
+            mKeys[slot] = key;
+        } finally {
+            mLock.unlockWrite(stamp);
+        }
+    }
+
+    /** Remove the entry for the key, if any. */
+    void remove(long key) {
+        long stamp = mLock.writeLock();
+        try {
+            int slot = findSlot(key);
+            if (mKeys[slot] != INVALID_KEY) {
+                removeAt(slot);
+            }
+        } finally {
+            mLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove every entry whose value is {@code value}.
+     *
+     * @return the number of removed entries
+     */
+    int removeValue(long value) {
+        long stamp = mLock.writeLock();
+        try {
+            int removed = 0;
+            int slot = 0;
+            while (slot < mKeys.length) {
+                if (mKeys[slot] != INVALID_KEY && mValues[slot] == value) {
+                    removeAt(slot);
+                    removed++;
+                    // Deletion may have shifted another entry into this slot, look at it again
+                } else {
+                    slot++;
+                }
+            }
+            return removed;
+        } finally {
+            mLock.unlockWrite(stamp);
+        }
+    }
+
+    int size() {
+        long stamp = mLock.readLock();
+        try {
+            return mSize;
+        } finally {
+            mLock.unlockRead(stamp);
+        }
+    }
+
+    void clear() {
+        long stamp = mLock.writeLock();
+        try {
+            allocate(mKeys.length);
+        } finally {
+            mLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Lookup that tolerates running concurrently with a write, see {@code
+     * RemoteDeviceTable#find}. Callers discard the result when the optimistic read fails
+     * validation.
+     */
+    private long find(long key) {
+        long[] keys = mKeys;
+        long[] values = mValues;
+        int length = Math.min(keys.length, values.length);
+        int mask = Integer.highestOneBit(length) - 1;
+        int slot = RemoteDeviceTable.hash(key) & mask;
+        for (int probes = 0; probes < length; probes++) {
+            long slotKey = keys[slot];
+            if (slotKey == INVALID_KEY) {
+                return INVALID_KEY;
+            }
+            if (slotKey == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return INVALID_KEY;
+    }
+
+    /** Get the slot holding the key, or the empty slot where it would be inserted. */
+    private int findSlot(long key) {
+        int mask = mKeys.length - 1;
+        int slot = RemoteDeviceTable.hash(key) & mask;
+        while (mKeys[slot] != INVALID_KEY && mKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /** Backward shift deletion, keeps probe sequences intact without tombstones. */
+    private void removeAt(int slot) {
+        int mask = mKeys.length - 1;
+        int hole = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            long key = mKeys[next];
+            if (key == INVALID_KEY) {
+                break;
+            }
+            int home = RemoteDeviceTable.hash(key) & mask;
+            boolean homeInRange =
+                    hole <= next ? (home > hole && home <= next) : (home > hole || home <= next);
+            if (!homeInRange) {
+                mValues[hole] = mValues[next];
+                mKeys[hole] = key;
+                hole = next;
+            }
+        }
+        mKeys[hole] = INVALID_KEY;
+        mSize--;
+    }
+
+    private void allocate(int slots) {
+        mKeys = new long[slots];
+        mValues = new long[slots];
+        Arrays.fill(mKeys, INVALID_KEY);
+        mSize = 0;
+    }
+
+    private void grow() {
+        long[] oldKeys = mKeys;
+        long[] oldValues = mValues;
+        long[] keys = new long[oldKeys.length * 2];
+        long[] values = new long[keys.length];
+        Arrays.fill(keys, INVALID_KEY);
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == INVALID_KEY) {
+                continue;
+            }
+            int slot = RemoteDeviceTable.hash(oldKeys[i]) & mask;
+            while (keys[slot] != INVALID_KEY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+        mValues = values;
+        mKeys = keys;
+    }
+}
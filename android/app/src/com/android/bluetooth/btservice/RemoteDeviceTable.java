@@ -0,0 +1,495 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import com.android.bluetooth.util.AddressCodec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Predicate;
+
+/**
+ * Table of remote device entries keyed by the 48-bit Bluetooth address packed into a long.
+ *
+ * <p>Entries are kept in an open-addressing hash table with linear probing, so lookups neither
+ * convert the address to a String nor box the key. Reads are lock free in the common case: they
+ * run optimistically and only fall back to the read lock if a write happened concurrently.
+ *
+ * <p>Entries are also chained in insertion order to evict the oldest ones in O(1) with {@link
+ * #trimTo}. Entries that must survive eviction are pinned: they move to a separate pinned order,
+ * which is never trimmed.
+ */
+class RemoteDeviceTable<V> {
+    /** Key that no valid address maps to, addresses only use the lower 48 bits. */
+    static final long INVALID_KEY = AddressCodec.INVALID;
+
+    private static final int NONE = -1;
+    private static final int UNLINKED = -2;
+
+    // Eviction orders a node can be chained in
+    private static final int EVICTABLE = 0;
+    private static final int PINNED = 1;
+
+    private final StampedLock mLock = new StampedLock();
+
+    // Slot -> node index + 1, 0 for an empty slot. Always a power of two, at most half full.
+    private int[] mSlots;
+
+    // Node storage, indexed by node index
+    private long[] mKeys;
+    private Object[] mValues;
+    private int[] mPrev;
+    private int[] mNext;
+    private byte[] mOrder;
+
+    // Per eviction order, indexed by EVICTABLE or PINNED
+    private final int[] mHead = new int[2];
+    private final int[] mTail = new int[2];
+    private final int[] mOrderSize = new int[2];
+
+    private int mFreeNode = NONE;
+    private int mSize = 0;
+
+    RemoteDeviceTable(int expectedSize) {
+        int nodes = Integer.highestOneBit(Math.max(expectedSize, 8) - 1) << 1;
+        allocate(nodes);
+    }
+
+    /** Pack an address into a key, {@link #INVALID_KEY} if the address is malformed. */
+    static long addressToKey(byte[] address) {
+        return AddressCodec.toLong(address);
+    }
+
+    /**
+     * Pack an address of the form "00:11:22:AA:BB:CC", in either case, into a key.
+     *
+     * @return the key, or {@link #INVALID_KEY} if the address is malformed
+     */
+    static long addressToKey(String address) {
+        return AddressCodec.toLong(address);
+    }
+
+    /** Get the value for the key, or null. Does not block unless a write is in progress. */
+    V get(long key) {
+        long stamp = mLock.tryOptimisticRead();
+        if (stamp != 0) {
+            V value = find(key);
+            if (mLock.validate(stamp)) {
+                return value;
+            }
+        }
+        stamp = mLock.readLock();
+        try {
+            return find(key);
+        } finally {
+            mLock.unlockRead(stamp);
+        }
+    }
+
+    boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Associate the value with the key. A new key is appended to the eviction order, an existing
+     * key keeps its place.
+     *
+     * @return the previous value, or null
+     */
+    V put(long key, V value) {
+        if (key == INVALID_KEY || value == null) {
+            throw new IllegalArgumentException("Invalid entry key=" + key + " value=" + value);
+        }
+        long stamp = mLock.writeLock();
+        try {
+            int slot = findSlot(key);
+            int node = mSlots[slot] - 1;
+            if (node >= 0) {
+                @SuppressWarnings("unchecked")
+                V previous = (V) mValues[node];
+                mValues[node] = value;
+                return previous;
+            }
+            if (mFreeNode == NONE) {
+                grow();
+                slot = findSlot(key);
+            }
+            node = mFreeNode;
+            mFreeNode = mNext[node];
+            mKeys[node] = key;
+            mValues[node] = value;
+            mSlots[slot] = node + 1;
+            mSize++;
+            linkLast(EVICTABLE, node);
+            return null;
+        } finally {
+            mLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove the entry for the key.
+     *
+     * @return the removed value, or null
+     */
+    V remove(long key) {
+        long stamp = mLock.writeLock();
+        try {
+            int slot = findSlot(key);
+            if (mSlots[slot] == 0) {
+                return null;
+            }
+            return removeAt(slot);
+        } finally {
+            mLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove every entry whose value matches the filter.
+     *
+     * @return the number of removed entries
+     */
+    int removeIf(Predicate<V> filter) {
+        long stamp = mLock.writeLock();
+        try {
+            int removed = 0;
+            int slot = 0;
+            while (slot < mSlots.length) {
+                int node = mSlots[slot] - 1;
+                @SuppressWarnings("unchecked")
+                V value = node >= 0 ? (V) mValues[node] : null;
+                if (value != null && filter.test(value)) {
+                    removeAt(slot);
+                    removed++;
+                    // Deletion may have shifted another entry into this slot, look at it again
+                } else {
+                    slot++;
+                }
+            }
+            return removed;
+        } finally {
+            mLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Evict the oldest entries until at most {@code maxLinked} entries are subject to eviction.
+     * Entries matching {@code pin} are not removed but pinned, they won't be considered again.
+     * {@code pin} runs without holding the table lock, so it may take other locks.
+     *
+     * @return the evicted values, oldest first
+     */
+    List<V> trimTo(int maxLinked, Predicate<V> pin) {
+        List<V> evicted = new ArrayList<>();
+        while (true) {
+            List<V> candidates = new ArrayList<>();
+            long[] keys = oldestLinked(maxLinked, candidates);
+            if (keys.length == 0) {
+                return evicted;
+            }
+            boolean[] pinned = new boolean[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                pinned[i] = pin.test(candidates.get(i));
+            }
+            long stamp = mLock.writeLock();
+            try {
+                for (int i = 0; i < keys.length; i++) {
+                    int slot = findSlot(keys[i]);
+                    int node = mSlots[slot] - 1;
+                    // Skip the entries replaced, removed or pinned meanwhile
+                    if (node < 0
+                            || mValues[node] != candidates.get(i)
+                            || mOrder[node] != EVICTABLE
+                            || mOrderSize[EVICTABLE] <= maxLinked) {
+                        continue;
+                    }
+                    if (pinned[i]) {
+                        unlink(node);
+                        linkLast(PINNED, node);
+                        continue;
+                    }
+                    removeAt(slot);
+                    evicted.add(candidates.get(i));
+                }
+            } finally {
+                mLock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Get the oldest entries past the first {@code maxLinked} ones subject to eviction.
+     *
+     * @param values receives the values of the entries, oldest first
+     * @return the keys of the entries, oldest first
+     */
+    private long[] oldestLinked(int maxLinked, List<V> values) {
+        long stamp = mLock.readLock();
+        try {
+            long[] keys = new long[Math.max(0, mOrderSize[EVICTABLE] - maxLinked)];
+            int node = mHead[EVICTABLE];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = mKeys[node];
+                @SuppressWarnings("unchecked")
+                V value = (V) mValues[node];
+                values.add(value);
+                node = mNext[node];
+            }
+            return keys;
+        } finally {
+            mLock.unlockRead(stamp);
+        }
+    }
+
+    /** Get a copy of every value, in no particular order. */
+    List<V> values() {
+        long stamp = mLock.readLock();
+        try {
+            List<V> values = new ArrayList<>(mSize);
+            for (int slot : mSlots) {
+                if (slot != 0) {
+                    @SuppressWarnings("unchecked")
+                    V value = (V) mValues[slot - 1];
+                    values.add(value);
+                }
+            }
+            return values;
+        } finally {
+            mLock.unlockRead(stamp);
+        }
+    }
+
+    int size() {
+        long stamp = mLock.readLock();
+        try {
+            return mSize;
+        } finally {
+            mLock.unlockRead(stamp);
+        }
+    }
+
+    /** Get the number of entries subject to eviction, i.e. not pinned. */
+    int linkedSize() {
+        long stamp = mLock.readLock();
+        try {
+            return mOrderSize[EVICTABLE];
+        } finally {
+            mLock.unlockRead(stamp);
+        }
+    }
+
+    /** Get the number of pinned entries. */
+    int pinnedSize() {
+        long stamp = mLock.readLock();
+        try {
+            return mOrderSize[PINNED];
+        } finally {
+            mLock.unlockRead(stamp);
+        }
+    }
+
+    void clear() {
+        long stamp = mLock.writeLock();
+        try {
+            allocate(mKeys.length);
+        } finally {
+            mLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Lookup that tolerates running concurrently with a write: the arrays may be inconsistent, so
+     * every index is bounds checked and the probe sequence is bounded. Callers discard the result
+     * when the optimistic read fails validation.
+     */
+    @SuppressWarnings("unchecked")
+    private V find(long key) {
+        int[] slots = mSlots;
+        long[] keys = mKeys;
+        Object[] values = mValues;
+        int mask = slots.length - 1;
+        int slot = hash(key) & mask;
+        for (int probes = 0; probes < slots.length; probes++) {
+            int node = slots[slot] - 1;
+            if (node < 0) {
+                return null;
+            }
+            if (node < keys.length && node < values.length && keys[node] == key) {
+                return (V) values[node];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /** Get the slot holding the key, or the empty slot where it would be inserted. */
+    private int findSlot(long key) {
+        int mask = mSlots.length - 1;
+        int slot = hash(key) & mask;
+        while (true) {
+            int node = mSlots[slot] - 1;
+            if (node < 0 || mKeys[node] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private V removeAt(int slot) {
+        int node = mSlots[slot] - 1;
+        @SuppressWarnings("unchecked")
+        V value = (V) mValues[node];
+        unlink(node);
+        deleteSlot(slot);
+        mValues[node] = null;
+        mKeys[node] = INVALID_KEY;
+        mPrev[node] = UNLINKED;
+        mNext[node] = mFreeNode;
+        mFreeNode = node;
+        mSize--;
+        return value;
+    }
+
+    /** Backward shift deletion, keeps probe sequences intact without tombstones. */
+    private void deleteSlot(int slot) {
+        int mask = mSlots.length - 1;
+        int hole = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            int node = mSlots[next] - 1;
+            if (node < 0) {
+                break;
+            }
+            int home = hash(mKeys[node]) & mask;
+            boolean homeInRange =
+                    hole <= next ? (home > hole && home <= next) : (home > hole || home <= next);
+            if (!homeInRange) {
+                mSlots[hole] = mSlots[next];
+                hole = next;
+            }
+        }
+        mSlots[hole] = 0;
+    }
+
+    private void linkLast(int order, int node) {
+        int tail = mTail[order];
+        mPrev[node] = tail;
+        mNext[node] = NONE;
+        mOrder[node] = (byte) order;
+        if (tail == NONE) {
+            mHead[order] = node;
+        } else {
+            mNext[tail] = node;
+        }
+        mTail[order] = node;
+        mOrderSize[order]++;
+    }
+
+    private void unlink(int node) {
+        int order = mOrder[node];
+        int prev = mPrev[node];
+        int next = mNext[node];
+        if (prev == NONE) {
+            mHead[order] = next;
+        } else {
+            mNext[prev] = next;
+        }
+        if (next == NONE) {
+            mTail[order] = prev;
+        } else {
+            mPrev[next] = prev;
+        }
+        mPrev[node] = UNLINKED;
+        mNext[node] = NONE;
+        mOrderSize[order]--;
+    }
+
+    private void allocate(int nodes) {
+        mSlots = new int[nodes * 2];
+        mKeys = new long[nodes];
+        mValues = new Object[nodes];
+        mPrev = new int[nodes];
+        mNext = new int[nodes];
+        mOrder = new byte[nodes];
+        for (int i = 0; i < nodes; i++) {
+            mKeys[i] = INVALID_KEY;
+            mPrev[i] = UNLINKED;
+            mNext[i] = i + 1 < nodes ? i + 1 : NONE;
+        }
+        mFreeNode = 0;
+        Arrays.fill(mHead, NONE);
+        Arrays.fill(mTail, NONE);
+        Arrays.fill(mOrderSize, 0);
+        mSize = 0;
+    }
+
+    /** Double the capacity, keeping node indexes so the eviction order stays valid. */
+    private void grow() {
+        int oldNodes = mKeys.length;
+        int nodes = oldNodes * 2;
+        long[] keys = new long[nodes];
+        Object[] values = new Object[nodes];
+        int[] prev = new int[nodes];
+        int[] next = new int[nodes];
+        byte[] order = new byte[nodes];
+        System.arraycopy(mKeys, 0, keys, 0, oldNodes);
+        System.arraycopy(mValues, 0, values, 0, oldNodes);
+        System.arraycopy(mPrev, 0, prev, 0, oldNodes);
+        System.arraycopy(mNext, 0, next, 0, oldNodes);
+        System.arraycopy(mOrder, 0, order, 0, oldNodes);
+        for (int i = oldNodes; i < nodes; i++) {
+            keys[i] = INVALID_KEY;
+            prev[i] = UNLINKED;
+            next[i] = i + 1 < nodes ? i + 1 : NONE;
+        }
+        int[] slots = new int[nodes * 2];
+        int mask = slots.length - 1;
+        for (int node = 0; node < oldNodes; node++) {
+            if (values[node] == null) {
+                continue;
+            }
+            int slot = hash(keys[node]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = node + 1;
+        }
+        // Publish the node arrays before the slots, so a concurrent optimistic read never sees
+        // a slot pointing past the arrays it reads next.
+        mKeys = keys;
+        mValues = values;
+        mPrev = prev;
+        mNext = next;
+        mOrder = order;
+        mSlots = slots;
+        mFreeNode = oldNodes;
+    }
+
+    static int hash(long key) {
+        // MurmurHash3 64-bit finalizer, spreads the vendor prefix and the device part
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
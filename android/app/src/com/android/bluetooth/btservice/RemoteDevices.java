@@ -18,7 +18,6 @@ package com.android.bluetooth.btservice;
 
 import static android.Manifest.permission.BLUETOOTH_CONNECT;
 import static android.Manifest.permission.BLUETOOTH_PRIVILEGED;
-import static android.Manifest.permission.BLUETOOTH_SCAN;
 
 import static com.android.modules.utils.build.SdkLevel.isAtLeastV;
 
@@ -29,6 +28,7 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothAssignedNumbers;
 import android.bluetooth.BluetoothClass;
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothDeviceSnapshot;
 import android.bluetooth.BluetoothHeadset;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.BluetoothProfile;
@@ -42,8 +42,10 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.util.Log;
+import android.util.SparseIntArray;
 
 import androidx.annotation.NonNull;
 
@@ -56,13 +58,15 @@ import com.android.bluetooth.hfp.HeadsetHalConstants;
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 
 /** Remote device manager. This class is currently mostly used for HF and AG remote devices. */
@@ -83,9 +87,18 @@ public class RemoteDevices {
     private static final int MESSAGE_UUID_STATUS_TIMEOUT = 1;
     private static final String LOG_SOURCE_DIS = "DIS";
 
-    private final HashMap<String, DeviceProperties> mDevices;
-    private final HashMap<String, String> mDualDevicesMap;
-    private final ArrayDeque<String> mDeviceQueue;
+    // Address key -> properties, oldest non bonded devices are evicted past
+    // MAX_DEVICE_QUEUE_SIZE, bonded devices are never evicted. Single lookups are lock free,
+    // compound updates hold the table lock.
+    private final RemoteDeviceTable<DeviceProperties> mDevices;
+
+    // Identity address key -> main address key of consolidated dual mode devices
+    private final RemoteDeviceKeyTable mDualDevicesMap;
+
+    // Bumped whenever a property exposed through BluetoothDeviceSnapshot changes. Seeded from the
+    // clock so a restarted stack never reuses the generation of a snapshot handed out before.
+    private final AtomicLong mSnapshotGeneration =
+            new AtomicLong(SystemClock.elapsedRealtimeNanos());
 
     /**
      * Bluetooth HFP v1.8 specifies the Battery Charge indicator of AG can take values from {@code
@@ -103,6 +116,7 @@ public class RemoteDevices {
 
     private final Handler mHandler;
     private final Handler mMainHandler;
+    private final DiscoveryDispatcher mDiscoveryDispatcher;
 
     private class RemoteDevicesHandler extends Handler {
 
@@ -161,11 +175,12 @@ public class RemoteDevices {
         mAdapter = ((Context) service).getSystemService(BluetoothManager.class).getAdapter();
         mAdapterService = service;
         mSdpTracker = new ArrayList<>();
-        mDevices = new HashMap<>();
-        mDualDevicesMap = new HashMap<>();
-        mDeviceQueue = new ArrayDeque<>();
+        mDevices = new RemoteDeviceTable<>(MAX_DEVICE_QUEUE_SIZE);
+        mDualDevicesMap = new RemoteDeviceKeyTable(MAX_DEVICE_QUEUE_SIZE);
         mHandler = new RemoteDevicesHandler(looper);
         mMainHandler = new Handler(Looper.getMainLooper());
+        mDiscoveryDispatcher =
+                new DiscoveryDispatcher(service, mHandler, mLocationDenylistPredicate);
     }
 
     /**
@@ -178,41 +193,40 @@ public class RemoteDevices {
 
         // Unregister Handler and stop all queued messages.
         mMainHandler.removeCallbacksAndMessages(null);
+        mDiscoveryDispatcher.reset();
 
         synchronized (mDevices) {
             debugLog("reset(): Broadcasting ACL_DISCONNECTED");
 
-            mDevices.forEach(
-                    (address, deviceProperties) -> {
-                        BluetoothDevice bluetoothDevice = deviceProperties.getDevice();
-
-                        debugLog(
-                                "reset(): address="
-                                        + address
-                                        + ", connected="
-                                        + bluetoothDevice.isConnected());
-
-                        if (bluetoothDevice.isConnected()) {
-                            int transport =
-                                    deviceProperties.getConnectionHandle(
-                                                            BluetoothDevice.TRANSPORT_BREDR)
-                                                    != BluetoothDevice.ERROR
-                                            ? BluetoothDevice.TRANSPORT_BREDR
-                                            : BluetoothDevice.TRANSPORT_LE;
-                            mAdapterService.notifyAclDisconnected(bluetoothDevice, transport);
-                            Intent intent = new Intent(BluetoothDevice.ACTION_ACL_DISCONNECTED);
-                            intent.putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice);
-                            intent.addFlags(
-                                    Intent.FLAG_RECEIVER_REGISTERED_ONLY_BEFORE_BOOT
-                                            | Intent.FLAG_RECEIVER_INCLUDE_BACKGROUND);
-                            mAdapterService.sendBroadcast(intent, BLUETOOTH_CONNECT);
-                        }
-                    });
+            for (DeviceProperties deviceProperties : mDevices.values()) {
+                BluetoothDevice bluetoothDevice = deviceProperties.getDevice();
+
+                debugLog(
+                        "reset(): address="
+                                + bluetoothDevice
+                                + ", connected="
+                                + bluetoothDevice.isConnected());
+
+                if (bluetoothDevice.isConnected()) {
+                    int transport =
+                            deviceProperties.getConnectionHandle(BluetoothDevice.TRANSPORT_BREDR)
+                                            != BluetoothDevice.ERROR
+                                    ? BluetoothDevice.TRANSPORT_BREDR
+                                    : BluetoothDevice.TRANSPORT_LE;
+                    mAdapterService.notifyAclDisconnected(bluetoothDevice, transport);
+                    Intent intent = new Intent(BluetoothDevice.ACTION_ACL_DISCONNECTED);
+                    intent.putExtra(BluetoothDevice.EXTRA_DEVICE, bluetoothDevice);
+                    intent.addFlags(
+                            Intent.FLAG_RECEIVER_REGISTERED_ONLY_BEFORE_BOOT
+                                    | Intent.FLAG_RECEIVER_INCLUDE_BACKGROUND);
+                    mAdapterService.sendBroadcast(intent, BLUETOOTH_CONNECT);
+                }
+            }
             mDevices.clear();
         }
 
         mDualDevicesMap.clear();
-        mDeviceQueue.clear();
+        onSnapshotPropertyChanged();
     }
 
     @Override
@@ -225,14 +239,19 @@ public class RemoteDevices {
             return null;
         }
 
-        synchronized (mDevices) {
-            String address = mDualDevicesMap.get(device.getAddress());
-            // If the device is not in the dual map, use its original address
-            if (address == null || mDevices.get(address) == null) {
-                address = device.getAddress();
+        return getDeviceProperties(RemoteDeviceTable.addressToKey(device.getAddress()));
+    }
+
+    private DeviceProperties getDeviceProperties(long key) {
+        long mainKey = mDualDevicesMap.get(key);
+        if (mainKey != RemoteDeviceTable.INVALID_KEY) {
+            DeviceProperties prop = mDevices.get(mainKey);
+            if (prop != null) {
+                return prop;
             }
-            return mDevices.get(address);
         }
+        // If the device is not in the dual map, use its original address
+        return mDevices.get(key);
     }
 
     int getBondState(BluetoothDevice device) {
@@ -276,14 +295,7 @@ public class RemoteDevices {
     }
 
     BluetoothDevice getDevice(byte[] address) {
-        String addressString = Utils.getAddressStringFromByte(address);
-        String deviceAddress = mDualDevicesMap.get(addressString);
-        // If the device is not in the dual map, use its original address
-        if (deviceAddress == null || mDevices.get(deviceAddress) == null) {
-            deviceAddress = addressString;
-        }
-
-        DeviceProperties prop = mDevices.get(deviceAddress);
+        DeviceProperties prop = getDeviceProperties(RemoteDeviceTable.addressToKey(address));
         if (prop != null) {
             return prop.getDevice();
         }
@@ -296,26 +308,76 @@ public class RemoteDevices {
             DeviceProperties prop = new DeviceProperties();
             prop.setDevice(mAdapter.getRemoteDevice(Utils.getAddressStringFromByte(address)));
             prop.setAddress(address);
-            String key = Utils.getAddressStringFromByte(address);
-            DeviceProperties pv = mDevices.put(key, prop);
+            DeviceProperties pv = mDevices.put(RemoteDeviceTable.addressToKey(address), prop);
 
             if (pv == null) {
-                mDeviceQueue.offer(key);
-                if (mDeviceQueue.size() > MAX_DEVICE_QUEUE_SIZE) {
-                    String deleteKey = mDeviceQueue.poll();
-                    for (BluetoothDevice device : mAdapterService.getBondedDevices()) {
-                        if (device.getAddress().equals(deleteKey)) {
-                            return prop;
-                        }
-                    }
-                    debugLog("Removing device " + deleteKey + " from property map");
-                    mDevices.remove(deleteKey);
+                // Bonded devices are pinned rather than evicted, they stay until unbonded
+                List<DeviceProperties> evicted =
+                        mDevices.trimTo(
+                                MAX_DEVICE_QUEUE_SIZE,
+                                p -> p.getBondState() == BluetoothDevice.BOND_BONDED);
+                for (DeviceProperties evictedProp : evicted) {
+                    debugLog("Removing device " + evictedProp.getDevice() + " from property map");
+                    long evictedKey = RemoteDeviceTable.addressToKey(evictedProp.getAddress());
+                    mDualDevicesMap.removeValue(evictedKey);
+                    mDualDevicesMap.remove(evictedKey);
+                }
+                if (!evicted.isEmpty()) {
+                    onSnapshotPropertyChanged();
                 }
             }
             return prop;
         }
     }
 
+    private void onSnapshotPropertyChanged() {
+        mSnapshotGeneration.incrementAndGet();
+    }
+
+    long getSnapshotGeneration() {
+        return mSnapshotGeneration.get();
+    }
+
+    /** Record the connection state of a profile to a remote device for the device snapshots. */
+    void setProfileConnectionState(BluetoothDevice device, int profile, int state) {
+        DeviceProperties prop = getDeviceProperties(device);
+        if (prop == null) {
+            return;
+        }
+        prop.setProfileConnectionState(profile, state);
+    }
+
+    private static boolean has(int properties, int property) {
+        return (properties & property) != 0;
+    }
+
+    /**
+     * Build a snapshot of the requested properties of every bonded or connected device.
+     *
+     * @param properties combination of {@code BluetoothDeviceSnapshot.PROPERTY_*} flags
+     */
+    BluetoothDeviceSnapshot getDeviceSnapshot(int properties) {
+        // Read the generation first, a change racing with the copy below then only causes an
+        // extra refresh on the next call instead of a missed one.
+        long generation = getSnapshotGeneration();
+        Set<DeviceProperties> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<BluetoothDeviceSnapshot.Entry> entries = new ArrayList<>();
+        for (BluetoothDevice device : mAdapterService.getBondedDevices()) {
+            DeviceProperties prop = getDeviceProperties(device);
+            if (prop != null && seen.add(prop)) {
+                entries.add(prop.toSnapshotEntry(properties));
+            }
+        }
+        synchronized (mDevices) {
+            for (DeviceProperties prop : mDevices.values()) {
+                if (prop.isConnected() && seen.add(prop)) {
+                    entries.add(prop.toSnapshotEntry(properties));
+                }
+            }
+        }
+        return new BluetoothDeviceSnapshot(generation, properties, entries);
+    }
+
     class DeviceProperties {
         private String mName;
         private byte[] mAddress;
@@ -338,6 +400,8 @@ public class RemoteDevices {
         @VisibleForTesting int mDeviceType;
         @VisibleForTesting ParcelUuid[] mUuids;
         private BluetoothSinkAudioPolicy mAudioPolicy;
+        // Profile -> connection state, disconnected profiles are not stored
+        private final SparseIntArray mProfileConnectionStates = new SparseIntArray();
 
         DeviceProperties() {
             mBondState = BluetoothDevice.BOND_NONE;
@@ -359,6 +423,7 @@ public class RemoteDevices {
             synchronized (mObject) {
                 this.mName = name;
             }
+            onSnapshotPropertyChanged();
         }
 
         /**
@@ -413,6 +478,7 @@ public class RemoteDevices {
             synchronized (mObject) {
                 this.mBluetoothClass = bluetoothClass;
             }
+            onSnapshotPropertyChanged();
         }
 
         /**
@@ -445,6 +511,7 @@ public class RemoteDevices {
                     errorLog("setConnectionHandle() unexpected transport value " + transport);
                 }
             }
+            onSnapshotPropertyChanged();
         }
 
         /**
@@ -463,6 +530,7 @@ public class RemoteDevices {
             synchronized (mObject) {
                 this.mUuids = uuids;
             }
+            onSnapshotPropertyChanged();
         }
 
         /**
@@ -536,6 +604,7 @@ public class RemoteDevices {
             synchronized (mObject) {
                 this.mDeviceType = deviceType;
             }
+            onSnapshotPropertyChanged();
         }
 
         /**
@@ -565,6 +634,7 @@ public class RemoteDevices {
                 mAdapterService.sendBroadcast(
                         intent, BLUETOOTH_CONNECT, Utils.getTempBroadcastOptions().toBundle());
             }
+            onSnapshotPropertyChanged();
         }
 
         /**
@@ -582,6 +652,7 @@ public class RemoteDevices {
                     mAlias = null;
                 }
             }
+            onSnapshotPropertyChanged();
         }
 
         /**
@@ -638,6 +709,7 @@ public class RemoteDevices {
                 }
                 mBatteryLevelFromHfp = batteryLevel;
             }
+            onSnapshotPropertyChanged();
         }
 
         void setBatteryLevelFromBatteryService(int batteryLevel) {
@@ -647,6 +719,23 @@ public class RemoteDevices {
                 }
                 mBatteryLevelFromBatteryService = batteryLevel;
             }
+            onSnapshotPropertyChanged();
+        }
+
+        void setProfileConnectionState(int profile, int state) {
+            synchronized (mObject) {
+                int previous =
+                        mProfileConnectionStates.get(profile, BluetoothProfile.STATE_DISCONNECTED);
+                if (previous == state) {
+                    return;
+                }
+                if (state == BluetoothProfile.STATE_DISCONNECTED) {
+                    mProfileConnectionStates.delete(profile);
+                } else {
+                    mProfileConnectionStates.put(profile, state);
+                }
+            }
+            onSnapshotPropertyChanged();
         }
 
         /**
@@ -727,6 +816,49 @@ public class RemoteDevices {
                 return mModelName;
             }
         }
+
+        /**
+         * @return whether an ACL connection exists on any transport
+         */
+        boolean isConnected() {
+            synchronized (mObject) {
+                return mBredrConnectionHandle != BluetoothDevice.ERROR
+                        || mLeConnectionHandle != BluetoothDevice.ERROR;
+            }
+        }
+
+        /**
+         * @param properties combination of {@code BluetoothDeviceSnapshot.PROPERTY_*} flags
+         * @return the requested properties, the others are left to their default value
+         */
+        BluetoothDeviceSnapshot.Entry toSnapshotEntry(int properties) {
+            synchronized (mObject) {
+                return new BluetoothDeviceSnapshot.Entry(
+                        mDevice,
+                        has(properties, BluetoothDeviceSnapshot.PROPERTY_NAME) ? mName : null,
+                        has(properties, BluetoothDeviceSnapshot.PROPERTY_ALIAS) ? mAlias : null,
+                        has(properties, BluetoothDeviceSnapshot.PROPERTY_TYPE)
+                                ? mDeviceType
+                                : BluetoothDevice.DEVICE_TYPE_UNKNOWN,
+                        has(properties, BluetoothDeviceSnapshot.PROPERTY_CLASS)
+                                ? mBluetoothClass
+                                : 0,
+                        has(properties, BluetoothDeviceSnapshot.PROPERTY_UUIDS) && mUuids != null
+                                ? Arrays.asList(mUuids)
+                                : null,
+                        has(properties, BluetoothDeviceSnapshot.PROPERTY_BATTERY_LEVEL)
+                                ? getBatteryLevel()
+                                : BluetoothDevice.BATTERY_LEVEL_UNKNOWN,
+                        has(properties, BluetoothDeviceSnapshot.PROPERTY_BOND_STATE)
+                                ? mBondState
+                                : BluetoothDevice.BOND_NONE,
+                        has(properties, BluetoothDeviceSnapshot.PROPERTY_CONNECTION_STATE)
+                                && isConnected(),
+                        has(properties, BluetoothDeviceSnapshot.PROPERTY_PROFILE_CONNECTION_STATES)
+                                ? mProfileConnectionStates
+                                : null);
+            }
+        }
     }
 
     private void sendUuidIntent(BluetoothDevice device, DeviceProperties prop, boolean success) {
@@ -1076,46 +1208,20 @@ public class RemoteDevices {
             errorLog("deviceFoundCallback: Device Properties is null for Device:" + device);
             return;
         }
-        boolean restrict_device_found =
-                SystemProperties.getBoolean("bluetooth.restrict_discovered_device.enabled", false);
-        if (restrict_device_found && (deviceProp.mName == null || deviceProp.mName.isEmpty())) {
-            warnLog("deviceFoundCallback: Device name is null or empty: " + device);
-            return;
-        }
-
-        infoLog("deviceFoundCallback: Remote Address is:" + device);
-        Intent intent = new Intent(BluetoothDevice.ACTION_FOUND);
-        intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
-        intent.putExtra(
-                BluetoothDevice.EXTRA_CLASS, new BluetoothClass(deviceProp.getBluetoothClass()));
-        intent.putExtra(BluetoothDevice.EXTRA_RSSI, deviceProp.getRssi());
-        intent.putExtra(BluetoothDevice.EXTRA_NAME, deviceProp.getName());
-        intent.putExtra(
-                BluetoothDevice.EXTRA_IS_COORDINATED_SET_MEMBER,
+        mDiscoveryDispatcher.onDeviceFound(
+                device,
+                deviceProp.getName(),
+                deviceProp.getBluetoothClass(),
+                deviceProp.getRssi(),
                 deviceProp.isCoordinatedSetMember());
+    }
 
-        final List<DiscoveringPackage> packages = mAdapterService.getDiscoveringPackages();
-        synchronized (packages) {
-            for (DiscoveringPackage pkg : packages) {
-                if (pkg.hasDisavowedLocation()) {
-                    if (mLocationDenylistPredicate.test(device)) {
-                        continue;
-                    }
-                }
-
-                intent.setPackage(pkg.getPackageName());
+    void onDiscoveryStarted() {
+        mDiscoveryDispatcher.onDiscoveryStarted();
+    }
 
-                if (pkg.getPermission() != null) {
-                    mAdapterService.sendBroadcastMultiplePermissions(
-                            intent,
-                            new String[] {BLUETOOTH_SCAN, pkg.getPermission()},
-                            Utils.getTempBroadcastOptions());
-                } else {
-                    mAdapterService.sendBroadcastMultiplePermissions(
-                            intent, new String[] {BLUETOOTH_SCAN}, Utils.getTempBroadcastOptions());
-                }
-            }
-        }
+    void onDiscoveryStopped() {
+        mDiscoveryDispatcher.onDiscoveryStopped();
     }
 
     void addressConsolidateCallback(byte[] mainAddress, byte[] secondaryAddress) {
@@ -1140,7 +1246,8 @@ public class RemoteDevices {
         deviceProperties.setDeviceType(BluetoothDevice.DEVICE_TYPE_DUAL);
         deviceProperties.setIdentityAddress(Utils.getAddressStringFromByte(secondaryAddress));
         mDualDevicesMap.put(
-                deviceProperties.getIdentityAddress(), Utils.getAddressStringFromByte(mainAddress));
+                RemoteDeviceTable.addressToKey(secondaryAddress),
+                RemoteDeviceTable.addressToKey(mainAddress));
     }
 
     /**
@@ -1334,11 +1441,12 @@ public class RemoteDevices {
 
     private void removeAddressMapping(String address) {
         if (Flags.temporaryPairingDeviceProperties()) {
-            DeviceProperties deviceProperties = mDevices.get(address);
+            long key = RemoteDeviceTable.addressToKey(address);
+            DeviceProperties deviceProperties = mDevices.get(key);
             if (deviceProperties != null) {
-                String pseudoAddress = mDualDevicesMap.get(address);
-                if (pseudoAddress != null) {
-                    deviceProperties = mDevices.get(pseudoAddress);
+                long pseudoKey = mDualDevicesMap.get(key);
+                if (pseudoKey != RemoteDeviceTable.INVALID_KEY) {
+                    deviceProperties = mDevices.get(pseudoKey);
                 }
             }
 
@@ -1355,13 +1463,13 @@ public class RemoteDevices {
             }
         }
 
+        long key = RemoteDeviceTable.addressToKey(address);
         synchronized (mDevices) {
-            mDevices.remove(address);
-            mDeviceQueue.remove(address); // Remove from LRU cache
+            mDevices.remove(key); // Also removes it from the eviction order
 
             // Remove from dual mode device mappings
-            mDualDevicesMap.values().remove(address);
-            mDualDevicesMap.remove(address);
+            mDualDevicesMap.removeValue(key);
+            mDualDevicesMap.remove(key);
         }
     }
 
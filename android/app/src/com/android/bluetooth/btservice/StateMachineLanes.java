@@ -0,0 +1,279 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded set of threads shared by the profile state machines, instead of one thread per profile.
+ *
+ * <p>Each device is bound to one lane, so the state machines of a device run in order on the same
+ * thread whatever their profile, while different devices run in parallel on different lanes. A
+ * lane is a plain {@link Looper}: a profile opts in by building its state machines with {@link
+ * #getLooper(BluetoothDevice)} instead of the looper of its own thread, and the state machines keep
+ * the exact same semantics. State machines must not block their lane, other devices would wait.
+ *
+ * <p>Each lane reports how late its messages are dispatched, sampled once per {@link
+ * #PROBE_INTERVAL_MS} while the lane is in use, and how many messages wait in its {@link
+ * #getHandler(BluetoothDevice) handler}.
+ */
+public class StateMachineLanes {
+    private static final String TAG = StateMachineLanes.class.getSimpleName();
+
+    @VisibleForTesting static final int MAX_LANES = 4;
+    @VisibleForTesting static final long PROBE_INTERVAL_MS = 1000;
+
+    private final Lane[] mLanes;
+
+    public StateMachineLanes() {
+        this(Math.max(1, Math.min(MAX_LANES, Runtime.getRuntime().availableProcessors())));
+    }
+
+    @VisibleForTesting
+    StateMachineLanes(int laneCount) {
+        this(startThreads(laneCount), SystemClock::uptimeMillis, PROBE_INTERVAL_MS);
+    }
+
+    @VisibleForTesting
+    StateMachineLanes(Looper[] loopers, LongSupplier clock, long probeIntervalMs) {
+        mLanes = new Lane[loopers.length];
+        for (int i = 0; i < loopers.length; i++) {
+            mLanes[i] = new Lane(loopers[i], clock, probeIntervalMs);
+        }
+        Log.i(TAG, "Started " + loopers.length + " lanes");
+    }
+
+    private static Looper[] startThreads(int laneCount) {
+        Looper[] loopers = new Looper[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            HandlerThread thread = new HandlerThread("BluetoothStateMachines." + i);
+            thread.start();
+            loopers[i] = thread.getLooper();
+        }
+        return loopers;
+    }
+
+    /** Looper of the lane of a device, to build the state machines of the device with. */
+    public Looper getLooper(BluetoothDevice device) {
+        return mLanes[getLaneIndex(device)].getLooper();
+    }
+
+    /**
+     * Handler of the lane of a device, for callbacks to run in order with its state machines, e.g.
+     * GATT callbacks. The messages it holds are reported as the queue depth of the lane.
+     */
+    public Handler getHandler(BluetoothDevice device) {
+        return mLanes[getLaneIndex(device)];
+    }
+
+    @VisibleForTesting
+    int getLaneIndex(BluetoothDevice device) {
+        return Math.floorMod(device.getAddress().hashCode(), mLanes.length);
+    }
+
+    @VisibleForTesting
+    int getLaneCount() {
+        return mLanes.length;
+    }
+
+    /** Number of dispatch latency samples taken on a lane. */
+    @VisibleForTesting
+    long getProbeCount(int lane) {
+        return mLanes[lane].mProbes;
+    }
+
+    /** Longest time a message waited past its dispatch time on a lane, among the samples. */
+    @VisibleForTesting
+    long getMaxDispatchLatencyMs(int lane) {
+        return mLanes[lane].mMaxDispatchLatencyMs;
+    }
+
+    /** Number of messages waiting in the handler of a lane. */
+    @VisibleForTesting
+    int getQueueDepth(int lane) {
+        return mLanes[lane].mQueueDepth.get();
+    }
+
+    /** Most messages that waited in the handler of a lane at once. */
+    @VisibleForTesting
+    int getMaxQueueDepth(int lane) {
+        return mLanes[lane].mMaxQueueDepth.get();
+    }
+
+    /** Let a lane know it ran out of messages, as its {@link MessageQueue.IdleHandler} does. */
+    @VisibleForTesting
+    void onLaneIdle(int lane) {
+        mLanes[lane].queueIdle();
+    }
+
+    /** Stop the lanes once every state machine running on them has quit. */
+    public void quit() {
+        for (Lane lane : mLanes) {
+            lane.quit();
+        }
+    }
+
+    public void dump(PrintWriter writer) {
+        writer.println();
+        writer.println("StateMachineLanes:");
+        for (Lane lane : mLanes) {
+            writer.println("  " + lane);
+        }
+    }
+
+    /**
+     * Handler of a lane, timing the dispatch of probe messages.
+     *
+     * <p>A probe is due one interval after it is sent, and the time between then and its dispatch
+     * is how long messages wait behind the ones being handled. Sampling starts when the lane runs
+     * out of messages after handling some, and stops at the first probe that finds no message was
+     * handled since the previous one, so an unused lane isn't woken up.
+     *
+     * <p>The queue depth counts the other messages sent through this handler and not dispatched
+     * yet. Messages removed before their dispatch aren't accounted for, so they must not be.
+     */
+    private static final class Lane extends Handler implements MessageQueue.IdleHandler {
+        private static final int MSG_PROBE = 1;
+        // Tells probes apart from messages of other users of the handler
+        private static final Object PROBE_TOKEN = new Object();
+
+        private final LongSupplier mClock;
+        private final long mProbeIntervalMs;
+
+        // Only used on the lane thread
+        private boolean mSampling;
+        private boolean mUsedSinceProbe;
+        private boolean mProbeHandled;
+        private long mProbeDueMs;
+
+        // Only updated on the lane thread, volatile for dump
+        volatile long mProbes;
+        volatile long mLastDispatchLatencyMs;
+        volatile long mTotalDispatchLatencyMs;
+        volatile long mMaxDispatchLatencyMs;
+        volatile int mLastQueueDepth;
+
+        final AtomicInteger mQueueDepth = new AtomicInteger();
+        final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+
+        Lane(Looper looper, LongSupplier clock, long probeIntervalMs) {
+            super(looper);
+            mClock = clock;
+            mProbeIntervalMs = probeIntervalMs;
+            looper.getQueue().addIdleHandler(this);
+        }
+
+        @Override
+        public boolean queueIdle() {
+            if (mProbeHandled) {
+                // Out of messages right after the probe, nothing else was handled
+                mProbeHandled = false;
+                return true;
+            }
+            mUsedSinceProbe = true;
+            if (!mSampling) {
+                mSampling = true;
+                sendProbe();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean sendMessageAtTime(Message msg, long uptimeMillis) {
+            boolean probe = isProbe(msg);
+            if (!probe) {
+                int depth = mQueueDepth.incrementAndGet();
+                mMaxQueueDepth.accumulateAndGet(depth, Math::max);
+            }
+            boolean sent = super.sendMessageAtTime(msg, uptimeMillis);
+            if (!sent && !probe) {
+                mQueueDepth.decrementAndGet();
+            }
+            return sent;
+        }
+
+        @Override
+        public void dispatchMessage(Message msg) {
+            if (!isProbe(msg)) {
+                mQueueDepth.decrementAndGet();
+                super.dispatchMessage(msg);
+                return;
+            }
+            long latencyMs = Math.max(0, mClock.getAsLong() - mProbeDueMs);
+            mProbes++;
+            mLastDispatchLatencyMs = latencyMs;
+            mTotalDispatchLatencyMs += latencyMs;
+            mMaxDispatchLatencyMs = Math.max(mMaxDispatchLatencyMs, latencyMs);
+            mLastQueueDepth = mQueueDepth.get();
+            mProbeHandled = true;
+            if (mUsedSinceProbe) {
+                mUsedSinceProbe = false;
+                sendProbe();
+            } else {
+                mSampling = false;
+            }
+        }
+
+        private static boolean isProbe(Message msg) {
+            return msg.what == MSG_PROBE && msg.obj == PROBE_TOKEN;
+        }
+
+        private void sendProbe() {
+            mProbeDueMs = mClock.getAsLong() + mProbeIntervalMs;
+            sendMessageDelayed(obtainMessage(MSG_PROBE, PROBE_TOKEN), mProbeIntervalMs);
+        }
+
+        void quit() {
+            getLooper().getQueue().removeIdleHandler(this);
+            removeMessages(MSG_PROBE, PROBE_TOKEN);
+            getLooper().quitSafely();
+        }
+
+        @Override
+        public String toString() {
+            long probes = mProbes;
+            return getLooper().getThread().getName()
+                    + ": probes="
+                    + probes
+                    + " dispatchLatencyMs(last/avg/max)="
+                    + mLastDispatchLatencyMs
+                    + "/"
+                    + (probes == 0 ? 0 : mTotalDispatchLatencyMs / probes)
+                    + "/"
+                    + mMaxDispatchLatencyMs
+                    + " queueDepth(probe/now/max)="
+                    + mLastQueueDepth
+                    + "/"
+                    + mQueueDepth.get()
+                    + "/"
+                    + mMaxQueueDepth.get();
+        }
+    }
+}
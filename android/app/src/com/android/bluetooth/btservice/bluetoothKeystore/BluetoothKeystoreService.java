@@ -23,6 +23,7 @@ import android.security.keystore.KeyProperties;
 import android.util.Log;
 
 import com.android.bluetooth.BluetoothKeystoreProto;
+import com.android.bluetooth.flags.Flags;
 import com.android.internal.annotations.VisibleForTesting;
 
 import com.google.protobuf.ByteString;
@@ -30,7 +31,10 @@ import com.google.protobuf.ByteString;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyStore;
@@ -44,10 +48,15 @@ import java.security.cert.CertificateException;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -82,6 +91,19 @@ public class BluetoothKeystoreService {
 
     private static final String CONFIG_FILE_PATH = "/data/misc/bluedroid/bt_config.conf";
 
+    // Keys changed since the encryption file was written, applied on top of it when loading. Both
+    // files start with the generation of the encryption file, a journal of another generation is
+    // stale and ignored.
+    private static final String CONFIG_FILE_JOURNAL_PATH =
+            "/data/misc/bluedroid/bt_config.conf.encrypted.journal";
+    private static final String CONFIG_FILE_COMPACTION_PATH =
+            "/data/misc/bluedroid/bt_config.conf.encrypted.tmp";
+    private static final String GENERATION_PREFIX = "#";
+
+    // The journal is folded into the encryption file once it has more entries than this, or than
+    // there are keys.
+    @VisibleForTesting static final int MIN_JOURNAL_ENTRIES_FOR_COMPACTION = 64;
+
     private static final int BUFFER_SIZE = 400 * 10;
 
     private static final int CONFIG_COMPARE_INIT = 0b00;
@@ -96,6 +118,16 @@ public class BluetoothKeystoreService {
     private Map<String, String> mNameDecryptKey = new HashMap<>();
     private BlockingQueue<String> mPendingDecryptKey = new LinkedBlockingQueue<>();
     private BlockingQueue<String> mPendingEncryptKey = new LinkedBlockingQueue<>();
+    // Keys put in mPendingEncryptKey and not encrypted yet, notified when it drops to 0
+    private final AtomicInteger mPendingEncryptCount = new AtomicInteger();
+    // Keys encrypted or removed since the last save
+    private final Set<String> mChangedKeys = ConcurrentHashMap.newKeySet();
+    private int mJournalGeneration;
+    private int mJournalEntries;
+
+    private volatile SecretKey mSecretKey;
+    // Cipher instances are not thread safe, each encryption or decryption thread keeps its own
+    private final ThreadLocal<Cipher> mCiphers = new ThreadLocal<>();
     private final List<String> mEncryptKeyNameList =
             List.of(
                     "LinkKey",
@@ -287,7 +319,7 @@ public class BluetoothKeystoreService {
                 cleanupAll();
             } else if (decryptedString.equals(CONFIG_FILE_HASH)) {
                 readHashFile(CONFIG_FILE_PATH, CONFIG_FILE_PREFIX);
-                mPendingEncryptKey.put(CONFIG_FILE_PREFIX);
+                queueEncryption(CONFIG_FILE_PREFIX);
                 saveEncryptedKey();
             }
             return;
@@ -297,12 +329,18 @@ public class BluetoothKeystoreService {
             // clear the item by prefixString.
             mNameDecryptKey.remove(prefixString);
             mNameEncryptKey.remove(prefixString);
+            mChangedKeys.add(prefixString);
         } else {
             mNameDecryptKey.put(prefixString, decryptedString);
-            mPendingEncryptKey.put(prefixString);
+            queueEncryption(prefixString);
         }
     }
 
+    private void queueEncryption(String prefixString) throws InterruptedException {
+        mPendingEncryptCount.incrementAndGet();
+        mPendingEncryptKey.put(prefixString);
+    }
+
     /** Clean up memory and all files. */
     @VisibleForTesting
     public void cleanupAll() throws IOException {
@@ -313,6 +351,9 @@ public class BluetoothKeystoreService {
     private void cleanupFile() throws IOException {
         Files.deleteIfExists(Paths.get(CONFIG_CHECKSUM_ENCRYPTION_PATH));
         Files.deleteIfExists(Paths.get(CONFIG_FILE_ENCRYPTION_PATH));
+        Files.deleteIfExists(Paths.get(CONFIG_FILE_JOURNAL_PATH));
+        mJournalGeneration = 0;
+        mJournalEntries = 0;
     }
 
     /** Clean up memory. */
@@ -321,6 +362,7 @@ public class BluetoothKeystoreService {
         stopThread();
         mNameEncryptKey.clear();
         mNameDecryptKey.clear();
+        mChangedKeys.clear();
         startThread();
     }
 
@@ -361,6 +403,12 @@ public class BluetoothKeystoreService {
     /** Save encryption key into the encryption file. */
     @VisibleForTesting
     public void saveEncryptedKey() {
+        if (Flags.keystoreJournal()
+                && mEncryptDataThread != null
+                && mEncryptDataThread.isAlive()) {
+            saveEncryptedKeyChanges();
+            return;
+        }
         stopThread();
         List<String> configEncryptedLines = new ArrayList<>();
         List<String> keyEncryptedLines = new ArrayList<>();
@@ -379,12 +427,105 @@ public class BluetoothKeystoreService {
             }
             if (!keyEncryptedLines.isEmpty()) {
                 Files.write(Paths.get(CONFIG_FILE_ENCRYPTION_PATH), keyEncryptedLines);
+                // The journal was written on top of the previous encryption file
+                Files.deleteIfExists(Paths.get(CONFIG_FILE_JOURNAL_PATH));
+                mChangedKeys.clear();
+                mJournalGeneration = 0;
+                mJournalEntries = 0;
             }
         } catch (IOException e) {
             throw new RuntimeException("write encryption file fail");
         }
     }
 
+    /**
+     * Append the keys changed since the last save to the journal, rather than writing all the
+     * keys again, and fold the journal into the encryption file when it grows too long.
+     */
+    private void saveEncryptedKeyChanges() {
+        try {
+            waitForPendingEncryption();
+        } catch (InterruptedException e) {
+            reportBluetoothKeystoreException(e, "Interrupted while operating.");
+            return;
+        }
+
+        List<String> journalLines = new ArrayList<>();
+        for (Iterator<String> it = mChangedKeys.iterator(); it.hasNext(); ) {
+            String key = it.next();
+            it.remove();
+            if (key.equals(CONFIG_FILE_PREFIX)) {
+                continue;
+            }
+            // An empty value removes the key
+            String encryptedData = mNameEncryptKey.get(key);
+            journalLines.add(key + "-" + (encryptedData == null ? "" : encryptedData));
+        }
+
+        try {
+            if (mNameEncryptKey.containsKey(CONFIG_FILE_PREFIX)) {
+                Files.write(
+                        Paths.get(CONFIG_CHECKSUM_ENCRYPTION_PATH),
+                        List.of(getEncryptedKeyData(CONFIG_FILE_PREFIX)));
+            }
+            int journalEntries = mJournalEntries + journalLines.size();
+            int maxJournalEntries =
+                    Math.max(MIN_JOURNAL_ENTRIES_FOR_COMPACTION, mNameEncryptKey.size());
+            if (!Files.exists(Paths.get(CONFIG_FILE_ENCRYPTION_PATH))
+                    || journalEntries > maxJournalEntries) {
+                compactEncryptionFile();
+            } else if (!journalLines.isEmpty()) {
+                Path journalPath = Paths.get(CONFIG_FILE_JOURNAL_PATH);
+                if (!Files.exists(journalPath)) {
+                    journalLines.add(0, GENERATION_PREFIX + mJournalGeneration);
+                }
+                Files.write(
+                        journalPath,
+                        journalLines,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND);
+                mJournalEntries = journalEntries;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("write encryption file fail");
+        }
+    }
+
+    /** Write all the keys in a new generation of the encryption file, and drop the journal. */
+    private void compactEncryptionFile() throws IOException {
+        List<String> keyEncryptedLines = new ArrayList<>();
+        keyEncryptedLines.add(GENERATION_PREFIX + (mJournalGeneration + 1));
+        for (String key : mNameEncryptKey.keySet()) {
+            if (!key.equals(CONFIG_FILE_PREFIX)) {
+                keyEncryptedLines.add(getEncryptedKeyData(key));
+            }
+        }
+        Path compactionPath = Paths.get(CONFIG_FILE_COMPACTION_PATH);
+        Files.write(compactionPath, keyEncryptedLines);
+        Files.move(
+                compactionPath,
+                Paths.get(CONFIG_FILE_ENCRYPTION_PATH),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        // From now on the journal is stale, even if it can't be deleted
+        mJournalGeneration++;
+        mJournalEntries = 0;
+        Files.deleteIfExists(Paths.get(CONFIG_FILE_JOURNAL_PATH));
+    }
+
+    private void waitForPendingEncryption() throws InterruptedException {
+        synchronized (mPendingEncryptCount) {
+            while (mPendingEncryptCount.get() > 0) {
+                mPendingEncryptCount.wait();
+            }
+        }
+    }
+
+    @VisibleForTesting
+    int getJournalEntryCount() {
+        return mJournalEntries;
+    }
+
     private String getEncryptedKeyData(String prefixString) {
         if (prefixString == null) {
             return null;
@@ -524,7 +665,7 @@ public class BluetoothKeystoreService {
             }
 
             mNameDecryptKey.put(prefixString, dataString);
-            mPendingEncryptKey.put(prefixString);
+            queueEncryption(prefixString);
         }
     }
 
@@ -537,16 +678,31 @@ public class BluetoothKeystoreService {
                 return;
             }
             List<String> allLinesString = Files.readAllLines(Paths.get(filePathString));
-            for (String line : allLinesString) {
-                int index = line.lastIndexOf("-");
-                if (index < 0) {
+            Map<String, String> entries = new LinkedHashMap<>();
+            readEncryptedLines(allLinesString, entries);
+            if (CONFIG_FILE_ENCRYPTION_PATH.equals(filePathString)) {
+                loadJournal(readGeneration(allLinesString), entries);
+            }
+
+            List<String> decryptKeys = new ArrayList<>();
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                String prefixString = entry.getKey();
+                String encryptedString = entry.getValue();
+                if (encryptedString.isEmpty()) {
+                    // Removed by the journal
+                    mNameEncryptKey.remove(prefixString);
                     continue;
                 }
-                String prefixString = line.substring(0, index);
-                String encryptedString = line.substring(index + 1);
-
                 mNameEncryptKey.put(prefixString, encryptedString);
                 if (doDecrypt) {
+                    decryptKeys.add(prefixString);
+                }
+            }
+
+            if (Flags.keystoreJournal()) {
+                decryptInParallel(decryptKeys, entries);
+            } else {
+                for (String prefixString : decryptKeys) {
                     mPendingDecryptKey.put(prefixString);
                 }
             }
@@ -555,6 +711,63 @@ public class BluetoothKeystoreService {
         }
     }
 
+    /** Apply the journal written on top of the encryption file of a generation. */
+    private void loadJournal(int generation, Map<String, String> entries) throws IOException {
+        mJournalGeneration = generation;
+        mJournalEntries = 0;
+        Path journalPath = Paths.get(CONFIG_FILE_JOURNAL_PATH);
+        if (!Files.exists(journalPath)) {
+            return;
+        }
+        List<String> journalLines = Files.readAllLines(journalPath);
+        if (readGeneration(journalLines) != generation) {
+            infoLog("loadJournal: stale journal ignored");
+            return;
+        }
+        mJournalEntries = readEncryptedLines(journalLines, entries);
+    }
+
+    /** Parse "prefix-encryptedData" lines, in order, returning how many were read. */
+    private static int readEncryptedLines(List<String> lines, Map<String, String> entries) {
+        int count = 0;
+        for (String line : lines) {
+            int index = line.lastIndexOf("-");
+            if (index < 0 || line.startsWith(GENERATION_PREFIX)) {
+                continue;
+            }
+            entries.put(line.substring(0, index), line.substring(index + 1));
+            count++;
+        }
+        return count;
+    }
+
+    private static int readGeneration(List<String> lines) {
+        if (lines.isEmpty() || !lines.get(0).startsWith(GENERATION_PREFIX)) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(lines.get(0).substring(GENERATION_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Decrypt the keys loaded at boot on all cores, instead of one by one. */
+    private void decryptInParallel(List<String> prefixStrings, Map<String, String> entries) {
+        Map<String, String> decrypted = new ConcurrentHashMap<>();
+        prefixStrings.parallelStream()
+                .forEach(
+                        prefixString -> {
+                            String data = tryCompute(entries.get(prefixString), false);
+                            if (data != null) {
+                                decrypted.put(prefixString, data);
+                            } else {
+                                errorLog("decryptInParallel: failed, prefix: " + prefixString);
+                            }
+                        });
+        mNameDecryptKey.putAll(decrypted);
+    }
+
     // will retry TRY_MAX times.
     private String tryCompute(String sourceData, boolean doEncrypt) {
         int counter = 0;
@@ -591,7 +804,7 @@ public class BluetoothKeystoreService {
                 errorLog("encrypt: data is null");
                 return outputBase64;
             }
-            Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+            Cipher cipher = getCipher();
             SecretKey secretKeyReference = getOrCreateSecretKey();
 
             if (secretKeyReference != null) {
@@ -645,7 +858,7 @@ public class BluetoothKeystoreService {
             }
             encryptedDataBytes = mDecoder.decode(encryptedDataBase64);
             protobuf = BluetoothKeystoreProto.EncryptedData.parser().parseFrom(encryptedDataBytes);
-            Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+            Cipher cipher = getCipher();
             GCMParameterSpec spec =
                     new GCMParameterSpec(GCM_TAG_LENGTH, protobuf.getInitVector().toByteArray());
             SecretKey secretKeyReference = getOrCreateSecretKey();
@@ -676,6 +889,18 @@ public class BluetoothKeystoreService {
         return output;
     }
 
+    private Cipher getCipher() throws NoSuchAlgorithmException, NoSuchPaddingException {
+        if (!Flags.keystoreJournal()) {
+            return Cipher.getInstance(CIPHER_ALGORITHM);
+        }
+        Cipher cipher = mCiphers.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+            mCiphers.set(cipher);
+        }
+        return cipher;
+    }
+
     private KeyStore getKeyStore() {
         KeyStore keyStore = null;
         int counter = 0;
@@ -697,6 +922,10 @@ public class BluetoothKeystoreService {
 
     // The getOrGenerate semantic on keystore is not thread safe, need to synchronized it.
     private synchronized SecretKey getOrCreateSecretKey() {
+        // The key never changes once created, don't look it up in the keystore each time
+        if (Flags.keystoreJournal() && mSecretKey != null) {
+            return mSecretKey;
+        }
         SecretKey secretKey = null;
         try {
             KeyStore keyStore = getKeyStore();
@@ -741,6 +970,7 @@ public class BluetoothKeystoreService {
         } catch (ProviderException e) {
             reportKeystoreException(e, "getOrCreateSecretKey had a provider exception.");
         }
+        mSecretKey = secretKey;
         return secretKey;
     }
 
@@ -798,11 +1028,19 @@ public class BluetoothKeystoreService {
             while (!mSourceQueue.isEmpty() || !mWaitQueueEmptyForStop) {
                 try {
                     prefixString = mSourceQueue.take();
+                } catch (InterruptedException e) {
+                    infoLog("Interrupted while operating.");
+                    continue;
+                }
+                try {
                     if (mSourceDataMap.containsKey(prefixString)) {
                         sourceData = mSourceDataMap.get(prefixString);
                         targetData = tryCompute(sourceData, mDoEncrypt);
                         if (targetData != null) {
                             mTargetDataMap.put(prefixString, targetData);
+                            if (mDoEncrypt) {
+                                mChangedKeys.add(prefixString);
+                            }
                         } else {
                             errorLog(
                                     "Computing of Data failed with prefixString: "
@@ -811,8 +1049,12 @@ public class BluetoothKeystoreService {
                                             + mDoEncrypt);
                         }
                     }
-                } catch (InterruptedException e) {
-                    infoLog("Interrupted while operating.");
+                } finally {
+                    if (mDoEncrypt && mPendingEncryptCount.decrementAndGet() <= 0) {
+                        synchronized (mPendingEncryptCount) {
+                            mPendingEncryptCount.notifyAll();
+                        }
+                    }
                 }
             }
             infoLog("ComputeDataThread: Stop, doEncrypt: " + mDoEncrypt);
@@ -17,11 +17,11 @@
 
 package com.android.bluetooth.csip;
 
-import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.util.Log;
 
 import com.android.bluetooth.Utils;
+import com.android.bluetooth.util.AddressCodec;
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
@@ -30,19 +30,13 @@ import java.util.UUID;
 /** CSIP Set Coordinator role native interface */
 public class CsipSetCoordinatorNativeInterface {
     private static final String TAG = "CsipSetCoordinatorNativeInterface";
-    private BluetoothAdapter mAdapter;
 
     @GuardedBy("INSTANCE_LOCK")
     private static CsipSetCoordinatorNativeInterface sInstance;
 
     private static final Object INSTANCE_LOCK = new Object();
 
-    private CsipSetCoordinatorNativeInterface() {
-        mAdapter = BluetoothAdapter.getDefaultAdapter();
-        if (mAdapter == null) {
-            Log.wtf(TAG, "No Bluetooth Adapter Available");
-        }
-    }
+    private CsipSetCoordinatorNativeInterface() {}
 
     /** Get singleton instance. */
     public static CsipSetCoordinatorNativeInterface getInstance() {
@@ -107,7 +101,7 @@ public class CsipSetCoordinatorNativeInterface {
      */
     @VisibleForTesting
     public BluetoothDevice getDevice(byte[] address) {
-        return mAdapter.getRemoteDevice(address);
+        return AddressCodec.getDevice(address);
     }
 
     private byte[] getByteAddress(BluetoothDevice device) {
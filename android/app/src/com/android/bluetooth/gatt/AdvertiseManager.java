@@ -31,6 +31,7 @@ import android.os.RemoteException;
 import android.util.Log;
 
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.flags.Flags;
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.util.Collections;
@@ -49,6 +50,9 @@ public class AdvertiseManager {
     private final AdvertiserMap mAdvertiserMap;
     private Handler mHandler;
     Map<IBinder, AdvertiserInfo> mAdvertisers = Collections.synchronizedMap(new HashMap<>());
+    // Index of mAdvertisers by advertiser id, guarded by mAdvertisers
+    private final Map<Integer, IBinder> mAdvertiserIds = new HashMap<>();
+    private final AdvertisingSetMultiplexer mMultiplexer;
     static int sTempRegistrationId = -1;
 
     AdvertiseManager(GattService service) {
@@ -70,6 +74,9 @@ public class AdvertiseManager {
         HandlerThread thread = new HandlerThread("BluetoothAdvertiseManager");
         thread.start();
         mHandler = new Handler(thread.getLooper());
+        mMultiplexer =
+                new AdvertisingSetMultiplexer(
+                        mNativeInterface, mAdvertiserMap, mHandler, () -> --sTempRegistrationId);
     }
 
     // TODO(b/327849650): We shouldn't need this, it should be safe to do in the cleanup method. But
@@ -81,7 +88,11 @@ public class AdvertiseManager {
     void cleanup() {
         Log.d(TAG, "cleanup()");
         mNativeInterface.cleanup();
-        mAdvertisers.clear();
+        mMultiplexer.clear();
+        synchronized (mAdvertisers) {
+            mAdvertisers.clear();
+            mAdvertiserIds.clear();
+        }
         sTempRegistrationId = -1;
 
         if (mHandler != null) {
@@ -96,6 +107,7 @@ public class AdvertiseManager {
     }
 
     void dump(StringBuilder sb) {
+        mMultiplexer.dump(sb);
         mAdvertiserMap.dump(sb);
     }
 
@@ -105,14 +117,25 @@ public class AdvertiseManager {
         public Integer id;
         public AdvertisingSetDeathRecipient deathRecipient;
         public IAdvertisingSetCallback callback;
+        /* Parameters and payloads, when the advertiser can share a set */
+        public AdvertisingSetMultiplexer.Payload payload;
 
         AdvertiserInfo(
                 Integer id,
                 AdvertisingSetDeathRecipient deathRecipient,
                 IAdvertisingSetCallback callback) {
+            this(id, deathRecipient, callback, null);
+        }
+
+        AdvertiserInfo(
+                Integer id,
+                AdvertisingSetDeathRecipient deathRecipient,
+                IAdvertisingSetCallback callback,
+                AdvertisingSetMultiplexer.Payload payload) {
             this.id = id;
             this.deathRecipient = deathRecipient;
             this.callback = callback;
+            this.payload = payload;
         }
     }
 
@@ -136,15 +159,31 @@ public class AdvertiseManager {
         }
     }
 
-    Map.Entry<IBinder, AdvertiserInfo> findAdvertiser(int advertiserId) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = null;
-        for (Map.Entry<IBinder, AdvertiserInfo> e : mAdvertisers.entrySet()) {
-            if (e.getValue().id == advertiserId) {
-                entry = e;
-                break;
+    AdvertiserInfo findAdvertiser(int advertiserId) {
+        synchronized (mAdvertisers) {
+            IBinder binder = mAdvertiserIds.get(advertiserId);
+            return binder == null ? null : mAdvertisers.get(binder);
+        }
+    }
+
+    private void putAdvertiser(IBinder binder, AdvertiserInfo info) {
+        synchronized (mAdvertisers) {
+            AdvertiserInfo previous = mAdvertisers.put(binder, info);
+            if (previous != null) {
+                mAdvertiserIds.remove(previous.id);
             }
+            mAdvertiserIds.put(info.id, binder);
+        }
+    }
+
+    private AdvertiserInfo removeAdvertiser(IBinder binder) {
+        synchronized (mAdvertisers) {
+            AdvertiserInfo info = mAdvertisers.remove(binder);
+            if (info != null) {
+                mAdvertiserIds.remove(info.id);
+            }
+            return info;
         }
-        return entry;
     }
 
     void onAdvertisingSetStarted(int regId, int advertiserId, int txPower, int status)
@@ -158,38 +197,122 @@ public class AdvertiseManager {
                         + ", status="
                         + status);
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(regId);
+        if (mMultiplexer.isCarrierRegistration(regId)) {
+            onSharedAdvertisingSetStarted(advertiserId, txPower, status);
+            return;
+        }
 
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(regId);
+
+        if (info == null) {
             Log.i(TAG, "onAdvertisingSetStarted() - no callback found for regId " + regId);
             // Advertising set was stopped before it was properly registered.
             mNativeInterface.stopAdvertisingSet(advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
+        IAdvertisingSetCallback callback = info.callback;
+        IBinder binder = toBinder(callback);
         if (status == 0) {
-            entry.setValue(
-                    new AdvertiserInfo(advertiserId, entry.getValue().deathRecipient, callback));
+            putAdvertiser(binder, new AdvertiserInfo(advertiserId, info.deathRecipient, callback));
 
             mAdvertiserMap.setAdvertiserIdByRegId(regId, advertiserId);
+        } else if (status == AdvertiseCallback.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS
+                && info.payload != null
+                && mMultiplexer.isSharing()) {
+            startSharedAdvertisingSet(regId, binder, info);
+            return;
         } else {
-            IBinder binder = entry.getKey();
-            binder.unlinkToDeath(entry.getValue().deathRecipient, 0);
-            mAdvertisers.remove(binder);
-
-            AppAdvertiseStats stats = mAdvertiserMap.getAppAdvertiseStatsById(regId);
-            if (stats != null) {
-                stats.recordAdvertiseStop(mAdvertisers.size());
-                stats.recordAdvertiseErrorCount(status);
+            removeFailedAdvertiser(binder, info, regId, status);
+            if (status == AdvertiseCallback.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS
+                    && Flags.virtualAdvertisingSets()) {
+                // Reserve the shared set before the controller runs out next time
+                mMultiplexer.onPoolExhausted(countControllerSets());
             }
-            mAdvertiserMap.removeAppAdvertiseStats(regId);
         }
 
         IBinder gattBinder = mService.getBinder();
         callback.onAdvertisingSetStarted(gattBinder, advertiserId, txPower, status);
     }
 
+    /**
+     * Start an advertiser the controller had no set left for on the shared set, see {@link
+     * AdvertisingSetMultiplexer}. The app is answered once the shared set is started.
+     */
+    private void startSharedAdvertisingSet(int regId, IBinder binder, AdvertiserInfo info)
+            throws RemoteException {
+        int advertiserId = addSharedAdvertiser(regId, binder, info);
+        if (mMultiplexer.hasCarrier()) {
+            IBinder gattBinder = mService.getBinder();
+            info.callback.onAdvertisingSetStarted(
+                    gattBinder,
+                    advertiserId,
+                    info.payload.mTxPower,
+                    AdvertiseCallback.ADVERTISE_SUCCESS);
+        }
+    }
+
+    private int addSharedAdvertiser(int regId, IBinder binder, AdvertiserInfo info) {
+        int advertiserId = mMultiplexer.addMember(info.payload);
+        putAdvertiser(
+                binder,
+                new AdvertiserInfo(advertiserId, info.deathRecipient, info.callback, info.payload));
+        mAdvertiserMap.setAdvertiserIdByRegId(regId, advertiserId);
+        Log.i(
+                TAG,
+                "addSharedAdvertiser() - regId="
+                        + regId
+                        + ", advertiserId="
+                        + advertiserId
+                        + ", "
+                        + mMultiplexer);
+        return advertiserId;
+    }
+
+    /** Controller sets held or being started by the apps and by the shared set. */
+    private int countControllerSets() {
+        int count = mMultiplexer.isSharing() ? 1 : 0;
+        synchronized (mAdvertisers) {
+            for (AdvertiserInfo info : mAdvertisers.values()) {
+                if (!mMultiplexer.isMember(info.id)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private void onSharedAdvertisingSetStarted(int advertiserId, int txPower, int status)
+            throws RemoteException {
+        IBinder gattBinder = mService.getBinder();
+        for (int id : mMultiplexer.onCarrierStarted(advertiserId, txPower, status)) {
+            AdvertiserInfo info = findAdvertiser(id);
+            if (info == null) {
+                continue;
+            }
+            if (status != 0) {
+                removeFailedAdvertiser(toBinder(info.callback), info, id, status);
+            }
+            info.callback.onAdvertisingSetStarted(gattBinder, id, txPower, status);
+        }
+        if (status == AdvertiseCallback.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS) {
+            // Other users of the stack took the set that looked free
+            mMultiplexer.onPoolExhausted(countControllerSets());
+        }
+    }
+
+    private void removeFailedAdvertiser(IBinder binder, AdvertiserInfo info, int id, int status) {
+        binder.unlinkToDeath(info.deathRecipient, 0);
+        removeAdvertiser(binder);
+
+        AppAdvertiseStats stats = mAdvertiserMap.getAppAdvertiseStatsById(id);
+        if (stats != null) {
+            stats.recordAdvertiseStop(mAdvertisers.size());
+            stats.recordAdvertiseErrorCount(status);
+        }
+        mAdvertiserMap.removeAppAdvertiseStats(id);
+    }
+
     void onAdvertisingEnabled(int advertiserId, boolean enable, int status) throws Exception {
         Log.d(
                 TAG,
@@ -200,8 +323,13 @@ public class AdvertiseManager {
                         + ", status="
                         + status);
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        if (mMultiplexer.isCarrier(advertiserId)) {
+            mMultiplexer.onCarrierStatus("onAdvertisingEnabled()", status);
+            return;
+        }
+
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.i(
                     TAG,
                     "onAdvertisingSetEnable() - no callback found for advertiserId "
@@ -209,7 +337,7 @@ public class AdvertiseManager {
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
+        IAdvertisingSetCallback callback = info.callback;
         callback.onAdvertisingEnabled(advertiserId, enable, status);
 
         if (!enable && status != 0) {
@@ -270,8 +398,25 @@ public class AdvertiseManager {
             byte[] periodicDataBytes =
                     AdvertiseHelper.advertiseDataToBytes(periodicData, deviceName);
 
+            AdvertisingSetMultiplexer.Payload payload = null;
+            if (Flags.virtualAdvertisingSets()
+                    && AdvertisingSetMultiplexer.canShare(
+                            parameters, periodicParameters, duration, maxExtAdvEvents, serverIf)) {
+                payload =
+                        new AdvertisingSetMultiplexer.Payload(
+                                parameters, advDataBytes, scanResponseBytes);
+            }
+
+            boolean reserve =
+                    payload != null
+                            && mMultiplexer.shouldReserve(
+                                    countControllerSets(),
+                                    AdapterService.getAdapterService()
+                                            .getNumOfAdvertisementInstancesSupported());
+
             int cbId = --sTempRegistrationId;
-            mAdvertisers.put(binder, new AdvertiserInfo(cbId, deathRecipient, callback));
+            AdvertiserInfo info = new AdvertiserInfo(cbId, deathRecipient, callback, payload);
+            putAdvertiser(binder, info);
 
             Log.d(TAG, "startAdvertisingSet() - reg_id=" + cbId + ", callback: " + binder);
 
@@ -286,6 +431,12 @@ public class AdvertiseManager {
                     duration,
                     maxExtAdvEvents);
 
+            if (reserve) {
+                // The last free set goes to the shared set, answered once it is started
+                addSharedAdvertiser(cbId, binder, info);
+                return;
+            }
+
             mNativeInterface.startAdvertisingSet(
                     parameters,
                     advDataBytes,
@@ -313,22 +464,39 @@ public class AdvertiseManager {
             throws RemoteException {
         Log.d(TAG, "onOwnAddressRead() advertiserId=" + advertiserId);
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        if (mMultiplexer.isCarrier(advertiserId)) {
+            // Members advertise with the address of the carrier
+            for (int id : mMultiplexer.takeOwnAddressRequests()) {
+                AdvertiserInfo info = findAdvertiser(id);
+                if (info != null) {
+                    info.callback.onOwnAddressRead(id, addressType, address);
+                }
+            }
+            return;
+        }
+
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.w(TAG, "onOwnAddressRead() - bad advertiserId " + advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
+        IAdvertisingSetCallback callback = info.callback;
         callback.onOwnAddressRead(advertiserId, addressType, address);
     }
 
     void getOwnAddress(int advertiserId) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.w(TAG, "getOwnAddress() - bad advertiserId " + advertiserId);
             return;
         }
+        if (mMultiplexer.isMember(advertiserId)) {
+            if (!mMultiplexer.requestOwnAddress(advertiserId)) {
+                Log.w(TAG, "getOwnAddress() - shared set not started for " + advertiserId);
+            }
+            return;
+        }
         mNativeInterface.getOwnAddress(advertiserId);
     }
 
@@ -336,7 +504,7 @@ public class AdvertiseManager {
         IBinder binder = toBinder(callback);
         Log.d(TAG, "stopAdvertisingSet() " + binder);
 
-        AdvertiserInfo adv = mAdvertisers.remove(binder);
+        AdvertiserInfo adv = removeAdvertiser(binder);
         if (adv == null) {
             Log.e(TAG, "stopAdvertisingSet() - no client found for callback");
             return;
@@ -351,7 +519,12 @@ public class AdvertiseManager {
             return;
         }
 
-        mNativeInterface.stopAdvertisingSet(advertiserId);
+        if (mMultiplexer.isMember(advertiserId)) {
+            // The shared set is only stopped with its last member
+            mMultiplexer.removeMember(advertiserId);
+        } else {
+            mNativeInterface.stopAdvertisingSet(advertiserId);
+        }
 
         try {
             callback.onAdvertisingSetStopped(advertiserId);
@@ -363,23 +536,58 @@ public class AdvertiseManager {
     }
 
     void enableAdvertisingSet(int advertiserId, boolean enable, int duration, int maxExtAdvEvents) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.w(TAG, "enableAdvertisingSet() - bad advertiserId " + advertiserId);
             return;
         }
+        if (mMultiplexer.isMember(advertiserId)) {
+            int status = AdvertiseCallback.ADVERTISE_SUCCESS;
+            if (enable && (duration != 0 || maxExtAdvEvents != 0)) {
+                // A shared set can't stop one member after a duration or number of events
+                status = AdvertiseCallback.ADVERTISE_FAILED_FEATURE_UNSUPPORTED;
+            } else {
+                mMultiplexer.setEnabled(advertiserId, enable);
+                mAdvertiserMap.enableAdvertisingSet(
+                        advertiserId, enable, duration, maxExtAdvEvents);
+            }
+            try {
+                info.callback.onAdvertisingEnabled(advertiserId, enable, status);
+            } catch (RemoteException e) {
+                Log.i(TAG, "error sending onAdvertisingEnabled callback", e);
+            }
+            return;
+        }
         mNativeInterface.enableAdvertisingSet(advertiserId, enable, duration, maxExtAdvEvents);
 
         mAdvertiserMap.enableAdvertisingSet(advertiserId, enable, duration, maxExtAdvEvents);
     }
 
     void setAdvertisingData(int advertiserId, AdvertiseData data) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.w(TAG, "setAdvertisingData() - bad advertiserId " + advertiserId);
             return;
         }
         String deviceName = AdapterService.getAdapterService().getName();
+        if (mMultiplexer.isMember(advertiserId)) {
+            byte[] bytes = encodeSharedData(data, deviceName);
+            int status = AdvertiseCallback.ADVERTISE_FAILED_DATA_TOO_LARGE;
+            if (bytes != null) {
+                mAdvertiserMap.setAdvertisingData(advertiserId, data);
+                if (mMultiplexer.setAdvertisingData(advertiserId, bytes)) {
+                    // Answered with the status of the shared set, see onAdvertisingDataSet()
+                    return;
+                }
+                status = AdvertiseCallback.ADVERTISE_SUCCESS;
+            }
+            try {
+                info.callback.onAdvertisingDataSet(advertiserId, status);
+            } catch (RemoteException e) {
+                Log.i(TAG, "error sending onAdvertisingDataSet callback", e);
+            }
+            return;
+        }
         try {
             mNativeInterface.setAdvertisingData(
                     advertiserId, AdvertiseHelper.advertiseDataToBytes(data, deviceName));
@@ -396,12 +604,30 @@ public class AdvertiseManager {
     }
 
     void setScanResponseData(int advertiserId, AdvertiseData data) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.w(TAG, "setScanResponseData() - bad advertiserId " + advertiserId);
             return;
         }
         String deviceName = AdapterService.getAdapterService().getName();
+        if (mMultiplexer.isMember(advertiserId)) {
+            byte[] bytes = encodeSharedData(data, deviceName);
+            int status = AdvertiseCallback.ADVERTISE_FAILED_DATA_TOO_LARGE;
+            if (bytes != null) {
+                mAdvertiserMap.setScanResponseData(advertiserId, data);
+                if (mMultiplexer.setScanResponseData(advertiserId, bytes)) {
+                    // Answered with the status of the shared set, see onScanResponseDataSet()
+                    return;
+                }
+                status = AdvertiseCallback.ADVERTISE_SUCCESS;
+            }
+            try {
+                info.callback.onScanResponseDataSet(advertiserId, status);
+            } catch (RemoteException e) {
+                Log.i(TAG, "error sending onScanResponseDataSet callback", e);
+            }
+            return;
+        }
         try {
             mNativeInterface.setScanResponseData(
                     advertiserId, AdvertiseHelper.advertiseDataToBytes(data, deviceName));
@@ -417,12 +643,41 @@ public class AdvertiseManager {
         }
     }
 
+    /** Encode the data of a member of a shared set, null if it doesn't fit in a legacy PDU. */
+    private static byte[] encodeSharedData(AdvertiseData data, String deviceName) {
+        try {
+            byte[] bytes = AdvertiseHelper.advertiseDataToBytes(data, deviceName);
+            return bytes.length <= AdvertisingSetMultiplexer.LEGACY_MAX_DATA_LENGTH ? bytes : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
     void setAdvertisingParameters(int advertiserId, AdvertisingSetParameters parameters) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.w(TAG, "setAdvertisingParameters() - bad advertiserId " + advertiserId);
             return;
         }
+        if (mMultiplexer.isMember(advertiserId)) {
+            int status = AdvertiseCallback.ADVERTISE_FAILED_FEATURE_UNSUPPORTED;
+            if (AdvertisingSetMultiplexer.canShare(parameters)) {
+                mAdvertiserMap.setAdvertisingParameters(advertiserId, parameters);
+                if (mMultiplexer.setAdvertisingParameters(advertiserId, parameters)) {
+                    // Answered with the status of the shared set, see
+                    // onAdvertisingParametersUpdated()
+                    return;
+                }
+                status = AdvertiseCallback.ADVERTISE_SUCCESS;
+            }
+            try {
+                info.callback.onAdvertisingParametersUpdated(
+                        advertiserId, info.payload.mTxPower, status);
+            } catch (RemoteException e) {
+                Log.i(TAG, "error sending onAdvertisingParametersUpdated callback", e);
+            }
+            return;
+        }
         mNativeInterface.setAdvertisingParameters(advertiserId, parameters);
 
         mAdvertiserMap.setAdvertisingParameters(advertiserId, parameters);
@@ -430,22 +685,40 @@ public class AdvertiseManager {
 
     void setPeriodicAdvertisingParameters(
             int advertiserId, PeriodicAdvertisingParameters parameters) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.w(TAG, "setPeriodicAdvertisingParameters() - bad advertiserId " + advertiserId);
             return;
         }
+        if (mMultiplexer.isMember(advertiserId)) {
+            try {
+                info.callback.onPeriodicAdvertisingParametersUpdated(
+                        advertiserId, AdvertiseCallback.ADVERTISE_FAILED_FEATURE_UNSUPPORTED);
+            } catch (RemoteException e) {
+                Log.i(TAG, "error sending onPeriodicAdvertisingParametersUpdated callback", e);
+            }
+            return;
+        }
         mNativeInterface.setPeriodicAdvertisingParameters(advertiserId, parameters);
 
         mAdvertiserMap.setPeriodicAdvertisingParameters(advertiserId, parameters);
     }
 
     void setPeriodicAdvertisingData(int advertiserId, AdvertiseData data) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.w(TAG, "setPeriodicAdvertisingData() - bad advertiserId " + advertiserId);
             return;
         }
+        if (mMultiplexer.isMember(advertiserId)) {
+            try {
+                info.callback.onPeriodicAdvertisingDataSet(
+                        advertiserId, AdvertiseCallback.ADVERTISE_FAILED_FEATURE_UNSUPPORTED);
+            } catch (RemoteException e) {
+                Log.i(TAG, "error sending onPeriodicAdvertisingDataSet callback", e);
+            }
+            return;
+        }
         String deviceName = AdapterService.getAdapterService().getName();
         try {
             mNativeInterface.setPeriodicAdvertisingData(
@@ -463,37 +736,68 @@ public class AdvertiseManager {
     }
 
     void setPeriodicAdvertisingEnable(int advertiserId, boolean enable) {
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.w(TAG, "setPeriodicAdvertisingEnable() - bad advertiserId " + advertiserId);
             return;
         }
+        if (mMultiplexer.isMember(advertiserId)) {
+            try {
+                info.callback.onPeriodicAdvertisingEnabled(
+                        advertiserId,
+                        enable,
+                        AdvertiseCallback.ADVERTISE_FAILED_FEATURE_UNSUPPORTED);
+            } catch (RemoteException e) {
+                Log.i(TAG, "error sending onPeriodicAdvertisingEnabled callback", e);
+            }
+            return;
+        }
         mNativeInterface.setPeriodicAdvertisingEnable(advertiserId, enable);
     }
 
     void onAdvertisingDataSet(int advertiserId, int status) throws Exception {
         Log.d(TAG, "onAdvertisingDataSet() advertiserId=" + advertiserId + ", status=" + status);
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        if (mMultiplexer.isCarrier(advertiserId)) {
+            int id = mMultiplexer.onCarrierDataSet(status);
+            AdvertiserInfo info =
+                    id == AdvertisingSetMultiplexer.NO_MEMBER ? null : findAdvertiser(id);
+            if (info != null) {
+                info.callback.onAdvertisingDataSet(id, status);
+            }
+            return;
+        }
+
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.i(TAG, "onAdvertisingDataSet() - bad advertiserId " + advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
+        IAdvertisingSetCallback callback = info.callback;
         callback.onAdvertisingDataSet(advertiserId, status);
     }
 
     void onScanResponseDataSet(int advertiserId, int status) throws Exception {
         Log.d(TAG, "onScanResponseDataSet() advertiserId=" + advertiserId + ", status=" + status);
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        if (mMultiplexer.isCarrier(advertiserId)) {
+            int id = mMultiplexer.onCarrierScanResponseDataSet(status);
+            AdvertiserInfo info =
+                    id == AdvertisingSetMultiplexer.NO_MEMBER ? null : findAdvertiser(id);
+            if (info != null) {
+                info.callback.onScanResponseDataSet(id, status);
+            }
+            return;
+        }
+
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.i(TAG, "onScanResponseDataSet() - bad advertiserId " + advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
+        IAdvertisingSetCallback callback = info.callback;
         callback.onScanResponseDataSet(advertiserId, status);
     }
 
@@ -508,13 +812,23 @@ public class AdvertiseManager {
                         + ", status="
                         + status);
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        if (mMultiplexer.isCarrier(advertiserId)) {
+            int id = mMultiplexer.onCarrierParametersUpdated(txPower, status);
+            AdvertiserInfo info =
+                    id == AdvertisingSetMultiplexer.NO_MEMBER ? null : findAdvertiser(id);
+            if (info != null) {
+                info.callback.onAdvertisingParametersUpdated(id, txPower, status);
+            }
+            return;
+        }
+
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.i(TAG, "onAdvertisingParametersUpdated() - bad advertiserId " + advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
+        IAdvertisingSetCallback callback = info.callback;
         callback.onAdvertisingParametersUpdated(advertiserId, txPower, status);
     }
 
@@ -526,15 +840,15 @@ public class AdvertiseManager {
                         + ", status="
                         + status);
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.i(
                     TAG,
                     "onPeriodicAdvertisingParametersUpdated() - bad advertiserId " + advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
+        IAdvertisingSetCallback callback = info.callback;
         callback.onPeriodicAdvertisingParametersUpdated(advertiserId, status);
     }
 
@@ -546,13 +860,13 @@ public class AdvertiseManager {
                         + ", status="
                         + status);
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.i(TAG, "onPeriodicAdvertisingDataSet() - bad advertiserId " + advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
+        IAdvertisingSetCallback callback = info.callback;
         callback.onPeriodicAdvertisingDataSet(advertiserId, status);
     }
 
@@ -565,13 +879,13 @@ public class AdvertiseManager {
                         + ", status="
                         + status);
 
-        Map.Entry<IBinder, AdvertiserInfo> entry = findAdvertiser(advertiserId);
-        if (entry == null) {
+        AdvertiserInfo info = findAdvertiser(advertiserId);
+        if (info == null) {
             Log.i(TAG, "onAdvertisingSetEnable() - bad advertiserId " + advertiserId);
             return;
         }
 
-        IAdvertisingSetCallback callback = entry.getValue().callback;
+        IAdvertisingSetCallback callback = info.callback;
         callback.onPeriodicAdvertisingEnabled(advertiserId, enable, status);
 
         AppAdvertiseStats stats = mAdvertiserMap.getAppAdvertiseStatsById(advertiserId);
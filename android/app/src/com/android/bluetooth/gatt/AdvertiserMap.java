@@ -181,6 +181,24 @@ class AdvertiserMap {
         stats.onPeriodicAdvertiseEnabled(enable);
     }
 
+    /** Record that an advertiser now shares a controller advertising set with others. */
+    synchronized void setSharedAdvertisingSet(int id) {
+        AppAdvertiseStats stats = mAppAdvertiseStats.get(id);
+        if (stats == null) {
+            return;
+        }
+        stats.onSharedAdvertisingSet();
+    }
+
+    /** Record the time an advertiser sharing an advertising set was on air. */
+    synchronized void recordRotationSlot(int id, long durationMs) {
+        AppAdvertiseStats stats = mAppAdvertiseStats.get(id);
+        if (stats == null) {
+            return;
+        }
+        stats.recordRotationSlot(durationMs);
+    }
+
     /** Erases all entries. */
     synchronized void clear() {
         mAppAdvertiseStats.clear();
@@ -0,0 +1,745 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.le.AdvertiseCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
+import android.bluetooth.le.PeriodicAdvertisingParameters;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntSupplier;
+
+/**
+ * Time-slices several advertisers over a single controller advertising set.
+ *
+ * <p>When an advertiser that can share would take the last free advertising set of the
+ * controller, the {@link AdvertiseManager} hands it to the multiplexer instead, which starts that
+ * set as its own, the carrier. The advertisers the controller has no set left for then share the
+ * carrier with it. The advertisers sharing the carrier are members:
+ * each keeps its own parameters and pre-encoded payloads, and they take turns on the carrier for
+ * {@link #SLOT_MS} each. Advertisers that got a set of their own are never moved to the carrier, so
+ * they keep their airtime and their address.
+ *
+ * <p>Turns are given by stride scheduling: each member gets turns in proportion to its weight,
+ * derived from its advertising interval, so advertisers that asked for a short interval are on
+ * air more often while every member still gets its share. A member joining the rotation starts
+ * level with the others instead of catching up on past turns.
+ *
+ * <p>Only legacy, non-connectable advertisers without periodic advertising nor duration limit
+ * can be members, see {@link #canShare}: the scanners only see the payload of whichever member is
+ * on air, and a connection could not be attributed to the right member.
+ */
+class AdvertisingSetMultiplexer {
+    private static final String TAG = GattServiceConfig.TAG_PREFIX + "AdvertisingSetMultiplexer";
+
+    /** Time on air of a member before the next one gets the carrier. */
+    @VisibleForTesting static final long SLOT_MS = 1000;
+
+    /** Ids of the members, above the controller advertiser ids. */
+    @VisibleForTesting static final int MEMBER_ID_BASE = 0x100;
+
+    /** Maximum advertising data length of legacy advertising PDUs. */
+    static final int LEGACY_MAX_DATA_LENGTH = 31;
+
+    /** Returned for carrier callbacks of operations no member is waiting for. */
+    static final int NO_MEMBER = -1;
+
+    private static final long STRIDE = 1 << 20;
+
+    /** Parameters and pre-encoded payloads of an advertiser that can share a carrier. */
+    static final class Payload {
+        AdvertisingSetParameters mParameters;
+        byte[] mAdvertiseData;
+        byte[] mScanResponse;
+        boolean mEnabled = true;
+        int mTxPower;
+
+        Payload(AdvertisingSetParameters parameters, byte[] advertiseData, byte[] scanResponse) {
+            mParameters = parameters;
+            mAdvertiseData = advertiseData;
+            mScanResponse = scanResponse;
+        }
+    }
+
+    private static final class Member {
+        final int mId;
+        final Payload mPayload;
+        long mPass;
+
+        Member(int id, Payload payload) {
+            mId = id;
+            mPayload = payload;
+        }
+
+        long getStride() {
+            // INTERVAL_LOW gets 10 times the turns of INTERVAL_HIGH
+            int interval = Math.max(mPayload.mParameters.getInterval(), 1);
+            return STRIDE / Math.max(1, AdvertisingSetParameters.INTERVAL_HIGH / interval);
+        }
+    }
+
+    /** Native operation pushed to the carrier for a member, answered in order by the stack. */
+    private static final class Operation {
+        final int mId;
+        // Whether the member asked for it, rather than the rotation
+        final boolean mRequested;
+
+        Operation(int id, boolean requested) {
+            mId = id;
+            mRequested = requested;
+        }
+    }
+
+    private final AdvertiseManagerNativeInterface mNativeInterface;
+    private final AdvertiserMap mAdvertiserMap;
+    private final Handler mHandler;
+    private final IntSupplier mRegIds;
+    private final Runnable mRotation = this::rotate;
+
+    @GuardedBy("this")
+    private final Map<Integer, Member> mMembers = new LinkedHashMap<>();
+
+    @GuardedBy("this")
+    private final List<Integer> mOwnAddressRequests = new ArrayList<>();
+
+    // Members added while the carrier is starting, answered once it is started
+    @GuardedBy("this")
+    private final List<Integer> mPendingStarts = new ArrayList<>();
+
+    @GuardedBy("this")
+    private final ArrayDeque<Operation> mPendingDataSets = new ArrayDeque<>();
+
+    @GuardedBy("this")
+    private final ArrayDeque<Operation> mPendingScanResponseSets = new ArrayDeque<>();
+
+    @GuardedBy("this")
+    private final ArrayDeque<Operation> mPendingParameterUpdates = new ArrayDeque<>();
+
+    // Registration id of the carrier, 0 when there is no carrier
+    @GuardedBy("this")
+    private int mCarrierRegId;
+
+    // Controller advertiser id of the carrier, -1 until it is started
+    @GuardedBy("this")
+    private int mCarrierId = -1;
+
+    @GuardedBy("this")
+    private int mNextMemberId = MEMBER_ID_BASE;
+
+    // What the carrier currently advertises
+    @GuardedBy("this")
+    private Member mOnAir;
+
+    // Whether the member on air changed while the carrier was starting
+    @GuardedBy("this")
+    private boolean mOnAirStale;
+
+    @GuardedBy("this")
+    private AdvertisingSetParameters mCarrierParameters;
+
+    @GuardedBy("this")
+    private int mCarrierTxPower;
+
+    @GuardedBy("this")
+    private boolean mCarrierEnabled;
+
+    @GuardedBy("this")
+    private long mSlotStartMs;
+
+    @GuardedBy("this")
+    private long mRotations;
+
+    @GuardedBy("this")
+    private int mMaxMembers;
+
+    // Controller sets in use when the controller last ran out of sets, 0 until it does
+    @GuardedBy("this")
+    private int mExhaustedCapacity;
+
+    /**
+     * @param regIds gives the registration ids the carrier is started with, distinct from the
+     *     ones of the apps
+     */
+    AdvertisingSetMultiplexer(
+            AdvertiseManagerNativeInterface nativeInterface,
+            AdvertiserMap advertiserMap,
+            Handler handler,
+            IntSupplier regIds) {
+        mNativeInterface = nativeInterface;
+        mAdvertiserMap = advertiserMap;
+        mHandler = handler;
+        mRegIds = regIds;
+    }
+
+    /** Whether an advertiser with these settings can share a carrier. */
+    static boolean canShare(
+            AdvertisingSetParameters parameters,
+            PeriodicAdvertisingParameters periodicParameters,
+            int duration,
+            int maxExtAdvEvents,
+            int serverIf) {
+        return canShare(parameters)
+                && periodicParameters == null
+                && duration == 0
+                && maxExtAdvEvents == 0
+                && serverIf == 0;
+    }
+
+    static boolean canShare(AdvertisingSetParameters parameters) {
+        // Members advertise with the address of the carrier
+        return parameters.isLegacy()
+                && !parameters.isConnectable()
+                && parameters.getOwnAddressType() == AdvertisingSetParameters.ADDRESS_TYPE_DEFAULT;
+    }
+
+    /**
+     * Whether an advertiser that can share should start the carrier rather than a set of its own,
+     * because it would take the last free controller set.
+     *
+     * @param setsInUse controller sets held or being started by the other advertisers
+     * @param controllerSets advertising sets supported by the controller, 0 if unknown
+     */
+    synchronized boolean shouldReserve(int setsInUse, int controllerSets) {
+        if (mCarrierRegId != 0) {
+            return false;
+        }
+        int capacity = controllerSets;
+        if (mExhaustedCapacity > 0 && (capacity <= 0 || mExhaustedCapacity < capacity)) {
+            // Other users of the stack hold sets too
+            capacity = mExhaustedCapacity;
+        }
+        return capacity > 0 && setsInUse + 1 >= capacity;
+    }
+
+    /** The controller ran out of sets while {@code setsInUse} sets were held or starting. */
+    synchronized void onPoolExhausted(int setsInUse) {
+        Log.i(TAG, "onPoolExhausted() - setsInUse=" + setsInUse);
+        mExhaustedCapacity = Math.max(1, setsInUse);
+    }
+
+    /** Whether the carrier is started or starting. */
+    synchronized boolean isSharing() {
+        return mCarrierRegId != 0;
+    }
+
+    /** Whether the carrier is started, members added now are on it right away. */
+    synchronized boolean hasCarrier() {
+        return mCarrierId != -1;
+    }
+
+    /** Whether the native callbacks of a controller advertiser id belong to the carrier. */
+    synchronized boolean isCarrier(int advertiserId) {
+        return mCarrierId != -1 && mCarrierId == advertiserId;
+    }
+
+    /** Whether the start of an advertising set with this registration id is the carrier's. */
+    synchronized boolean isCarrierRegistration(int regId) {
+        return mCarrierRegId != 0 && mCarrierRegId == regId;
+    }
+
+    synchronized boolean isMember(int id) {
+        return mMembers.containsKey(id);
+    }
+
+    synchronized int getCarrierTxPower() {
+        return mCarrierTxPower;
+    }
+
+    /**
+     * Add an advertiser to the rotation, starting the carrier with the first member. Until the
+     * carrier is started, see {@link #hasCarrier}, the member waits for {@link #onCarrierStarted}.
+     *
+     * @return the id of the advertiser, to be used by the app
+     */
+    synchronized int addMember(Payload payload) {
+        int id = mNextMemberId++;
+        Member member = new Member(id, payload);
+        member.mPass = getMinPass();
+        mMembers.put(id, member);
+        mMaxMembers = Math.max(mMaxMembers, mMembers.size());
+        Log.i(TAG, "addMember() - id=" + id + ", members=" + mMembers.size());
+        if (mCarrierRegId == 0) {
+            startCarrierLocked(member);
+        }
+        if (mCarrierId == -1) {
+            mPendingStarts.add(id);
+            return id;
+        }
+        payload.mTxPower = mCarrierTxPower;
+        mAdvertiserMap.setSharedAdvertisingSet(id);
+        scheduleLocked();
+        return id;
+    }
+
+    /**
+     * Result of the start of the carrier.
+     *
+     * @return the ids of the members waiting for it, they were removed if the carrier failed
+     */
+    synchronized int[] onCarrierStarted(int advertiserId, int txPower, int status) {
+        int[] ids = mPendingStarts.stream().mapToInt(Integer::intValue).toArray();
+        mPendingStarts.clear();
+        if (status != AdvertiseCallback.ADVERTISE_SUCCESS) {
+            Log.w(TAG, "onCarrierStarted() - carrier failed to start, status=" + status);
+            resetLocked();
+            return ids;
+        }
+        Log.i(TAG, "onCarrierStarted() - carrier advertiserId=" + advertiserId);
+        mCarrierId = advertiserId;
+        mCarrierTxPower = txPower;
+        mCarrierEnabled = true;
+        mSlotStartMs = SystemClock.uptimeMillis();
+        if (mMembers.isEmpty()) {
+            // Every member left while the carrier was starting
+            mNativeInterface.stopAdvertisingSet(advertiserId);
+            resetLocked();
+            return ids;
+        }
+        for (int id : ids) {
+            Member member = mMembers.get(id);
+            if (member != null) {
+                member.mPayload.mTxPower = txPower;
+                mAdvertiserMap.setSharedAdvertisingSet(id);
+            }
+        }
+        if (mOnAirStale && mOnAir != null) {
+            pushLocked(mOnAir, false);
+        }
+        mOnAirStale = false;
+        scheduleLocked();
+        return ids;
+    }
+
+    /** Remove an advertiser from the rotation, the carrier is stopped with the last member. */
+    synchronized void removeMember(int id) {
+        Member member = mMembers.remove(id);
+        if (member == null) {
+            return;
+        }
+        Log.i(TAG, "removeMember() - id=" + id + ", members=" + mMembers.size());
+        mPendingStarts.remove(Integer.valueOf(id));
+        if (member == mOnAir) {
+            endSlotLocked();
+            mOnAir = null;
+        }
+        if (mMembers.isEmpty() && mCarrierId != -1) {
+            Log.i(TAG, "removeMember() - stopping carrier advertiserId=" + mCarrierId);
+            mHandler.removeCallbacks(mRotation);
+            mNativeInterface.stopAdvertisingSet(mCarrierId);
+            resetLocked();
+            return;
+        }
+        scheduleLocked();
+    }
+
+    synchronized void setEnabled(int id, boolean enable) {
+        Member member = mMembers.get(id);
+        if (member == null || member.mPayload.mEnabled == enable) {
+            return;
+        }
+        member.mPayload.mEnabled = enable;
+        if (enable) {
+            member.mPass = Math.max(member.mPass, getMinPass());
+        } else if (member == mOnAir) {
+            endSlotLocked();
+            mOnAir = null;
+        }
+        scheduleLocked();
+    }
+
+    /**
+     * Update the advertising data of a member.
+     *
+     * @return whether it was pushed to the carrier, the status then comes from the stack
+     */
+    synchronized boolean setAdvertisingData(int id, byte[] data) {
+        Member member = mMembers.get(id);
+        if (member == null) {
+            return false;
+        }
+        member.mPayload.mAdvertiseData = data;
+        if (!isOnAirLocked(member)) {
+            return false;
+        }
+        mPendingDataSets.add(new Operation(id, true));
+        mNativeInterface.setAdvertisingData(mCarrierId, data);
+        return true;
+    }
+
+    /**
+     * Update the scan response of a member.
+     *
+     * @return whether it was pushed to the carrier, the status then comes from the stack
+     */
+    synchronized boolean setScanResponseData(int id, byte[] data) {
+        Member member = mMembers.get(id);
+        if (member == null) {
+            return false;
+        }
+        member.mPayload.mScanResponse = data;
+        if (!isOnAirLocked(member) || !member.mPayload.mParameters.isScannable()) {
+            return false;
+        }
+        mPendingScanResponseSets.add(new Operation(id, true));
+        mNativeInterface.setScanResponseData(mCarrierId, data);
+        return true;
+    }
+
+    /**
+     * Update the parameters of a member.
+     *
+     * @return whether they were pushed to the carrier, the status and TX power then come from the
+     *     stack
+     */
+    synchronized boolean setAdvertisingParameters(int id, AdvertisingSetParameters parameters) {
+        Member member = mMembers.get(id);
+        if (member == null) {
+            return false;
+        }
+        member.mPayload.mParameters = parameters;
+        if (!isOnAirLocked(member) || sameParameters(parameters, mCarrierParameters)) {
+            return false;
+        }
+        return pushLocked(member, true);
+    }
+
+    /**
+     * Request the address of the carrier on behalf of a member. The controller answers through
+     * the carrier id, see {@link #takeOwnAddressRequests}.
+     *
+     * @return false if the carrier is not started yet
+     */
+    synchronized boolean requestOwnAddress(int id) {
+        if (mCarrierId == -1) {
+            return false;
+        }
+        mOwnAddressRequests.add(id);
+        mNativeInterface.getOwnAddress(mCarrierId);
+        return true;
+    }
+
+    /** Ids of the members waiting for the address of the carrier. */
+    synchronized int[] takeOwnAddressRequests() {
+        int[] ids = mOwnAddressRequests.stream().mapToInt(Integer::intValue).toArray();
+        mOwnAddressRequests.clear();
+        return ids;
+    }
+
+    synchronized int[] getMemberIds() {
+        return mMembers.keySet().stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    synchronized int getOnAirId() {
+        return mOnAir == null ? -1 : mOnAir.mId;
+    }
+
+    /**
+     * Status of advertising data set on the carrier.
+     *
+     * @return the member that asked for it, or {@link #NO_MEMBER}
+     */
+    synchronized int onCarrierDataSet(int status) {
+        return takeOperationLocked(mPendingDataSets, "onCarrierDataSet()", status);
+    }
+
+    /**
+     * Status of a scan response set on the carrier.
+     *
+     * @return the member that asked for it, or {@link #NO_MEMBER}
+     */
+    synchronized int onCarrierScanResponseDataSet(int status) {
+        return takeOperationLocked(
+                mPendingScanResponseSets, "onCarrierScanResponseDataSet()", status);
+    }
+
+    /**
+     * Status of parameters set on the carrier, the TX power is the one of the member whose
+     * parameters were set.
+     *
+     * @return the member that asked for it, or {@link #NO_MEMBER}
+     */
+    synchronized int onCarrierParametersUpdated(int txPower, int status) {
+        Operation operation = mPendingParameterUpdates.poll();
+        if (status != 0) {
+            Log.w(TAG, "onCarrierParametersUpdated() failed on carrier, status=" + status);
+        } else {
+            mCarrierTxPower = txPower;
+            Member member = operation == null ? null : mMembers.get(operation.mId);
+            if (member != null) {
+                member.mPayload.mTxPower = txPower;
+            }
+        }
+        return operation != null && operation.mRequested ? operation.mId : NO_MEMBER;
+    }
+
+    /** Status of a native operation done on the carrier for the rotation only. */
+    void onCarrierStatus(String operation, int status) {
+        if (status != 0) {
+            Log.w(TAG, operation + " failed on carrier, status=" + status);
+        }
+    }
+
+    /** Stop sharing without touching the controller, which already dropped its sets. */
+    synchronized void clear() {
+        mHandler.removeCallbacks(mRotation);
+        resetLocked();
+    }
+
+    synchronized void dump(StringBuilder sb) {
+        if (mCarrierRegId == 0) {
+            return;
+        }
+        sb.append("\n  Shared advertising set                                : ")
+                .append(mCarrierId)
+                .append(" (members: ")
+                .append(mMembers.size())
+                .append(", max: ")
+                .append(mMaxMembers)
+                .append(", rotations: ")
+                .append(mRotations)
+                .append(", on air: ")
+                .append(getOnAirId())
+                .append(")\n");
+    }
+
+    @VisibleForTesting
+    void rotate() {
+        synchronized (this) {
+            if (mCarrierId == -1) {
+                return;
+            }
+            Member next = pickNextLocked();
+            if (next == null) {
+                return;
+            }
+            if (next != mOnAir) {
+                endSlotLocked();
+                mOnAir = next;
+                mRotations++;
+                pushLocked(next, false);
+            } else {
+                endSlotLocked();
+            }
+            if (countEnabledLocked() > 1) {
+                mHandler.postDelayed(mRotation, SLOT_MS);
+            }
+        }
+    }
+
+    /** Start a controller set dedicated to the members, advertising the first one. */
+    @GuardedBy("this")
+    private void startCarrierLocked(Member first) {
+        mCarrierRegId = mRegIds.getAsInt();
+        Log.i(TAG, "startCarrierLocked() - regId=" + mCarrierRegId);
+        Payload payload = first.mPayload;
+        mOnAir = first;
+        mOnAirStale = false;
+        mCarrierParameters = payload.mParameters;
+        mSlotStartMs = SystemClock.uptimeMillis();
+        mNativeInterface.startAdvertisingSet(
+                payload.mParameters,
+                payload.mAdvertiseData,
+                payload.mScanResponse,
+                null,
+                null,
+                0,
+                0,
+                mCarrierRegId,
+                0);
+    }
+
+    @GuardedBy("this")
+    private boolean isOnAirLocked(Member member) {
+        if (member != mOnAir) {
+            return false;
+        }
+        if (mCarrierId == -1) {
+            // Pushed once the carrier is started
+            mOnAirStale = true;
+            return false;
+        }
+        return true;
+    }
+
+    @GuardedBy("this")
+    private int takeOperationLocked(ArrayDeque<Operation> pending, String name, int status) {
+        Operation operation = pending.poll();
+        if (operation != null && operation.mRequested) {
+            return operation.mId;
+        }
+        onCarrierStatus(name, status);
+        return NO_MEMBER;
+    }
+
+    @GuardedBy("this")
+    private void scheduleLocked() {
+        if (mCarrierId == -1) {
+            // Scheduled once the carrier is started
+            return;
+        }
+        mHandler.removeCallbacks(mRotation);
+        int enabled = countEnabledLocked();
+        if (enabled == 0) {
+            if (mCarrierEnabled) {
+                mNativeInterface.enableAdvertisingSet(mCarrierId, false, 0, 0);
+                mCarrierEnabled = false;
+            }
+            return;
+        }
+        if (mOnAir == null) {
+            // Nothing on air, give the carrier to a member right away
+            mHandler.post(mRotation);
+        } else if (enabled > 1) {
+            long elapsedMs = SystemClock.uptimeMillis() - mSlotStartMs;
+            mHandler.postDelayed(mRotation, Math.max(0, SLOT_MS - elapsedMs));
+        }
+    }
+
+    @GuardedBy("this")
+    private Member pickNextLocked() {
+        Member next = null;
+        for (Member member : mMembers.values()) {
+            if (!member.mPayload.mEnabled) {
+                continue;
+            }
+            // On ties, the member on air gives way
+            if (next == null
+                    || member.mPass < next.mPass
+                    || (member.mPass == next.mPass && next == mOnAir)) {
+                next = member;
+            }
+        }
+        if (next != null) {
+            next.mPass += next.getStride();
+        }
+        return next;
+    }
+
+    /**
+     * Put a member on the carrier.
+     *
+     * @param requested whether the member asked for its new parameters
+     * @return whether the parameters of the carrier were set
+     */
+    @GuardedBy("this")
+    private boolean pushLocked(Member member, boolean requested) {
+        Payload payload = member.mPayload;
+        boolean parametersSet = false;
+        if (!sameParameters(payload.mParameters, mCarrierParameters)) {
+            // Legacy advertising parameters can only be changed while disabled
+            if (mCarrierEnabled) {
+                mNativeInterface.enableAdvertisingSet(mCarrierId, false, 0, 0);
+                mCarrierEnabled = false;
+            }
+            mPendingParameterUpdates.add(new Operation(member.mId, requested));
+            mNativeInterface.setAdvertisingParameters(mCarrierId, payload.mParameters);
+            mCarrierParameters = payload.mParameters;
+            parametersSet = true;
+        }
+        mPendingDataSets.add(new Operation(member.mId, false));
+        mNativeInterface.setAdvertisingData(mCarrierId, payload.mAdvertiseData);
+        if (payload.mParameters.isScannable()) {
+            mPendingScanResponseSets.add(new Operation(member.mId, false));
+            mNativeInterface.setScanResponseData(mCarrierId, payload.mScanResponse);
+        }
+        if (!mCarrierEnabled) {
+            mNativeInterface.enableAdvertisingSet(mCarrierId, true, 0, 0);
+            mCarrierEnabled = true;
+        }
+        return parametersSet;
+    }
+
+    @GuardedBy("this")
+    private void endSlotLocked() {
+        long now = SystemClock.uptimeMillis();
+        if (mOnAir != null && mCarrierId != -1) {
+            mAdvertiserMap.recordRotationSlot(mOnAir.mId, now - mSlotStartMs);
+        }
+        mSlotStartMs = now;
+    }
+
+    @GuardedBy("this")
+    private int countEnabledLocked() {
+        int count = 0;
+        for (Member member : mMembers.values()) {
+            if (member.mPayload.mEnabled) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @GuardedBy("this")
+    private long getMinPass() {
+        long min = Long.MAX_VALUE;
+        for (Member member : mMembers.values()) {
+            if (member.mPayload.mEnabled) {
+                min = Math.min(min, member.mPass);
+            }
+        }
+        return min == Long.MAX_VALUE ? 0 : min;
+    }
+
+    private static boolean sameParameters(AdvertisingSetParameters a, AdvertisingSetParameters b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        return a.isScannable() == b.isScannable()
+                && a.isDiscoverable() == b.isDiscoverable()
+                && a.isAnonymous() == b.isAnonymous()
+                && a.includeTxPower() == b.includeTxPower()
+                && a.getPrimaryPhy() == b.getPrimaryPhy()
+                && a.getSecondaryPhy() == b.getSecondaryPhy()
+                && a.getInterval() == b.getInterval()
+                && a.getTxPowerLevel() == b.getTxPowerLevel();
+    }
+
+    @GuardedBy("this")
+    private void resetLocked() {
+        mMembers.clear();
+        mOwnAddressRequests.clear();
+        mPendingStarts.clear();
+        mPendingDataSets.clear();
+        mPendingScanResponseSets.clear();
+        mPendingParameterUpdates.clear();
+        mCarrierRegId = 0;
+        mCarrierId = -1;
+        mOnAir = null;
+        mOnAirStale = false;
+        mCarrierParameters = null;
+        mCarrierEnabled = false;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "carrier=" + mCarrierId + " members=" + Arrays.toString(getMemberIds());
+    }
+}
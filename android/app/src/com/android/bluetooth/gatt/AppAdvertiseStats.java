@@ -98,6 +98,9 @@ class AppAdvertiseStats {
     private AppAdvertiserData mPeriodicAdvertisingData = null;
     private boolean mPeriodicIncludeTxPower = false;
     private int mPeriodicInterval = 0;
+    private Instant mSharedSince = null;
+    private long mRotationSlots = 0;
+    private long mOnAirMs = 0;
     public ArrayList<AppAdvertiserRecord> mAdvertiserRecords = new ArrayList<AppAdvertiserRecord>();
 
     AppAdvertiseStats(int appUid, int id, String name) {
@@ -335,6 +338,27 @@ class AppAdvertiseStats {
         mPeriodicAdvertisingEnabled = enable;
     }
 
+    void onSharedAdvertisingSet() {
+        if (mSharedSince == null) {
+            mSharedSince = Instant.now();
+        }
+    }
+
+    void recordRotationSlot(long durationMs) {
+        mRotationSlots++;
+        mOnAirMs += durationMs;
+    }
+
+    /** Percentage of the time on air since the advertising set is shared. */
+    @VisibleForTesting
+    int getDutyPercent() {
+        if (mSharedSince == null) {
+            return 100;
+        }
+        long sharedMs = Duration.between(mSharedSince, Instant.now()).toMillis();
+        return sharedMs <= 0 ? 100 : (int) Math.min(100, mOnAirMs * 100 / sharedMs);
+    }
+
     void setId(int id) {
         this.mId = id;
     }
@@ -532,6 +556,16 @@ class AppAdvertiseStats {
             dumpAppAdvertiserData(sb, stats.mScanResponseData);
         }
 
+        if (stats.mSharedSince != null) {
+            sb.append("\n        └Shared Advertising Set (slots, on air, duty)   : ")
+                    .append(stats.mRotationSlots)
+                    .append(", ")
+                    .append(stats.mOnAirMs)
+                    .append("ms, ")
+                    .append(stats.getDutyPercent())
+                    .append("%");
+        }
+
         if (stats.mPeriodicInterval > 0) {
             sb.append("\n      └Periodic Advertising Enabled                     : ")
                     .append(stats.mPeriodicAdvertisingEnabled);
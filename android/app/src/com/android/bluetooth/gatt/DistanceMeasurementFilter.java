@@ -0,0 +1,267 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import android.bluetooth.le.DistanceMeasurementResult;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+/**
+ * Smooths the raw distance measurement samples of a tracker and paces their delivery to the app.
+ *
+ * <p>Distance, azimuth and altitude each go through a one-dimensional Kalman filter: the estimate
+ * drifts with time (process noise) and every sample pulls it by how much it can be trusted, from
+ * the error reported along with it. A distance sample too far from the estimate, compared to their
+ * combined uncertainty, is rejected as an outlier, unless {@link #MAX_CONSECUTIVE_OUTLIERS} are
+ * rejected in a row, in which case the device really moved and the filter restarts from it.
+ *
+ * <p>Filtered results are delivered at most once per {@link #MIN_DELIVERY_INTERVAL_MS}. Samples
+ * arriving in between only update the estimate, which is delivered when the interval is over.
+ */
+class DistanceMeasurementFilter {
+    /** Shortest time between two results delivered to the app, 10 Hz. */
+    @VisibleForTesting static final long MIN_DELIVERY_INTERVAL_MS = 100;
+
+    @VisibleForTesting static final double OUTLIER_SIGMAS = 3.0;
+    @VisibleForTesting static final int MAX_CONSECUTIVE_OUTLIERS = 3;
+
+    // How much the estimates are expected to drift, in unit^2 per second
+    private static final double DISTANCE_PROCESS_NOISE = 0.25;
+    private static final double ANGLE_PROCESS_NOISE = 100.0;
+
+    // Channel sounding reports no error, don't trust its samples blindly
+    private static final double MIN_ERROR_METERS = 0.1;
+    private static final double MIN_ERROR_DEGREES = 1.0;
+
+    private static final class Estimate {
+        private final double mProcessNoise;
+        private final boolean mCircular;
+        double mValue;
+        double mVariance;
+        long mUpdateMs;
+        boolean mValid;
+
+        Estimate(double processNoise, boolean circular) {
+            mProcessNoise = processNoise;
+            mCircular = circular;
+        }
+
+        void reset(long nowMs, double value, double variance) {
+            mValue = value;
+            mVariance = variance;
+            mUpdateMs = nowMs;
+            mValid = true;
+        }
+
+        /** Estimate uncertainty at a time, before any new sample. */
+        double predictVariance(long nowMs) {
+            return mVariance + mProcessNoise * Math.max(0, nowMs - mUpdateMs) / 1000.0;
+        }
+
+        double innovation(double value) {
+            double diff = value - mValue;
+            if (mCircular) {
+                diff = ((diff % 360.0) + 540.0) % 360.0 - 180.0;
+            }
+            return diff;
+        }
+
+        void update(long nowMs, double value, double variance) {
+            if (!mValid) {
+                reset(nowMs, value, variance);
+                return;
+            }
+            double predicted = predictVariance(nowMs);
+            double gain = predicted / (predicted + variance);
+            mValue += gain * innovation(value);
+            if (mCircular) {
+                mValue = ((mValue % 360.0) + 360.0) % 360.0;
+            }
+            mVariance = (1 - gain) * predicted;
+            mUpdateMs = nowMs;
+        }
+    }
+
+    @GuardedBy("this")
+    private final Estimate mDistance = new Estimate(DISTANCE_PROCESS_NOISE, false);
+
+    @GuardedBy("this")
+    private final Estimate mAzimuth = new Estimate(ANGLE_PROCESS_NOISE, true);
+
+    @GuardedBy("this")
+    private final Estimate mAltitude = new Estimate(ANGLE_PROCESS_NOISE, false);
+
+    @GuardedBy("this")
+    private int mConsecutiveOutliers;
+
+    @GuardedBy("this")
+    private long mLastDeliveryMs = Long.MIN_VALUE;
+
+    @GuardedBy("this")
+    private boolean mDeliveryPending;
+
+    @GuardedBy("this")
+    private long mFirstSampleMs = -1;
+
+    @GuardedBy("this")
+    private long mSamples;
+
+    @GuardedBy("this")
+    private long mOutliers;
+
+    @GuardedBy("this")
+    private long mDelivered;
+
+    /**
+     * Add a raw sample. Angles are ignored when their error is negative or NaN, as reported when
+     * they were not measured.
+     *
+     * @return false if the sample was rejected as an outlier
+     */
+    synchronized boolean addSample(
+            long nowMs,
+            double meters,
+            double errorMeters,
+            double azimuth,
+            double errorAzimuth,
+            double altitude,
+            double errorAltitude) {
+        if (mFirstSampleMs < 0) {
+            mFirstSampleMs = nowMs;
+        }
+        mSamples++;
+
+        double variance = square(Math.max(errorMeters, MIN_ERROR_METERS));
+        if (mDistance.mValid) {
+            double innovation = mDistance.innovation(meters);
+            double bound =
+                    square(OUTLIER_SIGMAS) * (mDistance.predictVariance(nowMs) + variance);
+            if (innovation * innovation > bound) {
+                mOutliers++;
+                if (++mConsecutiveOutliers < MAX_CONSECUTIVE_OUTLIERS) {
+                    return false;
+                }
+                // The device moved faster than expected, start over from the latest sample
+                mDistance.mValid = false;
+                mAzimuth.mValid = false;
+                mAltitude.mValid = false;
+            }
+        }
+        mConsecutiveOutliers = 0;
+        mDistance.update(nowMs, meters, variance);
+        if (errorAzimuth >= 0 && azimuth >= 0 && azimuth <= 360) {
+            mAzimuth.update(nowMs, azimuth, angleVariance(errorAzimuth));
+        }
+        if (errorAltitude >= 0 && altitude >= -90 && altitude <= 90) {
+            mAltitude.update(nowMs, altitude, angleVariance(errorAltitude));
+        }
+        return true;
+    }
+
+    /**
+     * Delay before the current estimate can be delivered, 0 if it can be delivered now.
+     *
+     * @return the delay, or -1 if a delivery is already pending
+     */
+    synchronized long scheduleDelivery(long nowMs) {
+        if (mDeliveryPending) {
+            return -1;
+        }
+        long delayMs =
+                mLastDeliveryMs == Long.MIN_VALUE
+                        ? 0
+                        : Math.max(0, mLastDeliveryMs + MIN_DELIVERY_INTERVAL_MS - nowMs);
+        mDeliveryPending = delayMs > 0;
+        return delayMs;
+    }
+
+    /** Current estimate, to be delivered to the app. */
+    synchronized DistanceMeasurementResult takeResult(long nowMs) {
+        mDeliveryPending = false;
+        mLastDeliveryMs = nowMs;
+        mDelivered++;
+        DistanceMeasurementResult.Builder builder =
+                new DistanceMeasurementResult.Builder(
+                        Math.max(0, mDistance.mValue), Math.sqrt(mDistance.mVariance));
+        if (mAzimuth.mValid) {
+            builder.setAzimuthAngle(mAzimuth.mValue)
+                    .setErrorAzimuthAngle(Math.min(360.0, Math.sqrt(mAzimuth.mVariance)));
+        }
+        if (mAltitude.mValid) {
+            builder.setAltitudeAngle(Math.max(-90.0, Math.min(90.0, mAltitude.mValue)))
+                    .setErrorAltitudeAngle(Math.min(180.0, Math.sqrt(mAltitude.mVariance)));
+        }
+        return builder.build();
+    }
+
+    synchronized long getSampleCount() {
+        return mSamples;
+    }
+
+    synchronized long getOutlierCount() {
+        return mOutliers;
+    }
+
+    synchronized long getDeliveredCount() {
+        return mDelivered;
+    }
+
+    /** Samples received per second since the first one, multiplied by 10. */
+    @VisibleForTesting
+    synchronized long getSampleRateDeciHz(long nowMs) {
+        return rateDeciHz(mSamples, nowMs);
+    }
+
+    /** Results delivered per second since the first sample, multiplied by 10. */
+    @VisibleForTesting
+    synchronized long getDeliveryRateDeciHz(long nowMs) {
+        return rateDeciHz(mDelivered, nowMs);
+    }
+
+    synchronized void dump(StringBuilder sb, long nowMs) {
+        sb.append("samples=")
+                .append(mSamples)
+                .append(" (")
+                .append(formatRate(getSampleRateDeciHz(nowMs)))
+                .append(" Hz) outliers=")
+                .append(mOutliers)
+                .append(" delivered=")
+                .append(mDelivered)
+                .append(" (")
+                .append(formatRate(getDeliveryRateDeciHz(nowMs)))
+                .append(" Hz)");
+    }
+
+    @GuardedBy("this")
+    private long rateDeciHz(long count, long nowMs) {
+        long elapsedMs = mFirstSampleMs < 0 ? 0 : nowMs - mFirstSampleMs;
+        return elapsedMs <= 0 ? 0 : count * 10000 / elapsedMs;
+    }
+
+    private static String formatRate(long deciHz) {
+        return deciHz / 10 + "." + deciHz % 10;
+    }
+
+    private static double angleVariance(double error) {
+        return square(Math.max(error, MIN_ERROR_DEGREES));
+    }
+
+    private static double square(double value) {
+        return value * value;
+    }
+}
@@ -26,9 +26,11 @@ import android.bluetooth.le.DistanceMeasurementResult;
 import android.bluetooth.le.IDistanceMeasurementCallback;
 import android.os.HandlerThread;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.flags.Flags;
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.util.ArrayList;
@@ -474,9 +476,24 @@ public class DistanceMeasurementManager {
                         + BluetoothUtils.toAnonymizedAddress(address)
                         + ", centimeter "
                         + centimeter);
-        DistanceMeasurementResult result =
-                new DistanceMeasurementResult.Builder(centimeter / 100.0, errorCentimeter / 100.0)
-                        .build();
+        DistanceMeasurementResult.Builder builder =
+                new DistanceMeasurementResult.Builder(centimeter / 100.0, errorCentimeter / 100.0);
+        if (Flags.distanceMeasurementFiltering()) {
+            // The stack reports -1 for the angles it didn't measure
+            if (azimuthAngle >= 0
+                    && azimuthAngle <= 360
+                    && errorAzimuthAngle >= 0
+                    && errorAzimuthAngle <= 360) {
+                builder.setAzimuthAngle(azimuthAngle).setErrorAzimuthAngle(errorAzimuthAngle);
+            }
+            if (altitudeAngle >= -90
+                    && altitudeAngle <= 90
+                    && errorAltitudeAngle >= 0
+                    && errorAltitudeAngle <= 180) {
+                builder.setAltitudeAngle(altitudeAngle).setErrorAltitudeAngle(errorAltitudeAngle);
+            }
+        }
+        DistanceMeasurementResult result = builder.build();
         switch (method) {
             case DistanceMeasurementMethod.DISTANCE_MEASUREMENT_METHOD_RSSI:
                 handleRssiResult(address, result);
@@ -499,11 +516,7 @@ public class DistanceMeasurementManager {
             if (!tracker.mStarted) {
                 continue;
             }
-            try {
-                tracker.mCallback.onResult(tracker.mDevice, result);
-            } catch (RemoteException e) {
-                Log.e(TAG, "Exception: " + e);
-            }
+            deliverResult(tracker, result);
         }
     }
 
@@ -517,10 +530,73 @@ public class DistanceMeasurementManager {
             if (!tracker.mStarted) {
                 continue;
             }
-            try {
-                tracker.mCallback.onResult(tracker.mDevice, result);
-            } catch (RemoteException e) {
-                Log.e(TAG, "Exception: " + e);
+            deliverResult(tracker, result);
+        }
+    }
+
+    /**
+     * Deliver a raw result to the app of a tracker, through the filter of the tracker when enabled.
+     */
+    private void deliverResult(DistanceMeasurementTracker tracker, DistanceMeasurementResult raw) {
+        if (!Flags.distanceMeasurementFiltering()) {
+            invokeOnResult(tracker, raw);
+            return;
+        }
+        DistanceMeasurementFilter filter = tracker.mFilter;
+        long now = SystemClock.elapsedRealtime();
+        if (!filter.addSample(
+                now,
+                raw.getResultMeters(),
+                raw.getErrorMeters(),
+                raw.getAzimuthAngle(),
+                raw.getErrorAzimuthAngle(),
+                raw.getAltitudeAngle(),
+                raw.getErrorAltitudeAngle())) {
+            logd("deliverResult: outlier rejected, " + raw.getResultMeters() + "m");
+            return;
+        }
+        long delayMs = filter.scheduleDelivery(now);
+        if (delayMs == 0) {
+            invokeOnResult(tracker, filter.takeResult(now));
+        } else if (delayMs > 0) {
+            // Samples received until then are folded into the delivered estimate
+            tracker.postDelayed(
+                    () -> invokeOnResult(tracker, filter.takeResult(SystemClock.elapsedRealtime())),
+                    delayMs);
+        }
+    }
+
+    private void invokeOnResult(
+            DistanceMeasurementTracker tracker, DistanceMeasurementResult result) {
+        try {
+            tracker.mCallback.onResult(tracker.mDevice, result);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Exception: " + e);
+        }
+    }
+
+    void dump(StringBuilder sb) {
+        long now = SystemClock.elapsedRealtime();
+        dumpTrackers(sb, "RSSI", mRssiTrackers, now);
+        dumpTrackers(sb, "CS", mCsTrackers, now);
+    }
+
+    private static void dumpTrackers(
+            StringBuilder sb,
+            String method,
+            ConcurrentHashMap<String, CopyOnWriteArraySet<DistanceMeasurementTracker>> trackers,
+            long now) {
+        for (CopyOnWriteArraySet<DistanceMeasurementTracker> set : trackers.values()) {
+            for (DistanceMeasurementTracker tracker : set) {
+                sb.append("  ")
+                        .append(method)
+                        .append(" ")
+                        .append(BluetoothUtils.toAnonymizedAddress(tracker.mIdentityAddress))
+                        .append(" interval=")
+                        .append(tracker.mInterval)
+                        .append("ms ");
+                tracker.mFilter.dump(sb, now);
+                sb.append("\n");
             }
         }
     }
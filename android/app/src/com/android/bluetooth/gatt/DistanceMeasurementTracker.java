@@ -37,6 +37,7 @@ class DistanceMeasurementTracker {
     final int mDuration; // Report duration in s
     final int mMethod;
     final IDistanceMeasurementCallback mCallback;
+    final DistanceMeasurementFilter mFilter = new DistanceMeasurementFilter();
     boolean mStarted = false;
     private Handler mHandler;
 
@@ -69,6 +70,13 @@ class DistanceMeasurementTracker {
                 mDuration * 1000L);
     }
 
+    /** Run a delivery of results later, on the thread of the timer. Cancelled with the timer. */
+    void postDelayed(Runnable runnable, long delayMs) {
+        if (mHandler != null) {
+            mHandler.postDelayed(runnable, delayMs);
+        }
+    }
+
     void cancelTimer() {
         if (mHandler != null) {
             mHandler.removeCallbacksAndMessages(null);
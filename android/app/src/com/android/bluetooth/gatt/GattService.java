@@ -28,7 +28,6 @@ import android.annotation.RequiresPermission;
 import android.annotation.SuppressLint;
 import android.app.ActivityManager;
 import android.app.PendingIntent;
-import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
@@ -85,6 +84,7 @@ import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.flags.Flags;
 import com.android.bluetooth.hid.HidHostService;
 import com.android.bluetooth.le_scan.TransitionalScanHelper;
+import com.android.bluetooth.util.AddressCodec;
 import com.android.internal.annotations.VisibleForTesting;
 
 import libcore.util.HexEncoding;
@@ -1873,7 +1873,7 @@ public class GattService extends ProfileService {
         connectedDevices.addAll(mServerMap.getConnectedDevices());
 
         for (String address : connectedDevices) {
-            BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+            BluetoothDevice device = AddressCodec.getDevice(address);
             if (device != null) {
                 deviceStates.put(device, BluetoothProfile.STATE_CONNECTED);
             }
@@ -3574,10 +3574,15 @@ public class GattService extends ProfileService {
 
         sb.append("GATT Handle Map\n");
         mHandleMap.dump(sb);
+
+        if (mDistanceMeasurementManager != null) {
+            sb.append("Distance Measurement Trackers\n");
+            mDistanceMeasurementManager.dump(sb);
+        }
     }
 
     private void statsLogAppPackage(String address, int applicationUid, int sessionIndex) {
-        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        BluetoothDevice device = AddressCodec.getDevice(address);
         BluetoothStatsLog.write(
                 BluetoothStatsLog.BLUETOOTH_GATT_APP_INFO,
                 sessionIndex,
@@ -3597,7 +3602,7 @@ public class GattService extends ProfileService {
             int sessionIndex,
             int connectionState,
             int connectionStatus) {
-        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+        BluetoothDevice device = AddressCodec.getDevice(address);
         BluetoothStatsLog.write(
                 BluetoothStatsLog.BLUETOOTH_CONNECTION_STATE_CHANGED,
                 connectionState,
@@ -21,30 +21,24 @@
  */
 package com.android.bluetooth.hearingaid;
 
-import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.util.Log;
 
 import com.android.bluetooth.Utils;
+import com.android.bluetooth.util.AddressCodec;
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
 /** HearingAid Native Interface to/from JNI. */
 public class HearingAidNativeInterface {
     private static final String TAG = "HearingAidNativeInterface";
-    private BluetoothAdapter mAdapter;
 
     @GuardedBy("INSTANCE_LOCK")
     private static HearingAidNativeInterface sInstance;
 
     private static final Object INSTANCE_LOCK = new Object();
 
-    private HearingAidNativeInterface() {
-        mAdapter = BluetoothAdapter.getDefaultAdapter();
-        if (mAdapter == null) {
-            Log.wtf(TAG, "No Bluetooth Adapter Available");
-        }
-    }
+    private HearingAidNativeInterface() {}
 
     /** Get singleton instance. */
     public static HearingAidNativeInterface getInstance() {
@@ -120,7 +114,7 @@ public class HearingAidNativeInterface {
     }
 
     private BluetoothDevice getDevice(byte[] address) {
-        return mAdapter.getRemoteDevice(address);
+        return AddressCodec.getDevice(address);
     }
 
     @VisibleForTesting
@@ -23,11 +23,13 @@ import android.bluetooth.BluetoothDevice;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.SystemProperties;
 import android.provider.CallLog.Calls;
+import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.PhoneLookup;
 import android.telephony.PhoneNumberUtils;
@@ -37,11 +39,18 @@ import com.android.bluetooth.BluetoothMethodProxy;
 import com.android.bluetooth.R;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.flags.Flags;
 import com.android.bluetooth.util.DevicePolicyUtils;
 import com.android.bluetooth.util.GsmAlphabet;
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** Helper for managing phonebook presentation over AT commands */
 public class AtPhonebook {
@@ -71,6 +80,9 @@ public class AtPhonebook {
     private static final String INCOMING_CALL_WHERE = Calls.TYPE + "=" + Calls.INCOMING_TYPE;
     private static final String MISSED_CALL_WHERE = Calls.TYPE + "=" + Calls.MISSED_TYPE;
 
+    /** Maximum length of a string sent with a single AT response, see BTA_AG_AT_MAX_LEN. */
+    @VisibleForTesting static final int MAX_AT_RESPONSE_LENGTH = 256;
+
     @VisibleForTesting
     static class PhonebookResult {
         public Cursor cursor; // result set of last query
@@ -80,6 +92,20 @@ public class AtPhonebook {
         public int nameColumn;
     }
 
+    /** A phonebook entry, ready to be sent apart from the character set of the name. */
+    @VisibleForTesting
+    static class PhonebookEntry {
+        public final String number;
+        public final int regionType;
+        public final String name;
+
+        PhonebookEntry(String number, int regionType, String name) {
+            this.number = number;
+            this.regionType = regionType;
+            this.name = name;
+        }
+    }
+
     private Context mContext;
     private ContentResolver mContentResolver;
     private HeadsetNativeInterface mNativeInterface;
@@ -95,6 +121,18 @@ public class AtPhonebook {
     @VisibleForTesting
     final HashMap<String, PhonebookResult> mPhonebooks = new HashMap<String, PhonebookResult>(4);
 
+    // Entries of the phonebooks read by this device, valid for mSnapshotsGeneration
+    @GuardedBy("this")
+    private final HashMap<String, List<PhonebookEntry>> mSnapshots = new HashMap<>(4);
+
+    @GuardedBy("this")
+    private int mSnapshotsGeneration;
+
+    // Bumped on each call log or contact change, without blocking the observer
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    @VisibleForTesting final ContentObserver mPhonebookObserver;
+
     static final int TYPE_UNKNOWN = -1;
     static final int TYPE_READ = 0;
     static final int TYPE_SET = 1;
@@ -113,10 +151,28 @@ public class AtPhonebook {
         mPhonebooks.put("ME", new PhonebookResult()); // mobile phonebook
         mCurrentPhonebook = "ME"; // default to mobile phonebook
         mCpbrIndex1 = mCpbrIndex2 = -1;
+        if (Flags.hfpPhonebookSnapshot()) {
+            mPhonebookObserver =
+                    new ContentObserver(null) {
+                        @Override
+                        public void onChange(boolean selfChange) {
+                            invalidateSnapshots();
+                        }
+                    };
+            mContentResolver.registerContentObserver(Calls.CONTENT_URI, true, mPhonebookObserver);
+            mContentResolver.registerContentObserver(
+                    ContactsContract.AUTHORITY_URI, true, mPhonebookObserver);
+        } else {
+            mPhonebookObserver = null;
+        }
     }
 
     public void cleanup() {
         mPhonebooks.clear();
+        if (mPhonebookObserver != null) {
+            mContentResolver.unregisterContentObserver(mPhonebookObserver);
+            invalidateSnapshots();
+        }
     }
 
     /** Returns the last dialled number, or null if no numbers have been called */
@@ -220,12 +276,11 @@ public class AtPhonebook {
                     atCommandResult = HeadsetHalConstants.AT_RESPONSE_OK;
                     break;
                 }
-                PhonebookResult pbr = getPhonebookResult(mCurrentPhonebook, true);
-                if (pbr == null) {
+                int size = getPhonebookSize(mCurrentPhonebook);
+                if (size < 0) {
                     atCommandErrorCode = BluetoothCmeError.OPERATION_NOT_SUPPORTED;
                     break;
                 }
-                int size = pbr.cursor.getCount();
                 atCommandResponse =
                         "+CPBS: \""
                                 + mCurrentPhonebook
@@ -233,8 +288,6 @@ public class AtPhonebook {
                                 + size
                                 + ","
                                 + getMaxPhoneBookSize(size);
-                pbr.cursor.close();
-                pbr.cursor = null;
                 atCommandResult = HeadsetHalConstants.AT_RESPONSE_OK;
                 break;
             case TYPE_TEST: // Test
@@ -293,17 +346,14 @@ public class AtPhonebook {
                 if ("SM".equals(mCurrentPhonebook)) {
                     size = 0;
                 } else {
-                    PhonebookResult pbr = getPhonebookResult(mCurrentPhonebook, true); // false);
-                    if (pbr == null) {
+                    size = getPhonebookSize(mCurrentPhonebook);
+                    if (size < 0) {
                         atCommandErrorCode = BluetoothCmeError.OPERATION_NOT_ALLOWED;
                         mNativeInterface.atResponseCode(
                                 remoteDevice, atCommandResult, atCommandErrorCode);
                         break;
                     }
-                    size = pbr.cursor.getCount();
                     Log.d(TAG, "handleCpbrCommand - size = " + size);
-                    pbr.cursor.close();
-                    pbr.cursor = null;
                 }
                 if (size == 0) {
                     /* Sending "+CPBR: (1-0)" can confused some carkits, send "1-1" * instead */
@@ -410,6 +460,66 @@ public class AtPhonebook {
         return pbr;
     }
 
+    /** Returns the number of entries of the given phonebook, or -1 if it can't be read. */
+    private int getPhonebookSize(String pb) {
+        if (Flags.hfpPhonebookSnapshot()) {
+            List<PhonebookEntry> entries = getPhonebookSnapshot(pb);
+            return entries == null ? -1 : entries.size();
+        }
+        PhonebookResult pbr = getPhonebookResult(pb, true);
+        if (pbr == null) {
+            return -1;
+        }
+        int size = pbr.cursor.getCount();
+        pbr.cursor.close();
+        pbr.cursor = null;
+        return size;
+    }
+
+    /**
+     * Get all the entries of the given phonebook, read at once and kept until the call log or the
+     * contacts change. Returns null if the phonebook can't be read.
+     */
+    @VisibleForTesting
+    synchronized List<PhonebookEntry> getPhonebookSnapshot(String pb) {
+        if (pb == null) {
+            return null;
+        }
+        int generation = mGeneration.get();
+        if (generation != mSnapshotsGeneration) {
+            mSnapshots.clear();
+            mSnapshotsGeneration = generation;
+        }
+        List<PhonebookEntry> entries = mSnapshots.get(pb);
+        if (entries != null) {
+            return entries;
+        }
+        PhonebookResult pbr = new PhonebookResult();
+        if (!queryPhonebook(pb, pbr)) {
+            return null;
+        }
+        entries = new ArrayList<>(pbr.cursor.getCount());
+        // Call logs often list the same numbers many times, look each of them up only once
+        Map<String, String> names = new HashMap<>();
+        try {
+            while (pbr.cursor.moveToNext()) {
+                entries.add(readEntry(pbr, names));
+            }
+        } finally {
+            pbr.cursor.close();
+            pbr.cursor = null;
+        }
+        // Don't keep entries read while a change was reported
+        if (generation == mGeneration.get()) {
+            mSnapshots.put(pb, entries);
+        }
+        return entries;
+    }
+
+    private void invalidateSnapshots() {
+        mGeneration.incrementAndGet();
+    }
+
     private synchronized boolean queryPhonebook(String pb, PhonebookResult pbr) {
         String where;
         boolean ancillaryPhonebook = true;
@@ -515,7 +625,6 @@ public class AtPhonebook {
         Log.d(TAG, "processCpbrCommand");
         int atCommandResult = HeadsetHalConstants.AT_RESPONSE_ERROR;
         String atCommandResponse = null;
-        String record;
 
         // Shortcut SM phonebook
         if ("SM".equals(mCurrentPhonebook)) {
@@ -523,6 +632,10 @@ public class AtPhonebook {
             return atCommandResult;
         }
 
+        if (Flags.hfpPhonebookSnapshot()) {
+            return processCpbrCommandFromSnapshot(device);
+        }
+
         // Check phonebook
         PhonebookResult pbr = getPhonebookResult(mCurrentPhonebook, true); // false);
         if (pbr == null) {
@@ -555,98 +668,170 @@ public class AtPhonebook {
         pbr.cursor.moveToPosition(mCpbrIndex1 - 1);
         Log.d(TAG, "mCpbrIndex1 = " + mCpbrIndex1 + " and mCpbrIndex2 = " + mCpbrIndex2);
         for (int index = mCpbrIndex1; index <= mCpbrIndex2; index++) {
-            String number = pbr.cursor.getString(pbr.numberColumn);
-            String name = null;
-            int type = -1;
-            if (pbr.nameColumn == -1 && number != null && number.length() > 0) {
-                // try caller id lookup
-                // TODO: This code is horribly inefficient. I saw it
-                // take 7 seconds to process 100 missed calls.
-                Cursor c =
-                        BluetoothMethodProxy.getInstance()
-                                .contentResolverQuery(
-                                        mContentResolver,
-                                        Uri.withAppendedPath(
-                                                PhoneLookup.ENTERPRISE_CONTENT_FILTER_URI,
-                                                Uri.encode(number)),
-                                        new String[] {PhoneLookup.DISPLAY_NAME, PhoneLookup.TYPE},
-                                        null,
-                                        null,
-                                        null);
-                if (c != null) {
-                    if (c.moveToFirst()) {
-                        name = c.getString(0);
-                        type = c.getInt(1);
-                    }
-                    c.close();
-                }
-                if (name == null) {
-                    Log.d(TAG, "Caller ID lookup failed for " + number);
-                }
-
-            } else if (pbr.nameColumn != -1) {
-                name = pbr.cursor.getString(pbr.nameColumn);
-            } else {
-                Log.d(TAG, "processCpbrCommand: empty name and number");
-            }
-            if (name == null) {
-                name = "";
-            }
-            name = name.trim();
-            if (name.length() > 28) {
-                name = name.substring(0, 28);
+            atCommandResponse = formatCpbrRecord(index, readEntry(pbr, null));
+            mNativeInterface.atResponseString(device, atCommandResponse);
+            if (!pbr.cursor.moveToNext()) {
+                break;
             }
+        }
+        if (pbr.cursor != null) {
+            pbr.cursor.close();
+            pbr.cursor = null;
+        }
+        return atCommandResult;
+    }
 
-            if (pbr.typeColumn != -1) {
-                type = pbr.cursor.getInt(pbr.typeColumn);
-                name = name + "/" + getPhoneType(type);
+    /**
+     * Same as the cursor based processing, from the phonebook snapshot. Records are sent in as few
+     * AT responses as possible instead of one response each.
+     */
+    private int processCpbrCommandFromSnapshot(BluetoothDevice device) {
+        List<PhonebookEntry> entries = getPhonebookSnapshot(mCurrentPhonebook);
+        if (entries == null) {
+            Log.e(TAG, "Phonebook " + mCurrentPhonebook + " can't be read");
+            return HeadsetHalConstants.AT_RESPONSE_ERROR;
+        }
+        // Same sanity checks, send OK as well when they fail
+        if (entries.isEmpty()
+                || mCpbrIndex1 <= 0
+                || mCpbrIndex2 < mCpbrIndex1
+                || mCpbrIndex1 > entries.size()) {
+            Log.e(TAG, "Invalid request or no results, returning");
+            return HeadsetHalConstants.AT_RESPONSE_OK;
+        }
+        if (mCpbrIndex2 > entries.size()) {
+            Log.w(TAG, "max index requested is greater than number of records available");
+            mCpbrIndex2 = entries.size();
+        }
+        Log.d(TAG, "mCpbrIndex1 = " + mCpbrIndex1 + " and mCpbrIndex2 = " + mCpbrIndex2);
+        StringBuilder response = new StringBuilder();
+        int responseLength = 0;
+        for (int index = mCpbrIndex1; index <= mCpbrIndex2; index++) {
+            String record = formatCpbrRecord(index, entries.get(index - 1));
+            int recordLength = record.getBytes(StandardCharsets.UTF_8).length;
+            if (responseLength > 0 && responseLength + recordLength > MAX_AT_RESPONSE_LENGTH) {
+                mNativeInterface.atResponseString(device, response.toString());
+                response.setLength(0);
+                responseLength = 0;
             }
+            response.append(record);
+            responseLength += recordLength;
+        }
+        mNativeInterface.atResponseString(device, response.toString());
+        return HeadsetHalConstants.AT_RESPONSE_OK;
+    }
 
-            if (number == null) {
-                number = "";
+    /**
+     * Read the entry at the current position of the phonebook cursor.
+     *
+     * @param names names already looked up for call log numbers, or null to always look them up
+     */
+    private PhonebookEntry readEntry(PhonebookResult pbr, Map<String, String> names) {
+        String number = pbr.cursor.getString(pbr.numberColumn);
+        String name = null;
+        int type = -1;
+        if (pbr.nameColumn == -1 && number != null && number.length() > 0) {
+            if (names != null && names.containsKey(number)) {
+                name = names.get(number);
+            } else {
+                name = lookupName(number);
+                if (names != null) {
+                    names.put(number, name);
+                }
             }
-            int regionType = PhoneNumberUtils.toaFromString(number);
+        } else if (pbr.nameColumn != -1) {
+            name = pbr.cursor.getString(pbr.nameColumn);
+        } else {
+            Log.d(TAG, "processCpbrCommand: empty name and number");
+        }
+        if (name == null) {
+            name = "";
+        }
+        name = name.trim();
+        if (name.length() > 28) {
+            name = name.substring(0, 28);
+        }
 
-            number = number.trim();
-            number = PhoneNumberUtils.stripSeparators(number);
-            if (number.length() > 30) {
-                number = number.substring(0, 30);
-            }
-            int numberPresentation = Calls.PRESENTATION_ALLOWED;
-            if (pbr.numberPresentationColumn != -1) {
-                numberPresentation = pbr.cursor.getInt(pbr.numberPresentationColumn);
-            }
-            if (numberPresentation != Calls.PRESENTATION_ALLOWED) {
-                number = "";
-                // TODO: there are 3 types of numbers should have resource
-                // strings for: unknown, private, and payphone
-                name = mContext.getString(R.string.unknownNumber);
-            }
+        if (pbr.typeColumn != -1) {
+            type = pbr.cursor.getInt(pbr.typeColumn);
+            name = name + "/" + getPhoneType(type);
+        }
 
-            // TODO(): Handle IRA commands. It's basically
-            // a 7 bit ASCII character set.
-            if (!name.isEmpty() && mCharacterSet.equals("GSM")) {
-                byte[] nameByte = GsmAlphabet.stringToGsm8BitPacked(name);
-                if (nameByte == null) {
-                    name = mContext.getString(R.string.unknownNumber);
-                } else {
-                    name = new String(nameByte);
-                }
-            }
+        if (number == null) {
+            number = "";
+        }
+        int regionType = PhoneNumberUtils.toaFromString(number);
 
-            record = "+CPBR: " + index + ",\"" + number + "\"," + regionType + ",\"" + name + "\"";
-            record = record + "\r\n\r\n";
-            atCommandResponse = record;
-            mNativeInterface.atResponseString(device, atCommandResponse);
-            if (!pbr.cursor.moveToNext()) {
-                break;
+        number = number.trim();
+        number = PhoneNumberUtils.stripSeparators(number);
+        if (number.length() > 30) {
+            number = number.substring(0, 30);
+        }
+        int numberPresentation = Calls.PRESENTATION_ALLOWED;
+        if (pbr.numberPresentationColumn != -1) {
+            numberPresentation = pbr.cursor.getInt(pbr.numberPresentationColumn);
+        }
+        if (numberPresentation != Calls.PRESENTATION_ALLOWED) {
+            number = "";
+            // TODO: there are 3 types of numbers should have resource
+            // strings for: unknown, private, and payphone
+            name = mContext.getString(R.string.unknownNumber);
+        }
+        return new PhonebookEntry(number, regionType, name);
+    }
+
+    private String lookupName(String number) {
+        // try caller id lookup
+        // TODO: This code is horribly inefficient. I saw it
+        // take 7 seconds to process 100 missed calls.
+        String name = null;
+        Cursor c =
+                BluetoothMethodProxy.getInstance()
+                        .contentResolverQuery(
+                                mContentResolver,
+                                Uri.withAppendedPath(
+                                        PhoneLookup.ENTERPRISE_CONTENT_FILTER_URI,
+                                        Uri.encode(number)),
+                                new String[] {PhoneLookup.DISPLAY_NAME, PhoneLookup.TYPE},
+                                null,
+                                null,
+                                null);
+        if (c != null) {
+            if (c.moveToFirst()) {
+                name = c.getString(0);
             }
+            c.close();
         }
-        if (pbr.cursor != null) {
-            pbr.cursor.close();
-            pbr.cursor = null;
+        if (name == null) {
+            Log.d(TAG, "Caller ID lookup failed for " + number);
         }
-        return atCommandResult;
+        return name;
+    }
+
+    private String formatCpbrRecord(int index, PhonebookEntry entry) {
+        String name = entry.name;
+        // TODO(): Handle IRA commands. It's basically
+        // a 7 bit ASCII character set.
+        if (!name.isEmpty() && mCharacterSet.equals("GSM")) {
+            byte[] nameByte = GsmAlphabet.stringToGsm8BitPacked(name);
+            if (nameByte == null) {
+                name = mContext.getString(R.string.unknownNumber);
+            } else {
+                name = new String(nameByte);
+            }
+        }
+
+        String record =
+                "+CPBR: "
+                        + index
+                        + ",\""
+                        + entry.number
+                        + "\","
+                        + entry.regionType
+                        + ",\""
+                        + name
+                        + "\"";
+        return record + "\r\n\r\n";
     }
 
     private void requestAccessPermission(BluetoothDevice remoteDevice) {
@@ -103,6 +103,7 @@ class HeadsetStateMachine extends StateMachine {
     private static final int CONNECT_TIMEOUT = 201;
 
     private static final int CLCC_RSP_TIMEOUT_MS = 5000;
+    @VisibleForTesting static final long CLCC_POLL_RATE_WINDOW_MS = 60000;
     // NOTE: the value is not "final" - it is modified in the unit tests
     @VisibleForTesting static int sConnectTimeoutMs = 30000;
 
@@ -139,6 +140,11 @@ class HeadsetStateMachine extends StateMachine {
     private HeadsetAgIndicatorEnableState mAgIndicatorEnableState;
     // The timestamp when the device entered connecting/connected state
     private long mConnectingTimestampMs = Long.MIN_VALUE;
+    // AT+CLCC polls of the device, many devices poll every second during calls
+    private long mClccPolls = 0;
+    private long mClccPollWindowStartMs = Long.MIN_VALUE;
+    private int mClccPollsInWindow = 0;
+    private int mClccPollsPerMinute = 0;
     // Audio Parameters
     private boolean mHasNrecEnabled = false;
     private boolean mHasWbsEnabled = false;
@@ -282,6 +288,9 @@ class HeadsetStateMachine extends StateMachine {
         ProfileService.println(
                 sb, "  mConnectingTimestampMs(uptimeMillis): " + mConnectingTimestampMs);
         ProfileService.println(sb, "  mHsClientAudioPolicy: " + mHsClientAudioPolicy.toString());
+        ProfileService.println(
+                sb,
+                "  mClccPolls: " + mClccPolls + " (last minute: " + mClccPollsPerMinute + ")");
 
         ProfileService.println(sb, "  StateMachine: " + this);
         // Dump the state machine logs
@@ -2187,6 +2196,7 @@ class HeadsetStateMachine extends StateMachine {
     @RequiresPermission(allOf = {BLUETOOTH_CONNECT, MODIFY_PHONE_STATE})
     @VisibleForTesting
     void processAtClcc(BluetoothDevice device) {
+        countClccPoll();
         if (mHeadsetService.isVirtualCallStarted()) {
             // In virtual call, send our phone number instead of remote phone number
             String phoneNumber = mSystemInterface.getSubscriberNumber();
@@ -2207,6 +2217,28 @@ class HeadsetStateMachine extends StateMachine {
         }
     }
 
+    private void countClccPoll() {
+        long now = SystemClock.uptimeMillis();
+        mClccPolls++;
+        if (mClccPollWindowStartMs == Long.MIN_VALUE
+                || now - mClccPollWindowStartMs >= CLCC_POLL_RATE_WINDOW_MS) {
+            // Only a window followed by the current one tells the rate of the last minute
+            boolean consecutive =
+                    mClccPollWindowStartMs != Long.MIN_VALUE
+                            && now - mClccPollWindowStartMs < 2 * CLCC_POLL_RATE_WINDOW_MS;
+            mClccPollsPerMinute = consecutive ? mClccPollsInWindow : 0;
+            mClccPollWindowStartMs = now;
+            mClccPollsInWindow = 0;
+        }
+        mClccPollsInWindow++;
+    }
+
+    /** Number of AT+CLCC received from the device in the last full minute of polling. */
+    @VisibleForTesting
+    int getClccPollsPerMinute() {
+        return mClccPollsPerMinute;
+    }
+
     @VisibleForTesting
     void processAtCscs(String atString, int type, BluetoothDevice device) {
         log("processAtCscs - atString = " + atString);
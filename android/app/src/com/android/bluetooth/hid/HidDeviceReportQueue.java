@@ -0,0 +1,287 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.hid;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Outbound queue of the input reports sent by the registered HID Device app.
+ *
+ * <p>Apps emulating mice or game controllers send reports at up to 1000 Hz. Instead of sending
+ * each report on the binder thread of the app, reports are queued without locking and sent in
+ * order from a dedicated sender looper, so the app never waits for the interrupt channel.
+ *
+ * <p>Reports come in two styles, found in the report descriptor, see {@link
+ * #setReportDescriptor}:
+ *
+ * <ul>
+ *   <li>State reports only carry continuous absolute values, e.g. the sticks and triggers of a
+ *       game controller. Only the latest unsent value of a report id is useful: a new report
+ *       replaces the pending one, keeping its place in the queue.
+ *   <li>Event reports are all sent in order. They carry relative values, e.g. the movements of a
+ *       mouse, or on/off controls, e.g. buttons, keys and hat switches, whose presses would be
+ *       lost if a release replaced them. When {@link #MAX_QUEUED_EVENTS} are waiting, new ones are
+ *       dropped.
+ * </ul>
+ */
+class HidDeviceReportQueue {
+    private static final String TAG = HidDeviceReportQueue.class.getSimpleName();
+
+    @VisibleForTesting static final int MAX_QUEUED_EVENTS = 64;
+
+    private static final int REPORT_ID_COUNT = 256;
+
+    private static final class Report {
+        final int mId;
+        final byte[] mData;
+        final long mQueuedNanos;
+        final Stats mStats;
+
+        Report(int id, byte[] data, long queuedNanos, Stats stats) {
+            mId = id;
+            mData = data;
+            mQueuedNanos = queuedNanos;
+            mStats = stats;
+        }
+    }
+
+    /** Counters of the reports sent to a device. */
+    @VisibleForTesting
+    static final class Stats {
+        final AtomicLong mSent = new AtomicLong();
+        final AtomicLong mCoalesced = new AtomicLong();
+        final AtomicLong mDropped = new AtomicLong();
+        final AtomicLong mFailed = new AtomicLong();
+        final AtomicLong mTotalLatencyMicros = new AtomicLong();
+        final AtomicLong mMaxLatencyMicros = new AtomicLong();
+        // Set by the sender when a report fails, reported to the app on its next report
+        final AtomicBoolean mUnreportedFailure = new AtomicBoolean();
+
+        void onSent(long latencyMicros) {
+            mSent.incrementAndGet();
+            mTotalLatencyMicros.addAndGet(latencyMicros);
+            mMaxLatencyMicros.accumulateAndGet(latencyMicros, Math::max);
+        }
+
+        @Override
+        public String toString() {
+            long sent = mSent.get();
+            return "sent="
+                    + sent
+                    + " coalesced="
+                    + mCoalesced.get()
+                    + " dropped="
+                    + mDropped.get()
+                    + " failed="
+                    + mFailed.get()
+                    + " latencyUs(avg/max)="
+                    + (sent == 0 ? 0 : mTotalLatencyMicros.get() / sent)
+                    + "/"
+                    + mMaxLatencyMicros.get();
+        }
+    }
+
+    private final HidDeviceNativeInterface mNativeInterface;
+    private final Handler mHandler;
+    private final Runnable mDrain = this::drain;
+    private final AtomicBoolean mDrainPosted = new AtomicBoolean();
+
+    // In sending order. State reports are only represented by their id, their value is taken from
+    // mPendingStates when sent.
+    private final ConcurrentLinkedQueue<Object> mQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicReferenceArray<Report> mPendingStates =
+            new AtomicReferenceArray<>(REPORT_ID_COUNT);
+    private final AtomicInteger mQueuedEvents = new AtomicInteger();
+    private final Map<BluetoothDevice, Stats> mStats = new ConcurrentHashMap<>();
+
+    private volatile boolean[] mStateReports = new boolean[REPORT_ID_COUNT];
+
+    HidDeviceReportQueue(HidDeviceNativeInterface nativeInterface, Looper looper) {
+        mNativeInterface = nativeInterface;
+        mHandler = new Handler(looper);
+    }
+
+    /**
+     * Find the state report ids in the report descriptor of the app: the ids whose input items
+     * are all absolute variables of more than one bit without null state. Reports of other ids
+     * are event reports.
+     */
+    void setReportDescriptor(byte[] descriptor) {
+        boolean[] hasInput = new boolean[REPORT_ID_COUNT];
+        boolean[] hasEventInput = new boolean[REPORT_ID_COUNT];
+        ArrayDeque<int[]> globals = new ArrayDeque<>();
+        int reportId = 0;
+        int reportSize = 0;
+        int i = 0;
+        while (descriptor != null && i < descriptor.length) {
+            int prefix = descriptor[i] & 0xFF;
+            if (prefix == 0xFE) {
+                // Long item, never used for input items
+                if (i + 1 >= descriptor.length) {
+                    break;
+                }
+                i += 3 + (descriptor[i + 1] & 0xFF);
+                continue;
+            }
+            int size = (prefix & 0x03) == 3 ? 4 : prefix & 0x03;
+            int value = 0;
+            for (int b = 0; b < size && i + 1 + b < descriptor.length; b++) {
+                value |= (descriptor[i + 1 + b] & 0xFF) << (8 * b);
+            }
+            int tagAndType = prefix & 0xFC;
+            if (tagAndType == 0x84) {
+                // Global item: Report ID
+                reportId = value & 0xFF;
+            } else if (tagAndType == 0x74) {
+                // Global item: Report Size
+                reportSize = value;
+            } else if (tagAndType == 0xA4) {
+                // Global item: Push
+                globals.push(new int[] {reportId, reportSize});
+            } else if (tagAndType == 0xB4 && !globals.isEmpty()) {
+                // Global item: Pop
+                int[] saved = globals.pop();
+                reportId = saved[0];
+                reportSize = saved[1];
+            } else if (tagAndType == 0x80 && (value & 0x01) == 0) {
+                // Main item: Input, with data rather than constant padding
+                hasInput[reportId] = true;
+                boolean variable = (value & 0x02) != 0;
+                boolean relative = (value & 0x04) != 0;
+                boolean nullState = (value & 0x40) != 0;
+                if (!variable || relative || nullState || reportSize <= 1) {
+                    // Arrays, buttons and hat switches are on/off controls
+                    hasEventInput[reportId] = true;
+                }
+            }
+            i += 1 + size;
+        }
+        boolean[] stateReports = new boolean[REPORT_ID_COUNT];
+        for (int id = 0; id < REPORT_ID_COUNT; id++) {
+            stateReports[id] = hasInput[id] && !hasEventInput[id];
+        }
+        mStateReports = stateReports;
+    }
+
+    @VisibleForTesting
+    boolean isStateReport(int id) {
+        return mStateReports[id & 0xFF];
+    }
+
+    /**
+     * Queue a report to be sent to a device.
+     *
+     * @return false if the report was dropped, because too many events are waiting or because an
+     *     earlier report to the device failed to be sent since the last call
+     */
+    boolean offer(BluetoothDevice device, int id, byte[] data) {
+        Stats stats = mStats.computeIfAbsent(device, d -> new Stats());
+        if (stats.mUnreportedFailure.getAndSet(false)) {
+            // Like a failed synchronous send, the app may send the report again
+            stats.mDropped.incrementAndGet();
+            return false;
+        }
+        Report report = new Report(id, data, SystemClock.elapsedRealtimeNanos(), stats);
+        if (isStateReport(id)) {
+            if (mPendingStates.getAndSet(id & 0xFF, report) != null) {
+                // The pending report is already queued, it is sent with the new value
+                stats.mCoalesced.incrementAndGet();
+                return true;
+            }
+            mQueue.offer(id & 0xFF);
+        } else {
+            if (mQueuedEvents.incrementAndGet() > MAX_QUEUED_EVENTS) {
+                mQueuedEvents.decrementAndGet();
+                stats.mDropped.incrementAndGet();
+                return false;
+            }
+            mQueue.offer(report);
+        }
+        if (mDrainPosted.compareAndSet(false, true)) {
+            mHandler.post(mDrain);
+        }
+        return true;
+    }
+
+    /** Drop the reports not sent yet, e.g. when the device disconnects. */
+    void clear() {
+        for (Stats stats : mStats.values()) {
+            stats.mUnreportedFailure.set(false);
+        }
+        Object item;
+        while ((item = mQueue.poll()) != null) {
+            Report report = take(item);
+            if (report != null) {
+                report.mStats.mDropped.incrementAndGet();
+            }
+        }
+    }
+
+    @VisibleForTesting
+    Stats getStats(BluetoothDevice device) {
+        return mStats.get(device);
+    }
+
+    void dump(StringBuilder sb) {
+        for (Map.Entry<BluetoothDevice, Stats> entry : mStats.entrySet()) {
+            sb.append("  ").append(entry.getKey()).append(": ").append(entry.getValue());
+            sb.append("\n");
+        }
+    }
+
+    private void drain() {
+        mDrainPosted.set(false);
+        Object item;
+        while ((item = mQueue.poll()) != null) {
+            Report report = take(item);
+            if (report == null) {
+                continue;
+            }
+            if (mNativeInterface.sendReport(report.mId, report.mData)) {
+                report.mStats.onSent(
+                        (SystemClock.elapsedRealtimeNanos() - report.mQueuedNanos) / 1000);
+            } else {
+                Log.w(TAG, "drain(): failed to send report id=" + report.mId);
+                report.mStats.mFailed.incrementAndGet();
+                report.mStats.mUnreportedFailure.set(true);
+            }
+        }
+    }
+
+    private Report take(Object item) {
+        if (item instanceof Integer) {
+            return mPendingStates.getAndSet((Integer) item, null);
+        }
+        mQueuedEvents.decrementAndGet();
+        return (Report) item;
+    }
+}
@@ -33,6 +33,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Binder;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
@@ -47,6 +48,7 @@ import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.btservice.MetricsLogger;
 import com.android.bluetooth.btservice.ProfileService;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
+import com.android.bluetooth.flags.Flags;
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.nio.ByteBuffer;
@@ -78,14 +80,17 @@ public class HidDeviceService extends ProfileService {
     private HidDeviceNativeInterface mHidDeviceNativeInterface;
 
     private boolean mNativeAvailable = false;
-    private BluetoothDevice mHidDevice;
+    // Volatile as read without the service lock when queuing reports
+    private volatile BluetoothDevice mHidDevice;
     private int mHidDeviceState = BluetoothHidDevice.STATE_DISCONNECTED;
-    private int mUserUid = 0;
+    private volatile int mUserUid = 0;
     private IBluetoothHidDeviceCallback mCallback;
     private BluetoothHidDeviceDeathRecipient mDeathRcpt;
     private ActivityManager mActivityManager;
 
     private HidDeviceServiceHandler mHandler;
+    private HandlerThread mReportThread;
+    private volatile HidDeviceReportQueue mReportQueue;
 
     public HidDeviceService(Context ctx) {
         super(ctx);
@@ -178,6 +183,8 @@ public class HidDeviceService extends ProfileService {
 
                         if (state != BluetoothHidDevice.STATE_DISCONNECTED) {
                             mHidDevice = device;
+                        } else if (mReportQueue != null) {
+                            mReportQueue.clear();
                         }
 
                         setAndBroadcastConnectionState(device, state);
@@ -369,8 +376,6 @@ public class HidDeviceService extends ProfileService {
         @Override
         public boolean sendReport(
                 BluetoothDevice device, int id, byte[] data, AttributionSource source) {
-            Log.d(TAG, "sendReport(): device=" + device + "  id=" + id);
-
             HidDeviceService service = getService(source);
             if (service == null) {
                 return false;
@@ -541,6 +546,9 @@ public class HidDeviceService extends ProfileService {
         }
         mUserUid = callingUid;
         mCallback = callback;
+        if (mReportQueue != null) {
+            mReportQueue.setReportDescriptor(sdp.getDescriptors());
+        }
 
         return mHidDeviceNativeInterface.registerApp(
                 sdp.getName(),
@@ -582,13 +590,27 @@ public class HidDeviceService extends ProfileService {
 
         if (mUserUid != 0 && (uid == mUserUid || uid < Process.FIRST_APPLICATION_UID)) {
             mUserUid = 0;
+            if (mReportQueue != null) {
+                // Reports of the app must not reach the device after it is unregistered
+                mReportQueue.clear();
+                mReportQueue.setReportDescriptor(null);
+            }
             return mHidDeviceNativeInterface.unregisterApp();
         }
         Log.d(TAG, "unregisterAppUid(): caller UID doesn't match user UID");
         return false;
     }
 
-    synchronized boolean sendReport(BluetoothDevice device, int id, byte[] data) {
+    boolean sendReport(BluetoothDevice device, int id, byte[] data) {
+        HidDeviceReportQueue reportQueue = mReportQueue;
+        if (reportQueue != null) {
+            // Neither the interrupt channel nor the service lock may block the app thread
+            return checkDevice(device) && checkCallingUid() && reportQueue.offer(device, id, data);
+        }
+        return sendReportNow(device, id, data);
+    }
+
+    private synchronized boolean sendReportNow(BluetoothDevice device, int id, byte[] data) {
         Log.d(TAG, "sendReport(): device=" + device + " id=" + id);
 
         return checkDevice(device)
@@ -718,6 +740,15 @@ public class HidDeviceService extends ProfileService {
         mHidDeviceNativeInterface = HidDeviceNativeInterface.getInstance();
         mHidDeviceNativeInterface.init();
         mNativeAvailable = true;
+        if (Flags.hidDeviceReportQueue()) {
+            // Input reports are latency sensitive, e.g. mice and game controllers
+            mReportThread =
+                    new HandlerThread("HidDeviceReportSender", Process.THREAD_PRIORITY_DISPLAY);
+            mReportThread.start();
+            mReportQueue =
+                    new HidDeviceReportQueue(
+                            mHidDeviceNativeInterface, mReportThread.getLooper());
+        }
         mActivityManager = getSystemService(ActivityManager.class);
         mActivityManager.addOnUidImportanceListener(
                 mUidImportanceListener, FOREGROUND_IMPORTANCE_CUTOFF);
@@ -734,6 +765,11 @@ public class HidDeviceService extends ProfileService {
         }
 
         setHidDeviceService(null);
+        if (mReportThread != null) {
+            mReportThread.quit();
+            mReportThread = null;
+            mReportQueue = null;
+        }
         if (mNativeAvailable) {
             mHidDeviceNativeInterface.cleanup();
             mNativeAvailable = false;
@@ -741,6 +777,16 @@ public class HidDeviceService extends ProfileService {
         mActivityManager.removeOnUidImportanceListener(mUidImportanceListener);
     }
 
+    @Override
+    public void dump(StringBuilder sb) {
+        super.dump(sb);
+        HidDeviceReportQueue reportQueue = mReportQueue;
+        if (reportQueue != null) {
+            println(sb, "Report queue:");
+            reportQueue.dump(sb);
+        }
+    }
+
     /**
      * Get the HID Device Service instance
      *
@@ -0,0 +1,507 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.le_audio;
+
+import android.annotation.Nullable;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothStatusCodes;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * Sends the value changes of GATT server characteristics to all their subscribed clients.
+ *
+ * <p>Each client gets a slot, and each characteristic a bitmap of the slots of its subscribers, so
+ * a change only visits the clients which enabled notifications, without any lookup by address.
+ *
+ * <p>Only one notification is in flight per client: the next one is sent once {@link
+ * #onNotificationSent} is called, which the GATT service delays while the link is congested. The
+ * service must send all its notifications through here, otherwise their confirmations cannot be
+ * told apart. Meanwhile the notifications are queued in order, except for state characteristics:
+ * only their latest value is kept for the client, older ones are useless to it.
+ *
+ * <p>State characteristics which change very often, e.g. the track position, can have a coalescing
+ * window: the first change is sent right away, further changes within the window are folded into a
+ * single notification of the latest value at the end of the window.
+ */
+public class GattNotificationFanout {
+    private static final String TAG = GattNotificationFanout.class.getSimpleName();
+
+    /** Fallback for clients never confirming a notification was sent. */
+    @VisibleForTesting static final long NOTIFICATION_TIMEOUT_MS = 1000;
+
+    /** Sends a notification to a client. */
+    public interface Sender {
+        /**
+         * @return {@link BluetoothStatusCodes#SUCCESS} if the notification was sent
+         */
+        int notify(
+                BluetoothDevice device, BluetoothGattCharacteristic characteristic, byte[] value);
+    }
+
+    private static final class Client {
+        final BluetoothDevice mDevice;
+        final int mSlot;
+        // Notifications waiting for the one in flight, in order. State characteristics are keyed
+        // by their UUID so a newer value takes the place of the pending one, other notifications
+        // by themselves so none is lost.
+        final LinkedHashMap<Object, Notification> mPending = new LinkedHashMap<>();
+        @Nullable Notification mInFlight;
+        final Runnable mTimeout;
+
+        Client(BluetoothDevice device, int slot, Runnable timeout) {
+            mDevice = device;
+            mSlot = slot;
+            mTimeout = timeout;
+        }
+    }
+
+    private static final class Notification {
+        final BluetoothGattCharacteristic mCharacteristic;
+        final byte[] mValue;
+
+        Notification(BluetoothGattCharacteristic characteristic, byte[] value) {
+            mCharacteristic = characteristic;
+            mValue = value;
+        }
+    }
+
+    private static final class Send {
+        final Client mClient;
+        final Notification mNotification;
+
+        Send(Client client, Notification notification) {
+            mClient = client;
+            mNotification = notification;
+        }
+    }
+
+    private static final class Window {
+        final long mWindowMs;
+        long mLastSentMs = Long.MIN_VALUE;
+        Notification mTrailing;
+        BluetoothDevice mTrailingOrigin;
+        Runnable mFlush;
+
+        Window(long windowMs) {
+            mWindowMs = windowMs;
+        }
+    }
+
+    private final Sender mSender;
+    private final Predicate<BluetoothDevice> mCanNotify;
+    private final Handler mHandler;
+
+    @GuardedBy("this")
+    private final Map<BluetoothDevice, Client> mClients = new HashMap<>();
+
+    // Indexed by slot, null for free slots
+    @GuardedBy("this")
+    private final List<Client> mSlots = new ArrayList<>();
+
+    @GuardedBy("this")
+    private final Map<UUID, BitSet> mSubscribers = new HashMap<>();
+
+    @GuardedBy("this")
+    private final Set<UUID> mStateCharacteristics = new HashSet<>();
+
+    @GuardedBy("this")
+    private final Map<UUID, Window> mWindows = new HashMap<>();
+
+    @GuardedBy("this")
+    private long mChanges;
+
+    @GuardedBy("this")
+    private long mCoalesced;
+
+    @GuardedBy("this")
+    private long mSent;
+
+    @GuardedBy("this")
+    private long mReplaced;
+
+    @GuardedBy("this")
+    private long mFailed;
+
+    @GuardedBy("this")
+    private long mTimeouts;
+
+    /**
+     * @param sender sends the notifications
+     * @param canNotify whether a subscribed client may be notified now, e.g. it is authorized
+     * @param looper runs the coalescing windows and timeouts
+     */
+    public GattNotificationFanout(
+            Sender sender, Predicate<BluetoothDevice> canNotify, Looper looper) {
+        mSender = sender;
+        mCanNotify = canNotify;
+        mHandler = new Handler(looper);
+    }
+
+    /**
+     * Mark a characteristic as holding a state, of which only the latest value needs to be sent.
+     * Notifications of other characteristics, e.g. control point results or call terminations,
+     * are all sent in order.
+     */
+    public synchronized void setStateCharacteristic(UUID uuid) {
+        mStateCharacteristics.add(uuid);
+    }
+
+    /**
+     * Set the coalescing window of a characteristic, 0 to send every change. The characteristic is
+     * marked as holding a state.
+     */
+    public synchronized void setCoalescingWindow(UUID uuid, long windowMs) {
+        mStateCharacteristics.add(uuid);
+        Window window = mWindows.remove(uuid);
+        if (window != null && window.mFlush != null) {
+            mHandler.removeCallbacks(window.mFlush);
+        }
+        if (windowMs > 0) {
+            mWindows.put(uuid, new Window(windowMs));
+        }
+    }
+
+    /** Record whether a client enabled the notifications of a characteristic. */
+    public synchronized void setSubscribed(BluetoothDevice device, UUID uuid, boolean subscribed) {
+        if (!subscribed) {
+            Client client = mClients.get(device);
+            BitSet subscribers = mSubscribers.get(uuid);
+            if (client != null && subscribers != null) {
+                subscribers.clear(client.mSlot);
+                client.mPending.values().removeIf(n -> n.mCharacteristic.getUuid().equals(uuid));
+            }
+            return;
+        }
+        Client client = getOrCreateClientLocked(device);
+        mSubscribers.computeIfAbsent(uuid, u -> new BitSet()).set(client.mSlot);
+    }
+
+    public synchronized boolean isSubscribed(BluetoothDevice device, UUID uuid) {
+        Client client = mClients.get(device);
+        BitSet subscribers = mSubscribers.get(uuid);
+        return client != null && subscribers != null && subscribers.get(client.mSlot);
+    }
+
+    /** Drop the pending notifications of a client, keeping its subscriptions for reconnection. */
+    public synchronized void onDisconnected(BluetoothDevice device) {
+        Client client = mClients.get(device);
+        if (client == null) {
+            return;
+        }
+        mHandler.removeCallbacks(client.mTimeout);
+        client.mPending.clear();
+        client.mInFlight = null;
+    }
+
+    /** Forget a client, its subscriptions and its pending notifications. */
+    public synchronized void removeDevice(BluetoothDevice device) {
+        Client client = mClients.remove(device);
+        if (client == null) {
+            return;
+        }
+        mHandler.removeCallbacks(client.mTimeout);
+        for (BitSet subscribers : mSubscribers.values()) {
+            subscribers.clear(client.mSlot);
+        }
+        mSlots.set(client.mSlot, null);
+    }
+
+    /**
+     * Notify all the subscribers of a characteristic of its new value.
+     *
+     * @param originDevice client which changed the value and is not notified, or null
+     */
+    public void notifyChanged(
+            BluetoothGattCharacteristic characteristic,
+            byte[] value,
+            @Nullable BluetoothDevice originDevice) {
+        List<Send> ready;
+        Notification notification = new Notification(characteristic, value);
+        synchronized (this) {
+            mChanges++;
+            Window window = mWindows.get(characteristic.getUuid());
+            if (window != null && !openWindow(window, notification, originDevice)) {
+                return;
+            }
+            ready = enqueueLocked(notification, originDevice);
+        }
+        send(ready);
+    }
+
+    /**
+     * Notify a single client of the value of a characteristic, after the notifications already
+     * queued for it. The caller checked the client may be notified.
+     */
+    public void notifyDevice(
+            BluetoothDevice device, BluetoothGattCharacteristic characteristic, byte[] value) {
+        List<Send> ready;
+        synchronized (this) {
+            Client client = getOrCreateClientLocked(device);
+            ready = queueLocked(client, new Notification(characteristic, value));
+        }
+        send(ready);
+    }
+
+    /** Called when the notification in flight to a client was sent. */
+    public void onNotificationSent(BluetoothDevice device, int status) {
+        List<Send> ready;
+        synchronized (this) {
+            Client client = mClients.get(device);
+            if (client == null || client.mInFlight == null) {
+                // Confirmation of a notification which timed out or was dropped on disconnection
+                Log.w(TAG, "onNotificationSent: nothing in flight, device=" + device);
+                return;
+            }
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                Log.w(
+                        TAG,
+                        "onNotificationSent: device="
+                                + device
+                                + ", char="
+                                + client.mInFlight.mCharacteristic.getUuid()
+                                + ", status="
+                                + status);
+            }
+            ready = completeLocked(client, client.mInFlight);
+        }
+        send(ready);
+    }
+
+    public synchronized void dump(StringBuilder sb) {
+        sb.append("Notification fan-out: clients=")
+                .append(mClients.size())
+                .append(" changes=")
+                .append(mChanges)
+                .append(" coalesced=")
+                .append(mCoalesced)
+                .append(" sent=")
+                .append(mSent)
+                .append(" replaced=")
+                .append(mReplaced)
+                .append(" failed=")
+                .append(mFailed)
+                .append(" timeouts=")
+                .append(mTimeouts);
+    }
+
+    @VisibleForTesting
+    synchronized long getSentCount() {
+        return mSent;
+    }
+
+    @VisibleForTesting
+    synchronized long getCoalescedCount() {
+        return mCoalesced;
+    }
+
+    /**
+     * Let a change through its coalescing window, or keep it for the end of the window.
+     *
+     * @return true if the change is to be sent now
+     */
+    @GuardedBy("this")
+    private boolean openWindow(
+            Window window, Notification notification, @Nullable BluetoothDevice originDevice) {
+        long now = SystemClock.uptimeMillis();
+        if (window.mFlush == null
+                && (window.mLastSentMs == Long.MIN_VALUE
+                        || now - window.mLastSentMs >= window.mWindowMs)) {
+            window.mLastSentMs = now;
+            return true;
+        }
+        if (window.mTrailing != null) {
+            mCoalesced++;
+            if (originDevice == null || !originDevice.equals(window.mTrailingOrigin)) {
+                // Changed by someone else since, everybody needs the latest value
+                originDevice = null;
+            }
+        }
+        window.mTrailing = notification;
+        window.mTrailingOrigin = originDevice;
+        if (window.mFlush == null) {
+            window.mFlush = () -> flushWindow(window);
+            mHandler.postDelayed(
+                    window.mFlush, Math.max(0, window.mLastSentMs + window.mWindowMs - now));
+        }
+        return false;
+    }
+
+    private void flushWindow(Window window) {
+        List<Send> ready;
+        synchronized (this) {
+            if (window.mFlush == null) {
+                return;
+            }
+            Notification notification = window.mTrailing;
+            BluetoothDevice originDevice = window.mTrailingOrigin;
+            window.mFlush = null;
+            window.mTrailing = null;
+            window.mTrailingOrigin = null;
+            window.mLastSentMs = SystemClock.uptimeMillis();
+            ready = enqueueLocked(notification, originDevice);
+        }
+        send(ready);
+    }
+
+    @GuardedBy("this")
+    private Client getOrCreateClientLocked(BluetoothDevice device) {
+        Client client = mClients.get(device);
+        if (client == null) {
+            int slot = mSlots.indexOf(null);
+            if (slot < 0) {
+                slot = mSlots.size();
+                mSlots.add(null);
+            }
+            client = new Client(device, slot, () -> onTimeout(device));
+            mSlots.set(slot, client);
+            mClients.put(device, client);
+        }
+        return client;
+    }
+
+    /** Queue a notification for its subscribers, returning the sends to do now. */
+    @GuardedBy("this")
+    private List<Send> enqueueLocked(
+            Notification notification, @Nullable BluetoothDevice originDevice) {
+        List<Send> ready = new ArrayList<>();
+        BitSet subscribers = mSubscribers.get(notification.mCharacteristic.getUuid());
+        if (subscribers == null) {
+            return ready;
+        }
+        for (int slot = subscribers.nextSetBit(0); slot >= 0; ) {
+            Client client = mSlots.get(slot);
+            slot = subscribers.nextSetBit(slot + 1);
+            if (client.mDevice.equals(originDevice) || !mCanNotify.test(client.mDevice)) {
+                continue;
+            }
+            ready.addAll(queueLocked(client, notification));
+        }
+        return ready;
+    }
+
+    /** Queue a notification for a client, returning the send to do now if it is idle. */
+    @GuardedBy("this")
+    private List<Send> queueLocked(Client client, Notification notification) {
+        UUID uuid = notification.mCharacteristic.getUuid();
+        Object key = mStateCharacteristics.contains(uuid) ? uuid : notification;
+        if (client.mPending.put(key, notification) != null) {
+            mReplaced++;
+        }
+        return client.mInFlight == null ? nextLocked(client) : List.of();
+    }
+
+    /** Release the slot of the notification in flight to a client, returning the next send. */
+    @GuardedBy("this")
+    private List<Send> completeLocked(Client client, Notification notification) {
+        if (client.mInFlight != notification) {
+            return List.of();
+        }
+        mHandler.removeCallbacks(client.mTimeout);
+        client.mInFlight = null;
+        return nextLocked(client);
+    }
+
+    /** Put the next pending notification of a client in flight, if any. */
+    @GuardedBy("this")
+    private List<Send> nextLocked(Client client) {
+        Iterator<Notification> it = client.mPending.values().iterator();
+        if (!it.hasNext()) {
+            return List.of();
+        }
+        client.mInFlight = it.next();
+        it.remove();
+        mHandler.postDelayed(client.mTimeout, NOTIFICATION_TIMEOUT_MS);
+        return List.of(new Send(client, client.mInFlight));
+    }
+
+    /** Send the notifications put in flight, outside the lock. */
+    private void send(List<Send> sends) {
+        for (int i = 0; i < sends.size(); i++) {
+            Client client = sends.get(i).mClient;
+            Notification notification = sends.get(i).mNotification;
+            synchronized (this) {
+                // Dropped on disconnection or removal since
+                if (client.mInFlight != notification || mClients.get(client.mDevice) != client) {
+                    continue;
+                }
+            }
+            int status =
+                    mSender.notify(
+                            client.mDevice, notification.mCharacteristic, notification.mValue);
+            List<Send> next;
+            synchronized (this) {
+                if (status == BluetoothStatusCodes.SUCCESS) {
+                    mSent++;
+                    continue;
+                }
+                if (status == BluetoothStatusCodes.ERROR_DEVICE_NOT_CONNECTED) {
+                    // Subscriptions of bonded clients outlive their connections
+                    if (client.mInFlight == notification) {
+                        mHandler.removeCallbacks(client.mTimeout);
+                        client.mPending.clear();
+                        client.mInFlight = null;
+                    }
+                    continue;
+                }
+                Log.w(TAG, "send: device=" + client.mDevice + ", status=" + status);
+                mFailed++;
+                // Nothing is in flight, move on to the next notification
+                next = completeLocked(client, notification);
+            }
+            send(next);
+        }
+    }
+
+    private void onTimeout(BluetoothDevice device) {
+        List<Send> ready;
+        synchronized (this) {
+            Client client = mClients.get(device);
+            if (client == null || client.mInFlight == null) {
+                return;
+            }
+            mTimeouts++;
+            Log.w(
+                    TAG,
+                    "onTimeout: device="
+                            + device
+                            + ", char="
+                            + client.mInFlight.mCharacteristic.getUuid());
+            ready = completeLocked(client, client.mInFlight);
+        }
+        send(ready);
+    }
+}
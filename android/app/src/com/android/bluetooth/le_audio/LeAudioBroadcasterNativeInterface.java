@@ -22,31 +22,25 @@
  */
 package com.android.bluetooth.le_audio;
 
-import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothLeBroadcastMetadata;
 import android.util.Log;
 
 import com.android.bluetooth.Utils;
+import com.android.bluetooth.util.AddressCodec;
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
 /** LeAudio Native Interface to/from JNI. */
 public class LeAudioBroadcasterNativeInterface {
     private static final String TAG = "LeAudioBroadcasterNativeInterface";
-    private BluetoothAdapter mAdapter;
 
     @GuardedBy("INSTANCE_LOCK")
     private static LeAudioBroadcasterNativeInterface sInstance;
 
     private static final Object INSTANCE_LOCK = new Object();
 
-    private LeAudioBroadcasterNativeInterface() {
-        mAdapter = BluetoothAdapter.getDefaultAdapter();
-        if (mAdapter == null) {
-            Log.wtf(TAG, "No Bluetooth Adapter Available");
-        }
-    }
+    private LeAudioBroadcasterNativeInterface() {}
 
     /** Get singleton instance. */
     public static LeAudioBroadcasterNativeInterface getInstance() {
@@ -77,7 +71,7 @@ public class LeAudioBroadcasterNativeInterface {
 
     @VisibleForTesting
     public BluetoothDevice getDevice(byte[] address) {
-        return mAdapter.getRemoteDevice(address);
+        return AddressCodec.getDevice(address);
     }
 
     // Callbacks from the native stack back into the Java framework.
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.le_audio;
+
+import static android.bluetooth.IBluetoothLeAudio.LE_AUDIO_GROUP_ID_INVALID;
+
+import android.bluetooth.BluetoothDevice;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the LE Audio devices known to {@link LeAudioService} and the group each one belongs to.
+ *
+ * <p>Every membership change publishes a new immutable snapshot, so lookups don't take any lock
+ * and only cost the size of the group they return. Members are listed in the order the devices
+ * were added to the index.
+ */
+class LeAudioGroupMembership {
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private final Map<BluetoothDevice, Integer> mGroupIds = new LinkedHashMap<>();
+
+    private volatile Snapshot mSnapshot = new Snapshot(Collections.emptyMap(), 0);
+
+    /** Add a device that doesn't belong to any group yet, if it isn't known already. */
+    void addDevice(BluetoothDevice device) {
+        synchronized (mLock) {
+            if (mGroupIds.putIfAbsent(device, LE_AUDIO_GROUP_ID_INVALID) == null) {
+                publish();
+            }
+        }
+    }
+
+    /** Remove a device and its group membership. */
+    void removeDevice(BluetoothDevice device) {
+        synchronized (mLock) {
+            if (mGroupIds.remove(device) != null) {
+                publish();
+            }
+        }
+    }
+
+    /** Move a device to the given group, or out of any group with an invalid group id. */
+    void setGroupId(BluetoothDevice device, int groupId) {
+        synchronized (mLock) {
+            Integer previous = mGroupIds.put(device, groupId);
+            if (previous == null || previous != groupId) {
+                publish();
+            }
+        }
+    }
+
+    /** Remove every device. */
+    void clear() {
+        synchronized (mLock) {
+            mGroupIds.clear();
+            publish();
+        }
+    }
+
+    /**
+     * Get the group of a device.
+     *
+     * @return the group id, {@code LE_AUDIO_GROUP_ID_INVALID} if the device isn't in a group, or
+     *     null if the device is unknown
+     */
+    Integer getGroupId(BluetoothDevice device) {
+        return mSnapshot.mGroupIds.get(device);
+    }
+
+    /** Get the immutable list of the members of a group, empty if the group has no members. */
+    List<BluetoothDevice> getMembers(int groupId) {
+        List<BluetoothDevice> members = mSnapshot.mMembers.get(groupId);
+        return members != null ? members : Collections.emptyList();
+    }
+
+    /** Whether a group has at least one member. */
+    boolean hasMembers(int groupId) {
+        return mSnapshot.mMembers.containsKey(groupId);
+    }
+
+    /** Number of snapshots published so far, that is the number of membership changes. */
+    long getVersion() {
+        return mSnapshot.mVersion;
+    }
+
+    @Override
+    public String toString() {
+        Snapshot snapshot = mSnapshot;
+        return "LeAudioGroupMembership{devices="
+                + snapshot.mGroupIds.size()
+                + ", groups="
+                + snapshot.mMembers.size()
+                + ", version="
+                + snapshot.mVersion
+                + "}";
+    }
+
+    @GuardedBy("mLock")
+    private void publish() {
+        mSnapshot = new Snapshot(mGroupIds, mSnapshot.mVersion + 1);
+    }
+
+    private static final class Snapshot {
+        final Map<BluetoothDevice, Integer> mGroupIds;
+        final Map<Integer, List<BluetoothDevice>> mMembers;
+        final long mVersion;
+
+        Snapshot(Map<BluetoothDevice, Integer> groupIds, long version) {
+            Map<Integer, List<BluetoothDevice>> members = new HashMap<>();
+            for (Map.Entry<BluetoothDevice, Integer> entry : groupIds.entrySet()) {
+                if (entry.getValue() == LE_AUDIO_GROUP_ID_INVALID) {
+                    continue;
+                }
+                members.computeIfAbsent(entry.getValue(), unused -> new ArrayList<>())
+                        .add(entry.getKey());
+            }
+            members.replaceAll((groupId, list) -> Collections.unmodifiableList(list));
+            mGroupIds = Collections.unmodifiableMap(new HashMap<>(groupIds));
+            mMembers = Collections.unmodifiableMap(members);
+            mVersion = version;
+        }
+    }
+}
@@ -22,12 +22,12 @@
  */
 package com.android.bluetooth.le_audio;
 
-import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothLeAudioCodecConfig;
 import android.util.Log;
 
 import com.android.bluetooth.Utils;
+import com.android.bluetooth.util.AddressCodec;
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
@@ -37,19 +37,12 @@ import java.util.Arrays;
 public class LeAudioNativeInterface {
     private static final String TAG = LeAudioNativeInterface.class.getSimpleName();
 
-    private BluetoothAdapter mAdapter;
-
     @GuardedBy("INSTANCE_LOCK")
     private static LeAudioNativeInterface sInstance;
 
     private static final Object INSTANCE_LOCK = new Object();
 
-    private LeAudioNativeInterface() {
-        mAdapter = BluetoothAdapter.getDefaultAdapter();
-        if (mAdapter == null) {
-            Log.wtf(TAG, "No Bluetooth Adapter Available");
-        }
-    }
+    private LeAudioNativeInterface() {}
 
     /** Get singleton instance. */
     public static LeAudioNativeInterface getInstance() {
@@ -86,7 +79,7 @@ public class LeAudioNativeInterface {
     }
 
     private BluetoothDevice getDevice(byte[] address) {
-        return mAdapter.getRemoteDevice(address);
+        return AddressCodec.getDevice(address);
     }
 
     // Callbacks from the native stack back into the Java framework.
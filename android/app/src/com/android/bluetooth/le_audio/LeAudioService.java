@@ -93,6 +93,7 @@ import com.android.bluetooth.hfp.HeadsetService;
 import com.android.bluetooth.mcp.McpService;
 import com.android.bluetooth.tbs.TbsGatt;
 import com.android.bluetooth.tbs.TbsService;
+import com.android.bluetooth.util.InstrumentedLock;
 import com.android.bluetooth.vc.VolumeControlService;
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
@@ -107,7 +108,6 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 
@@ -164,8 +164,10 @@ public class LeAudioService extends ProfileService {
     private BluetoothDevice mExposedActiveDevice;
     private LeAudioCodecConfig mLeAudioCodecConfig;
     private final ReentrantReadWriteLock mGroupReadWriteLock = new ReentrantReadWriteLock();
-    private final Lock mGroupReadLock = mGroupReadWriteLock.readLock();
-    private final Lock mGroupWriteLock = mGroupReadWriteLock.writeLock();
+    private final InstrumentedLock mGroupReadLock =
+            new InstrumentedLock(mGroupReadWriteLock.readLock());
+    private final InstrumentedLock mGroupWriteLock =
+            new InstrumentedLock(mGroupReadWriteLock.writeLock());
     ServiceFactory mServiceFactory = new ServiceFactory();
 
     private final LeAudioNativeInterface mNativeInterface;
@@ -488,6 +490,9 @@ public class LeAudioService extends ProfileService {
 
     private final Map<BluetoothDevice, LeAudioDeviceDescriptor> mDeviceDescriptors =
             new LinkedHashMap<>();
+
+    // Group of each device in mDeviceDescriptors, readable without holding mGroupReadLock
+    private final LeAudioGroupMembership mGroupMembership = new LeAudioGroupMembership();
     private final Map<Integer, LeAudioBroadcastDescriptor> mBroadcastDescriptors =
             new LinkedHashMap<>();
     private final Map<Integer, LeAudioBroadcastSessionStats> mBroadcastSessionStats =
@@ -559,6 +564,7 @@ public class LeAudioService extends ProfileService {
         mGroupWriteLock.lock();
         try {
             mDeviceDescriptors.clear();
+            mGroupMembership.clear();
             mGroupDescriptors.clear();
         } finally {
             mGroupWriteLock.unlock();
@@ -700,6 +706,7 @@ public class LeAudioService extends ProfileService {
                 mGroupWriteLock.lock();
             }
             mDeviceDescriptors.clear();
+            mGroupMembership.clear();
             mGroupDescriptors.clear();
         } finally {
             mGroupWriteLock.unlock();
@@ -815,6 +822,7 @@ public class LeAudioService extends ProfileService {
         LeAudioDeviceDescriptor descriptor = mDeviceDescriptors.get(device);
         if (descriptor == null) {
             mDeviceDescriptors.put(device, new LeAudioDeviceDescriptor(isInbandRingtoneEnabled));
+            mGroupMembership.addDevice(device);
             descriptor = mDeviceDescriptors.get(device);
             Log.d(TAG, "Created descriptor for device: " + device);
         } else {
@@ -824,6 +832,13 @@ public class LeAudioService extends ProfileService {
         return descriptor;
     }
 
+    /** Set the group of a device, keeping {@link #mGroupMembership} in sync with the descriptor. */
+    private void setGroupId(
+            BluetoothDevice device, LeAudioDeviceDescriptor descriptor, int groupId) {
+        descriptor.mGroupId = groupId;
+        mGroupMembership.setGroupId(device, groupId);
+    }
+
     private void setEnabledState(BluetoothDevice device, boolean enabled) {
         Log.d(TAG, "setEnabledState: address:" + device + " enabled: " + enabled);
         if (!mLeAudioNativeIsInitialized) {
@@ -1075,24 +1090,11 @@ public class LeAudioService extends ProfileService {
      * @return all devices within a given group or empty list
      */
     public List<BluetoothDevice> getGroupDevices(int groupId) {
-        List<BluetoothDevice> result = new ArrayList<>();
-
         if (groupId == LE_AUDIO_GROUP_ID_INVALID) {
-            return result;
+            return new ArrayList<>();
         }
 
-        mGroupReadLock.lock();
-        try {
-            for (Map.Entry<BluetoothDevice, LeAudioDeviceDescriptor> entry :
-                    mDeviceDescriptors.entrySet()) {
-                if (entry.getValue().mGroupId == groupId) {
-                    result.add(entry.getKey());
-                }
-            }
-        } finally {
-            mGroupReadLock.unlock();
-        }
-        return result;
+        return new ArrayList<>(mGroupMembership.getMembers(groupId));
     }
 
     /**
@@ -1102,25 +1104,7 @@ public class LeAudioService extends ProfileService {
      * @return all devices within a given group or empty list
      */
     public List<BluetoothDevice> getGroupDevices(BluetoothDevice device) {
-        List<BluetoothDevice> result = new ArrayList<>();
-        int groupId = getGroupId(device);
-
-        if (groupId == LE_AUDIO_GROUP_ID_INVALID) {
-            return result;
-        }
-
-        mGroupReadLock.lock();
-        try {
-            for (Map.Entry<BluetoothDevice, LeAudioDeviceDescriptor> entry :
-                    mDeviceDescriptors.entrySet()) {
-                if (entry.getValue().mGroupId == groupId) {
-                    result.add(entry.getKey());
-                }
-            }
-        } finally {
-            mGroupReadLock.unlock();
-        }
-        return result;
+        return getGroupDevices(getGroupId(device));
     }
 
     /** Get the active device group id */
@@ -1640,8 +1624,9 @@ public class LeAudioService extends ProfileService {
                 return groupDescriptor.mCurrentLeadDevice;
             }
 
-            for (LeAudioDeviceDescriptor descriptor : mDeviceDescriptors.values()) {
-                if (!descriptor.mGroupId.equals(groupId)) {
+            for (BluetoothDevice member : mGroupMembership.getMembers(groupId)) {
+                LeAudioDeviceDescriptor descriptor = mDeviceDescriptors.get(member);
+                if (descriptor == null) {
                     continue;
                 }
 
@@ -4029,7 +4014,7 @@ public class LeAudioService extends ProfileService {
                 mNativeInterface.groupRemoveNode(descriptor.mGroupId, device);
             }
 
-            descriptor.mGroupId = LE_AUDIO_GROUP_ID_INVALID;
+            setGroupId(device, descriptor, LE_AUDIO_GROUP_ID_INVALID);
             descriptor.mSinkAudioLocation = BluetoothLeAudio.AUDIO_LOCATION_INVALID;
             descriptor.mDirection = AUDIO_DIRECTION_NONE;
 
@@ -4078,6 +4063,7 @@ public class LeAudioService extends ProfileService {
                 mGroupWriteLock.lock();
             }
             mDeviceDescriptors.remove(device);
+            mGroupMembership.removeDevice(device);
             if (!isScannerNeeded()) {
                 stopAudioServersBackgroundScan();
             }
@@ -4089,10 +4075,17 @@ public class LeAudioService extends ProfileService {
     @VisibleForTesting
     List<BluetoothDevice> getConnectedPeerDevices(int groupId) {
         List<BluetoothDevice> result = new ArrayList<>();
-        for (BluetoothDevice peerDevice : getConnectedDevices()) {
-            if (getGroupId(peerDevice) == groupId) {
-                result.add(peerDevice);
+        mGroupReadLock.lock();
+        try {
+            for (BluetoothDevice member : mGroupMembership.getMembers(groupId)) {
+                LeAudioDeviceDescriptor descriptor = mDeviceDescriptors.get(member);
+                LeAudioStateMachine sm = descriptor != null ? descriptor.mStateMachine : null;
+                if (sm != null && sm.isConnected()) {
+                    result.add(sm.getDevice());
+                }
             }
+        } finally {
+            mGroupReadLock.unlock();
         }
         return result;
     }
@@ -4493,18 +4486,12 @@ public class LeAudioService extends ProfileService {
             return LE_AUDIO_GROUP_ID_INVALID;
         }
 
-        mGroupReadLock.lock();
-        try {
-            LeAudioDeviceDescriptor descriptor = getDeviceDescriptor(device);
-            if (descriptor == null) {
-                Log.e(TAG, "getGroupId: No valid descriptor for device: " + device);
-                return LE_AUDIO_GROUP_ID_INVALID;
-            }
-
-            return descriptor.mGroupId;
-        } finally {
-            mGroupReadLock.unlock();
+        Integer groupId = mGroupMembership.getGroupId(device);
+        if (groupId == null) {
+            Log.e(TAG, "getGroupId: No valid descriptor for device: " + device);
+            return LE_AUDIO_GROUP_ID_INVALID;
         }
+        return groupId;
     }
 
     /**
@@ -4776,7 +4763,7 @@ public class LeAudioService extends ProfileService {
                     return;
                 }
             }
-            deviceDescriptor.mGroupId = groupId;
+            setGroupId(device, deviceDescriptor, groupId);
 
             mHandler.post(() -> notifyGroupNodeAdded(device, groupId));
         } finally {
@@ -4829,14 +4816,8 @@ public class LeAudioService extends ProfileService {
                 Log.e(TAG, "handleGroupNodeRemoved: No valid descriptor for device: " + device);
                 return;
             }
-            deviceDescriptor.mGroupId = LE_AUDIO_GROUP_ID_INVALID;
-
-            for (LeAudioDeviceDescriptor descriptor : mDeviceDescriptors.values()) {
-                if (descriptor.mGroupId == groupId) {
-                    isGroupEmpty = false;
-                    break;
-                }
-            }
+            setGroupId(device, deviceDescriptor, LE_AUDIO_GROUP_ID_INVALID);
+            isGroupEmpty = !mGroupMembership.hasMembers(groupId);
 
             if (isGroupEmpty) {
                 /* Device is currently an active device. Group needs to be inactivated before
@@ -5859,6 +5840,9 @@ public class LeAudioService extends ProfileService {
         ProfileService.println(
                 sb,
                 "  mLeAudioIsInbandRingtoneSupported:" + mLeAudioInbandRingtoneSupportedByPlatform);
+        ProfileService.println(sb, "  mGroupMembership: " + mGroupMembership);
+        ProfileService.println(sb, "  mGroupReadLock: " + mGroupReadLock);
+        ProfileService.println(sb, "  mGroupWriteLock: " + mGroupWriteLock);
 
         int numberOfUngroupedDevs = 0;
         mGroupReadLock.lock();
@@ -60,6 +60,7 @@ import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.btservice.BluetoothAdapterProxy;
 import com.android.bluetooth.flags.Flags;
 import com.android.bluetooth.gatt.GattServiceConfig;
+import com.android.bluetooth.util.AddressCodec;
 import com.android.bluetooth.util.NumberUtils;
 import com.android.internal.annotations.VisibleForTesting;
 
@@ -376,8 +377,7 @@ public class TransitionalScanHelper {
                 continue;
             }
 
-            BluetoothDevice device =
-                    BluetoothAdapter.getDefaultAdapter().getRemoteLeDevice(address, addressType);
+            BluetoothDevice device = AddressCodec.getLeDevice(address, addressType);
 
             ScanSettings settings = client.settings;
             byte[] scanRecordData;
@@ -840,7 +840,7 @@ public class TransitionalScanHelper {
                     extractBytes(batchRecord, i * TRUNCATED_RESULT_SIZE, TRUNCATED_RESULT_SIZE);
             byte[] address = extractBytes(record, 0, 6);
             reverse(address);
-            BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+            BluetoothDevice device = AddressCodec.getDevice(address);
             int rssi = record[8];
             long timestampNanos = now - parseTimestampNanos(extractBytes(record, 9, 2));
             results.add(
@@ -866,7 +866,7 @@ public class TransitionalScanHelper {
             byte[] address = extractBytes(batchRecord, position, 6);
             // TODO: remove temp hack.
             reverse(address);
-            BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address);
+            BluetoothDevice device = AddressCodec.getDevice(address);
             position += 6;
             // Skip address type.
             position++;
@@ -970,12 +970,10 @@ public class TransitionalScanHelper {
         BluetoothDevice device;
         if (Flags.leScanUseAddressType()) {
             device =
-                    BluetoothAdapter.getDefaultAdapter()
-                            .getRemoteLeDevice(
-                                    trackingInfo.getAddress(), trackingInfo.getAddressType());
+                    AddressCodec.getLeDevice(
+                            trackingInfo.getAddress(), trackingInfo.getAddressType());
         } else {
-            device =
-                    BluetoothAdapter.getDefaultAdapter().getRemoteDevice(trackingInfo.getAddress());
+            device = AddressCodec.getDevice(trackingInfo.getAddress());
         }
         int advertiserState = trackingInfo.getAdvState();
         ScanResult result =
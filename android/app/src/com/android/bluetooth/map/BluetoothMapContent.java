@@ -43,6 +43,8 @@ import com.android.bluetooth.DeviceWorkArounds;
 import com.android.bluetooth.SignedLongLong;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.content_profiles.ContentProfileErrorReportUtils;
+import com.android.bluetooth.flags.Flags;
+import com.android.bluetooth.map.BluetoothMapContentObserver.Msg;
 import com.android.bluetooth.map.BluetoothMapUtils.TYPE;
 import com.android.bluetooth.map.BluetoothMapbMessageMime.MimePart;
 import com.android.bluetooth.mapapi.BluetoothMapContract;
@@ -2018,6 +2020,35 @@ public class BluetoothMapContent {
         }
     }
 
+    /* Same filters as setConvoWhereFilterSmsMms(), for the conversation index */
+    @VisibleForTesting
+    static boolean matchesConvoFilterSmsMms(
+            BluetoothMapConvoIndex.Conversation conversation, BluetoothMapAppParams ap) {
+        if (ap.getFilterReadStatus() != BluetoothMapAppParams.INVALID_VALUE_PARAMETER) {
+            if ((ap.getFilterReadStatus() & FILTER_READ_STATUS_UNREAD_ONLY) != 0
+                    && conversation.mRead != 0) {
+                return false;
+            }
+            if ((ap.getFilterReadStatus() & FILTER_READ_STATUS_READ_ONLY) != 0
+                    && conversation.mRead != 1) {
+                return false;
+            }
+        }
+        if (ap.getFilterLastActivityBegin() != BluetoothMapAppParams.INVALID_VALUE_PARAMETER
+                && conversation.mDate < ap.getFilterLastActivityBegin()) {
+            return false;
+        }
+        if (ap.getFilterLastActivityEnd() != BluetoothMapAppParams.INVALID_VALUE_PARAMETER
+                && conversation.mDate > ap.getFilterLastActivityEnd()) {
+            return false;
+        }
+        long convoId = -1;
+        if (ap.getFilterConvoId() != null) {
+            convoId = ap.getFilterConvoId().getLeastSignificantBits();
+        }
+        return convoId <= 0 || conversation.mId == convoId;
+    }
+
     /**
      * Determine from application parameter if sms should be included. The filter mask is set for
      * message types not selected
@@ -2720,6 +2751,9 @@ public class BluetoothMapContent {
         setFilterInfo(fi);
         Cursor smsMmsCursor = null;
         Cursor imEmailCursor = null;
+        SmsMmsContacts contacts = new SmsMmsContacts();
+        BluetoothMapConvoIndex convoIndex =
+                Flags.mapConvoIndex() && mMasInstance != null ? mMasInstance.getConvoIndex() : null;
         int offsetNum;
         if (sizeOnly) {
             offsetNum = 0;
@@ -2734,11 +2768,14 @@ public class BluetoothMapContent {
         try {
             if (smsSelected(fi, ap) || mmsSelected(ap)) {
                 String limit = "";
+                int queryLimit = -1;
+                int queryOffset = 0;
                 if ((!sizeOnly)
                         && (ap.getMaxListCount() > 0)
                         && (ap.getFilterRecipient() == null)) {
                     /* We can only use limit if we do not have a contacts filter */
                     limit = " LIMIT " + maxThreads;
+                    queryLimit = maxThreads;
                 }
                 StringBuilder sortOrder = new StringBuilder(Threads.DATE + " DESC");
                 if ((!sizeOnly)
@@ -2751,8 +2788,21 @@ public class BluetoothMapContent {
                     // SMS/MMS messages only and no recipient filter - use optimization.
                     limit = " LIMIT " + ap.getMaxListCount() + " OFFSET " + ap.getStartOffset();
                     Log.d(TAG, "SMS Limit => " + limit);
+                    queryLimit = ap.getMaxListCount();
+                    queryOffset = ap.getStartOffset();
                     offsetNum = 0;
                 }
+                if (convoIndex != null) {
+                    smsMmsCursor =
+                            convoIndex.query(
+                                    mResolver,
+                                    conversation -> matchesConvoFilterSmsMms(conversation, ap),
+                                    queryOffset,
+                                    queryLimit);
+                    if (smsMmsCursor != null && ap.getFilterRecipient() == null) {
+                        contacts = convoIndex.getContacts();
+                    }
+                }
                 StringBuilder selection = new StringBuilder(120); // This covers most cases
                 selection.append("1=1 "); // just to simplify building the where-clause
                 setConvoWhereFilterSmsMms(selection, fi, ap);
@@ -2762,22 +2812,24 @@ public class BluetoothMapContent {
                                 .appendQueryParameter("simple", "true")
                                 .build();
                 sortOrder.append(limit);
-                Log.d(
-                        TAG,
-                        "Query using selection: "
-                                + selection.toString()
-                                + " - sortOrder: "
-                                + sortOrder.toString());
-                // TODO: Optimize: Reduce projection based on convo parameter mask
-                smsMmsCursor =
-                        BluetoothMethodProxy.getInstance()
-                                .contentResolverQuery(
-                                        mResolver,
-                                        uri,
-                                        MMS_SMS_THREAD_PROJECTION,
-                                        selection.toString(),
-                                        null,
-                                        sortOrder.toString());
+                if (smsMmsCursor == null) {
+                    Log.d(
+                            TAG,
+                            "Query using selection: "
+                                    + selection.toString()
+                                    + " - sortOrder: "
+                                    + sortOrder.toString());
+                    // TODO: Optimize: Reduce projection based on convo parameter mask
+                    smsMmsCursor =
+                            BluetoothMethodProxy.getInstance()
+                                    .contentResolverQuery(
+                                            mResolver,
+                                            uri,
+                                            MMS_SMS_THREAD_PROJECTION,
+                                            selection.toString(),
+                                            null,
+                                            sortOrder.toString());
+                }
                 if (smsMmsCursor != null) {
                     // store column index so we don't have to look them up anymore (optimization)
                     Log.d(TAG, "Found " + smsMmsCursor.getCount() + " sms/mms conversations.");
@@ -2796,7 +2848,7 @@ public class BluetoothMapContent {
                         }
                     } else {
                         // We must be able to filter on recipient, add contacts now
-                        SmsMmsContacts contacts = new SmsMmsContacts();
+                        SmsMmsContacts filterContacts = new SmsMmsContacts();
                         while (smsMmsCursor.moveToNext()) {
                             int count = 0;
                             convoElement = createConvoElement(smsMmsCursor, fi);
@@ -2807,7 +2859,11 @@ public class BluetoothMapContent {
                             // TODO: Perhaps the spec. should be changes to be able to search on
                             //       phone number as well?
                             if (addSmsMmsContacts(
-                                    convoElement, contacts, idsStr, ap.getFilterRecipient(), ap)) {
+                                    convoElement,
+                                    filterContacts,
+                                    idsStr,
+                                    ap.getFilterRecipient(),
+                                    ap)) {
                                 convoList.add(convoElement);
                                 if (!sizeOnly && count >= maxThreads) {
                                     break;
@@ -2892,7 +2948,6 @@ public class BluetoothMapContent {
             int listSize = list.size();
             Log.v(TAG, "List Size:" + listSize);
             Cursor tmpCursor = null;
-            SmsMmsContacts contacts = new SmsMmsContacts();
             for (int x = 0; x < listSize; x++) {
                 BluetoothMapConvoListingElement ele = list.get(x);
                 TYPE type = ele.getType();
@@ -3572,9 +3627,8 @@ public class BluetoothMapContent {
         switch (type) {
             case SMS_GSM:
             case SMS_CDMA:
-                return getSmsMessage(id, appParams.getCharset());
             case MMS:
-                return getMmsMessage(id, appParams);
+                return getCachedSmsMmsMessage(type, id, appParams);
             case EMAIL:
                 return getEmailMessage(id, appParams, folderElement);
             case IM:
@@ -3584,6 +3638,50 @@ public class BluetoothMapContent {
         }
     }
 
+    /**
+     * Get a SMS or MMS bMessage from the message cache of the MAS instance, building and caching
+     * it on a miss.
+     */
+    private byte[] getCachedSmsMmsMessage(TYPE type, long id, BluetoothMapAppParams appParams)
+            throws UnsupportedEncodingException {
+        BluetoothMapMessageCache cache =
+                Flags.mapMessageCache() && mMasInstance != null
+                        ? mMasInstance.getMessageCache()
+                        : null;
+        if (cache == null) {
+            return type == TYPE.MMS
+                    ? getMmsMessage(id, appParams)
+                    : getSmsMessage(id, appParams.getCharset());
+        }
+
+        // The attachment flag only applies to MMS
+        int charset = appParams.getCharset();
+        int attachment = type == TYPE.MMS ? appParams.getAttachment() : 0;
+        Msg msg = getObservedMsg(type, id);
+        byte[] data = cache.get(type, id, charset, attachment, mMessageVersion, msg);
+        if (data != null) {
+            return data;
+        }
+
+        long generation = cache.getGeneration();
+        data = type == TYPE.MMS ? getMmsMessage(id, appParams) : getSmsMessage(id, charset);
+        cache.put(type, id, charset, attachment, mMessageVersion, msg, generation, data);
+        return data;
+    }
+
+    /** Copy of the state of a message known by the content observer, or null if unknown. */
+    private Msg getObservedMsg(TYPE type, long id) {
+        Map<Long, Msg> msgList =
+                type == TYPE.MMS ? mMasInstance.getMsgListMms() : mMasInstance.getMsgListSms();
+        if (msgList == null) {
+            return null;
+        }
+        synchronized (msgList) {
+            Msg msg = msgList.get(id);
+            return msg != null ? new Msg(msg.id, msg.type, msg.threadId, msg.flagRead) : null;
+        }
+    }
+
     private String setVCardFromPhoneNumber(
             BluetoothMapbMessage message, String phone, boolean incoming) {
         String contactId = null, contactName = null;
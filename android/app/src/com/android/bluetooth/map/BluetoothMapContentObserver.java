@@ -1090,6 +1090,10 @@ public class BluetoothMapContentObserver {
             // this is sms/mms
             mResolver.registerContentObserver(MmsSms.CONTENT_URI, false, mObserver);
             mObserverRegistered = true;
+            BluetoothMapConvoIndex convoIndex = getConvoIndex();
+            if (convoIndex != null) {
+                convoIndex.startTracking(mResolver);
+            }
         }
 
         if (mAccount != null) {
@@ -1133,6 +1137,10 @@ public class BluetoothMapContentObserver {
         Log.v(TAG, "unregisterObserver");
         mResolver.unregisterContentObserver(mObserver);
         mObserverRegistered = false;
+        BluetoothMapConvoIndex convoIndex = getConvoIndex();
+        if (convoIndex != null) {
+            convoIndex.stopTracking();
+        }
         if (mProviderClient != null) {
             mProviderClient.close();
             mProviderClient = null;
@@ -1543,6 +1551,7 @@ public class BluetoothMapContentObserver {
                         int read = c.getInt(c.getColumnIndex(Sms.READ));
 
                         Msg msg = getMsgListSms().remove(id);
+                        onConvoMsgChanged(msg, type, threadId, read);
 
                         /* We must filter out any actions made by the MCE, hence do not send e.g.
                          * a message deleted and/or MessageShift for messages deleted by the MCE. */
@@ -1720,6 +1729,7 @@ public class BluetoothMapContentObserver {
             }
             String eventType = EVENT_TYPE_DELETE;
             for (Msg msg : getMsgListSms().values()) {
+                onConvoMsgChanged(msg, msg.type, DELETED_THREAD_ID, msg.flagRead);
                 // "old_folder" used only for MessageShift event
                 if (mMapEventReportVersion >= BluetoothMapUtils.MAP_EVENT_REPORT_V12) {
                     eventType = EVENT_TYPE_REMOVED;
@@ -1788,6 +1798,7 @@ public class BluetoothMapContentObserver {
                         int read = c.getInt(c.getColumnIndex(Mms.READ));
 
                         Msg msg = getMsgListMms().remove(id);
+                        onConvoMsgChanged(msg, type, threadId, read);
 
                         /* We must filter out any actions made by the MCE, hence do not send
                          * e.g. a message deleted and/or MessageShift for messages deleted by the
@@ -1990,6 +2001,7 @@ public class BluetoothMapContentObserver {
                 }
             }
             for (Msg msg : getMsgListMms().values()) {
+                onConvoMsgChanged(msg, msg.type, DELETED_THREAD_ID, msg.flagRead);
                 // "old_folder" used only for MessageShift event
                 Event evt =
                         new Event(
@@ -2265,6 +2277,45 @@ public class BluetoothMapContentObserver {
         }
     }
 
+    private BluetoothMapConvoIndex getConvoIndex() {
+        if (!Flags.mapConvoIndex() || mMasInstance == null) {
+            return null;
+        }
+        return mMasInstance.getConvoIndex();
+    }
+
+    /**
+     * Report the threads of a SMS/MMS to the conversation index, if the message was added, deleted
+     * or changed in a way that alters its thread.
+     *
+     * @param oldMsg the message in the current list, null for a new message
+     */
+    private void onConvoMsgChanged(Msg oldMsg, int type, int threadId, int read) {
+        BluetoothMapConvoIndex convoIndex = getConvoIndex();
+        if (convoIndex == null) {
+            return;
+        }
+        if (oldMsg == null) {
+            convoIndex.onThreadChanged(threadId);
+        } else if (oldMsg.threadId != threadId) {
+            convoIndex.onThreadChanged(oldMsg.threadId);
+            convoIndex.onThreadChanged(threadId);
+        } else if (oldMsg.type != type || oldMsg.flagRead != read) {
+            convoIndex.onThreadChanged(threadId);
+        }
+    }
+
+    /**
+     * Changes made by the MCE are applied to the message lists before the provider notifies them,
+     * they aren't seen as changes by the handlers. Reload the conversation index instead.
+     */
+    private void invalidateConvoIndex() {
+        BluetoothMapConvoIndex convoIndex = getConvoIndex();
+        if (convoIndex != null) {
+            convoIndex.invalidate();
+        }
+    }
+
     private void handleMsgListChanges(Uri uri) {
         if (uri.getAuthority().equals(mAuthority)) {
             try {
@@ -2286,6 +2337,13 @@ public class BluetoothMapContentObserver {
         }
         // TODO: check to see if there could be problem with IM and SMS in one instance
         if (mEnableSmsMms) {
+            if (Flags.mapMessageCache() && mMasInstance != null) {
+                // Message content isn't part of the lists, any change may alter a cached bMessage
+                BluetoothMapMessageCache cache = mMasInstance.getMessageCache();
+                if (cache != null) {
+                    cache.invalidate();
+                }
+            }
             handleMsgListChangesSms();
             handleMsgListChangesMms();
         }
@@ -2917,6 +2975,7 @@ public class BluetoothMapContentObserver {
                     res = unDeleteMessageMms(handle);
                 }
             }
+            invalidateConvoIndex();
         }
         return res;
     }
@@ -2956,6 +3015,7 @@ public class BluetoothMapContentObserver {
                     BluetoothMethodProxy.getInstance()
                             .contentResolverUpdate(mResolver, uri, contentValues, null, null);
             Log.d(TAG, " -> " + count + " rows updated!");
+            invalidateConvoIndex();
 
         } else if (type == TYPE.MMS) {
             Uri uri = ContentUris.withAppendedId(Mms.CONTENT_URI, handle);
@@ -2972,6 +3032,7 @@ public class BluetoothMapContentObserver {
                     BluetoothMethodProxy.getInstance()
                             .contentResolverUpdate(mResolver, uri, contentValues, null, null);
             Log.d(TAG, " -> " + count + " rows updated!");
+            invalidateConvoIndex();
         } else if (type == TYPE.EMAIL || type == TYPE.IM) {
             Uri uri = mMessageUri;
             ContentValues contentValues = new ContentValues();
@@ -3348,6 +3409,9 @@ public class BluetoothMapContentObserver {
             }
         }
 
+        if (handle != -1) {
+            invalidateConvoIndex();
+        }
         /* If multiple recipients return handle of last */
         return handle;
     }
@@ -3954,6 +4018,7 @@ public class BluetoothMapContentObserver {
                 synchronized (getMsgListSms()) {
                     getMsgListSms().remove(msgInfo.id);
                 }
+                invalidateConvoIndex();
 
                 /* Delete from DB */
                 Uri msgUri = ContentUris.withAppendedId(Sms.CONTENT_URI, handle);
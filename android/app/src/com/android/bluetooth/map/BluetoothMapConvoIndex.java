@@ -0,0 +1,345 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.provider.Telephony.Threads;
+import android.util.Log;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * In memory copy of the SMS/MMS threads used to build the conversation listing.
+ *
+ * <p>The index is loaded with a single query of the threads table on the first listing. After
+ * that, only the threads reported as changed by the {@link BluetoothMapContentObserver} are queried
+ * again, so a listing is a filter and sort of the index instead of a query of the whole threads
+ * table.
+ *
+ * <p>Changes are only reported while the observer is registered, see {@link #startTracking}. The
+ * index isn't used otherwise. The contacts cache of the listings is kept here as well, and is
+ * dropped whenever the contacts change.
+ */
+class BluetoothMapConvoIndex {
+    private static final String TAG = "BluetoothMapConvoIndex";
+
+    private static final Uri THREADS_URI =
+            Threads.CONTENT_URI.buildUpon().appendQueryParameter("simple", "true").build();
+
+    private static final Comparator<Conversation> MOST_RECENT_FIRST =
+            Comparator.comparingLong((Conversation c) -> c.mDate)
+                    .thenComparingLong(c -> c.mId)
+                    .reversed();
+
+    /** A SMS/MMS thread, with the columns of the conversation listing. */
+    @VisibleForTesting
+    static final class Conversation {
+        final long mId;
+        final long mDate;
+        final String mSnippet;
+        final String mSnippetCharset;
+        final int mRead;
+        final String mRecipientIds;
+
+        Conversation(
+                long id,
+                long date,
+                String snippet,
+                String snippetCharset,
+                int read,
+                String recipientIds) {
+            mId = id;
+            mDate = date;
+            mSnippet = snippet;
+            mSnippetCharset = snippetCharset;
+            mRead = read;
+            mRecipientIds = recipientIds;
+        }
+    }
+
+    @GuardedBy("this")
+    private final Map<Long, Conversation> mConversations = new HashMap<>();
+
+    @GuardedBy("this")
+    private final Set<Long> mChangedThreads = new HashSet<>();
+
+    // Sorted copy of mConversations, null when outdated
+    @GuardedBy("this")
+    private List<Conversation> mSorted;
+
+    @GuardedBy("this")
+    private boolean mTracking;
+
+    @GuardedBy("this")
+    private boolean mLoaded;
+
+    // Replaced rather than cleared, a listing in progress keeps using its own
+    @GuardedBy("this")
+    private SmsMmsContacts mContacts = new SmsMmsContacts();
+
+    // Registered while tracking, only drops the contacts cache so it never waits for a listing
+    @VisibleForTesting
+    final ContentObserver mContactsObserver =
+            new ContentObserver(null) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    onContactsChanged();
+                }
+            };
+
+    @GuardedBy("this")
+    private ContentResolver mResolver;
+
+    private long mListings;
+    private long mLoads;
+    private long mRefreshedThreads;
+    private long mInvalidations;
+    private long mContactsInvalidations;
+
+    /**
+     * Called once the content observer is registered, changes are reported from now on.
+     *
+     * @param resolver to observe the contacts with, until {@link #stopTracking}
+     */
+    synchronized void startTracking(ContentResolver resolver) {
+        clear();
+        if (mResolver == null) {
+            mResolver = resolver;
+            resolver.registerContentObserver(
+                    ContactsContract.AUTHORITY_URI, true, mContactsObserver);
+        }
+        mTracking = true;
+    }
+
+    /** Called when the content observer is unregistered, the index can't be used anymore. */
+    synchronized void stopTracking() {
+        clear();
+        if (mResolver != null) {
+            mResolver.unregisterContentObserver(mContactsObserver);
+            mResolver = null;
+        }
+        mTracking = false;
+    }
+
+    /** Called when a contact changed, the names of the listings must be looked up again. */
+    private synchronized void onContactsChanged() {
+        mContacts = new SmsMmsContacts();
+        mContactsInvalidations++;
+    }
+
+    /** Called by the content observer for each thread with an added, changed or deleted message. */
+    synchronized void onThreadChanged(long threadId) {
+        if (mLoaded && threadId >= 0) {
+            mChangedThreads.add(threadId);
+        }
+    }
+
+    /** Drop the index, it is loaded again by the next listing. */
+    synchronized void invalidate() {
+        clear();
+        mInvalidations++;
+    }
+
+    synchronized boolean isTracking() {
+        return mTracking;
+    }
+
+    /**
+     * Get the conversations matching a filter, most recent first.
+     *
+     * @param filter conversations to include
+     * @param offset number of matching conversations to skip
+     * @param limit maximum number of conversations returned, or -1 for all
+     * @return a cursor with the {@link BluetoothMapContent#MMS_SMS_THREAD_PROJECTION} columns, or
+     *     null if the index can't be used and the threads table must be queried instead
+     */
+    synchronized Cursor query(
+            ContentResolver resolver, Predicate<Conversation> filter, int offset, int limit) {
+        if (!mTracking || !refresh(resolver)) {
+            return null;
+        }
+        mListings++;
+        if (mSorted == null) {
+            mSorted = new ArrayList<>(mConversations.values());
+            mSorted.sort(MOST_RECENT_FIRST);
+        }
+        MatrixCursor cursor = new MatrixCursor(BluetoothMapContent.MMS_SMS_THREAD_PROJECTION);
+        int skipped = 0;
+        for (Conversation conversation : mSorted) {
+            if (limit >= 0 && cursor.getCount() >= limit) {
+                break;
+            }
+            if (!filter.test(conversation)) {
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            cursor.addRow(
+                    new Object[] {
+                        conversation.mId,
+                        conversation.mDate,
+                        conversation.mSnippet,
+                        conversation.mSnippetCharset,
+                        conversation.mRead,
+                        conversation.mRecipientIds
+                    });
+        }
+        return cursor;
+    }
+
+    /**
+     * Contacts cache shared by the listings without recipient filter, dropped with the index or
+     * when the contacts change. The lookups with a filter also cache the contacts not matching it,
+     * they can't use it.
+     */
+    synchronized SmsMmsContacts getContacts() {
+        return mContacts;
+    }
+
+    @GuardedBy("this")
+    private boolean refresh(ContentResolver resolver) {
+        if (!mLoaded) {
+            if (!queryThreads(resolver, null)) {
+                return false;
+            }
+            mLoads++;
+            mLoaded = true;
+            mChangedThreads.clear();
+            return true;
+        }
+        if (mChangedThreads.isEmpty()) {
+            return true;
+        }
+        StringBuilder selection = new StringBuilder(Threads._ID).append(" IN (");
+        String separator = "";
+        for (long threadId : mChangedThreads) {
+            selection.append(separator).append(threadId);
+            separator = ",";
+        }
+        selection.append(')');
+        // Deleted threads are not returned by the query
+        for (long threadId : mChangedThreads) {
+            mConversations.remove(threadId);
+        }
+        if (!queryThreads(resolver, selection.toString())) {
+            clear();
+            return false;
+        }
+        mRefreshedThreads += mChangedThreads.size();
+        mChangedThreads.clear();
+        return true;
+    }
+
+    @GuardedBy("this")
+    private boolean queryThreads(ContentResolver resolver, String selection) {
+        Cursor cursor =
+                BluetoothMethodProxy.getInstance()
+                        .contentResolverQuery(
+                                resolver,
+                                THREADS_URI,
+                                BluetoothMapContent.MMS_SMS_THREAD_PROJECTION,
+                                selection,
+                                null,
+                                null);
+        if (cursor == null) {
+            Log.w(TAG, "queryThreads: no cursor");
+            return false;
+        }
+        try {
+            int idIndex = cursor.getColumnIndex(Threads._ID);
+            int dateIndex = cursor.getColumnIndex(Threads.DATE);
+            int snippetIndex = cursor.getColumnIndex(Threads.SNIPPET);
+            int snippetCharsetIndex = cursor.getColumnIndex(Threads.SNIPPET_CHARSET);
+            int readIndex = cursor.getColumnIndex(Threads.READ);
+            int recipientIdsIndex = cursor.getColumnIndex(Threads.RECIPIENT_IDS);
+            while (cursor.moveToNext()) {
+                Conversation conversation =
+                        new Conversation(
+                                cursor.getLong(idIndex),
+                                cursor.getLong(dateIndex),
+                                cursor.getString(snippetIndex),
+                                cursor.getString(snippetCharsetIndex),
+                                cursor.getInt(readIndex),
+                                cursor.getString(recipientIdsIndex));
+                mConversations.put(conversation.mId, conversation);
+            }
+        } finally {
+            cursor.close();
+        }
+        mSorted = null;
+        return true;
+    }
+
+    @GuardedBy("this")
+    private void clear() {
+        mConversations.clear();
+        mChangedThreads.clear();
+        mSorted = null;
+        mLoaded = false;
+        mContacts = new SmsMmsContacts();
+    }
+
+    synchronized int size() {
+        return mConversations.size();
+    }
+
+    synchronized long getLoads() {
+        return mLoads;
+    }
+
+    synchronized long getRefreshedThreads() {
+        return mRefreshedThreads;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "tracking="
+                + mTracking
+                + " conversations="
+                + mConversations.size()
+                + " pending="
+                + mChangedThreads.size()
+                + " listings="
+                + mListings
+                + " loads="
+                + mLoads
+                + " refreshedThreads="
+                + mRefreshedThreads
+                + " invalidations="
+                + mInvalidations
+                + " contactsInvalidations="
+                + mContactsInvalidations;
+    }
+}
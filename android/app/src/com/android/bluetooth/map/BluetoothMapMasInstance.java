@@ -99,6 +99,9 @@ public class BluetoothMapMasInstance implements IObexConnectionHandler {
     private Map<Long, Msg> mMsgListMms = null;
     private Map<Long, Msg> mMsgListMsg = null;
 
+    private final BluetoothMapMessageCache mMessageCache = new BluetoothMapMessageCache();
+    private final BluetoothMapConvoIndex mConvoIndex = new BluetoothMapConvoIndex();
+
     private Map<String, BluetoothMapConvoContactElement> mContactList;
 
     private Map<Long, BluetoothMapConvoListingElement> mSmsMmsConvoList = new HashMap<>();
@@ -207,6 +210,14 @@ public class BluetoothMapMasInstance implements IObexConnectionHandler {
         mMsgListMms = msgListMms;
     }
 
+    /* package */ BluetoothMapMessageCache getMessageCache() {
+        return mMessageCache;
+    }
+
+    /* package */ BluetoothMapConvoIndex getConvoIndex() {
+        return mConvoIndex;
+    }
+
     /* package */ Map<Long, Msg> getMsgListMsg() {
         return mMsgListMsg;
     }
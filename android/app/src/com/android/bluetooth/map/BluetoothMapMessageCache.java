@@ -0,0 +1,246 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import com.android.bluetooth.map.BluetoothMapContentObserver.Msg;
+import com.android.bluetooth.map.BluetoothMapUtils.TYPE;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+
+/**
+ * Least recently used cache of the bMessages built for SMS and MMS GetMessage requests.
+ *
+ * <p>Building a bMessage takes several provider queries (message, addresses, parts and contacts),
+ * while MCE devices often fetch the same messages again, e.g. after a reconnection. The cache is
+ * owned by the {@link BluetoothMapMasInstance}, so it outlives the OBEX sessions.
+ *
+ * <p>An entry is only returned if:
+ *
+ * <ul>
+ *   <li>no SMS/MMS change was reported by the {@link BluetoothMapContentObserver} since it was
+ *       added, see {@link #invalidate}
+ *   <li>the folder, thread and read status of the message still match the ones it was built for
+ * </ul>
+ *
+ * <p>Contact changes are not tracked, the name of an originator may be outdated until the next
+ * SMS/MMS change.
+ *
+ * <p>Returned arrays are shared with the cache and must not be modified.
+ */
+class BluetoothMapMessageCache {
+    @VisibleForTesting static final int MAX_ENTRIES = 32;
+    @VisibleForTesting static final int MAX_BYTES = 512 * 1024;
+
+    // Larger messages, usually MMS with attachments, would evict everything else
+    @VisibleForTesting static final int MAX_ENTRY_BYTES = MAX_BYTES / 4;
+
+    private final LinkedHashMap<Key, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long mGeneration;
+    private int mBytes;
+
+    private long mHits;
+    private long mMisses;
+    private long mInvalidations;
+    private long mEvictions;
+
+    /**
+     * Get a cached bMessage.
+     *
+     * @param msg current state of the message, from the message list of the observer
+     * @return the bMessage, or null if it isn't cached or is outdated
+     */
+    synchronized byte[] get(
+            TYPE type, long id, int charset, int attachment, String version, Msg msg) {
+        Key key = new Key(type, id, charset, attachment, version);
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mMisses++;
+            return null;
+        }
+        if (msg == null || !entry.matches(msg)) {
+            remove(key);
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return entry.mData;
+    }
+
+    /** Generation to pass to {@link #put}, to be read before building the bMessage. */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Add a bMessage to the cache.
+     *
+     * @param msg state of the message it was built for, nothing is cached when null
+     * @param generation the {@link #getGeneration} before the bMessage was built, nothing is
+     *     cached if the content changed in between
+     */
+    synchronized void put(
+            TYPE type,
+            long id,
+            int charset,
+            int attachment,
+            String version,
+            Msg msg,
+            long generation,
+            byte[] data) {
+        if (generation != mGeneration
+                || msg == null
+                || data == null
+                || data.length > MAX_ENTRY_BYTES) {
+            return;
+        }
+        Key key = new Key(type, id, charset, attachment, version);
+        remove(key);
+        mEntries.put(key, new Entry(data, msg));
+        mBytes += data.length;
+
+        Iterator<Entry> it = mEntries.values().iterator();
+        while ((mEntries.size() > MAX_ENTRIES || mBytes > MAX_BYTES) && it.hasNext()) {
+            mBytes -= it.next().mData.length;
+            it.remove();
+            mEvictions++;
+        }
+    }
+
+    /** Drop every entry, called when the SMS/MMS content changed. */
+    synchronized void invalidate() {
+        mGeneration++;
+        if (!mEntries.isEmpty()) {
+            mInvalidations++;
+        }
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    synchronized int size() {
+        return mEntries.size();
+    }
+
+    synchronized int getBytes() {
+        return mBytes;
+    }
+
+    synchronized long getHits() {
+        return mHits;
+    }
+
+    synchronized long getMisses() {
+        return mMisses;
+    }
+
+    synchronized long getInvalidations() {
+        return mInvalidations;
+    }
+
+    synchronized long getEvictions() {
+        return mEvictions;
+    }
+
+    /** Percentage of lookups served from the cache. */
+    synchronized int getHitRatePercent() {
+        long lookups = mHits + mMisses;
+        return lookups == 0 ? 0 : (int) (mHits * 100 / lookups);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Entries: "
+                + mEntries.size()
+                + " Bytes: "
+                + mBytes
+                + " Hits: "
+                + mHits
+                + " Misses: "
+                + mMisses
+                + " (hit rate "
+                + getHitRatePercent()
+                + "%) Invalidations: "
+                + mInvalidations
+                + " Evictions: "
+                + mEvictions;
+    }
+
+    private void remove(Key key) {
+        Entry entry = mEntries.remove(key);
+        if (entry != null) {
+            mBytes -= entry.mData.length;
+        }
+    }
+
+    private static final class Key {
+        private final TYPE mType;
+        private final long mId;
+        private final int mCharset;
+        private final int mAttachment;
+        private final String mVersion;
+
+        Key(TYPE type, long id, int charset, int attachment, String version) {
+            mType = type;
+            mId = id;
+            mCharset = charset;
+            mAttachment = attachment;
+            mVersion = version;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mType, mId, mCharset, mAttachment, mVersion);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return mType == other.mType
+                    && mId == other.mId
+                    && mCharset == other.mCharset
+                    && mAttachment == other.mAttachment
+                    && Objects.equals(mVersion, other.mVersion);
+        }
+    }
+
+    private static final class Entry {
+        final byte[] mData;
+        final int mFolder;
+        final int mThreadId;
+        final int mFlagRead;
+
+        Entry(byte[] data, Msg msg) {
+            mData = data;
+            mFolder = msg.type;
+            mThreadId = msg.threadId;
+            mFlagRead = msg.flagRead;
+        }
+
+        boolean matches(Msg msg) {
+            return mFolder == msg.type && mThreadId == msg.threadId && mFlagRead == msg.flagRead;
+        }
+    }
+}
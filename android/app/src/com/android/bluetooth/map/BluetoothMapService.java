@@ -1469,7 +1469,12 @@ public class BluetoothMapService extends ProfileService {
         println(sb, "mBluetoothMnsObexClient: " + mBluetoothMnsObexClient);
         println(sb, "mMasInstanceMap:");
         for (BluetoothMapAccountItem key : mMasInstanceMap.keySet()) {
-            println(sb, "  " + key + " : " + mMasInstanceMap.get(key));
+            BluetoothMapMasInstance masInstance = mMasInstanceMap.get(key);
+            println(sb, "  " + key + " : " + masInstance);
+            if (masInstance != null) {
+                println(sb, "    Message cache: " + masInstance.getMessageCache());
+                println(sb, "    Conversation index: " + masInstance.getConvoIndex());
+            }
         }
         println(sb, "mEnabledAccounts:");
         for (BluetoothMapAccountItem account : mEnabledAccounts) {
@@ -20,7 +20,9 @@ import android.telephony.PhoneNumberUtils;
 import android.util.Log;
 
 import com.android.bluetooth.BluetoothStatsLog;
+import com.android.bluetooth.BmessageReader;
 import com.android.bluetooth.content_profiles.ContentProfileErrorReportUtils;
+import com.android.bluetooth.flags.Flags;
 import com.android.bluetooth.map.BluetoothMapUtils.TYPE;
 import com.android.internal.annotations.VisibleForTesting;
 
@@ -257,65 +259,50 @@ public abstract class BluetoothMapbMessage {
             List<String> emailAddresses = null;
             List<String> btUids = null;
             List<String> btUcis = null;
-            String[] parts;
             String line = reader.getLineEnforce();
 
             while (!line.contains("END:VCARD")) {
                 line = line.trim();
                 if (line.startsWith("N:")) {
-                    parts = line.split("[^\\\\]:"); // Split on "un-escaped" ':'
-                    if (parts.length == 2) {
-                        name = parts[1];
-                    } else {
-                        name = "";
-                    }
+                    name = getValue(line, "");
                 } else if (line.startsWith("FN:")) {
-                    parts = line.split("[^\\\\]:"); // Split on "un-escaped" ':'
-                    if (parts.length == 2) {
-                        formattedName = parts[1];
-                    } else {
-                        formattedName = "";
-                    }
+                    formattedName = getValue(line, "");
                 } else if (line.startsWith("TEL:")) {
-                    parts = line.split("[^\\\\]:"); // Split on "un-escaped" ':'
-                    if (parts.length == 2) {
-                        String[] subParts = parts[1].split("[^\\\\];");
+                    String value = getValue(line, null);
+                    if (value != null) {
                         if (phoneNumbers == null) {
                             phoneNumbers = new ArrayList<String>(1);
                         }
                         // only keep actual phone number
-                        phoneNumbers.add(subParts[subParts.length - 1]);
+                        phoneNumbers.add(getLastField(value));
                     }
                     // Empty phone number - ignore
                 } else if (line.startsWith("EMAIL:")) {
-                    parts = line.split("[^\\\\]:"); // Split on "un-escaped" :
-                    if (parts.length == 2) {
-                        String[] subParts = parts[1].split("[^\\\\];");
+                    String value = getValue(line, null);
+                    if (value != null) {
                         if (emailAddresses == null) {
                             emailAddresses = new ArrayList<String>(1);
                         }
                         // only keep actual email address
-                        emailAddresses.add(subParts[subParts.length - 1]);
+                        emailAddresses.add(getLastField(value));
                     }
                     // Empty email address entry - ignore
                 } else if (line.startsWith("X-BT-UCI:")) {
-                    parts = line.split("[^\\\\]:"); // Split on "un-escaped" :
-                    if (parts.length == 2) {
-                        String[] subParts = parts[1].split("[^\\\\];");
+                    String value = getValue(line, null);
+                    if (value != null) {
                         if (btUcis == null) {
                             btUcis = new ArrayList<String>(1);
                         }
-                        btUcis.add(subParts[subParts.length - 1]); // only keep actual UCI
+                        btUcis.add(getLastField(value)); // only keep actual UCI
                     }
                     // Empty UCIentry - ignore
                 } else if (line.startsWith("X-BT-UID:")) {
-                    parts = line.split("[^\\\\]:"); // Split on "un-escaped" :
-                    if (parts.length == 2) {
-                        String[] subParts = parts[1].split("[^\\\\];");
+                    String value = getValue(line, null);
+                    if (value != null) {
                         if (btUids == null) {
                             btUids = new ArrayList<String>(1);
                         }
-                        btUids.add(subParts[subParts.length - 1]); // only keep actual UID
+                        btUids.add(getLastField(value)); // only keep actual UID
                     }
                     // Empty UID entry - ignore
                 }
@@ -333,15 +320,60 @@ public abstract class BluetoothMapbMessage {
                             : emailAddresses.toArray(new String[emailAddresses.size()]),
                     envLevel);
         }
+
+        /**
+         * Get the value of a vCard property line, after its first un-escaped ':'.
+         *
+         * @return the value, or {@code defaultValue} if it is empty or contains another
+         *     un-escaped ':'
+         */
+        private static String getValue(String line, String defaultValue) {
+            if (!Flags.mapStreamingBmessage()) {
+                String[] parts = line.split("[^\\\\]:"); // Split on "un-escaped" ':'
+                return parts.length == 2 ? parts[1] : defaultValue;
+            }
+            int colon = BmessageReader.indexOfUnescaped(line, ':', 1);
+            if (colon == -1
+                    || colon == line.length() - 1
+                    || BmessageReader.indexOfUnescaped(line, ':', colon + 2) != -1) {
+                return defaultValue;
+            }
+            return line.substring(colon + 1);
+        }
+
+        /** Get the last non-empty field of a value, after its last un-escaped ';'. */
+        private static String getLastField(String value) {
+            if (!Flags.mapStreamingBmessage()) {
+                String[] subParts = value.split("[^\\\\];");
+                return subParts[subParts.length - 1];
+            }
+            int end = value.length();
+            while (true) {
+                int start = 0;
+                for (int i = end - 1; i > 0; i--) {
+                    if (value.charAt(i) == ';' && value.charAt(i - 1) != '\\') {
+                        start = i + 1;
+                        break;
+                    }
+                }
+                if (start < end || start == 0) {
+                    return value.substring(start, end);
+                }
+                end = start - 1;
+            }
+        }
     }
     ;
 
     @VisibleForTesting
     static class BMsgReader {
         InputStream mInStream;
+        // Buffered reader replacing the reads of a byte at a time, null when not enabled
+        private final BmessageReader mReader;
 
         BMsgReader(InputStream is) {
             this.mInStream = is;
+            mReader = Flags.mapStreamingBmessage() ? new BmessageReader(is) : null;
         }
 
         private byte[] getLineAsBytes() {
@@ -393,6 +425,20 @@ public abstract class BluetoothMapbMessage {
          * @return the next line of text, or null at end of file, or if UTF-8 is not supported.
          */
         public String getLine() {
+            if (mReader != null) {
+                try {
+                    return mReader.readLine();
+                } catch (IOException e) {
+                    ContentProfileErrorReportUtils.report(
+                            BluetoothProfile.MAP,
+                            BluetoothProtoEnums.BLUETOOTH_MAP_BMESSAGE,
+                            BluetoothStatsLog
+                                    .BLUETOOTH_CONTENT_PROFILE_ERROR_REPORTED__TYPE__EXCEPTION,
+                            0);
+                    Log.w(TAG, e);
+                    return null;
+                }
+            }
             byte[] line = getLineAsBytes();
             if (line.length == 0) {
                 return null;
@@ -459,6 +505,9 @@ public abstract class BluetoothMapbMessage {
         public byte[] getDataBytes(int length) {
             byte[] data = new byte[length];
             try {
+                if (mReader != null) {
+                    return mReader.readBytes(length);
+                }
                 int bytesRead;
                 int offset = 0;
                 while ((bytesRead = mInStream.read(data, offset, length - offset))
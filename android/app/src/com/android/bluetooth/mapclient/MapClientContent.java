@@ -18,12 +18,16 @@ package com.android.bluetooth.mapclient;
 
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothMapClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.RemoteException;
 import android.provider.BaseColumns;
 import android.provider.Telephony;
 import android.provider.Telephony.Mms;
@@ -38,6 +42,7 @@ import android.util.ArraySet;
 import android.util.Log;
 
 import com.android.bluetooth.Utils;
+import com.android.bluetooth.flags.Flags;
 import com.android.bluetooth.map.BluetoothMapbMessageMime;
 import com.android.bluetooth.map.BluetoothMapbMessageMime.MimePart;
 import com.android.vcard.VCardConstants;
@@ -92,6 +97,17 @@ class MapClientContent {
     private HashMap<String, Uri> mHandleToUriMap = new HashMap<>();
     private HashMap<Uri, MessageStatus> mUriToHandleMap = new HashMap<>();
 
+    // SMS waiting for the next flushQueuedMessages, with the handle and read status of each
+    private final ArrayList<ContentProviderOperation> mQueuedSms = new ArrayList<>();
+    private final ArrayList<MessageStatus> mQueuedSmsStatus = new ArrayList<>();
+    private int mSmsBatches;
+    private int mSmsBatchedMessages;
+
+    // Thread id of each set of contacts, so a conversation is only looked up once in the provider
+    private final HashMap<Set<String>, Long> mThreadIdCache = new HashMap<>();
+    private int mThreadIdCacheHits;
+    private int mThreadIdCacheMisses;
+
     /** Callbacks API to notify about statusChanges as observed from the content provider */
     interface Callbacks {
         void onMessageStatusChanged(String handle, int status);
@@ -215,6 +231,8 @@ class MapClientContent {
      * to associate the local message with the remote message.
      */
     void storeMessage(Bmessage message, String handle, Long timestamp, boolean seen) {
+        // Keep the order of insertion when messages are also queued
+        flushQueuedMessages();
         info(
                 "storeMessage(time="
                         + timestamp
@@ -241,9 +259,115 @@ class MapClientContent {
         }
     }
 
+    /**
+     * queueMessage
+     *
+     * <p>Same as {@link #storeMessage}, except that SMS are only inserted by the next {@link
+     * #flushQueuedMessages}, all of them with a single {@link ContentResolver#applyBatch}. Other
+     * messages are stored right away, after the SMS queued before them.
+     */
+    void queueMessage(Bmessage message, String handle, Long timestamp, boolean seen) {
+        if (message.getType() != Bmessage.Type.SMS_CDMA
+                && message.getType() != Bmessage.Type.SMS_GSM) {
+            storeMessage(message, handle, timestamp, seen);
+            return;
+        }
+        debug("queueMessage(time=" + timestamp + ", handle=" + handle + ")");
+        verbose(message.toString());
+        ContentValues values = getSmsValues(message, timestamp, seen);
+        if (values == null) {
+            return;
+        }
+        mQueuedSms.add(
+                ContentProviderOperation.newInsert(getSmsContentUri(message))
+                        .withValues(values)
+                        .build());
+        mQueuedSmsStatus.add(new MessageStatus(handle, values.getAsInteger(Sms.READ)));
+    }
+
+    /** Number of messages waiting for {@link #flushQueuedMessages}. */
+    int getQueuedMessageCount() {
+        return mQueuedSms.size();
+    }
+
+    /** flushQueuedMessages insert the messages queued by {@link #queueMessage} in one batch */
+    void flushQueuedMessages() {
+        if (mQueuedSms.isEmpty()) {
+            return;
+        }
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(mQueuedSms);
+        ArrayList<MessageStatus> statuses = new ArrayList<>(mQueuedSmsStatus);
+        mQueuedSms.clear();
+        mQueuedSmsStatus.clear();
+
+        ContentProviderResult[] results;
+        try {
+            results = mResolver.applyBatch(Sms.CONTENT_URI.getAuthority(), operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            error("Failed to insert " + operations.size() + " SMS in one batch, retrying: " + e);
+            for (int i = 0; i < operations.size(); i++) {
+                insertQueuedSms(operations.get(i), statuses.get(i));
+            }
+            return;
+        }
+        mSmsBatches++;
+        mSmsBatchedMessages += operations.size();
+        for (int i = 0; i < results.length; i++) {
+            recordInsertedSms(results[i].uri, statuses.get(i));
+        }
+        debug("Inserted " + results.length + " SMS in one batch");
+    }
+
+    /** Insert one queued SMS on its own, so a single bad message does not drop its batch. */
+    private void insertQueuedSms(ContentProviderOperation operation, MessageStatus status) {
+        ContentProviderResult[] results;
+        try {
+            results =
+                    mResolver.applyBatch(
+                            Sms.CONTENT_URI.getAuthority(), new ArrayList<>(List.of(operation)));
+        } catch (RemoteException | OperationApplicationException e) {
+            error("Failed to insert SMS, dropping it: " + e);
+            return;
+        }
+        recordInsertedSms(results[0].uri, status);
+    }
+
+    private void recordInsertedSms(Uri uri, MessageStatus status) {
+        if (uri == null) {
+            error("Failed to get SMS URI, insert failed. Dropping message.");
+            return;
+        }
+        mHandleToUriMap.put(status.mHandle, uri);
+        mUriToHandleMap.put(uri, status);
+    }
+
     private void storeSms(Bmessage message, String handle, Long timestamp, boolean seen) {
         debug("storeSms");
         verbose(message.toString());
+        ContentValues values = getSmsValues(message, timestamp, seen);
+        if (values == null) {
+            return;
+        }
+
+        Uri results = mResolver.insert(getSmsContentUri(message), values);
+        if (results == null) {
+            error("Failed to get SMS URI, insert failed. Dropping message.");
+            return;
+        }
+
+        mHandleToUriMap.put(handle, results);
+        mUriToHandleMap.put(results, new MessageStatus(handle, values.getAsInteger(Sms.READ)));
+        debug("Map InsertedThread" + results);
+    }
+
+    private static Uri getSmsContentUri(Bmessage message) {
+        return INBOX_PATH.equalsIgnoreCase(message.getFolder())
+                ? Sms.Inbox.CONTENT_URI
+                : Sms.Sent.CONTENT_URI;
+    }
+
+    /** Row of a SMS, or null if the message has no valid recipient */
+    private ContentValues getSmsValues(Bmessage message, Long timestamp, boolean seen) {
         String recipients;
         if (INBOX_PATH.equals(message.getFolder())) {
             recipients = getOriginatorNumber(message);
@@ -251,15 +375,11 @@ class MapClientContent {
             recipients = getFirstRecipientNumber(message);
             if (recipients == null) {
                 debug("invalid recipients");
-                return;
+                return null;
             }
         }
         verbose("Received SMS from Number " + recipients);
 
-        Uri contentUri =
-                INBOX_PATH.equalsIgnoreCase(message.getFolder())
-                        ? Sms.Inbox.CONTENT_URI
-                        : Sms.Sent.CONTENT_URI;
         ContentValues values = new ContentValues();
         long threadId = getThreadId(message);
         int readStatus = message.getStatus() == Bmessage.Status.READ ? 1 : 0;
@@ -271,30 +391,25 @@ class MapClientContent {
         values.put(Sms.DATE, timestamp);
         values.put(Sms.READ, readStatus);
         values.put(Sms.SEEN, seen);
-
-        Uri results = mResolver.insert(contentUri, values);
-        if (results == null) {
-            error("Failed to get SMS URI, insert failed. Dropping message.");
-            return;
-        }
-
-        mHandleToUriMap.put(handle, results);
-        mUriToHandleMap.put(results, new MessageStatus(handle, readStatus));
-        debug("Map InsertedThread" + results);
+        return values;
     }
 
     /** deleteMessage remove a message from the local provider based on a remote change */
     void deleteMessage(String handle) {
         debug("deleting handle" + handle);
+        flushQueuedMessages();
         Uri messageToChange = mHandleToUriMap.get(handle);
         if (messageToChange != null) {
             mResolver.delete(messageToChange, null);
+            // The provider drops the thread along with its last message
+            mThreadIdCache.clear();
         }
     }
 
     /** markRead mark a message read in the local provider based on a remote change */
     void markRead(String handle) {
         debug("marking read " + handle);
+        flushQueuedMessages();
         Uri messageToChange = mHandleToUriMap.get(handle);
         if (messageToChange != null) {
             ContentValues values = new ContentValues();
@@ -330,6 +445,10 @@ class MapClientContent {
                 }
             }
         }
+        if (!duplicateUriToHandleMap.isEmpty()) {
+            // Threads left without messages are dropped by the provider
+            mThreadIdCache.clear();
+        }
         for (Map.Entry record : duplicateUriToHandleMap.entrySet()) {
             verbose("Deleted " + ((MessageStatus) record.getValue()).mHandle);
             originalUriToHandleMap.remove(record.getKey());
@@ -390,6 +509,10 @@ class MapClientContent {
             // for message content changes. Adding the address parts first makes it so they're
             // already in the tables when a given app syncs due to content updates. Otherwise, we
             // risk a race where the address content may not be ready.
+            if (Flags.mapclientBatchedMessageStore()) {
+                storeMmsPartsInBatch(message, mmsBmessage, results);
+                return;
+            }
             storeAddressPart(message, results);
 
             for (MimePart part : mmsBmessage.getMimeParts()) {
@@ -401,7 +524,37 @@ class MapClientContent {
         }
     }
 
-    private Uri storeMmsPart(MimePart messagePart, Uri messageUri) {
+    /** Insert the addresses and parts of a MMS with one {@link ContentResolver#applyBatch} */
+    private void storeMmsPartsInBatch(
+            Bmessage message, BluetoothMapbMessageMime mmsBmessage, Uri messageUri) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        // Addresses first, for the same reason as in storeMms
+        Uri addressUri = Uri.parse(messageUri.toString() + "/addr");
+        for (ContentValues values : getAddressValues(message)) {
+            operations.add(
+                    ContentProviderOperation.newInsert(addressUri).withValues(values).build());
+        }
+        Uri partUri = Uri.parse(messageUri.toString() + "/part");
+        for (MimePart part : mmsBmessage.getMimeParts()) {
+            operations.add(
+                    ContentProviderOperation.newInsert(partUri)
+                            .withValues(getMmsPartValues(part))
+                            .build());
+        }
+
+        try {
+            for (ContentProviderResult result :
+                    mResolver.applyBatch(Mms.CONTENT_URI.getAuthority(), operations)) {
+                if (result.uri == null) {
+                    warn("failed to insert MMS address or part");
+                }
+            }
+        } catch (RemoteException | OperationApplicationException e) {
+            warn("failed to insert MMS addresses and parts", e);
+        }
+    }
+
+    private static ContentValues getMmsPartValues(MimePart messagePart) {
         ContentValues values = new ContentValues();
         values.put(Mms.Part.CONTENT_TYPE, "text/plain");
         values.put(Mms.Part.CHARSET, DEFAULT_CHARSET);
@@ -410,6 +563,11 @@ class MapClientContent {
         values.put(Mms.Part.CONTENT_ID, messagePart.mContentId);
         values.put(Mms.Part.CONTENT_LOCATION, messagePart.mContentLocation);
         values.put(Mms.Part.TEXT, messagePart.getDataAsString());
+        return values;
+    }
+
+    private Uri storeMmsPart(MimePart messagePart, Uri messageUri) {
+        ContentValues values = getMmsPartValues(messagePart);
 
         Uri contentUri = Uri.parse(messageUri.toString() + "/part");
         Uri results = mResolver.insert(contentUri, values);
@@ -424,28 +582,37 @@ class MapClientContent {
     }
 
     private void storeAddressPart(Bmessage message, Uri messageUri) {
-        ContentValues values = new ContentValues();
         Uri contentUri = Uri.parse(messageUri.toString() + "/addr");
-        String originator = getOriginatorNumber(message);
-        values.put(Mms.Addr.CHARSET, DEFAULT_CHARSET);
-        values.put(Mms.Addr.ADDRESS, originator);
-        values.put(Mms.Addr.TYPE, ORIGINATOR_ADDRESS_TYPE);
-
-        Uri results = mResolver.insert(contentUri, values);
-        if (results == null) {
-            warn("failed to insert originator address");
+        for (ContentValues values : getAddressValues(message)) {
+            Uri results = mResolver.insert(contentUri, values);
+            if (results == null) {
+                warn(
+                        values.getAsInteger(Mms.Addr.TYPE) == ORIGINATOR_ADDRESS_TYPE
+                                ? "failed to insert originator address"
+                                : "failed to insert recipient address");
+            }
         }
+    }
+
+    /** Address rows of a MMS, the originator first and then the recipients */
+    private List<ContentValues> getAddressValues(Bmessage message) {
+        List<ContentValues> addresses = new ArrayList<>();
+        addresses.add(getAddressValues(getOriginatorNumber(message), ORIGINATOR_ADDRESS_TYPE));
 
         Set<String> messageContacts = new ArraySet<>();
         getRecipientsFromMessage(message, messageContacts);
         for (String recipient : messageContacts) {
-            values.put(Mms.Addr.ADDRESS, recipient);
-            values.put(Mms.Addr.TYPE, RECIPIENT_ADDRESS_TYPE);
-            results = mResolver.insert(contentUri, values);
-            if (results == null) {
-                warn("failed to insert recipient address");
-            }
+            addresses.add(getAddressValues(recipient, RECIPIENT_ADDRESS_TYPE));
         }
+        return addresses;
+    }
+
+    private static ContentValues getAddressValues(String address, int type) {
+        ContentValues values = new ContentValues();
+        values.put(Mms.Addr.CHARSET, DEFAULT_CHARSET);
+        values.put(Mms.Addr.ADDRESS, address);
+        values.put(Mms.Addr.TYPE, type);
+        return values;
     }
 
     /** cleanUp clear the subscription info and content on shutdown */
@@ -456,6 +623,9 @@ class MapClientContent {
                         + "subscriptionId="
                         + mSubscriptionId);
         mResolver.unregisterContentObserver(mContentObserver);
+        mQueuedSms.clear();
+        mQueuedSmsStatus.clear();
+        mThreadIdCache.clear();
         clearMessages(mContext, mSubscriptionId);
         try {
             mSubscriptionManager.removeSubscriptionInfoRecord(
@@ -521,7 +691,18 @@ class MapClientContent {
         }
 
         verbose("Contacts = " + messageContacts.toString());
-        return Telephony.Threads.getOrCreateThreadId(mContext, messageContacts);
+        if (!Flags.mapclientBatchedMessageStore()) {
+            return Telephony.Threads.getOrCreateThreadId(mContext, messageContacts);
+        }
+        Long threadId = mThreadIdCache.get(messageContacts);
+        if (threadId != null) {
+            mThreadIdCacheHits++;
+            return threadId;
+        }
+        mThreadIdCacheMisses++;
+        threadId = Telephony.Threads.getOrCreateThreadId(mContext, messageContacts);
+        mThreadIdCache.put(messageContacts, threadId);
+        return threadId;
     }
 
     private void getRecipientsFromMessage(Bmessage message, Set<String> messageContacts) {
@@ -839,6 +1020,18 @@ class MapClientContent {
                 sb.append("\n        ").append(e);
             }
         }
+        sb.append("\n      SMS batches (Batches/Messages/Queued): ")
+                .append(mSmsBatches)
+                .append(" / ")
+                .append(mSmsBatchedMessages)
+                .append(" / ")
+                .append(mQueuedSms.size());
+        sb.append("\n      Thread id cache (Entries/Hits/Misses): ")
+                .append(mThreadIdCache.size())
+                .append(" / ")
+                .append(mThreadIdCacheHits)
+                .append(" / ")
+                .append(mThreadIdCacheMisses);
         sb.append("\n");
     }
 
@@ -65,9 +65,11 @@ import com.android.vcard.VCardEntry;
 import com.android.vcard.VCardProperty;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -95,6 +97,10 @@ class MceStateMachine extends StateMachine {
     // Set message status to read or deleted
     static final int MSG_SET_MESSAGE_STATUS = 2006;
     static final int MSG_SEARCH_OWN_NUMBER_TIMEOUT = 2007;
+    // Fetch the messages of a burst of NEW_MESSAGE events
+    static final int MSG_FETCH_NEW_MESSAGES = 2008;
+    // Store the downloaded messages waiting in MapClientContent
+    static final int MSG_STORE_INBOUND_MESSAGES = 2009;
 
     // SAVE_OUTBOUND_MESSAGES defaults to true to place the responsibility of managing content on
     // Bluetooth, to work with the default Car Messenger.  This may need to be set to false if the
@@ -117,6 +123,13 @@ class MceStateMachine extends StateMachine {
     private static final boolean MESSAGE_SEEN = true;
     private static final boolean MESSAGE_NOT_SEEN = false;
 
+    // How long to wait for more NEW_MESSAGE events before fetching the messages of a burst
+    @VisibleForTesting static final int NEW_MESSAGE_COALESCE_MS = 100;
+    // Downloaded messages are stored once this many are waiting, once no download is left, or
+    // STORE_BATCH_DELAY_MS after the first one at the latest
+    @VisibleForTesting static final int STORE_BATCH_SIZE = 50;
+    @VisibleForTesting static final int STORE_BATCH_DELAY_MS = 500;
+
     // Do we download attachments, e.g., if a MMS contains an image.
     private static final boolean DOWNLOAD_ATTACHMENTS = false;
 
@@ -214,6 +227,13 @@ class MceStateMachine extends StateMachine {
     ConcurrentHashMap<String, MessageMetadata> mMessages =
             new ConcurrentHashMap<String, MessageMetadata>();
 
+    // Handles of the NEW_MESSAGE events waiting for MSG_FETCH_NEW_MESSAGES
+    private final Set<String> mNewMessageHandles = new LinkedHashSet<>();
+    // GetMessage requests sent and not completed yet
+    private int mPendingGetMessages;
+    // ACTION_MESSAGE_RECEIVED of the messages waiting to be stored, sent once they are
+    private final List<Intent> mPendingBroadcasts = new ArrayList<>();
+
     MceStateMachine(MapClientService service, BluetoothDevice device) {
         this(service, device, null, null);
     }
@@ -714,11 +734,19 @@ class MceStateMachine extends StateMachine {
                     break;
 
                 case MSG_INBOUND_MESSAGE:
-                    mMasClient.makeRequest(
-                            new RequestGetMessage(
-                                    (String) message.obj,
-                                    MasClient.CharsetType.UTF_8,
-                                    DOWNLOAD_ATTACHMENTS));
+                    requestMessage((String) message.obj);
+                    break;
+
+                case MSG_FETCH_NEW_MESSAGES:
+                    // All GetMessage requests of the burst are queued on the MAS session at once
+                    for (String handle : mNewMessageHandles) {
+                        requestMessage(handle);
+                    }
+                    mNewMessageHandles.clear();
+                    break;
+
+                case MSG_STORE_INBOUND_MESSAGES:
+                    storeInboundMessages();
                     break;
 
                 case MSG_NOTIFICATION:
@@ -766,6 +794,9 @@ class MceStateMachine extends StateMachine {
                 case MSG_MAS_REQUEST_COMPLETED:
                     if (message.obj instanceof RequestGetMessage) {
                         processInboundMessage((RequestGetMessage) message.obj);
+                        if (Flags.mapclientBatchedMessageStore()) {
+                            onInboundMessageProcessed();
+                        }
                     } else if (message.obj instanceof RequestPushMessage) {
                         RequestPushMessage requestPushMessage = (RequestPushMessage) message.obj;
                         String messageHandle = requestPushMessage.getMsgHandle();
@@ -853,11 +884,48 @@ class MceStateMachine extends StateMachine {
 
         @Override
         public void exit() {
+            if (Flags.mapclientBatchedMessageStore()) {
+                removeMessages(MSG_FETCH_NEW_MESSAGES);
+                mNewMessageHandles.clear();
+                mPendingGetMessages = 0;
+                storeInboundMessages();
+            }
             mDatabase.cleanUp();
             mDatabase = null;
             mPreviousState = BluetoothProfile.STATE_CONNECTED;
         }
 
+        private void requestMessage(String handle) {
+            mMasClient.makeRequest(
+                    new RequestGetMessage(
+                            handle, MasClient.CharsetType.UTF_8, DOWNLOAD_ATTACHMENTS));
+            mPendingGetMessages++;
+        }
+
+        /**
+         * Store the messages waiting in the database once enough of them are, or once the last
+         * download completed. Otherwise make sure they don't wait more than STORE_BATCH_DELAY_MS.
+         */
+        private void onInboundMessageProcessed() {
+            mPendingGetMessages = Math.max(0, mPendingGetMessages - 1);
+            if (mPendingGetMessages == 0
+                    || mDatabase.getQueuedMessageCount() >= STORE_BATCH_SIZE) {
+                storeInboundMessages();
+            } else if (!hasMessages(MSG_STORE_INBOUND_MESSAGES)) {
+                sendMessageDelayed(MSG_STORE_INBOUND_MESSAGES, STORE_BATCH_DELAY_MS);
+            }
+        }
+
+        /** Store the messages waiting in the database, and only then tell they were received. */
+        private void storeInboundMessages() {
+            removeMessages(MSG_STORE_INBOUND_MESSAGES);
+            mDatabase.flushQueuedMessages();
+            for (Intent intent : mPendingBroadcasts) {
+                sendInboundMessageBroadcast(intent);
+            }
+            mPendingBroadcasts.clear();
+        }
+
         /**
          * Given a message notification event, will ensure message caching and updating and update
          * interested applications.
@@ -896,11 +964,15 @@ class MceStateMachine extends StateMachine {
                                         event.getHandle(), timestamp, false, MESSAGE_NOT_SEEN);
                         mMessages.put(event.getHandle(), metadata);
                     }
-                    mMasClient.makeRequest(
-                            new RequestGetMessage(
-                                    event.getHandle(),
-                                    MasClient.CharsetType.UTF_8,
-                                    DOWNLOAD_ATTACHMENTS));
+                    if (Flags.mapclientBatchedMessageStore()) {
+                        // Fetch the whole burst once it is over, each message only once
+                        mNewMessageHandles.add(event.getHandle());
+                        if (!hasMessages(MSG_FETCH_NEW_MESSAGES)) {
+                            sendMessageDelayed(MSG_FETCH_NEW_MESSAGES, NEW_MESSAGE_COALESCE_MS);
+                        }
+                        break;
+                    }
+                    requestMessage(event.getHandle());
                     break;
                 case DELIVERY_FAILURE:
                     // fall through
@@ -1086,11 +1158,19 @@ class MceStateMachine extends StateMachine {
             if (message == null) {
                 return;
             }
-            mDatabase.storeMessage(
-                    message,
-                    request.getHandle(),
-                    mMessages.get(request.getHandle()).getTimestamp(),
-                    mMessages.get(request.getHandle()).getSeen());
+            if (Flags.mapclientBatchedMessageStore()) {
+                mDatabase.queueMessage(
+                        message,
+                        request.getHandle(),
+                        mMessages.get(request.getHandle()).getTimestamp(),
+                        mMessages.get(request.getHandle()).getSeen());
+            } else {
+                mDatabase.storeMessage(
+                        message,
+                        request.getHandle(),
+                        mMessages.get(request.getHandle()).getTimestamp(),
+                        mMessages.get(request.getHandle()).getSeen());
+            }
             if (!INBOX_PATH.equalsIgnoreCase(message.getFolder())) {
                 Log.d(TAG, "Ignoring message received in " + message.getFolder() + ".");
                 return;
@@ -1149,27 +1229,10 @@ class MceStateMachine extends StateMachine {
                                     android.content.Intent.EXTRA_CC, getRecipientsUri(recipients));
                         }
                     }
-                    String defaultMessagingPackage = Telephony.Sms.getDefaultSmsPackage(mService);
-                    if (defaultMessagingPackage == null) {
-                        // Broadcast to all RECEIVE_SMS recipients, including the SMS receiver
-                        // package defined in system properties if one exists
-                        mService.sendBroadcast(intent, RECEIVE_SMS);
+                    if (Flags.mapclientBatchedMessageStore()) {
+                        mPendingBroadcasts.add(intent);
                     } else {
-                        String smsReceiverPackageName =
-                                SystemProperties.get(
-                                        "bluetooth.profile.map_client.sms_receiver_package", null);
-                        if (smsReceiverPackageName != null && !smsReceiverPackageName.isEmpty()) {
-                            // Clone intent and broadcast to SMS receiver package if one exists
-                            Intent messageNotificationIntent = (Intent) intent.clone();
-                            // Repeat action for easier static analyze of the intent
-                            messageNotificationIntent.setAction(
-                                    BluetoothMapClient.ACTION_MESSAGE_RECEIVED);
-                            messageNotificationIntent.setPackage(smsReceiverPackageName);
-                            mService.sendBroadcast(messageNotificationIntent, RECEIVE_SMS);
-                        }
-                        // Broadcast to default messaging package
-                        intent.setPackage(defaultMessagingPackage);
-                        mService.sendBroadcast(intent, RECEIVE_SMS);
+                        sendInboundMessageBroadcast(intent);
                     }
                     break;
                 case EMAIL:
@@ -1179,6 +1242,31 @@ class MceStateMachine extends StateMachine {
             }
         }
 
+        private void sendInboundMessageBroadcast(Intent intent) {
+            String defaultMessagingPackage = Telephony.Sms.getDefaultSmsPackage(mService);
+            if (defaultMessagingPackage == null) {
+                // Broadcast to all RECEIVE_SMS recipients, including the SMS receiver
+                // package defined in system properties if one exists
+                mService.sendBroadcast(intent, RECEIVE_SMS);
+            } else {
+                String smsReceiverPackageName =
+                        SystemProperties.get(
+                                "bluetooth.profile.map_client.sms_receiver_package", null);
+                if (smsReceiverPackageName != null && !smsReceiverPackageName.isEmpty()) {
+                    // Clone intent and broadcast to SMS receiver package if one exists
+                    Intent messageNotificationIntent = (Intent) intent.clone();
+                    // Repeat action for easier static analyze of the intent
+                    messageNotificationIntent.setAction(
+                            BluetoothMapClient.ACTION_MESSAGE_RECEIVED);
+                    messageNotificationIntent.setPackage(smsReceiverPackageName);
+                    mService.sendBroadcast(messageNotificationIntent, RECEIVE_SMS);
+                }
+                // Broadcast to default messaging package
+                intent.setPackage(defaultMessagingPackage);
+                mService.sendBroadcast(intent, RECEIVE_SMS);
+            }
+        }
+
         /**
          * Retrieves the URIs of all the participants of a group conversation, besides the sender of
          * the message.
@@ -1340,6 +1428,12 @@ class MceStateMachine extends StateMachine {
                 return "MSG_GET_MESSAGE_LISTING";
             case MSG_SET_MESSAGE_STATUS:
                 return "MSG_SET_MESSAGE_STATUS";
+            case MSG_SEARCH_OWN_NUMBER_TIMEOUT:
+                return "MSG_SEARCH_OWN_NUMBER_TIMEOUT";
+            case MSG_FETCH_NEW_MESSAGES:
+                return "MSG_FETCH_NEW_MESSAGES";
+            case MSG_STORE_INBOUND_MESSAGES:
+                return "MSG_STORE_INBOUND_MESSAGES";
             case DISCONNECT_TIMEOUT:
                 return "DISCONNECT_TIMEOUT";
             case CONNECT_TIMEOUT:
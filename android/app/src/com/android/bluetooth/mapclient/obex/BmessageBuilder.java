@@ -21,6 +21,11 @@ import com.android.vcard.VCardEntry.EmailData;
 import com.android.vcard.VCardEntry.NameData;
 import com.android.vcard.VCardEntry.PhoneData;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 /* BMessage as defined by MAP_SPEC_V101 Section 3.1.3 Message format (x-bt/message) */
@@ -53,99 +58,117 @@ class BmessageBuilder {
     private static final String VCARD_TEL = "TEL:";
     private static final String VCARD_END = "END:VCARD";
 
-    private final StringBuilder mBmsg;
+    private static final byte[] CRLF_BYTES = CRLF.getBytes(StandardCharsets.UTF_8);
 
-    private BmessageBuilder() {
-        mBmsg = new StringBuilder();
+    private final OutputStream mBmsg;
+
+    private BmessageBuilder(OutputStream out) {
+        mBmsg = out;
     }
 
     public static String createBmessage(Bmessage bmsg) {
-        BmessageBuilder b = new BmessageBuilder();
+        return new String(createBmessageBytes(bmsg), StandardCharsets.UTF_8);
+    }
 
-        b.build(bmsg);
+    /** Encode a bMessage, without going through a String of the whole bMessage. */
+    public static byte[] createBmessageBytes(Bmessage bmsg) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            writeBmessage(bmsg, out);
+        } catch (IOException e) {
+            // Not thrown by ByteArrayOutputStream
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
 
-        return b.mBmsg.toString();
+    /** Write a bMessage straight to a stream, encoding the message content only once. */
+    public static void writeBmessage(Bmessage bmsg, OutputStream out) throws IOException {
+        new BmessageBuilder(out).build(bmsg);
     }
 
-    private void build(Bmessage bmsg) {
-        int bodyLen =
-                MSG_BEGIN.length()
-                        + MSG_END.length()
-                        + 3 * CRLF.length()
-                        + bmsg.mMessage.getBytes().length;
+    private void build(Bmessage bmsg) throws IOException {
+        byte[] message = bmsg.mMessage.getBytes(StandardCharsets.UTF_8);
+        int bodyLen = MSG_BEGIN.length() + MSG_END.length() + 3 * CRLF.length() + message.length;
 
-        mBmsg.append(BMSG_BEGIN).append(CRLF);
+        line(BMSG_BEGIN);
 
-        mBmsg.append(BMSG_VERSION).append(CRLF);
-        mBmsg.append(BMSG_STATUS).append(bmsg.mBmsgStatus).append(CRLF);
-        mBmsg.append(BMSG_TYPE).append(bmsg.mBmsgType).append(CRLF);
-        mBmsg.append(BMSG_FOLDER).append(bmsg.mBmsgFolder).append(CRLF);
+        line(BMSG_VERSION);
+        line(BMSG_STATUS + bmsg.mBmsgStatus);
+        line(BMSG_TYPE + bmsg.mBmsgType);
+        line(BMSG_FOLDER + bmsg.mBmsgFolder);
 
         for (VCardEntry vcard : bmsg.mOriginators) {
             buildVcard(vcard);
         }
 
         {
-            mBmsg.append(BENV_BEGIN).append(CRLF);
+            line(BENV_BEGIN);
 
             for (VCardEntry vcard : bmsg.mRecipients) {
                 buildVcard(vcard);
             }
 
             {
-                mBmsg.append(BBODY_BEGIN).append(CRLF);
+                line(BBODY_BEGIN);
 
                 if (bmsg.mBbodyEncoding != null) {
-                    mBmsg.append(BBODY_ENCODING).append(bmsg.mBbodyEncoding).append(CRLF);
+                    line(BBODY_ENCODING + bmsg.mBbodyEncoding);
                 }
 
                 if (bmsg.mBbodyCharset != null) {
-                    mBmsg.append(BBODY_CHARSET).append(bmsg.mBbodyCharset).append(CRLF);
+                    line(BBODY_CHARSET + bmsg.mBbodyCharset);
                 }
 
                 if (bmsg.mBbodyLanguage != null) {
-                    mBmsg.append(BBODY_LANGUAGE).append(bmsg.mBbodyLanguage).append(CRLF);
+                    line(BBODY_LANGUAGE + bmsg.mBbodyLanguage);
                 }
 
-                mBmsg.append(BBODY_LENGTH).append(bodyLen).append(CRLF);
+                line(BBODY_LENGTH + bodyLen);
 
                 {
-                    mBmsg.append(MSG_BEGIN).append(CRLF);
+                    line(MSG_BEGIN);
 
-                    mBmsg.append(bmsg.mMessage).append(CRLF);
+                    mBmsg.write(message);
+                    mBmsg.write(CRLF_BYTES);
 
-                    mBmsg.append(MSG_END).append(CRLF);
+                    line(MSG_END);
                 }
 
-                mBmsg.append(BBODY_END).append(CRLF);
+                line(BBODY_END);
             }
 
-            mBmsg.append(BENV_END).append(CRLF);
+            line(BENV_END);
         }
 
-        mBmsg.append(BMSG_END).append(CRLF);
+        line(BMSG_END);
     }
 
-    private void buildVcard(VCardEntry vcard) {
+    private void buildVcard(VCardEntry vcard) throws IOException {
         String n = buildVcardN(vcard);
         List<PhoneData> tel = vcard.getPhoneList();
         List<EmailData> email = vcard.getEmailList();
 
-        mBmsg.append(VCARD_BEGIN).append(CRLF);
+        line(VCARD_BEGIN);
 
-        mBmsg.append(VCARD_VERSION).append(CRLF);
+        line(VCARD_VERSION);
 
-        mBmsg.append(VCARD_N).append(n).append(CRLF);
+        line(VCARD_N + n);
 
         if (tel != null && tel.size() > 0) {
-            mBmsg.append(VCARD_TEL).append(tel.get(0).getNumber()).append(CRLF);
+            line(VCARD_TEL + tel.get(0).getNumber());
         }
 
         if (email != null && email.size() > 0) {
-            mBmsg.append(VCARD_EMAIL).append(email.get(0).getAddress()).append(CRLF);
+            line(VCARD_EMAIL + email.get(0).getAddress());
         }
 
-        mBmsg.append(VCARD_END).append(CRLF);
+        line(VCARD_END);
+    }
+
+    private void line(String line) throws IOException {
+        mBmsg.write(line.getBytes(StandardCharsets.UTF_8));
+        mBmsg.write(CRLF_BYTES);
     }
 
     private String buildVcardN(VCardEntry vcard) {
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.mapclient;
+
+import android.util.Log;
+
+import com.android.bluetooth.BmessageBody;
+import com.android.bluetooth.BmessageReader;
+import com.android.vcard.VCardEntry;
+import com.android.vcard.VCardEntryConstructor;
+import com.android.vcard.VCardEntryHandler;
+import com.android.vcard.VCardParser;
+import com.android.vcard.VCardParser_V21;
+import com.android.vcard.VCardParser_V30;
+import com.android.vcard.exception.VCardException;
+import com.android.vcard.exception.VCardVersionException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+
+/**
+ * Parser of the same bMessage format as {@link BmessageParser}, reading straight from the OBEX
+ * input stream instead of a String of the whole response.
+ *
+ * <p>vCards are collected line by line as bytes and handed to the vCard parser as is. The message
+ * content is copied as raw bytes, up to the end of message announced by LENGTH or to the END:MSG
+ * terminator when LENGTH is wrong, into a {@link BmessageBody}. Large MMS and email bodies spill
+ * to a temporary file there, so the download never holds the raw bytes next to the String they are
+ * decoded to once into the body of the {@link Bmessage}.
+ */
+class BmessageStreamParser {
+    private static final String TAG = BmessageStreamParser.class.getSimpleName();
+
+    /** length of BEGIN:MSG<CRLF> + <CRLF> + END:MSG<CRLF>, not part of the 'message' */
+    private static final int MSG_CONTAINER_LEN = 22;
+
+    /** <CRLF> + END:MSG<CRLF>, ending the 'message' */
+    private static final byte[] END_MSG = "\r\nEND:MSG\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int MAX_ENVELOPE_LEVEL = 3;
+
+    // Long enough to recognize a property, short enough not to log message content
+    private static final int MAX_LOGGED_LINE_LENGTH = 64;
+
+    private final Bmessage mBmsg = new Bmessage();
+    private final BmessageReader mReader;
+    private final ByteArrayOutputStream mVcard = new ByteArrayOutputStream();
+
+    private BmessageStreamParser(InputStream stream) {
+        mReader = new BmessageReader(stream);
+    }
+
+    static Bmessage createBmessage(InputStream stream) {
+        BmessageStreamParser p = new BmessageStreamParser(stream);
+        try {
+            p.parse();
+        } catch (IOException e) {
+            Log.e(TAG, "I/O exception when parsing bMessage", e);
+            return null;
+        } catch (ParseException e) {
+            Log.e(TAG, "Cannot parse bMessage", e);
+            return null;
+        }
+        return p.mBmsg;
+    }
+
+    private void parse() throws IOException, ParseException {
+        /*
+         * <bmessage-object>::= { "BEGIN:BMSG" <CRLF> <bmessage-property>
+         * [<bmessage-originator>]* <bmessage-envelope> "END:BMSG" <CRLF> }
+         */
+        expect("BEGIN:BMSG");
+        parseProperties();
+
+        while (mReader.lineEquals("BEGIN:VCARD")) {
+            mBmsg.mOriginators.add(parseVcard());
+            next();
+        }
+
+        if (!mReader.lineEquals("BEGIN:BENV")) {
+            throw expected("BEGIN:BENV");
+        }
+        parseEnvelope(1);
+
+        if (!mReader.lineEquals("END:BMSG")) {
+            throw expected("END:BMSG");
+        }
+        // Whatever follows END:BMSG isn't part of the bMessage
+    }
+
+    private void parseProperties() throws IOException, ParseException {
+        while (true) {
+            next();
+            if (mReader.lineEquals("BEGIN:VCARD") || mReader.lineEquals("BEGIN:BENV")) {
+                return;
+            }
+            String line = mReader.line();
+            String value = valueOf(line);
+            if (line.startsWith("VERSION:")) {
+                mBmsg.mBmsgVersion = value;
+            } else if (line.startsWith("STATUS:")) {
+                for (Bmessage.Status s : Bmessage.Status.values()) {
+                    if (value.equals(s.toString())) {
+                        mBmsg.mBmsgStatus = s;
+                        break;
+                    }
+                }
+            } else if (line.startsWith("TYPE:")) {
+                for (Bmessage.Type t : Bmessage.Type.values()) {
+                    if (value.equals(t.toString())) {
+                        mBmsg.mBmsgType = t;
+                        break;
+                    }
+                }
+            } else if (line.startsWith("FOLDER:")) {
+                mBmsg.mBmsgFolder = value;
+            }
+        }
+    }
+
+    private void parseEnvelope(int level) throws IOException, ParseException {
+        if (level > MAX_ENVELOPE_LEVEL) {
+            throw new ParseException("bEnvelope is nested more than 3 times", position());
+        }
+
+        /*
+         * <bmessage-envelope> ::= { "BEGIN:BENV" <CRLF> [<bmessage-recipient>]*
+         * <bmessage-envelope> | <bmessage-content> "END:BENV" <CRLF> }
+         */
+        next();
+        while (mReader.lineEquals("BEGIN:VCARD")) {
+            VCardEntry entry = parseVcard();
+            if (level == 1) {
+                mBmsg.mRecipients.add(entry);
+            }
+            next();
+        }
+
+        if (mReader.lineEquals("BEGIN:BENV")) {
+            parseEnvelope(level + 1);
+        } else if (mReader.lineEquals("BEGIN:BBODY")) {
+            parseBody();
+        } else {
+            throw expected("BEGIN:BENV", "BEGIN:BBODY");
+        }
+
+        if (!mReader.lineEquals("END:BENV")) {
+            throw expected("END:BENV");
+        }
+        next();
+    }
+
+    private void parseBody() throws IOException, ParseException {
+        while (true) {
+            next();
+            if (mReader.lineEquals("BEGIN:MSG")) {
+                break;
+            }
+            String line = mReader.line();
+            String value = valueOf(line);
+            if (line.startsWith("ENCODING:")) {
+                mBmsg.mBbodyEncoding = value;
+            } else if (line.startsWith("CHARSET:")) {
+                mBmsg.mBbodyCharset = value;
+            } else if (line.startsWith("LANGUAGE:")) {
+                mBmsg.mBbodyLanguage = value;
+            } else if (line.startsWith("LENGTH:")) {
+                try {
+                    mBmsg.mBbodyLength = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    throw new ParseException("Invalid LENGTH value", position());
+                }
+            }
+        }
+
+        boolean utf8 = "UTF-8".equals(mBmsg.mBbodyCharset);
+        if (!utf8) {
+            Log.i(TAG, "The charset was not set to charset UTF-8: " + mBmsg.mBbodyCharset);
+        }
+
+        /*
+         * <bmessage-body-content>::={ "BEGIN:MSG"<CRLF> 'message'<CRLF>
+         * "END:MSG"<CRLF> }
+         */
+        int messageLen = mBmsg.mBbodyLength - MSG_CONTAINER_LEN;
+        if (messageLen < 0) {
+            throw new ParseException("Invalid LENGTH value", position());
+        }
+        try (BmessageBody body = new BmessageBody()) {
+            if (mReader.readBody(messageLen, body) != messageLen) {
+                throw new ParseException("Invalid LENGTH value", position());
+            }
+            /*
+             * Some MSE count the LENGTH in characters instead of bytes. The stream can't be read
+             * again, so the rest of the message is copied as is up to the END:MSG terminator.
+             */
+            long extraLen = mReader.readUntil(END_MSG, body);
+            if (extraLen < 0) {
+                throw new ParseException("Expected: END:MSG", position());
+            }
+            if (extraLen > 0) {
+                Log.w(TAG, "byte LENGTH seems to be invalid, read " + extraLen + " more bytes");
+            }
+            Charset charset = utf8 ? StandardCharsets.UTF_8 : Charset.defaultCharset();
+            mBmsg.mMessage = body.toString(charset);
+        }
+
+        next();
+        if (!mReader.lineEquals("END:BBODY")) {
+            throw expected("END:BBODY");
+        }
+        next();
+    }
+
+    private VCardEntry parseVcard() throws IOException, ParseException {
+        /* <bmessage-originator>::= <vcard> <CRLF> */
+        mVcard.reset();
+        do {
+            mReader.writeLine(mVcard);
+            next();
+        } while (!mReader.lineEquals("END:VCARD"));
+        mReader.writeLine(mVcard);
+        byte[] vcard = mVcard.toByteArray();
+
+        VCardEntry entry = null;
+        try {
+            entry = parseVcard(new VCardParser_V21(), vcard);
+        } catch (VCardVersionException e1) {
+            try {
+                entry = parseVcard(new VCardParser_V30(), vcard);
+            } catch (VCardException e2) {
+                // will throw below
+            }
+        } catch (VCardException e1) {
+            // will throw below
+        }
+
+        if (entry == null) {
+            throw new ParseException(
+                    "Cannot parse vCard object (neither 2.1 nor 3.0?)", position());
+        }
+        return entry;
+    }
+
+    private static VCardEntry parseVcard(VCardParser parser, byte[] vcard)
+            throws IOException, VCardException {
+        VCardEntryConstructor constructor = new VCardEntryConstructor();
+        VcardHandler handler = new VcardHandler();
+        constructor.addEntryHandler(handler);
+        parser.addInterpreter(constructor);
+        parser.parse(new ByteArrayInputStream(vcard));
+        return handler.mVcard;
+    }
+
+    private void expect(String line) throws IOException, ParseException {
+        next();
+        if (!mReader.lineEquals(line)) {
+            throw expected(line);
+        }
+    }
+
+    private void next() throws IOException, ParseException {
+        if (!mReader.nextLine()) {
+            throw new ParseException("Unexpected end of bMessage", position());
+        }
+    }
+
+    private ParseException expected(String... lines) {
+        String line = mReader.line();
+        if (line.length() > MAX_LOGGED_LINE_LENGTH) {
+            line = line.substring(0, MAX_LOGGED_LINE_LENGTH) + "...";
+        }
+        return new ParseException(
+                "Expected: " + String.join(" or ", lines) + ", got: " + line, position());
+    }
+
+    private int position() {
+        return (int) Math.min(mReader.position(), Integer.MAX_VALUE);
+    }
+
+    /** Value of a property line, everything after the first ':'. */
+    private static String valueOf(String line) {
+        int colon = line.indexOf(':');
+        return colon != -1 ? line.substring(colon + 1) : "";
+    }
+
+    private static class VcardHandler implements VCardEntryHandler {
+        VCardEntry mVcard;
+
+        @Override
+        public void onStart() {}
+
+        @Override
+        public void onEntryCreated(VCardEntry entry) {
+            mVcard = entry;
+        }
+
+        @Override
+        public void onEnd() {}
+    }
+}
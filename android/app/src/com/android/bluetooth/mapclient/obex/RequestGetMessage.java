@@ -25,6 +25,7 @@ import android.bluetooth.client.map.utils.ObexAppParameters;
 import android.util.Log;
 
 import com.android.bluetooth.ObexAppParameters;
+import com.android.bluetooth.flags.Flags;
 import com.android.obex.ClientSession;
 import com.android.obex.HeaderSet;
 import com.android.obex.ResponseCodes;
@@ -62,6 +63,14 @@ class RequestGetMessage extends Request {
 
     @Override
     protected void readResponse(InputStream stream) {
+        if (Flags.mapclientStreamingBmessage()) {
+            // Parse while the response comes in, without a copy of the whole response
+            mBmessage = BmessageStreamParser.createBmessage(stream);
+            if (mBmessage == null) {
+                mResponseCode = ResponseCodes.OBEX_HTTP_INTERNAL_ERROR;
+            }
+            return;
+        }
 
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         byte[] buf = new byte[1024];
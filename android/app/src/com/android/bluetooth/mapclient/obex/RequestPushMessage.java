@@ -17,6 +17,7 @@
 package com.android.bluetooth.mapclient;
 
 import com.android.bluetooth.ObexAppParameters;
+import com.android.bluetooth.flags.Flags;
 import com.android.bluetooth.mapclient.MasClient.CharsetType;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.obex.ClientSession;
@@ -80,6 +81,11 @@ public class RequestPushMessage extends Request {
 
     @Override
     public void execute(ClientSession session) throws IOException {
+        if (Flags.mapclientStreamingBmessage()) {
+            // The OBEX length header needs the size up front, so the bMessage is encoded once
+            executePut(session, BmessageBuilder.createBmessageBytes(mMsg));
+            return;
+        }
         executePut(session, BmessageBuilder.createBmessage(mMsg).getBytes());
     }
 }
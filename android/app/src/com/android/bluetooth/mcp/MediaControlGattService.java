@@ -50,6 +50,7 @@ import com.android.bluetooth.a2dp.A2dpService;
 import com.android.bluetooth.btservice.AdapterService;
 import com.android.bluetooth.flags.Flags;
 import com.android.bluetooth.hearingaid.HearingAidService;
+import com.android.bluetooth.le_audio.GattNotificationFanout;
 import com.android.bluetooth.le_audio.LeAudioService;
 import com.android.internal.annotations.VisibleForTesting;
 
@@ -147,6 +148,7 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
     private BluetoothGattServerProxy mBluetoothGattServer;
     private BluetoothGattService mGattService = null;
     private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final GattNotificationFanout mNotificationFanout;
     private final Map<Integer, BluetoothGattCharacteristic> mCharacteristics = new HashMap<>();
     private MediaState mCurrentMediaState = MediaState.INACTIVE;
     private final Map<BluetoothDevice, List<GattOpContext>> mPendingGattOperations =
@@ -156,6 +158,9 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
     private AdapterService mAdapterService;
 
     private static final int LOG_NB_EVENTS = 200;
+
+    // The position moves all the time while seeking, clients only need a few updates per second
+    @VisibleForTesting static final long TRACK_POSITION_COALESCING_WINDOW_MS = 200;
     private final BluetoothEventLogger mEventLogger;
 
     private static String mcsUuidToString(UUID uuid) {
@@ -929,9 +934,16 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
                     Log.d(TAG, "BluetoothGattServerCallback: onConnectionStateChange");
                     if (newState == BluetoothProfile.STATE_DISCONNECTED) {
                         ClearUnauthorizedGattOperations(device);
+                        mNotificationFanout.onDisconnected(device);
                     }
                 }
 
+                @Override
+                public void onNotificationSent(BluetoothDevice device, int status) {
+                    super.onNotificationSent(device, status);
+                    mNotificationFanout.onNotificationSent(device, status);
+                }
+
                 @Override
                 public void onServiceAdded(int status, BluetoothGattService service) {
                     super.onServiceAdded(status, service);
@@ -1243,6 +1255,15 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
                     device, characteristic, confirm);
         }
 
+        public int notifyCharacteristicChanged(
+                BluetoothDevice device,
+                BluetoothGattCharacteristic characteristic,
+                boolean confirm,
+                byte[] value) {
+            return mBluetoothGattServer.notifyCharacteristicChanged(
+                    device, characteristic, confirm, value);
+        }
+
         public List<BluetoothDevice> getConnectedDevices() {
             return mBluetoothManager.getConnectedDevices(BluetoothProfile.GATT_SERVER);
         }
@@ -1271,6 +1292,38 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
         mEventLogger =
                 new BluetoothEventLogger(
                         LOG_NB_EVENTS, TAG + " instance (CCID= " + ccid + ") event log");
+
+        mNotificationFanout =
+                new GattNotificationFanout(
+                        (device, characteristic, value) ->
+                                mBluetoothGattServer.notifyCharacteristicChanged(
+                                        device, characteristic, false, value),
+                        device ->
+                                mBluetoothGattServer.isDeviceConnected(device)
+                                        && getDeviceAuthorization(device)
+                                                == BluetoothDevice.ACCESS_ALLOWED,
+                        Looper.getMainLooper());
+        // Control point results and track changes are events, they are all sent in order
+        for (UUID uuid :
+                List.of(
+                        UUID_PLAYER_NAME,
+                        UUID_TRACK_TITLE,
+                        UUID_TRACK_DURATION,
+                        UUID_PLAYBACK_SPEED,
+                        UUID_SEEKING_SPEED,
+                        UUID_CURRENT_TRACK_SEGMENT_OBJ_ID,
+                        UUID_CURRENT_TRACK_OBJ_ID,
+                        UUID_NEXT_TRACK_OBJ_ID,
+                        UUID_CURRENT_GROUP_OBJ_ID,
+                        UUID_PARENT_GROUP_OBJ_ID,
+                        UUID_PLAYING_ORDER,
+                        UUID_MEDIA_STATE,
+                        UUID_MEDIA_CONTROL_POINT_OPCODES_SUPPORTED,
+                        UUID_SEARCH_RESULT_OBJ_ID)) {
+            mNotificationFanout.setStateCharacteristic(uuid);
+        }
+        mNotificationFanout.setCoalescingWindow(
+                UUID_TRACK_POSITION, TRACK_POSITION_COALESCING_WINDOW_MS);
     }
 
     protected boolean init(UUID scvUuid) {
@@ -1479,6 +1532,10 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
 
         characteristicCcc.put(
                 charUuid, ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN).getShort());
+        mNotificationFanout.setSubscribed(
+                device,
+                charUuid,
+                Arrays.equals(value, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE));
 
         if (!store) {
             return;
@@ -1838,12 +1895,27 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
         if (!Arrays.equals(ccc, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE)) return;
 
         Log.d(TAG, "notifyCharacteristic: sending notification");
+        if (Flags.gattNotificationFanout()) {
+            // Queued behind the fan-out notifications, whose confirmations are shared
+            byte[] value = characteristic.getValue();
+            if (value != null) {
+                mNotificationFanout.notifyDevice(device, characteristic, value.clone());
+            }
+            return;
+        }
         mBluetoothGattServer.notifyCharacteristicChanged(device, characteristic, false);
     }
 
     private void notifyCharacteristic(
             @NonNull BluetoothGattCharacteristic characteristic,
             @Nullable BluetoothDevice originDevice) {
+        if (Flags.gattNotificationFanout()) {
+            byte[] value = characteristic.getValue();
+            if (value != null) {
+                mNotificationFanout.notifyChanged(characteristic, value.clone(), originDevice);
+            }
+            return;
+        }
         for (BluetoothDevice device : mBluetoothGattServer.getConnectedDevices()) {
             // Skip the origin device who changed the characteristic
             if (device.equals(originDevice)) {
@@ -2516,6 +2588,9 @@ public class MediaControlGattService implements MediaControlGattServiceInterface
             }
         }
 
+        sb.append("\n\t\t");
+        mNotificationFanout.dump(sb);
+
         sb.append("\n\n");
         mEventLogger.dump(sb);
     }
@@ -50,6 +50,7 @@ import com.android.bluetooth.BluetoothMetricsProto;
 import com.android.bluetooth.BluetoothStatsLog;
 import com.android.bluetooth.btservice.MetricsLogger;
 import com.android.bluetooth.content_profiles.ContentProfileErrorReportUtils;
+import com.android.bluetooth.flags.Flags;
 import com.android.obex.ClientOperation;
 import com.android.obex.ClientSession;
 import com.android.obex.HeaderSet;
@@ -400,6 +401,7 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
             ClientOperation putOperation = null;
             OutputStream outputStream = null;
             InputStream inputStream = null;
+            BluetoothOppTransferEngine engine = null;
             try {
                 synchronized (this) {
                     mWaitingForRemote = true;
@@ -481,7 +483,25 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                     long prevTimestamp = SystemClock.elapsedRealtime();
                     int outputBufferSize = putOperation.getMaxPacketSize();
                     byte[] buffer = new byte[outputBufferSize];
-                    BufferedInputStream a = new BufferedInputStream(fileInfo.mInputStream, 0x4000);
+                    InputStream a;
+                    if (Flags.oppChannelTransfer()) {
+                        // The file is read ahead and the progress saved off this thread
+                        engine =
+                                BluetoothOppTransferEngine.startReading(
+                                        fileInfo.mInputStream,
+                                        outputBufferSize,
+                                        fileInfo.mLength,
+                                        sent -> {
+                                            ContentValues values = new ContentValues();
+                                            values.put(BluetoothShare.CURRENT_BYTES, sent);
+                                            mContext1
+                                                    .getContentResolver()
+                                                    .update(contentUri, values, null, null);
+                                        });
+                        a = engine.getInputStream();
+                    } else {
+                        a = new BufferedInputStream(fileInfo.mInputStream, 0x4000);
+                    }
 
                     if (!mInterrupted && (position != fileInfo.mLength)) {
                         readLength = readFully(a, buffer, outputBufferSize);
@@ -545,6 +565,10 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                             okToProceed = false;
                         } else {
                             position += readLength;
+                            if (engine != null) {
+                                engine.onSent(position);
+                                continue;
+                            }
                             currentTime = SystemClock.elapsedRealtime();
                             Log.v(
                                     TAG,
@@ -641,6 +665,10 @@ public class BluetoothOppObexClientSession implements BluetoothOppObexSession {
                     Log.e(TAG, "Error when closing output stream after send");
                 }
 
+                if (engine != null) {
+                    engine.stop();
+                }
+
                 // Close InputStream and remove SendFileInfo from map
                 BluetoothOppUtility.closeSendFileInfo(mInfo.mUri);
                 try {
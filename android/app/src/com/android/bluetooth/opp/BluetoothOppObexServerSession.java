@@ -53,6 +53,7 @@ import com.android.bluetooth.BluetoothStatsLog;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.MetricsLogger;
 import com.android.bluetooth.content_profiles.ContentProfileErrorReportUtils;
+import com.android.bluetooth.flags.Flags;
 import com.android.obex.HeaderSet;
 import com.android.obex.ObexTransport;
 import com.android.obex.Operation;
@@ -526,6 +527,28 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
             long timestamp = 0;
             long currentTime;
             long prevTimestamp = SystemClock.elapsedRealtime();
+            BluetoothOppTransferEngine engine = null;
+            OutputStream out = os;
+            if (Flags.oppChannelTransfer()) {
+                // The file is written behind and the progress saved off this thread
+                engine =
+                        BluetoothOppTransferEngine.startWriting(
+                                os,
+                                outputBufferSize,
+                                fileInfo.mLength,
+                                written -> {
+                                    ContentValues values = new ContentValues();
+                                    values.put(BluetoothShare.CURRENT_BYTES, written);
+                                    BluetoothMethodProxy.getInstance()
+                                            .contentResolverUpdate(
+                                                    mContext.getContentResolver(),
+                                                    contentUri,
+                                                    values,
+                                                    null,
+                                                    null);
+                                });
+                out = engine.getOutputStream();
+            }
             try {
                 while ((!mInterrupted) && (position != fileInfo.mLength)) {
 
@@ -538,8 +561,11 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
                         break;
                     }
 
-                    os.write(b, 0, readLength);
+                    out.write(b, 0, readLength);
                     position += readLength;
+                    if (engine != null) {
+                        continue;
+                    }
                     percent = position * 100 / fileInfo.mLength;
                     currentTime = SystemClock.elapsedRealtime();
 
@@ -570,6 +596,9 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
                         prevTimestamp = currentTime;
                     }
                 }
+                if (engine != null) {
+                    engine.finish();
+                }
             } catch (IOException e1) {
                 ContentProfileErrorReportUtils.report(
                         BluetoothProfile.OPP,
@@ -585,13 +614,17 @@ public class BluetoothOppObexServerSession extends ServerRequestHandler
                 }
                 error = true;
             }
+            if (engine != null) {
+                engine.stop();
+            }
         }
 
         if (mInterrupted) {
             Log.d(TAG, "receiving file interrupted by user.");
             status = BluetoothShare.STATUS_CANCELED;
         } else {
-            if (position == fileInfo.mLength) {
+            // The data may all be received but not written, with the transfer engine
+            if (position == fileInfo.mLength && !error) {
                 Log.d(TAG, "Receiving file completed for " + fileInfo.mFileName);
                 status = BluetoothShare.STATUS_SUCCESS;
             } else {
@@ -51,6 +51,7 @@ import com.android.bluetooth.BluetoothMethodProxy;
 import com.android.bluetooth.BluetoothStatsLog;
 import com.android.bluetooth.R;
 import com.android.bluetooth.content_profiles.ContentProfileErrorReportUtils;
+import com.android.bluetooth.flags.Flags;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -257,6 +258,10 @@ public class BluetoothOppSendFileInfo {
                     // is closed.
                     is = fd.createInputStream();
 
+                    if (length == 0) {
+                        length = getFileSize(is);
+                    }
+
                     // If the database doesn't contain the file size, get the size
                     // by reading through the entire stream
                     if (length == 0) {
@@ -318,6 +323,10 @@ public class BluetoothOppSendFileInfo {
                                 BluetoothMethodProxy.getInstance()
                                         .contentResolverOpenInputStream(contentResolver, uri);
 
+                if (length == 0) {
+                    length = getFileSize(is);
+                }
+
                 // If the database doesn't contain the file size, get the size
                 // by reading through the entire stream
                 if (length == 0) {
@@ -373,6 +382,14 @@ public class BluetoothOppSendFileInfo {
                 && !Objects.equals(uriUserId, String.valueOf(myUserId()));
     }
 
+    /** Size of a regular file from its metadata, the stream doesn't need to be opened again. */
+    private static long getFileSize(FileInputStream is) {
+        if (!Flags.oppChannelTransfer() || is == null) {
+            return 0;
+        }
+        return Math.max(BluetoothOppTransferEngine.getRemainingSize(is), 0);
+    }
+
     private static long getStreamSize(FileInputStream is) throws IOException {
         long length = 0;
         byte[] unused = new byte[4096];
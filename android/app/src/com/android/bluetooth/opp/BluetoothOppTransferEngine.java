@@ -0,0 +1,422 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Moves the data of an OPP transfer between the file and the OBEX operation.
+ *
+ * <p>The file is read ahead, or written behind, on a thread of the engine with a pair of buffers,
+ * so the disk I/O of a buffer overlaps with the OBEX exchanges of the other one. Regular files are
+ * accessed through their {@link FileChannel}. The transfer progress is reported from the same
+ * thread, when the position moved by one percent of the file or once per {@link
+ * #PROGRESS_INTERVAL_MS}, so that provider updates don't delay the OBEX packets.
+ */
+class BluetoothOppTransferEngine {
+    private static final String TAG = "BtOppTransferEngine";
+
+    @VisibleForTesting static final int BUFFER_COUNT = 2;
+
+    // Disk I/O is done in larger blocks than the OBEX packets
+    @VisibleForTesting static final int MIN_BUFFER_SIZE = 64 * 1024;
+
+    @VisibleForTesting static final long PROGRESS_INTERVAL_MS = 500;
+
+    // Queued to wake up or stop the other side
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final BlockingQueue<ByteBuffer> mFree = new LinkedBlockingQueue<>();
+    private final BlockingQueue<ByteBuffer> mFilled = new LinkedBlockingQueue<>();
+    private final long mLength;
+    private final LongConsumer mProgressListener;
+    private final AtomicLong mPosition = new AtomicLong();
+    private final Thread mThread;
+    private final InputStream mInputStream;
+    private final OutputStream mOutputStream;
+
+    private volatile IOException mError;
+
+    // Only used by the engine thread, then by stop() once the thread is done
+    private long mReportedPosition;
+    private long mReportedTime;
+
+    // Only used by the thread of the OBEX operation
+    private ByteBuffer mCurrent;
+    private boolean mEnded;
+    private boolean mStopped;
+
+    /**
+     * Start reading a file ahead of the OBEX operation.
+     *
+     * @param source the file, not closed by the engine
+     * @param length the number of bytes to send, used for the progress
+     * @param progressListener called with the number of bytes sent, see {@link #onSent}
+     */
+    static BluetoothOppTransferEngine startReading(
+            InputStream source, int packetSize, long length, LongConsumer progressListener) {
+        BluetoothOppTransferEngine engine =
+                new BluetoothOppTransferEngine(
+                        openChannel(source), null, packetSize, length, progressListener);
+        engine.mThread.start();
+        return engine;
+    }
+
+    /**
+     * Start writing a file behind the OBEX operation.
+     *
+     * @param target the file, not closed by the engine
+     * @param length the number of bytes to receive, used for the progress
+     * @param progressListener called with the number of bytes written to the file
+     */
+    static BluetoothOppTransferEngine startWriting(
+            OutputStream target, int packetSize, long length, LongConsumer progressListener) {
+        BluetoothOppTransferEngine engine =
+                new BluetoothOppTransferEngine(
+                        null, openChannel(target), packetSize, length, progressListener);
+        engine.mThread.start();
+        return engine;
+    }
+
+    private BluetoothOppTransferEngine(
+            ReadableByteChannel source,
+            WritableByteChannel target,
+            int packetSize,
+            long length,
+            LongConsumer progressListener) {
+        mLength = length;
+        mProgressListener = progressListener;
+        mReportedTime = SystemClock.elapsedRealtime();
+        int bufferSize = Math.max(packetSize, MIN_BUFFER_SIZE);
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            mFree.add(ByteBuffer.allocate(bufferSize));
+        }
+        if (source != null) {
+            mThread = new Thread(() -> readLoop(source), TAG);
+            mInputStream = new ReadAheadInputStream();
+            mOutputStream = null;
+        } else {
+            mThread = new Thread(() -> writeLoop(target), TAG);
+            mInputStream = null;
+            mOutputStream = new WriteBehindOutputStream();
+        }
+    }
+
+    /** The data read ahead, for {@link #startReading} engines. */
+    InputStream getInputStream() {
+        return mInputStream;
+    }
+
+    /** The stream to write the received data to, for {@link #startWriting} engines. */
+    OutputStream getOutputStream() {
+        return mOutputStream;
+    }
+
+    /** Update the number of bytes sent, for {@link #startReading} engines. */
+    void onSent(long position) {
+        mPosition.set(position);
+    }
+
+    /**
+     * Write the data still queued and wait for it to be on the file, for {@link #startWriting}
+     * engines.
+     *
+     * @throws IOException if the file couldn't be written
+     */
+    void finish() throws IOException {
+        if (mCurrent != null && mCurrent.position() > 0) {
+            mFilled.add(mCurrent);
+            mCurrent = null;
+        }
+        stop();
+        if (mError != null) {
+            throw mError;
+        }
+    }
+
+    /** Stop the engine thread and report the last progress. */
+    void stop() {
+        if (mStopped) {
+            return;
+        }
+        mStopped = true;
+        mFree.add(END);
+        mFilled.add(END);
+        boolean interrupted = false;
+        while (mThread.isAlive()) {
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        reportProgress(true);
+    }
+
+    private void readLoop(ReadableByteChannel source) {
+        try {
+            boolean ended = false;
+            while (true) {
+                ByteBuffer buffer = poll(mFree);
+                if (buffer == END) {
+                    return;
+                }
+                // Keep reporting the progress of the buffers still sent after the end of file
+                if (buffer == null || ended) {
+                    continue;
+                }
+                buffer.clear();
+                while (buffer.hasRemaining()) {
+                    if (source.read(buffer) < 0) {
+                        ended = true;
+                        break;
+                    }
+                }
+                buffer.flip();
+                mFilled.add(buffer);
+                if (ended) {
+                    mFilled.add(END);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error when reading file: " + e);
+            mError = e;
+            mFilled.add(END);
+        } catch (InterruptedException e) {
+            mFilled.add(END);
+        }
+    }
+
+    private void writeLoop(WritableByteChannel target) {
+        try {
+            while (true) {
+                ByteBuffer buffer = poll(mFilled);
+                if (buffer == END) {
+                    return;
+                }
+                if (buffer == null) {
+                    continue;
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    mPosition.addAndGet(target.write(buffer));
+                }
+                buffer.clear();
+                mFree.add(buffer);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error when writing file: " + e);
+            mError = e;
+            mFree.add(END);
+        } catch (InterruptedException e) {
+            mFree.add(END);
+        }
+    }
+
+    // Waits for the next buffer, reporting the progress at least once per interval
+    private ByteBuffer poll(BlockingQueue<ByteBuffer> queue) throws InterruptedException {
+        reportProgress(false);
+        ByteBuffer buffer = queue.poll(PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        reportProgress(false);
+        return buffer;
+    }
+
+    private void reportProgress(boolean force) {
+        long position = mPosition.get();
+        if (position == mReportedPosition) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (force
+                || (position - mReportedPosition) * 100 >= mLength
+                || now - mReportedTime >= PROGRESS_INTERVAL_MS) {
+            mProgressListener.accept(position);
+            mReportedPosition = position;
+            mReportedTime = now;
+        }
+    }
+
+    private ByteBuffer take(BlockingQueue<ByteBuffer> queue) throws IOException {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Transfer interrupted");
+        }
+    }
+
+    private class ReadAheadInputStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+        }
+
+        // Fills the whole range unless the file ends, so that OBEX packets are full
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int done = 0;
+            while (done < len) {
+                if (mCurrent != null && !mCurrent.hasRemaining()) {
+                    mFree.add(mCurrent);
+                    mCurrent = null;
+                }
+                if (mCurrent == null) {
+                    if (mEnded) {
+                        break;
+                    }
+                    ByteBuffer buffer = take(mFilled);
+                    if (buffer == END) {
+                        mEnded = true;
+                        if (mError != null) {
+                            throw mError;
+                        }
+                        break;
+                    }
+                    mCurrent = buffer;
+                }
+                int count = Math.min(len - done, mCurrent.remaining());
+                mCurrent.get(b, off + done, count);
+                done += count;
+            }
+            return done == 0 && len > 0 ? -1 : done;
+        }
+    }
+
+    private class WriteBehindOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (mCurrent == null) {
+                    ByteBuffer buffer = take(mFree);
+                    if (buffer == END) {
+                        throw mError != null ? mError : new IOException("Transfer stopped");
+                    }
+                    mCurrent = buffer;
+                }
+                int count = Math.min(len, mCurrent.remaining());
+                mCurrent.put(b, off, count);
+                off += count;
+                len -= count;
+                if (!mCurrent.hasRemaining()) {
+                    mFilled.add(mCurrent);
+                    mCurrent = null;
+                }
+            }
+        }
+    }
+
+    private static ReadableByteChannel openChannel(InputStream stream) {
+        // Streams of assets may only give access to a part of the file, keep using them
+        if (stream.getClass() == FileInputStream.class
+                || stream.getClass() == ParcelFileDescriptor.AutoCloseInputStream.class) {
+            FileInputStream fileStream = (FileInputStream) stream;
+            if (isRegularFile(fileStream)) {
+                return fileStream.getChannel();
+            }
+        }
+        return Channels.newChannel(stream);
+    }
+
+    private static WritableByteChannel openChannel(OutputStream stream) {
+        if (stream.getClass() == FileOutputStream.class
+                || stream.getClass() == ParcelFileDescriptor.AutoCloseOutputStream.class) {
+            FileOutputStream fileStream = (FileOutputStream) stream;
+            try {
+                if (isRegularFile(fileStream.getFD())) {
+                    return fileStream.getChannel();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "No file descriptor: " + e);
+            }
+        }
+        return Channels.newChannel(stream);
+    }
+
+    /**
+     * Get the number of bytes left in a file from its metadata, without reading it.
+     *
+     * @return the size, or -1 if the stream isn't a regular file
+     */
+    static long getRemainingSize(FileInputStream stream) {
+        if (stream.getClass() != FileInputStream.class
+                && stream.getClass() != ParcelFileDescriptor.AutoCloseInputStream.class) {
+            return -1;
+        }
+        if (!isRegularFile(stream)) {
+            return -1;
+        }
+        try {
+            FileChannel channel = stream.getChannel();
+            return channel.size() - channel.position();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to get the file size: " + e);
+            return -1;
+        }
+    }
+
+    private static boolean isRegularFile(FileInputStream stream) {
+        try {
+            return isRegularFile(stream.getFD());
+        } catch (IOException e) {
+            Log.w(TAG, "No file descriptor: " + e);
+            return false;
+        }
+    }
+
+    private static boolean isRegularFile(FileDescriptor fd) {
+        try {
+            return OsConstants.S_ISREG(Os.fstat(fd).st_mode);
+        } catch (ErrnoException e) {
+            Log.w(TAG, "Unable to stat the file: " + e);
+            return false;
+        }
+    }
+}
@@ -37,6 +37,8 @@ import android.util.Log;
 import com.android.bluetooth.BluetoothEventLogger;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.flags.Flags;
+import com.android.bluetooth.le_audio.GattNotificationFanout;
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
@@ -135,9 +137,13 @@ public class TbsGatt {
     private Callback mCallback;
     private AdapterService mAdapterService;
     private HashMap<BluetoothDevice, HashMap<UUID, Short>> mCccDescriptorValues;
+    private GattNotificationFanout mNotificationFanout;
     private TbsService mTbsService;
 
     private static final int LOG_NB_EVENTS = 200;
+
+    // The call state holds all the calls, only its latest value matters to clients
+    @VisibleForTesting static final long CALL_STATE_COALESCING_WINDOW_MS = 50;
     private BluetoothEventLogger mEventLogger = null;
 
     private static String tbsUuidToString(UUID uuid) {
@@ -353,6 +359,26 @@ public class TbsGatt {
             mBluetoothGattServer = new BluetoothGattServerProxy(mContext);
         }
 
+        mNotificationFanout =
+                new GattNotificationFanout(
+                        (device, characteristic, value) ->
+                                mBluetoothGattServer.notifyCharacteristicChanged(
+                                        device, characteristic, false, value),
+                        device -> getDeviceAuthorization(device) == BluetoothDevice.ACCESS_ALLOWED,
+                        Looper.getMainLooper());
+        // Control point results, incoming calls and terminations are events, they are all sent
+        // in order
+        for (UUID uuid :
+                List.of(
+                        UUID_BEARER_PROVIDER_NAME,
+                        UUID_BEARER_TECHNOLOGY,
+                        UUID_BEARER_URI_SCHEMES_SUPPORTED_LIST,
+                        UUID_BEARER_LIST_CURRENT_CALLS,
+                        UUID_STATUS_FLAGS)) {
+            mNotificationFanout.setStateCharacteristic(uuid);
+        }
+        mNotificationFanout.setCoalescingWindow(UUID_CALL_STATE, CALL_STATE_COALESCING_WINDOW_MS);
+
         if (!mBluetoothGattServer.open(mGattServerCallback)) {
             Log.e(TAG, " Could not open Gatt server");
             return false;
@@ -456,6 +482,10 @@ public class TbsGatt {
 
         characteristicCcc.put(
                 charUuid, ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN).getShort());
+        mNotificationFanout.setSubscribed(
+                device,
+                charUuid,
+                Arrays.equals(value, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE));
 
         Log.d(
                 TAG,
@@ -503,6 +533,11 @@ public class TbsGatt {
                 BluetoothDevice device, BluetoothGattCharacteristic characteristic, byte[] value) {
             if (getDeviceAuthorization(device) != BluetoothDevice.ACCESS_ALLOWED) return;
             if (value == null) return;
+            if (Flags.gattNotificationFanout()) {
+                // Queued behind the fan-out notifications, whose confirmations are shared
+                mNotificationFanout.notifyDevice(device, characteristic, value.clone());
+                return;
+            }
             if (mBluetoothGattServer != null) {
                 mBluetoothGattServer.notifyCharacteristicChanged(
                         device, characteristic, false, value);
@@ -513,6 +548,10 @@ public class TbsGatt {
                 BluetoothDevice device, BluetoothGattCharacteristic characteristic) {
             if (getDeviceAuthorization(device) != BluetoothDevice.ACCESS_ALLOWED) return;
 
+            if (Flags.gattNotificationFanout()) {
+                notifyCharacteristicChanged(device, characteristic, characteristic.getValue());
+                return;
+            }
             if (mBluetoothGattServer != null) {
                 mBluetoothGattServer.notifyCharacteristicChanged(device, characteristic, false);
             }
@@ -532,6 +571,13 @@ public class TbsGatt {
         }
 
         public void notifyAll(BluetoothGattCharacteristic characteristic) {
+            if (Flags.gattNotificationFanout()) {
+                byte[] value = characteristic.getValue();
+                if (value != null) {
+                    mNotificationFanout.notifyChanged(characteristic, value.clone(), null);
+                }
+                return;
+            }
             for (BluetoothDevice device : mCccDescriptorValues.keySet()) {
                 notify(device, characteristic);
             }
@@ -1503,9 +1549,16 @@ public class TbsGatt {
                     Log.d(TAG, "BluetoothGattServerCallback: onConnectionStateChange");
                     if (newState == BluetoothProfile.STATE_DISCONNECTED) {
                         clearUnauthorizedGattOperationss(device);
+                        mNotificationFanout.onDisconnected(device);
                     }
                 }
 
+                @Override
+                public void onNotificationSent(BluetoothDevice device, int status) {
+                    super.onNotificationSent(device, status);
+                    mNotificationFanout.onNotificationSent(device, status);
+                }
+
                 @Override
                 public void onServiceAdded(int status, BluetoothGattService service) {
                     Log.d(TAG, "onServiceAdded: status=" + status);
@@ -1723,6 +1776,11 @@ public class TbsGatt {
             }
         }
 
+        if (mNotificationFanout != null) {
+            sb.append("\n\t");
+            mNotificationFanout.dump(sb);
+        }
+
         if (mEventLogger != null) {
             sb.append("\n\n");
             mEventLogger.dump(sb);
@@ -55,6 +55,7 @@ import android.util.Log;
 import androidx.annotation.VisibleForTesting;
 
 import com.android.bluetooth.Utils;
+import com.android.bluetooth.flags.Flags;
 import com.android.bluetooth.hfp.BluetoothHeadsetProxy;
 import com.android.bluetooth.tbs.BluetoothLeCallControlProxy;
 
@@ -74,6 +75,7 @@ import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Used to receive updates about calls from the Telecom component. This service is bound to Telecom
@@ -149,6 +151,15 @@ public class BluetoothInCallService extends InCallService {
 
     private int mMaxNumberOfCalls = 0;
 
+    // Bumped by every call event, from the Telecom thread
+    private final AtomicInteger mCallsGeneration = new AtomicInteger();
+
+    // CLCC responses sent by the last sendListOfCalls, valid while mCallsGeneration is unchanged
+    private final List<ClccResponse> mClccResponses = new ArrayList<>();
+    private int mClccResponsesGeneration = -1;
+    private long mClccCacheHits = 0;
+    private long mClccCacheMisses = 0;
+
     private BluetoothAdapter mAdapter = null;
 
     private final BluetoothProfile.ServiceListener mProfileListener =
@@ -228,6 +239,7 @@ public class BluetoothInCallService extends InCallService {
 
         @RequiresPermission(allOf = {BLUETOOTH_CONNECT, MODIFY_PHONE_STATE})
         void onStateChanged(BluetoothCall call, int state) {
+            onCallsChanged();
             if (mCallInfo.isNullCall(call)) {
                 return;
             }
@@ -281,6 +293,7 @@ public class BluetoothInCallService extends InCallService {
 
         @RequiresPermission(allOf = {BLUETOOTH_CONNECT, MODIFY_PHONE_STATE})
         void onDetailsChanged(BluetoothCall call, Call.Details details) {
+            onCallsChanged();
             if (mCallInfo.isNullCall(call)) {
                 return;
             }
@@ -300,6 +313,7 @@ public class BluetoothInCallService extends InCallService {
 
         @RequiresPermission(allOf = {BLUETOOTH_CONNECT, MODIFY_PHONE_STATE})
         void onParentChanged(BluetoothCall call) {
+            onCallsChanged();
             if (mCallInfo.isNullCall(call) || call.isExternalCall()) {
                 Log.w(TAG, "null call or external call");
                 return;
@@ -324,6 +338,7 @@ public class BluetoothInCallService extends InCallService {
 
         @RequiresPermission(allOf = {BLUETOOTH_CONNECT, MODIFY_PHONE_STATE})
         void onChildrenChanged(BluetoothCall call, List<BluetoothCall> children) {
+            onCallsChanged();
             if (mCallInfo.isNullCall(call) || call.isExternalCall()) {
                 Log.w(TAG, "null call or external call");
                 return;
@@ -621,6 +636,7 @@ public class BluetoothInCallService extends InCallService {
 
     @RequiresPermission(allOf = {BLUETOOTH_CONNECT, MODIFY_PHONE_STATE})
     public void onCallAdded(BluetoothCall call) {
+        onCallsChanged();
         if (call.isExternalCall()) {
             Log.d(TAG, "onCallAdded: external call");
             return;
@@ -692,6 +708,7 @@ public class BluetoothInCallService extends InCallService {
     @RequiresPermission(allOf = {BLUETOOTH_CONNECT, MODIFY_PHONE_STATE})
     public void onCallRemoved(BluetoothCall call, boolean forceRemoveCallback) {
         Log.i(TAG, "onCallRemoved, forceRemoveCallback=" + forceRemoveCallback);
+        onCallsChanged();
         CallStateCallback callback = getCallback(call);
         if (callback != null && (forceRemoveCallback || !call.isExternalCall())) {
             call.unregisterCallback(callback);
@@ -799,6 +816,7 @@ public class BluetoothInCallService extends InCallService {
         mBluetoothConferenceCallInference.clear();
         mBluetoothCallQueue.clear();
         mMaxNumberOfCalls = 0;
+        onCallsChanged();
     }
 
     private static boolean isConferenceWithNoChildren(BluetoothCall call) {
@@ -809,6 +827,18 @@ public class BluetoothInCallService extends InCallService {
 
     @RequiresPermission(allOf = {BLUETOOTH_CONNECT, MODIFY_PHONE_STATE})
     private void sendListOfCalls(boolean shouldLog) {
+        int generation = mCallsGeneration.get();
+        if (Flags.hfpClccResponseCache()) {
+            if (generation == mClccResponsesGeneration) {
+                mClccCacheHits++;
+                sendCachedListOfCalls(shouldLog);
+                return;
+            }
+            mClccCacheMisses++;
+            mClccResponses.clear();
+            mClccResponsesGeneration = -1;
+        }
+
         Collection<BluetoothCall> calls = mCallInfo.getBluetoothCalls();
 
         // either do conference call CLCC index inference or normal conference call
@@ -912,8 +942,16 @@ public class BluetoothInCallService extends InCallService {
                         (boolean) response[4],
                         (String) response[5],
                         (int) response[6]);
+                cacheClccResponse(
+                        (int) response[0],
+                        (int) response[1],
+                        (int) response[2],
+                        (boolean) response[4],
+                        (String) response[5],
+                        (int) response[6]);
             }
             sendClccEndMarker();
+            setClccResponsesGeneration(generation);
             return;
         }
 
@@ -933,6 +971,71 @@ public class BluetoothInCallService extends InCallService {
             }
         }
         sendClccEndMarker();
+        setClccResponsesGeneration(generation);
+    }
+
+    /**
+     * Called on every call event. The CLCC responses are only built again on the next AT+CLCC
+     * after a change, HF devices poll much more often than calls change.
+     */
+    private void onCallsChanged() {
+        mCallsGeneration.incrementAndGet();
+    }
+
+    private void cacheClccResponse(
+            int index,
+            int direction,
+            int state,
+            boolean isPartOfConference,
+            String address,
+            int addressType) {
+        if (Flags.hfpClccResponseCache()) {
+            mClccResponses.add(
+                    new ClccResponse(
+                            index, direction, state, isPartOfConference, address, addressType));
+        }
+    }
+
+    private void setClccResponsesGeneration(int generation) {
+        if (Flags.hfpClccResponseCache()) {
+            mClccResponsesGeneration = generation;
+        }
+    }
+
+    @RequiresPermission(allOf = {BLUETOOTH_CONNECT, MODIFY_PHONE_STATE})
+    private void sendCachedListOfCalls(boolean shouldLog) {
+        if (shouldLog) {
+            Log.i(TAG, "sending " + mClccResponses.size() + " cached clcc");
+        }
+        if (mBluetoothHeadset != null) {
+            for (ClccResponse response : mClccResponses) {
+                mBluetoothHeadset.clccResponse(
+                        response.mIndex,
+                        response.mDirection,
+                        response.mState,
+                        0,
+                        response.mIsPartOfConference,
+                        response.mAddress,
+                        response.mAddressType);
+            }
+        }
+        sendClccEndMarker();
+    }
+
+    /** Number of AT+CLCC answered with the cached responses. */
+    @VisibleForTesting
+    long getClccCacheHits() {
+        synchronized (LOCK) {
+            return mClccCacheHits;
+        }
+    }
+
+    /** Number of AT+CLCC for which the responses had to be built. */
+    @VisibleForTesting
+    long getClccCacheMisses() {
+        synchronized (LOCK) {
+            return mClccCacheMisses;
+        }
     }
 
     @RequiresPermission(allOf = {BLUETOOTH_CONNECT, MODIFY_PHONE_STATE})
@@ -1055,6 +1158,7 @@ public class BluetoothInCallService extends InCallService {
             mBluetoothHeadset.clccResponse(
                     index, direction, state, 0, isPartOfConference, address, addressType);
         }
+        cacheClccResponse(index, direction, state, isPartOfConference, address, addressType);
     }
 
     int getNextAvailableClccIndex(int index) {
@@ -1200,6 +1304,9 @@ public class BluetoothInCallService extends InCallService {
      */
     @RequiresPermission(allOf = {BLUETOOTH_CONNECT, MODIFY_PHONE_STATE})
     private void updateHeadsetWithCallState(boolean force) {
+        if (force) {
+            onCallsChanged();
+        }
         BluetoothCall activeCall = mCallInfo.getActiveCall();
         BluetoothCall ringingCall = mCallInfo.getRingingOrSimulatedRingingCall();
         BluetoothCall heldCall = mCallInfo.getHeldCall();
@@ -1432,6 +1539,31 @@ public class BluetoothInCallService extends InCallService {
         return calls;
     }
 
+    /** A +CLCC response, as sent for a call by {@link #sendListOfCalls}. */
+    private static final class ClccResponse {
+        final int mIndex;
+        final int mDirection;
+        final int mState;
+        final boolean mIsPartOfConference;
+        final String mAddress;
+        final int mAddressType;
+
+        ClccResponse(
+                int index,
+                int direction,
+                int state,
+                boolean isPartOfConference,
+                String address,
+                int addressType) {
+            mIndex = index;
+            mDirection = direction;
+            mState = state;
+            mIsPartOfConference = isPartOfConference;
+            mAddress = address;
+            mAddressType = addressType;
+        }
+    }
+
     // extract call information functions out into this part, so we can mock it in testing
     @VisibleForTesting
     public class CallInfo {
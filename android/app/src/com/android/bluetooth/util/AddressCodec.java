@@ -0,0 +1,229 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.util;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Conversions between the representations of a Bluetooth address: the 6 byte array used by the
+ * native stack, the "00:11:22:AA:BB:CC" String used by the framework, and a long holding the 48
+ * bits of the address.
+ *
+ * <p>Encoding and decoding are table driven. The canonical String of recently seen addresses is
+ * interned in a small direct mapped cache, so that the native callbacks and scan results that
+ * repeatedly report the same devices don't encode it again. {@link BluetoothDevice} instances are
+ * never shared: they carry the attribution source of their holder, so each caller gets its own.
+ */
+public final class AddressCodec {
+    /** Value that no valid address maps to, addresses only use the lower 48 bits. */
+    public static final long INVALID = -1L;
+
+    private static final int ADDRESS_LENGTH = 6;
+    private static final int STRING_LENGTH = 3 * ADDRESS_LENGTH - 1;
+
+    // Must be a power of two
+    private static final int CACHE_SIZE = 1024;
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    // ASCII character -> hex value, -1 for non hex characters
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    static {
+        for (int i = 0; i < HEX_VALUES.length; i++) {
+            HEX_VALUES[i] = (byte) Character.digit((char) i, 16);
+        }
+    }
+
+    private static final AtomicReferenceArray<StringEntry> sStrings =
+            new AtomicReferenceArray<>(CACHE_SIZE);
+
+    private AddressCodec() {}
+
+    /** Pack an address into a long, {@link #INVALID} if the address is malformed. */
+    public static long toLong(byte[] address) {
+        if (address == null || address.length != ADDRESS_LENGTH) {
+            return INVALID;
+        }
+        long value = 0;
+        for (int i = 0; i < ADDRESS_LENGTH; i++) {
+            value = (value << 8) | (address[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Pack an address of the form "00:11:22:AA:BB:CC", in either case, into a long.
+     *
+     * @return the packed address, or {@link #INVALID} if the address is malformed
+     */
+    public static long toLong(String address) {
+        if (address == null || address.length() != STRING_LENGTH) {
+            return INVALID;
+        }
+        long value = 0;
+        for (int i = 0; i < STRING_LENGTH; i += 3) {
+            int high = hexValue(address.charAt(i));
+            int low = hexValue(address.charAt(i + 1));
+            if ((high | low) < 0 || (i + 2 < STRING_LENGTH && address.charAt(i + 2) != ':')) {
+                return INVALID;
+            }
+            value = (value << 8) | (high << 4) | low;
+        }
+        return value;
+    }
+
+    /** Unpack an address into its 6 byte form. */
+    public static byte[] toBytes(long address) {
+        byte[] bytes = new byte[ADDRESS_LENGTH];
+        for (int i = ADDRESS_LENGTH - 1; i >= 0; i--) {
+            bytes[i] = (byte) address;
+            address >>>= 8;
+        }
+        return bytes;
+    }
+
+    /**
+     * Decode an address of the form "00:11:22:AA:BB:CC", in either case.
+     *
+     * @return the 6 byte address, or null if the address is malformed
+     */
+    public static byte[] toBytes(String address) {
+        long value = toLong(address);
+        return value == INVALID ? null : toBytes(value);
+    }
+
+    /**
+     * Get the canonical, upper case, String form of an address. Recently used addresses return the
+     * same interned instance.
+     */
+    public static String toString(long address) {
+        if (address == INVALID) {
+            return null;
+        }
+        int index = index(address);
+        StringEntry entry = sStrings.get(index);
+        if (entry != null && entry.mAddress == address) {
+            return entry.mString;
+        }
+        String string = encode(address);
+        sStrings.set(index, new StringEntry(address, string));
+        return string;
+    }
+
+    /** Same as {@link #toString(long)} for a 6 byte address, null if the address is malformed. */
+    public static String toString(byte[] address) {
+        return toString(toLong(address));
+    }
+
+    /** Get the canonical, upper case, form of an address, null if the address is malformed. */
+    public static String canonicalize(String address) {
+        return toString(toLong(address));
+    }
+
+    /**
+     * Get the {@link BluetoothDevice} for an address, as returned by {@link
+     * BluetoothAdapter#getRemoteDevice(String)}. A new instance is returned on every call.
+     *
+     * @throws IllegalArgumentException if the address is malformed
+     */
+    public static BluetoothDevice getDevice(long address) {
+        long value = checkValid(address, address);
+        return newDevice(value, BluetoothDevice.ADDRESS_TYPE_PUBLIC, false);
+    }
+
+    /** Same as {@link #getDevice(long)} for a 6 byte address. */
+    public static BluetoothDevice getDevice(byte[] address) {
+        long value = checkValid(toLong(address), "address");
+        return newDevice(value, BluetoothDevice.ADDRESS_TYPE_PUBLIC, false);
+    }
+
+    /** Same as {@link #getDevice(long)} for a String address, in either case. */
+    public static BluetoothDevice getDevice(String address) {
+        long value = checkValid(toLong(address), address);
+        return newDevice(value, BluetoothDevice.ADDRESS_TYPE_PUBLIC, false);
+    }
+
+    /**
+     * Get the {@link BluetoothDevice} for an LE address, as returned by {@link
+     * BluetoothAdapter#getRemoteLeDevice}. A new instance is returned on every call.
+     *
+     * @throws IllegalArgumentException if the address is malformed
+     */
+    public static BluetoothDevice getLeDevice(String address, int addressType) {
+        return newDevice(checkValid(toLong(address), address), addressType, true);
+    }
+
+    /** Drop every interned String. Called when the adapter service is cleaned up. */
+    public static void clearCaches() {
+        for (int i = 0; i < CACHE_SIZE; i++) {
+            sStrings.set(i, null);
+        }
+    }
+
+    private static BluetoothDevice newDevice(long address, int addressType, boolean le) {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        String string = toString(address);
+        return le
+                ? adapter.getRemoteLeDevice(string, addressType)
+                : adapter.getRemoteDevice(string);
+    }
+
+    private static long checkValid(long value, Object address) {
+        if (value == INVALID || (value >>> 48) != 0) {
+            throw new IllegalArgumentException(address + " is not a valid Bluetooth address");
+        }
+        return value;
+    }
+
+    private static String encode(long address) {
+        char[] chars = new char[STRING_LENGTH];
+        for (int i = ADDRESS_LENGTH - 1; i >= 0; i--) {
+            int octet = (int) (address & 0xFF);
+            chars[3 * i] = HEX_DIGITS[octet >>> 4];
+            chars[3 * i + 1] = HEX_DIGITS[octet & 0xF];
+            if (i < ADDRESS_LENGTH - 1) {
+                chars[3 * i + 2] = ':';
+            }
+            address >>>= 8;
+        }
+        return new String(chars);
+    }
+
+    private static int hexValue(char c) {
+        return c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+    }
+
+    private static int index(long address) {
+        // Fold the device specific lower bits with the vendor prefix
+        return (int) (address ^ (address >>> 24) ^ (address >>> 36)) & (CACHE_SIZE - 1);
+    }
+
+    // Entries are immutable so a racing reader never sees a torn key and value pair
+    private static final class StringEntry {
+        final long mAddress;
+        final String mString;
+
+        StringEntry(long address, String string) {
+            mAddress = address;
+            mString = string;
+        }
+    }
+}
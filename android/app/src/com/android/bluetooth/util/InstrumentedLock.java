@@ -0,0 +1,154 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.util;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * {@link Lock} wrapper counting how often the lock is acquired, how often the caller had to wait
+ * for it, and for how long. Meant to be dumped to find contended locks.
+ *
+ * <p>Every acquisition first tries the delegate without waiting, and is counted as contended only
+ * when that fails. The attempt uses {@link Lock#tryLock(long, TimeUnit)} with no timeout, which
+ * unlike {@link Lock#tryLock()} honors a fair delegate, so the wrapper doesn't change the fairness
+ * of the lock.
+ */
+public final class InstrumentedLock implements Lock {
+    private final Lock mDelegate;
+
+    private final AtomicLong mAcquisitions = new AtomicLong();
+    private final AtomicLong mContentions = new AtomicLong();
+    private final AtomicLong mTotalWaitNanos = new AtomicLong();
+    private final AtomicLong mMaxWaitNanos = new AtomicLong();
+
+    public InstrumentedLock(Lock delegate) {
+        mDelegate = delegate;
+    }
+
+    @Override
+    public void lock() {
+        boolean acquired;
+        try {
+            acquired = tryAcquireUncontended();
+        } catch (InterruptedException e) {
+            // lock() isn't interruptible: keep the interrupt for the caller and wait below
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (acquired) {
+            return;
+        }
+        long start = SystemClock.elapsedRealtimeNanos();
+        mDelegate.lock();
+        onContendedAcquired(start);
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        if (tryAcquireUncontended()) {
+            return;
+        }
+        long start = SystemClock.elapsedRealtimeNanos();
+        mDelegate.lockInterruptibly();
+        onContendedAcquired(start);
+    }
+
+    @Override
+    public boolean tryLock() {
+        if (mDelegate.tryLock()) {
+            mAcquisitions.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        if (tryAcquireUncontended()) {
+            return true;
+        }
+        long start = SystemClock.elapsedRealtimeNanos();
+        if (mDelegate.tryLock(time, unit)) {
+            onContendedAcquired(start);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void unlock() {
+        mDelegate.unlock();
+    }
+
+    @Override
+    public Condition newCondition() {
+        return mDelegate.newCondition();
+    }
+
+    /** Number of times the lock was acquired. */
+    public long getAcquisitions() {
+        return mAcquisitions.get();
+    }
+
+    /** Number of times acquiring the lock had to wait for another thread. */
+    public long getContentions() {
+        return mContentions.get();
+    }
+
+    /** Total time spent waiting for the lock, in nanoseconds. */
+    public long getTotalWaitNanos() {
+        return mTotalWaitNanos.get();
+    }
+
+    /** Longest time spent waiting for the lock, in nanoseconds. */
+    public long getMaxWaitNanos() {
+        return mMaxWaitNanos.get();
+    }
+
+    private boolean tryAcquireUncontended() throws InterruptedException {
+        if (!mDelegate.tryLock(0, TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+        mAcquisitions.incrementAndGet();
+        return true;
+    }
+
+    private void onContendedAcquired(long startNanos) {
+        long wait = SystemClock.elapsedRealtimeNanos() - startNanos;
+        mAcquisitions.incrementAndGet();
+        mContentions.incrementAndGet();
+        mTotalWaitNanos.addAndGet(wait);
+        mMaxWaitNanos.accumulateAndGet(wait, Math::max);
+    }
+
+    @Override
+    public String toString() {
+        return "acquisitions="
+                + getAcquisitions()
+                + " contentions="
+                + getContentions()
+                + " totalWaitUs="
+                + TimeUnit.NANOSECONDS.toMicros(getTotalWaitNanos())
+                + " maxWaitUs="
+                + TimeUnit.NANOSECONDS.toMicros(getMaxWaitNanos());
+    }
+}
@@ -17,29 +17,23 @@
 
 package com.android.bluetooth.vc;
 
-import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.util.Log;
 
 import com.android.bluetooth.Utils;
+import com.android.bluetooth.util.AddressCodec;
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
 public class VolumeControlNativeInterface {
     private static final String TAG = "VolumeControlNativeInterface";
-    private BluetoothAdapter mAdapter;
 
     @GuardedBy("INSTANCE_LOCK")
     private static VolumeControlNativeInterface sInstance;
 
     private static final Object INSTANCE_LOCK = new Object();
 
-    private VolumeControlNativeInterface() {
-        mAdapter = BluetoothAdapter.getDefaultAdapter();
-        if (mAdapter == null) {
-            Log.wtf(TAG, "No Bluetooth Adapter Available");
-        }
-    }
+    private VolumeControlNativeInterface() {}
 
     /** Get singleton instance. */
     public static VolumeControlNativeInterface getInstance() {
@@ -335,7 +329,7 @@ public class VolumeControlNativeInterface {
     }
 
     private BluetoothDevice getDevice(byte[] address) {
-        return mAdapter.getRemoteDevice(address);
+        return AddressCodec.getDevice(address);
     }
 
     private byte[] getByteAddress(BluetoothDevice device) {
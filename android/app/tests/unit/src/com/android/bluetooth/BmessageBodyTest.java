@@ -0,0 +1,87 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BmessageBodyTest {
+    private static final int THRESHOLD = 16;
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() {
+        mDirectory = InstrumentationRegistry.getTargetContext().getCacheDir();
+    }
+
+    @Test
+    public void write_underThreshold_staysInMemory() throws IOException {
+        BmessageBody body = new BmessageBody(mDirectory, THRESHOLD);
+
+        write(body, "small body");
+
+        assertThat(body.isSpilled()).isFalse();
+        assertThat(body.length()).isEqualTo(10);
+        assertThat(body.toString(StandardCharsets.UTF_8)).isEqualTo("small body");
+    }
+
+    @Test
+    public void write_overThreshold_spillsToFile() throws IOException {
+        BmessageBody body = new BmessageBody(mDirectory, THRESHOLD);
+        int filesBefore = countFiles();
+
+        write(body, "first part, ");
+        write(body, "second part");
+
+        assertThat(body.isSpilled()).isTrue();
+        assertThat(countFiles()).isEqualTo(filesBefore + 1);
+        assertThat(body.toString(StandardCharsets.UTF_8)).isEqualTo("first part, second part");
+        try (InputStream in = body.openInputStream()) {
+            assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8))
+                    .isEqualTo("first part, second part");
+        }
+
+        body.close();
+
+        assertThat(countFiles()).isEqualTo(filesBefore);
+    }
+
+    private static void write(BmessageBody body, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        body.write(bytes, 0, bytes.length);
+    }
+
+    private int countFiles() {
+        String[] files = mDirectory.list((dir, name) -> name.endsWith(".body"));
+        return files != null ? files.length : 0;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BmessageReaderTest {
+    private static final byte[] END_MSG = "\r\nEND:MSG\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void readLine_skipsEmptyLines() throws IOException {
+        BmessageReader reader = reader("\r\nBEGIN:BMSG\r\n\r\n\nVERSION:1.0\r\nEND:BMSG");
+
+        assertThat(reader.readLine()).isEqualTo("BEGIN:BMSG");
+        assertThat(reader.readLine()).isEqualTo("VERSION:1.0");
+        // The last line doesn't need a CRLF
+        assertThat(reader.readLine()).isEqualTo("END:BMSG");
+        assertThat(reader.readLine()).isNull();
+    }
+
+    @Test
+    public void readLine_loneLineFeedDoesNotEndLine() throws IOException {
+        BmessageReader reader = reader("first\nsecond\r\n");
+
+        assertThat(reader.readLine()).isEqualTo("first\nsecond");
+    }
+
+    @Test
+    public void readLine_decodesUtf8() throws IOException {
+        BmessageReader reader = reader("N:Grüß\r\n");
+
+        assertThat(reader.readLine()).isEqualTo("N:Grüß");
+    }
+
+    @Test
+    public void readLine_lineLongerThanBuffer() throws IOException {
+        String longLine = "A".repeat(20_000);
+        BmessageReader reader = reader(longLine + "\r\nEND\r\n");
+
+        assertThat(reader.readLine()).isEqualTo(longLine);
+        assertThat(reader.readLine()).isEqualTo("END");
+    }
+
+    @Test
+    public void lineEquals_ignoresSurroundingWhitespace() throws IOException {
+        BmessageReader reader = reader("  END:MSG \r\n");
+
+        assertThat(reader.nextLine()).isTrue();
+        assertThat(reader.lineEquals("END:MSG")).isTrue();
+        assertThat(reader.lineEquals("END:MS")).isFalse();
+    }
+
+    @Test
+    public void readBody_copiesBytesAcrossReads() throws IOException {
+        byte[] body = new byte[30_000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) (i % 7 == 0 ? '\n' : 'x');
+        }
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        message.write("BEGIN:MSG\r\n".getBytes(StandardCharsets.UTF_8));
+        message.write(body);
+        message.write("\r\nEND:MSG\r\n".getBytes(StandardCharsets.UTF_8));
+        // Hand out the bytes in small pieces like an OBEX stream would
+        InputStream input =
+                new ByteArrayInputStream(message.toByteArray()) {
+                    @Override
+                    public synchronized int read(byte[] b, int off, int len) {
+                        return super.read(b, off, Math.min(len, 1000));
+                    }
+                };
+        BmessageReader reader = new BmessageReader(input);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertThat(reader.readLine()).isEqualTo("BEGIN:MSG");
+        assertThat(reader.readBody(body.length, out)).isEqualTo(body.length);
+        assertThat(out.toByteArray()).isEqualTo(body);
+        assertThat(reader.readLine()).isEqualTo("END:MSG");
+        assertThat(reader.position()).isEqualTo(message.size());
+    }
+
+    @Test
+    public void readBody_streamEndsFirst() throws IOException {
+        BmessageReader reader = reader("short");
+
+        assertThat(reader.readBody(100, new ByteArrayOutputStream())).isEqualTo(5);
+    }
+
+    @Test
+    public void readUntil_keepsEmptyLinesAndPartialTerminators() throws IOException {
+        String body = "first\r\n\r\n\r\nEND:MS\r\n\r\r\nEND:MSGX\r\n";
+        BmessageReader reader = reader(body + "\r\nEND:MSG\r\nEND:BBODY\r\n");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertThat(reader.readUntil(END_MSG, out)).isEqualTo(body.length());
+        assertThat(out.toString(StandardCharsets.UTF_8)).isEqualTo(body);
+        assertThat(reader.readLine()).isEqualTo("END:BBODY");
+    }
+
+    @Test
+    public void readUntil_streamEndsFirst() throws IOException {
+        BmessageReader reader = reader("no terminator\r\nEND:MSG");
+
+        assertThat(reader.readUntil(END_MSG, new ByteArrayOutputStream())).isEqualTo(-1);
+    }
+
+    @Test
+    public void readBytes_streamEndsFirst_returnsNull() throws IOException {
+        assertThat(reader("short").readBytes(5))
+                .isEqualTo("short".getBytes(StandardCharsets.UTF_8));
+        assertThat(reader("short").readBytes(100)).isNull();
+    }
+
+    @Test
+    public void indexOfUnescaped_skipsEscapedCharacters() {
+        assertThat(BmessageReader.indexOfUnescaped("a\\:b:c", ':', 0)).isEqualTo(4);
+        assertThat(BmessageReader.indexOfUnescaped("a\\;b", ';', 0)).isEqualTo(-1);
+        assertThat(BmessageReader.indexOfUnescaped(":a", ':', 1)).isEqualTo(-1);
+    }
+
+    private static BmessageReader reader(String content) {
+        return new BmessageReader(
+                new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    }
+}
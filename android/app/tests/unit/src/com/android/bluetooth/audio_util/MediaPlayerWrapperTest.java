@@ -30,6 +30,9 @@ import android.media.session.MediaSession;
 import android.media.session.PlaybackState;
 import android.os.HandlerThread;
 import android.os.TestLooperManager;
+import android.platform.test.annotations.DisableFlags;
+import android.platform.test.annotations.EnableFlags;
+import android.platform.test.flag.junit.SetFlagsRule;
 import android.util.Log;
 
 import androidx.test.filters.SmallTest;
@@ -38,6 +41,7 @@ import androidx.test.runner.AndroidJUnit4;
 
 import com.android.bluetooth.R;
 import com.android.bluetooth.TestUtils;
+import com.android.bluetooth.flags.Flags;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -71,6 +75,7 @@ public class MediaPlayerWrapperTest {
     @Captor ArgumentCaptor<MediaController.Callback> mControllerCbs;
     @Captor ArgumentCaptor<MediaData> mMediaUpdateData;
     @Rule public MockitoRule mockitoRule = MockitoJUnit.rule();
+    @Rule public final SetFlagsRule mSetFlagsRule = new SetFlagsRule();
 
     @Mock Log.TerribleFailureHandler mFailHandler;
     @Mock MediaController mMockController;
@@ -250,10 +255,10 @@ public class MediaPlayerWrapperTest {
         // Create the wrapper object and register the looper with the timeout handler
         MediaPlayerWrapper wrapper =
                 MediaPlayerWrapperFactory.wrap(mMockContext, mMockController, mThread.getLooper());
-        wrapper.registerCallback(mTestCbs);
 
         // Return null when getting the queue
         doReturn(null).when(mMockController).getQueue();
+        wrapper.registerCallback(mTestCbs);
 
         // Grab the callbacks the wrapper registered with the controller
         verify(mMockController).registerCallback(mControllerCbs.capture(), any());
@@ -311,10 +316,10 @@ public class MediaPlayerWrapperTest {
         // Create the wrapper object and register the looper with the timeout handler
         MediaPlayerWrapper wrapper =
                 MediaPlayerWrapperFactory.wrap(mMockContext, mMockController, mThread.getLooper());
-        wrapper.registerCallback(mTestCbs);
 
         // Return null when getting the queue
         doReturn(null).when(mMockController).getQueue();
+        wrapper.registerCallback(mTestCbs);
 
         // Grab the callbacks the wrapper registered with the controller
         verify(mMockController).registerCallback(mControllerCbs.capture(), any());
@@ -354,10 +359,10 @@ public class MediaPlayerWrapperTest {
         // Create the wrapper object and register the looper with the timeout handler
         MediaPlayerWrapper wrapper =
                 MediaPlayerWrapperFactory.wrap(mMockContext, mMockController, mThread.getLooper());
-        wrapper.registerCallback(mTestCbs);
 
         // Return null when getting the queue
         doReturn(null).when(mMockController).getQueue();
+        wrapper.registerCallback(mTestCbs);
 
         // Grab the callbacks the wrapper registered with the controller
         verify(mMockController).registerCallback(mControllerCbs.capture(), any());
@@ -384,10 +389,10 @@ public class MediaPlayerWrapperTest {
         // Create the wrapper object and register the looper with the timeout handler
         MediaPlayerWrapper wrapper =
                 MediaPlayerWrapperFactory.wrap(mMockContext, mMockController, mThread.getLooper());
-        wrapper.registerCallback(mTestCbs);
 
         // Return null when getting the queue
         doReturn(null).when(mMockController).getQueue();
+        wrapper.registerCallback(mTestCbs);
 
         // Grab the callbacks the wrapper registered with the controller
         verify(mMockController).registerCallback(mControllerCbs.capture(), any());
@@ -460,6 +465,86 @@ public class MediaPlayerWrapperTest {
         verify(mMockController, times(2)).getQueue();
     }
 
+    /*
+     * This test checks that the converted queue and its version are reused by updates that don't
+     * change the queue, and that a new version is sent once the queue changes.
+     */
+    @Test
+    @EnableFlags(Flags.FLAG_AVRCP_QUEUE_VERSION)
+    public void testQueueVersion() {
+        // Create the wrapper object and register the looper with the timeout handler
+        MediaPlayerWrapper wrapper =
+                MediaPlayerWrapperFactory.wrap(mMockContext, mMockController, mThread.getLooper());
+        wrapper.registerCallback(mTestCbs);
+        long queueVersion = wrapper.getQueueVersion();
+
+        // Grab the callbacks the wrapper registered with the controller
+        verify(mMockController).registerCallback(mControllerCbs.capture(), any());
+        MediaController.Callback controllerCallbacks = mControllerCbs.getValue();
+
+        // Update PlaybackState returned by controller, the queue stays the same
+        mTestState.setState(PlaybackState.STATE_PLAYING, 1000, 1.0f);
+        doReturn(mTestState.build()).when(mMockController).getPlaybackState();
+        controllerCallbacks.onPlaybackStateChanged(mTestState.build());
+
+        // Assert that the cached queue was sent along with its version
+        verify(mTestCbs, times(1)).mediaUpdatedCallback(mMediaUpdateData.capture());
+        MediaData data = mMediaUpdateData.getValue();
+        Assert.assertEquals(queueVersion, data.queueVersion);
+        Assert.assertSame(wrapper.getCurrentQueue(), data.queue);
+
+        // Update Queue returned by controller
+        mTestQueue.remove(2);
+        doReturn(getQueueFromDescriptions(mTestQueue)).when(mMockController).getQueue();
+        controllerCallbacks.onQueueChanged(getQueueFromDescriptions(mTestQueue));
+
+        // Assert that the new queue was sent with a new version
+        verify(mTestCbs, times(2)).mediaUpdatedCallback(mMediaUpdateData.capture());
+        data = mMediaUpdateData.getValue();
+        Assert.assertNotEquals(queueVersion, data.queueVersion);
+        Assert.assertEquals(
+                "Returned Queue isn't equal to given Queue",
+                data.queue,
+                Util.toMetadataList(mMockContext, getQueueFromDescriptions(mTestQueue)));
+        verify(mFailHandler, never()).onTerribleFailure(any(), any(), anyBoolean());
+    }
+
+    /*
+     * This test checks that the current media data carries the version of the queue it returns.
+     */
+    @Test
+    @EnableFlags(Flags.FLAG_AVRCP_QUEUE_VERSION)
+    public void testGetCurrentMediaData_queueVersionMatchesQueue() {
+        MediaPlayerWrapper wrapper =
+                MediaPlayerWrapperFactory.wrap(mMockContext, mMockController, mThread.getLooper());
+        wrapper.registerCallback(mTestCbs);
+        verify(mMockController).registerCallback(mControllerCbs.capture(), any());
+        MediaController.Callback controllerCallbacks = mControllerCbs.getValue();
+
+        mTestQueue.remove(2);
+        doReturn(getQueueFromDescriptions(mTestQueue)).when(mMockController).getQueue();
+        controllerCallbacks.onQueueChanged(getQueueFromDescriptions(mTestQueue));
+
+        MediaData data = wrapper.getCurrentMediaData();
+        Assert.assertEquals(wrapper.getQueueVersion(), data.queueVersion);
+        Assert.assertSame(wrapper.getCurrentQueue(), data.queue);
+    }
+
+    /*
+     * This test checks that queues aren't versioned without the flag, so they are compared item by
+     * item as before.
+     */
+    @Test
+    @DisableFlags(Flags.FLAG_AVRCP_QUEUE_VERSION)
+    public void testQueueVersion_flagDisabled_unknownVersion() {
+        MediaPlayerWrapper wrapper =
+                MediaPlayerWrapperFactory.wrap(mMockContext, mMockController, mThread.getLooper());
+        wrapper.registerCallback(mTestCbs);
+
+        Assert.assertEquals(
+                MediaData.UNKNOWN_QUEUE_VERSION, wrapper.getCurrentMediaData().queueVersion);
+    }
+
     /*
      * This test checks if the currently playing song queue duration is completed
      * by the MediaController Metadata.
@@ -485,6 +570,27 @@ public class MediaPlayerWrapperTest {
                         .equals(wrapper.getCurrentQueue().get(0)));
     }
 
+    /*
+     * This test checks that completing the currently playing song of the queue doesn't modify the
+     * items of the cached queue.
+     */
+    @Test
+    public void testQueueMetadata_cachedQueueNotModified() {
+        MediaPlayerWrapper wrapper =
+                MediaPlayerWrapperFactory.wrap(mMockContext, mMockController, mThread.getLooper());
+
+        doReturn(mTestMetadata.build()).when(mMockController).getMetadata();
+        Assert.assertEquals(
+                Util.toMetadata(mMockContext, mTestMetadata.build()).duration,
+                wrapper.getCurrentQueue().get(0).duration);
+
+        doReturn(null).when(mMockController).getMetadata();
+        Assert.assertFalse(
+                Util.toMetadata(mMockContext, mTestMetadata.build())
+                        .duration
+                        .equals(wrapper.getCurrentQueue().get(0).duration));
+    }
+
     /*
      * This test sends repeated Playback State updates that only have a short
      * position update change to see if they get debounced.
@@ -494,10 +600,10 @@ public class MediaPlayerWrapperTest {
         // Create the wrapper object and register the looper with the timeout handler
         MediaPlayerWrapper wrapper =
                 MediaPlayerWrapperFactory.wrap(mMockContext, mMockController, mThread.getLooper());
-        wrapper.registerCallback(mTestCbs);
 
         // Return null when getting the queue
         doReturn(null).when(mMockController).getQueue();
+        wrapper.registerCallback(mTestCbs);
 
         // Grab the callbacks the wrapper registered with the controller
         verify(mMockController).registerCallback(mControllerCbs.capture(), any());
@@ -2176,4 +2176,105 @@ public class AvrcpControllerStateMachineTest {
         playerTwoNode = mAvrcpStateMachine.findNode(results.getChildren().get(1).getID());
         assertThat(playerTwoNode.isCached()).isTrue();
     }
+
+    /**
+     * Request the first page of a player browsed page by page. The whole window is received and
+     * the page is available without fetching the whole player.
+     */
+    @Test
+    public void testRequestContentsWindow_windowFetchedAndLoaded() {
+        BrowseTree.BrowseNode playerNode = requestPlayerWindow();
+
+        mAvrcpStateMachine.sendMessage(
+                AvrcpControllerStateMachine.MESSAGE_PROCESS_GET_FOLDER_ITEMS, makeSongs(0, 5));
+        TestUtils.waitForLooperToFinishScheduledTask(mAvrcpStateMachine.getHandler().getLooper());
+
+        assertThat(playerNode.getWindowedContents(0, 10)).hasSize(5);
+        // The whole folder wasn't fetched
+        assertThat(playerNode.getChildrenCount()).isEqualTo(0);
+        assertThat(playerNode.isCached()).isFalse();
+    }
+
+    /**
+     * Time out while a window is fetched. The window isn't marked as loaded, so the next request
+     * for the page fetches it again instead of serving the partial window forever.
+     */
+    @Test
+    public void testRequestContentsWindow_timeout_windowFetchedAgain() {
+        BrowseTree.BrowseNode playerNode = requestPlayerWindow();
+
+        mAvrcpStateMachine.sendMessage(
+                AvrcpControllerStateMachine.MESSAGE_PROCESS_GET_FOLDER_ITEMS, makeSongs(0, 2));
+        verify(mNativeInterface, timeout(ASYNC_CALL_TIMEOUT_MILLIS).times(1))
+                .getFolderList(eq(mTestAddress), eq(2), eq(4));
+        mAvrcpStateMachine.sendMessage(AvrcpControllerStateMachine.MESSAGE_INTERNAL_CMD_TIMEOUT);
+        TestUtils.waitForLooperToFinishScheduledTask(mAvrcpStateMachine.getHandler().getLooper());
+
+        assertThat(playerNode.getWindowedContents(0, 10)).isNull();
+
+        mAvrcpStateMachine.requestContentsWindow(playerNode, 0, 10);
+        verify(mNativeInterface, timeout(ASYNC_CALL_TIMEOUT_MILLIS).times(2))
+                .getFolderList(eq(mTestAddress), eq(0), eq(4));
+    }
+
+    /** Paged and whole folder fetches of the same folder don't drop each other's children. */
+    @Test
+    public void testRequestContentsWindow_thenWholeFolder_windowsKept() {
+        BrowseTree.BrowseNode playerNode = requestPlayerWindow();
+        mAvrcpStateMachine.sendMessage(
+                AvrcpControllerStateMachine.MESSAGE_PROCESS_GET_FOLDER_ITEMS, makeSongs(0, 5));
+        TestUtils.waitForLooperToFinishScheduledTask(mAvrcpStateMachine.getHandler().getLooper());
+
+        mAvrcpStateMachine.requestContents(playerNode);
+        verify(mNativeInterface, timeout(ASYNC_CALL_TIMEOUT_MILLIS).times(2))
+                .getFolderList(eq(mTestAddress), eq(0), eq(4));
+        mAvrcpStateMachine.sendMessage(
+                AvrcpControllerStateMachine.MESSAGE_PROCESS_GET_FOLDER_ITEMS, makeSongs(0, 5));
+        TestUtils.waitForLooperToFinishScheduledTask(mAvrcpStateMachine.getHandler().getLooper());
+
+        assertThat(playerNode.isCached()).isTrue();
+        assertThat(playerNode.getChildrenCount()).isEqualTo(5);
+        assertThat(playerNode.getWindowedContents(0, 10)).hasSize(5);
+    }
+
+    /**
+     * Connect, fetch a browsable player with 5 items and request its first page, up to the fetch
+     * of the first items of its first window.
+     */
+    private BrowseTree.BrowseNode requestPlayerWindow() {
+        setUpConnectedState(true, true);
+        BrowseTree.BrowseNode root = mAvrcpStateMachine.mBrowseTree.mRootNode;
+        mAvrcpStateMachine.requestContents(root);
+        verify(mNativeInterface, timeout(ASYNC_CALL_TIMEOUT_MILLIS).times(1))
+                .getPlayerList(eq(mTestAddress), eq(0), eq(19));
+        byte[] playerFeatures =
+                new byte[] {0, 0, 0, 0, 0, (byte) 0xb7, 0x01, 0x0c, 0x0a, 0, 0, 0, 0, 0, 0, 0};
+        List<AvrcpPlayer> testPlayers = new ArrayList<>();
+        testPlayers.add(makePlayer(mTestDevice, 1, "player 1", playerFeatures, 1));
+        mAvrcpStateMachine.sendMessage(
+                AvrcpControllerStateMachine.MESSAGE_PROCESS_GET_PLAYER_ITEMS, testPlayers);
+        TestUtils.waitForLooperToFinishScheduledTask(mAvrcpStateMachine.getHandler().getLooper());
+
+        BrowseTree.BrowseNode playerNode = root.getChildren().get(0);
+        assertThat(playerNode.isWindowable()).isTrue();
+        playerNode.enableWindows();
+        mAvrcpStateMachine.requestContentsWindow(playerNode, 0, 10);
+        verify(mNativeInterface, timeout(ASYNC_CALL_TIMEOUT_MILLIS).times(1))
+                .setBrowsedPlayer(eq(mTestAddress), eq(1));
+        mAvrcpStateMachine.sendMessage(
+                AvrcpControllerStateMachine.MESSAGE_PROCESS_SET_BROWSED_PLAYER,
+                /* items= */ 5,
+                /* depth= */ 0);
+        verify(mNativeInterface, timeout(ASYNC_CALL_TIMEOUT_MILLIS).times(1))
+                .getFolderList(eq(mTestAddress), eq(0), eq(4));
+        return playerNode;
+    }
+
+    private List<AvrcpItem> makeSongs(int start, int count) {
+        List<AvrcpItem> songs = new ArrayList<>();
+        for (int i = start; i < start + count; i++) {
+            songs.add(makeNowPlayingItem(i, "Song " + i));
+        }
+        return songs;
+    }
 }
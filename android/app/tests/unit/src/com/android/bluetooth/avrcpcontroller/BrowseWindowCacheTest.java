@@ -0,0 +1,165 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.avrcpcontroller;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BrowseWindowCacheTest {
+    private static final int WINDOW_SIZE = 10;
+    private static final int MAX_WINDOWS = 2;
+
+    private final BrowseWindowCache<Integer> mCache =
+            new BrowseWindowCache<>(WINDOW_SIZE, MAX_WINDOWS);
+
+    @Test
+    public void getRange_windowNotLoaded_returnsNull() {
+        mCache.putAll(0, items(0, WINDOW_SIZE));
+
+        assertThat(mCache.getRange(0, 5)).isNull();
+    }
+
+    @Test
+    public void getRange_windowLoaded_returnsItems() {
+        assertThat(mCache.markPending(0)).isTrue();
+        mCache.putAll(0, items(0, WINDOW_SIZE));
+        mCache.onFetchFinished(0, true);
+
+        assertThat(mCache.getRange(2, 3)).containsExactly(2, 3, 4).inOrder();
+        assertThat(mCache.isPending(0)).isFalse();
+    }
+
+    @Test
+    public void getRange_spanningWindows_requiresAllWindows() {
+        mCache.putAll(0, items(0, WINDOW_SIZE));
+        mCache.onFetchFinished(0, true);
+
+        assertThat(mCache.getRange(8, 4)).isNull();
+
+        mCache.putAll(WINDOW_SIZE, items(WINDOW_SIZE, WINDOW_SIZE));
+        mCache.onFetchFinished(1, true);
+
+        assertThat(mCache.getRange(8, 4)).containsExactly(8, 9, 10, 11).inOrder();
+    }
+
+    @Test
+    public void getRange_partialLastWindow_returnsResidentItems() {
+        mCache.putAll(0, items(0, 4));
+        mCache.onFetchFinished(0, true);
+
+        assertThat(mCache.getRange(0, WINDOW_SIZE)).containsExactly(0, 1, 2, 3).inOrder();
+    }
+
+    @Test
+    public void markPending_loadedOrPendingWindow_returnsFalse() {
+        assertThat(mCache.markPending(0)).isTrue();
+        assertThat(mCache.markPending(0)).isFalse();
+
+        mCache.onFetchFinished(0, true);
+
+        assertThat(mCache.markPending(0)).isFalse();
+    }
+
+    @Test
+    public void onFetchFinished_incomplete_windowCanBeRequestedAgain() {
+        mCache.markPending(0);
+        mCache.onFetchFinished(0, false);
+
+        assertThat(mCache.isLoaded(0)).isFalse();
+        assertThat(mCache.markPending(0)).isTrue();
+    }
+
+    @Test
+    public void putAll_replacingItems_returnsReplaced() {
+        mCache.putAll(0, items(0, 2));
+
+        List<Integer> removed = mCache.putAll(0, items(100, 2));
+
+        assertThat(removed).containsExactly(0, 1);
+        assertThat(mCache.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void putAll_overCapacity_evictsWindowFurthestFromAnchor() {
+        mCache.setAnchorWindows(1, 1);
+        mCache.putAll(0, items(0, WINDOW_SIZE));
+        mCache.putAll(WINDOW_SIZE, items(WINDOW_SIZE, WINDOW_SIZE));
+
+        List<Integer> removed = mCache.putAll(3 * WINDOW_SIZE, items(3 * WINDOW_SIZE, 1));
+
+        assertThat(mCache.getResidentWindowCount()).isEqualTo(MAX_WINDOWS);
+        assertThat(removed).containsExactlyElementsIn(items(0, WINDOW_SIZE));
+        assertThat(mCache.isLoaded(0)).isFalse();
+    }
+
+    @Test
+    public void putAll_overCapacity_anchorWindowsNeverEvicted() {
+        mCache.setAnchorWindows(1, 2);
+        mCache.putAll(WINDOW_SIZE, items(WINDOW_SIZE, WINDOW_SIZE));
+        mCache.putAll(2 * WINDOW_SIZE, items(2 * WINDOW_SIZE, WINDOW_SIZE));
+
+        // Late response for a window the client scrolled away from
+        List<Integer> removed = mCache.putAll(0, items(0, WINDOW_SIZE));
+
+        assertThat(removed).containsExactlyElementsIn(items(0, WINDOW_SIZE));
+        assertThat(mCache.size()).isEqualTo(2 * WINDOW_SIZE);
+        assertThat(mCache.getResidentWindowCount()).isEqualTo(MAX_WINDOWS);
+    }
+
+    @Test
+    public void clear_keepsPendingWindows() {
+        mCache.markPending(1);
+        mCache.putAll(0, items(0, WINDOW_SIZE));
+        mCache.onFetchFinished(0, true);
+
+        List<Integer> removed = mCache.clear();
+
+        assertThat(removed).hasSize(WINDOW_SIZE);
+        assertThat(mCache.size()).isEqualTo(0);
+        assertThat(mCache.isLoaded(0)).isFalse();
+        assertThat(mCache.isPending(1)).isTrue();
+    }
+
+    @Test
+    public void cancelPending_clearsPendingWindows() {
+        mCache.markPending(0);
+        mCache.markPending(1);
+
+        mCache.cancelPending();
+
+        assertThat(mCache.isPending(0)).isFalse();
+        assertThat(mCache.isPending(1)).isFalse();
+    }
+
+    private static List<Integer> items(int start, int count) {
+        List<Integer> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(start + i);
+        }
+        return items;
+    }
+}
@@ -153,6 +153,7 @@ public class BassClientServiceTest {
 
     private BluetoothDevice mSourceDevice;
     private BluetoothDevice mSourceDevice2;
+    private long mClockMillis;
     private ArgumentCaptor<ScanCallback> mCallbackCaptor;
 
     private InOrder mInOrderMethodProxy;
@@ -1351,8 +1352,24 @@ public class BassClientServiceTest {
         };
     }
 
+    private byte[] getPAScanRecordWithoutBase() {
+        return new byte[] {
+            (byte) 0x02,
+            (byte) 0x01,
+            (byte) 0x1a, // advertising flags
+            (byte) 0x04,
+            (byte) 0x09,
+            (byte) 0x50,
+            (byte) 0x65,
+            (byte) 0x64, // name
+        };
+    }
+
     private void onPeriodicAdvertisingReport() {
-        byte[] scanRecord = getPAScanRecord();
+        onPeriodicAdvertisingReport(getPAScanRecord());
+    }
+
+    private void onPeriodicAdvertisingReport(byte[] scanRecord) {
         ScanRecord record = ScanRecord.parseFromBytes(scanRecord);
         PeriodicAdvertisingReport report =
                 new PeriodicAdvertisingReport(TEST_SYNC_HANDLE, 0, 0, 0, record);
@@ -2871,6 +2888,136 @@ public class BassClientServiceTest {
                 .isEqualTo(broadcastId5);
     }
 
+    @Test
+    @EnableFlags({
+        Flags.FLAG_LEAUDIO_BROADCAST_EXTRACT_PERIODIC_SCANNER_FROM_STATE_MACHINE,
+        Flags.FLAG_LEAUDIO_BROADCAST_SYNC_SLOT_SCHEDULER
+    })
+    public void testSelectSource_syncSlotScheduler_waitsForTimeSlice() {
+        prepareConnectedDeviceGroup();
+        startSearchingForSources();
+
+        for (int i = 0; i < SyncSlotScheduler.MAX_SLOTS; i++) {
+            BluetoothDevice device =
+                    mBluetoothAdapter.getRemoteLeDevice(
+                            String.format("00:11:22:33:44:%02X", i),
+                            BluetoothDevice.ADDRESS_TYPE_RANDOM);
+            onScanResult(device, 1000 + i);
+            onSyncEstablished(device, i);
+        }
+        verify(mMethodProxy, times(SyncSlotScheduler.MAX_SLOTS))
+                .periodicAdvertisingManagerRegisterSync(
+                        any(), any(), anyInt(), anyInt(), any(), any());
+
+        // No synced source has been reported nor used its time slice, the new one has to wait
+        onScanResult(
+                mBluetoothAdapter.getRemoteLeDevice(
+                        "00:11:22:33:44:FF", BluetoothDevice.ADDRESS_TYPE_RANDOM),
+                2000);
+
+        verify(mMethodProxy, never()).periodicAdvertisingManagerUnregisterSync(any(), any());
+        verify(mMethodProxy, times(SyncSlotScheduler.MAX_SLOTS))
+                .periodicAdvertisingManagerRegisterSync(
+                        any(), any(), anyInt(), anyInt(), any(), any());
+        assertThat(mBassClientService.getActiveSyncedSources()).containsExactly(0, 1, 2, 3);
+        checkMessage(BassClientService.MESSAGE_ROTATE_SYNC_SLOTS);
+    }
+
+    @Test
+    @EnableFlags({
+        Flags.FLAG_LEAUDIO_BROADCAST_EXTRACT_PERIODIC_SCANNER_FROM_STATE_MACHINE,
+        Flags.FLAG_LEAUDIO_BROADCAST_SYNC_SLOT_SCHEDULER
+    })
+    public void testSelectSource_syncSlotScheduler_rotatesAfterTimeSlice() {
+        mBassClientService.mSyncSlots = new SyncSlotScheduler(() -> mClockMillis);
+        prepareConnectedDeviceGroup();
+        startSearchingForSources();
+        BluetoothDevice firstDevice = fillSyncSlots();
+
+        BluetoothDevice newDevice =
+                mBluetoothAdapter.getRemoteLeDevice(
+                        "00:11:22:33:44:FF", BluetoothDevice.ADDRESS_TYPE_RANDOM);
+        onScanResult(newDevice, 2000);
+        checkMessage(BassClientService.MESSAGE_ROTATE_SYNC_SLOTS);
+
+        // The time slice of the oldest source is over, its slot goes to the waiting source
+        mClockMillis += SyncSlotScheduler.SLOT_TIME_SLICE_MS;
+        checkAndDispatchMessage(BassClientService.MESSAGE_ROTATE_SYNC_SLOTS, 0);
+
+        verify(mMethodProxy).periodicAdvertisingManagerUnregisterSync(any(), any());
+        assertThat(mBassClientService.getActiveSyncedSources()).containsExactly(1, 2, 3);
+        ArgumentCaptor<ScanResult> scanResult = ArgumentCaptor.forClass(ScanResult.class);
+        verify(mMethodProxy, times(SyncSlotScheduler.MAX_SLOTS + 1))
+                .periodicAdvertisingManagerRegisterSync(
+                        any(), scanResult.capture(), anyInt(), anyInt(), any(), any());
+        assertThat(scanResult.getValue().getDevice()).isEqualTo(newDevice);
+
+        // The rotated source wasn't reported, it is queued again and synced once there is a slot
+        onSyncEstablished(newDevice, SyncSlotScheduler.MAX_SLOTS);
+
+        verify(mMethodProxy, times(SyncSlotScheduler.MAX_SLOTS + 2))
+                .periodicAdvertisingManagerRegisterSync(
+                        any(), scanResult.capture(), anyInt(), anyInt(), any(), any());
+        assertThat(scanResult.getValue().getDevice()).isEqualTo(firstDevice);
+    }
+
+    @Test
+    @EnableFlags({
+        Flags.FLAG_LEAUDIO_BROADCAST_EXTRACT_PERIODIC_SCANNER_FROM_STATE_MACHINE,
+        Flags.FLAG_LEAUDIO_BROADCAST_SYNC_SLOT_SCHEDULER
+    })
+    public void testSelectSource_syncSlotScheduler_rotatesAfterReport() {
+        mBassClientService.mSyncSlots = new SyncSlotScheduler(() -> mClockMillis);
+        prepareConnectedDeviceGroup();
+        startSearchingForSources();
+        fillSyncSlots();
+
+        BluetoothDevice newDevice =
+                mBluetoothAdapter.getRemoteLeDevice(
+                        "00:11:22:33:44:FF", BluetoothDevice.ADDRESS_TYPE_RANDOM);
+        onScanResult(newDevice, 2000);
+        mBassClientService.mHandler.removeMessages(BassClientService.MESSAGE_ROTATE_SYNC_SLOTS);
+
+        // Reporting the source synced on TEST_SYNC_HANDLE frees its slot before its time slice
+        onPeriodicAdvertisingReport();
+        onBigInfoAdvertisingReport();
+        checkAndDispatchMessage(BassClientService.MESSAGE_ROTATE_SYNC_SLOTS, 0);
+
+        verify(mMethodProxy).periodicAdvertisingManagerUnregisterSync(any(), any());
+        assertThat(mBassClientService.getActiveSyncedSources()).doesNotContain(TEST_SYNC_HANDLE);
+        ArgumentCaptor<ScanResult> scanResult = ArgumentCaptor.forClass(ScanResult.class);
+        verify(mMethodProxy, times(SyncSlotScheduler.MAX_SLOTS + 1))
+                .periodicAdvertisingManagerRegisterSync(
+                        any(), scanResult.capture(), anyInt(), anyInt(), any(), any());
+        assertThat(scanResult.getValue().getDevice()).isEqualTo(newDevice);
+
+        // The reported source isn't queued again
+        onSyncEstablished(newDevice, SyncSlotScheduler.MAX_SLOTS);
+
+        verify(mMethodProxy, times(SyncSlotScheduler.MAX_SLOTS + 1))
+                .periodicAdvertisingManagerRegisterSync(
+                        any(), any(), anyInt(), anyInt(), any(), any());
+        checkNoMessage(BassClientService.MESSAGE_ROTATE_SYNC_SLOTS);
+    }
+
+    /** Sync a source on every sync slot, returning the device synced on the first one. */
+    private BluetoothDevice fillSyncSlots() {
+        BluetoothDevice firstDevice = null;
+        for (int i = 0; i < SyncSlotScheduler.MAX_SLOTS; i++) {
+            BluetoothDevice device =
+                    mBluetoothAdapter.getRemoteLeDevice(
+                            String.format("00:11:22:33:44:%02X", i),
+                            BluetoothDevice.ADDRESS_TYPE_RANDOM);
+            onScanResult(device, 1000 + i);
+            onSyncEstablished(device, i);
+            if (firstDevice == null) {
+                firstDevice = device;
+            }
+        }
+        assertThat(mBassClientService.getActiveSyncedSources()).containsExactly(0, 1, 2, 3);
+        return firstDevice;
+    }
+
     @Test
     @EnableFlags({
         Flags.FLAG_LEAUDIO_BROADCAST_RESYNC_HELPER,
@@ -4738,6 +4885,48 @@ public class BassClientServiceTest {
                 .periodicAdvertisingManagerUnregisterSync(any(), any());
     }
 
+    @Test
+    @EnableFlags({
+        Flags.FLAG_LEAUDIO_BROADCAST_EXTRACT_PERIODIC_SCANNER_FROM_STATE_MACHINE,
+        Flags.FLAG_LEAUDIO_BROADCAST_PERIODIC_REPORT_CACHE
+    })
+    public void periodicReportCache_skipsIdenticalReports() {
+        prepareConnectedDeviceGroup();
+        startSearchingForSources();
+        onScanResult(mSourceDevice, TEST_BROADCAST_ID);
+        onSyncEstablished(mSourceDevice, TEST_SYNC_HANDLE);
+
+        // A train without BASE is only parsed once while it doesn't change
+        onPeriodicAdvertisingReport(getPAScanRecordWithoutBase());
+        onPeriodicAdvertisingReport(getPAScanRecordWithoutBase());
+
+        assertThat(mBassClientService.mSyncSlots.getSkippedReports()).isEqualTo(1);
+        assertThat(mBassClientService.getBase(TEST_SYNC_HANDLE)).isNull();
+        assertThat(mBassClientService.getActiveSyncedSources()).containsExactly(TEST_SYNC_HANDLE);
+
+        // A changed train is parsed
+        onPeriodicAdvertisingReport();
+
+        assertThat(mBassClientService.mSyncSlots.getSkippedReports()).isEqualTo(1);
+        assertThat(mBassClientService.getBase(TEST_SYNC_HANDLE)).isNotNull();
+    }
+
+    @Test
+    @EnableFlags(Flags.FLAG_LEAUDIO_BROADCAST_EXTRACT_PERIODIC_SCANNER_FROM_STATE_MACHINE)
+    @DisableFlags(Flags.FLAG_LEAUDIO_BROADCAST_PERIODIC_REPORT_CACHE)
+    public void periodicReportCache_disabled_parsesEveryReport() {
+        prepareConnectedDeviceGroup();
+        startSearchingForSources();
+        onScanResult(mSourceDevice, TEST_BROADCAST_ID);
+        onSyncEstablished(mSourceDevice, TEST_SYNC_HANDLE);
+
+        onPeriodicAdvertisingReport(getPAScanRecordWithoutBase());
+        onPeriodicAdvertisingReport(getPAScanRecordWithoutBase());
+
+        assertThat(mBassClientService.mSyncSlots.getSkippedReports()).isEqualTo(0);
+        assertThat(mBassClientService.getBase(TEST_SYNC_HANDLE)).isNull();
+    }
+
     @Test
     @EnableFlags({
         Flags.FLAG_LEAUDIO_BROADCAST_EXTRACT_PERIODIC_SCANNER_FROM_STATE_MACHINE,
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.bass_client;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SyncSlotSchedulerTest {
+    private static final int BROADCAST_ID = 1000;
+
+    // BASE with one subgroup of one BIS
+    private static final byte[] BASE_DATA = {
+        0x01, 0x02, 0x03, // presentationDelay
+        0x01, // numSubGroups
+        0x01, // numBis
+        0x06, 0x00, 0x00, 0x00, 0x00, // LC3 codec
+        0x00, // codecConfigLength
+        0x00, // metaDataLength
+        0x01, // BIS index
+        0x00, // codecConfigLength
+    };
+
+    private long mNowMillis;
+    private SyncSlotScheduler mScheduler;
+    private BluetoothDevice mDevice;
+
+    @Before
+    public void setUp() {
+        mNowMillis = 1000;
+        mScheduler = new SyncSlotScheduler(() -> mNowMillis);
+        mDevice =
+                BluetoothAdapter.getDefaultAdapter()
+                        .getRemoteLeDevice(
+                                "00:11:22:33:44:55", BluetoothDevice.ADDRESS_TYPE_RANDOM);
+    }
+
+    @Test
+    public void setBroadcastId_movesBroadcastFromPendingSync() {
+        mScheduler.setBroadcastId(BassConstants.INVALID_SYNC_HANDLE, BROADCAST_ID);
+        assertThat(mScheduler.getBroadcastId(BassConstants.INVALID_SYNC_HANDLE))
+                .isEqualTo(BROADCAST_ID);
+
+        mScheduler.setDevice(1, mDevice);
+        mScheduler.setBroadcastId(1, BROADCAST_ID);
+
+        assertThat(mScheduler.getSyncHandle(BROADCAST_ID)).isEqualTo(1);
+        assertThat(mScheduler.getBroadcastId(1)).isEqualTo(BROADCAST_ID);
+        assertThat(mScheduler.getDevice(1)).isEqualTo(mDevice);
+        assertThat(mScheduler.getBroadcastId(BassConstants.INVALID_SYNC_HANDLE))
+                .isEqualTo(BassConstants.INVALID_BROADCAST_ID);
+    }
+
+    @Test
+    public void remove_forgetsSyncHandle() {
+        syncSources(1);
+        mScheduler.setBisDiscoveryTries(0, 5);
+
+        mScheduler.remove(0);
+
+        assertThat(mScheduler.getActiveSyncHandles()).isEmpty();
+        assertThat(mScheduler.getDevice(0)).isNull();
+        assertThat(mScheduler.getBisDiscoveryTries(0)).isEqualTo(0);
+        assertThat(mScheduler.getSyncHandle(BROADCAST_ID))
+                .isEqualTo(BassConstants.INVALID_SYNC_HANDLE);
+    }
+
+    @Test
+    public void addActive_keepsSyncOrder() {
+        syncSources(3);
+
+        assertThat(mScheduler.addActive(1)).isFalse();
+        assertThat(mScheduler.getActiveSyncHandles()).containsExactly(0, 1, 2).inOrder();
+    }
+
+    @Test
+    public void pickSlotToRotate_waitsForTimeSlice() {
+        syncSources(SyncSlotScheduler.MAX_SLOTS);
+        mNowMillis += 1000;
+
+        assertThat(mScheduler.pickSlotToRotate(broadcastId -> false))
+                .isEqualTo(BassConstants.INVALID_SYNC_HANDLE);
+        assertThat(mScheduler.getMillisUntilRotation())
+                .isEqualTo(SyncSlotScheduler.SLOT_TIME_SLICE_MS - 1000);
+        assertThat(mScheduler.getDeferredRotations()).isEqualTo(1);
+
+        mNowMillis += SyncSlotScheduler.SLOT_TIME_SLICE_MS;
+
+        assertThat(mScheduler.pickSlotToRotate(broadcastId -> false)).isEqualTo(0);
+        assertThat(mScheduler.getRotations()).isEqualTo(1);
+    }
+
+    @Test
+    public void pickSlotToRotate_reportedSourceGivesUpSlot() {
+        syncSources(SyncSlotScheduler.MAX_SLOTS);
+
+        mScheduler.onSourceReported(2);
+
+        assertThat(mScheduler.isReported(2)).isTrue();
+        assertThat(mScheduler.pickSlotToRotate(broadcastId -> false)).isEqualTo(2);
+    }
+
+    @Test
+    public void pickSlotToRotate_skipsSlotsUsedByReceivers() {
+        syncSources(SyncSlotScheduler.MAX_SLOTS);
+        mNowMillis += SyncSlotScheduler.SLOT_TIME_SLICE_MS;
+
+        assertThat(mScheduler.pickSlotToRotate(broadcastId -> broadcastId == BROADCAST_ID))
+                .isEqualTo(1);
+        // Nothing to wait for when every slot is used, the oldest one is given up
+        assertThat(mScheduler.pickSlotToRotate(broadcastId -> true)).isEqualTo(0);
+    }
+
+    @Test
+    public void canRetry_limitsSlicesPerSource() {
+        for (int i = 0; i < SyncSlotScheduler.MAX_SLICES_PER_SOURCE; i++) {
+            assertThat(mScheduler.canRetry(BROADCAST_ID)).isTrue();
+            syncSources(1);
+            mScheduler.remove(0);
+        }
+
+        assertThat(mScheduler.canRetry(BROADCAST_ID)).isFalse();
+        mScheduler.clear();
+        assertThat(mScheduler.canRetry(BROADCAST_ID)).isTrue();
+    }
+
+    @Test
+    public void parseBase_reusesResultForSameData() {
+        BaseData base = mScheduler.parseBase(BROADCAST_ID, BASE_DATA);
+
+        assertThat(base).isNotNull();
+        assertThat(mScheduler.parseBase(BROADCAST_ID, BASE_DATA.clone())).isSameInstanceAs(base);
+        assertThat(mScheduler.getCachedBase(BROADCAST_ID)).isSameInstanceAs(base);
+
+        byte[] changed = BASE_DATA.clone();
+        changed[0] = 0x04;
+        assertThat(mScheduler.parseBase(BROADCAST_ID, changed)).isNotSameInstanceAs(base);
+    }
+
+    @Test
+    public void parseBase_survivesClear() {
+        BaseData base = mScheduler.parseBase(BROADCAST_ID, BASE_DATA);
+
+        mScheduler.clear();
+
+        assertThat(mScheduler.getCachedBase(BROADCAST_ID)).isSameInstanceAs(base);
+    }
+
+    @Test
+    public void isPayloadUnchanged_matchesLastParsedPayload() {
+        assertThat(mScheduler.isPayloadUnchanged(0, BASE_DATA)).isFalse();
+
+        mScheduler.setPayload(0, BASE_DATA, true);
+
+        assertThat(mScheduler.isPayloadUnchanged(0, BASE_DATA.clone())).isTrue();
+        assertThat(mScheduler.isPayloadParsed(0)).isTrue();
+        assertThat(mScheduler.getSkippedReports()).isEqualTo(1);
+
+        byte[] changed = BASE_DATA.clone();
+        changed[0] = 0x04;
+        assertThat(mScheduler.isPayloadUnchanged(0, changed)).isFalse();
+        assertThat(mScheduler.isPayloadUnchanged(1, BASE_DATA)).isFalse();
+    }
+
+    @Test
+    public void getSlotUtilizationPercent_countsBusySlotTime() {
+        syncSources(2);
+        mNowMillis += 1000;
+        mScheduler.clearActive();
+        mNowMillis += 1000;
+
+        // 2 slots out of 4 for half of the time
+        assertThat(mScheduler.getSlotUtilizationPercent()).isEqualTo(25);
+    }
+
+    private void syncSources(int count) {
+        for (int i = 0; i < count; i++) {
+            mScheduler.setDevice(i, mDevice);
+            mScheduler.setBroadcastId(i, BROADCAST_ID + i);
+            mScheduler.addActive(i);
+        }
+    }
+}
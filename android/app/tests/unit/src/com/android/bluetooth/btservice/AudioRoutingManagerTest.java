@@ -38,6 +38,8 @@ import android.bluetooth.BluetoothSinkAudioPolicy;
 import android.content.Context;
 import android.media.AudioManager;
 import android.os.test.TestLooper;
+import android.platform.test.annotations.EnableFlags;
+import android.platform.test.flag.junit.SetFlagsRule;
 import android.util.ArrayMap;
 import android.util.SparseIntArray;
 
@@ -49,6 +51,7 @@ import com.android.bluetooth.TestUtils;
 import com.android.bluetooth.Utils;
 import com.android.bluetooth.a2dp.A2dpService;
 import com.android.bluetooth.btservice.storage.DatabaseManager;
+import com.android.bluetooth.flags.Flags;
 import com.android.bluetooth.hearingaid.HearingAidService;
 import com.android.bluetooth.hfp.HeadsetService;
 import com.android.bluetooth.le_audio.LeAudioService;
@@ -60,6 +63,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.Spy;
@@ -87,6 +91,7 @@ public class AudioRoutingManagerTest {
     private BluetoothDevice mMostRecentDevice;
     private AudioRoutingManager mAudioRoutingManager;
     private static final long HEARING_AID_HISYNC_ID = 1010;
+    private static final int LE_AUDIO_GROUP_ID = 1;
 
     private static final int TIMEOUT_MS = 1_000;
     private static final int A2DP_HFP_SYNC_CONNECTION_TIMEOUT_MS =
@@ -98,6 +103,7 @@ public class AudioRoutingManagerTest {
             ArgumentCaptor.forClass(AudioManager.OnModeChangedListener.class);
 
     @Rule public MockitoRule mockitoRule = MockitoJUnit.rule();
+    @Rule public final SetFlagsRule mSetFlagsRule = new SetFlagsRule();
 
     @Mock private AdapterService mAdapterService;
     @Mock private ServiceFactory mServiceFactory;
@@ -1132,6 +1138,49 @@ public class AudioRoutingManagerTest {
         verify(mA2dpService).setActiveDevice(mA2dpHeadsetDevice);
     }
 
+    /**
+     * Both devices of an LE Audio group are requested to be active before the first request ran.
+     * Then the group is activated once, and both requests succeed.
+     */
+    @Test
+    @EnableFlags(Flags.FLAG_ASYNC_ACTIVE_DEVICE_ACTIVATION)
+    public void activateDeviceProfile_sameGroup_coalesced() {
+        when(mLeAudioService.getGroupId(mLeAudioDevice)).thenReturn(LE_AUDIO_GROUP_ID);
+        when(mLeAudioService.getGroupId(mLeAudioDevice2)).thenReturn(LE_AUDIO_GROUP_ID);
+
+        CompletableFuture<Boolean> first =
+                mAudioRoutingManager.activateDeviceProfile(
+                        mLeAudioDevice, BluetoothProfile.LE_AUDIO);
+        CompletableFuture<Boolean> second =
+                mAudioRoutingManager.activateDeviceProfile(
+                        mLeAudioDevice2, BluetoothProfile.LE_AUDIO);
+        mTestLooper.dispatchAll();
+
+        assertThat(first.join()).isTrue();
+        assertThat(second.join()).isTrue();
+        verify(mLeAudioService).setActiveDevice(mLeAudioDevice2);
+        verify(mLeAudioService, never()).setActiveDevice(mLeAudioDevice);
+    }
+
+    /** Two devices not in a group are requested to be active. Then both are activated in order. */
+    @Test
+    @EnableFlags(Flags.FLAG_ASYNC_ACTIVE_DEVICE_ACTIVATION)
+    public void activateDeviceProfile_differentGroups_notCoalesced() {
+        CompletableFuture<Boolean> first =
+                mAudioRoutingManager.activateDeviceProfile(
+                        mLeAudioDevice, BluetoothProfile.LE_AUDIO);
+        CompletableFuture<Boolean> second =
+                mAudioRoutingManager.activateDeviceProfile(
+                        mLeAudioDevice2, BluetoothProfile.LE_AUDIO);
+        mTestLooper.dispatchAll();
+
+        assertThat(first.join()).isTrue();
+        assertThat(second.join()).isTrue();
+        InOrder order = Mockito.inOrder(mLeAudioService);
+        order.verify(mLeAudioService).setActiveDevice(mLeAudioDevice);
+        order.verify(mLeAudioService).setActiveDevice(mLeAudioDevice2);
+    }
+
     /** Helper to indicate A2dp connected for a device. */
     private void a2dpConnected(BluetoothDevice device, boolean supportHfp) {
         mDatabaseManager.setProfileConnectionPolicy(
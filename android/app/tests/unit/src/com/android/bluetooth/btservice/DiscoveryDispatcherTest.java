@@ -0,0 +1,238 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import static android.Manifest.permission.ACCESS_FINE_LOCATION;
+import static android.Manifest.permission.BLUETOOTH_SCAN;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.BroadcastOptions;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.test.TestLooper;
+import android.platform.test.flag.junit.SetFlagsRule;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.flags.Flags;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class DiscoveryDispatcherTest {
+    private static final String PACKAGE_NAME = "com.android.bluetooth.test";
+    private static final String BATCHED_PACKAGE_NAME = "com.android.bluetooth.test.batched";
+
+    @Rule public final SetFlagsRule mSetFlagsRule = new SetFlagsRule();
+    @Rule public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock private AdapterService mAdapterService;
+
+    private final List<DiscoveringPackage> mPackages = new ArrayList<>();
+    private final ArgumentCaptor<Intent> mIntentCaptor = ArgumentCaptor.forClass(Intent.class);
+    private final ArgumentCaptor<String[]> mPermissionsCaptor =
+            ArgumentCaptor.forClass(String[].class);
+
+    private TestLooper mTestLooper;
+    private DiscoveryDispatcher mDispatcher;
+    private BluetoothDevice mDevice1;
+    private BluetoothDevice mDevice2;
+
+    @Before
+    public void setUp() {
+        mTestLooper = new TestLooper();
+        when(mAdapterService.getDiscoveringPackages()).thenReturn(mPackages);
+        mDispatcher =
+                new DiscoveryDispatcher(
+                        mAdapterService, new Handler(mTestLooper.getLooper()), device -> false);
+        mDevice1 = BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:11:22:33:44:55");
+        mDevice2 = BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:11:22:33:44:66");
+        mDispatcher.onDiscoveryStarted();
+    }
+
+    @Test
+    public void onDeviceFound_sendsFoundIntentWithCachedPermissions() {
+        mPackages.add(new DiscoveringPackage(PACKAGE_NAME, ACCESS_FINE_LOCATION, false));
+
+        mDispatcher.onDeviceFound(mDevice1, "name", 0, (short) -50, true);
+
+        verify(mAdapterService)
+                .sendBroadcastMultiplePermissions(
+                        mIntentCaptor.capture(),
+                        mPermissionsCaptor.capture(),
+                        any(BroadcastOptions.class));
+        Intent intent = mIntentCaptor.getValue();
+        assertThat(intent.getAction()).isEqualTo(BluetoothDevice.ACTION_FOUND);
+        assertThat(intent.getPackage()).isEqualTo(PACKAGE_NAME);
+        assertThat(intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE, BluetoothDevice.class))
+                .isEqualTo(mDevice1);
+        assertThat(intent.getStringExtra(BluetoothDevice.EXTRA_NAME)).isEqualTo("name");
+        assertThat(intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, (short) 0)).isEqualTo(-50);
+        assertThat(intent.getBooleanExtra(BluetoothDevice.EXTRA_IS_COORDINATED_SET_MEMBER, false))
+                .isTrue();
+        assertThat(mPermissionsCaptor.getValue())
+                .asList()
+                .containsExactly(BLUETOOTH_SCAN, ACCESS_FINE_LOCATION);
+    }
+
+    @Test
+    public void onDeviceFound_denylistedDevice_skipsPackagesWithDisavowedLocation() {
+        mDispatcher =
+                new DiscoveryDispatcher(
+                        mAdapterService, new Handler(mTestLooper.getLooper()), device -> true);
+        mPackages.add(new DiscoveringPackage(PACKAGE_NAME, null, true));
+
+        mDispatcher.onDeviceFound(mDevice1, "name", 0, (short) -50, false);
+
+        verify(mAdapterService, never())
+                .sendBroadcastMultiplePermissions(any(), any(), any(BroadcastOptions.class));
+    }
+
+    @Test
+    public void onDeviceFound_repeatedResult_isDeduped() {
+        mSetFlagsRule.enableFlags(Flags.FLAG_COALESCED_DISCOVERY_DELIVERY);
+        mPackages.add(new DiscoveringPackage(PACKAGE_NAME, null, false));
+
+        mDispatcher.onDeviceFound(mDevice1, null, 0, (short) -50, false);
+        mDispatcher.onDeviceFound(mDevice1, null, 0, (short) -60, false);
+        // The name resolved, that's a new result
+        mDispatcher.onDeviceFound(mDevice1, "name", 0, (short) -60, false);
+        mDispatcher.onDeviceFound(mDevice2, null, 0, (short) -50, false);
+
+        verify(mAdapterService, times(3))
+                .sendBroadcastMultiplePermissions(any(), any(), any(BroadcastOptions.class));
+    }
+
+    @Test
+    public void onDeviceFound_newSession_deliversAgain() {
+        mSetFlagsRule.enableFlags(Flags.FLAG_COALESCED_DISCOVERY_DELIVERY);
+        mPackages.add(new DiscoveringPackage(PACKAGE_NAME, null, false));
+
+        mDispatcher.onDeviceFound(mDevice1, "name", 0, (short) -50, false);
+        mDispatcher.onDiscoveryStopped();
+        mDispatcher.onDiscoveryStarted();
+        mDispatcher.onDeviceFound(mDevice1, "name", 0, (short) -50, false);
+
+        verify(mAdapterService, times(2))
+                .sendBroadcastMultiplePermissions(any(), any(), any(BroadcastOptions.class));
+    }
+
+    @Test
+    public void onDeviceFound_flagDisabled_doesNotDedupe() {
+        mSetFlagsRule.disableFlags(Flags.FLAG_COALESCED_DISCOVERY_DELIVERY);
+        mPackages.add(new DiscoveringPackage(PACKAGE_NAME, null, false));
+
+        mDispatcher.onDeviceFound(mDevice1, "name", 0, (short) -50, false);
+        mDispatcher.onDeviceFound(mDevice1, "name", 0, (short) -50, false);
+
+        verify(mAdapterService, times(2))
+                .sendBroadcastMultiplePermissions(any(), any(), any(BroadcastOptions.class));
+    }
+
+    @Test
+    public void onDeviceFound_batchedPackage_receivesOneBatch() {
+        mPackages.add(new DiscoveringPackage(BATCHED_PACKAGE_NAME, null, false, true));
+
+        mDispatcher.onDeviceFound(mDevice1, "name1", 0, (short) -50, false);
+        mDispatcher.onDeviceFound(mDevice2, "name2", 0, (short) -60, false);
+        verify(mAdapterService, never())
+                .sendBroadcastMultiplePermissions(any(), any(), any(BroadcastOptions.class));
+
+        mTestLooper.moveTimeForward(DiscoveryDispatcher.BATCH_INTERVAL_MS);
+        mTestLooper.dispatchAll();
+
+        verify(mAdapterService)
+                .sendBroadcastMultiplePermissions(
+                        mIntentCaptor.capture(), any(), any(BroadcastOptions.class));
+        Intent intent = mIntentCaptor.getValue();
+        assertThat(intent.getAction()).isEqualTo(BluetoothDevice.ACTION_FOUND_BATCH);
+        assertThat(intent.getPackage()).isEqualTo(BATCHED_PACKAGE_NAME);
+        List<Bundle> results =
+                intent.getParcelableArrayListExtra(
+                        BluetoothDevice.EXTRA_FOUND_RESULTS, Bundle.class);
+        assertThat(results).hasSize(2);
+        assertThat(results.get(0).getString(BluetoothDevice.EXTRA_NAME)).isEqualTo("name1");
+        assertThat(results.get(1).getString(BluetoothDevice.EXTRA_NAME)).isEqualTo("name2");
+    }
+
+    @Test
+    public void onDeviceFound_fullBatch_isSentImmediately() {
+        mPackages.add(new DiscoveringPackage(BATCHED_PACKAGE_NAME, null, false, true));
+
+        for (int i = 0; i < DiscoveryDispatcher.MAX_BATCH_SIZE; i++) {
+            BluetoothDevice device =
+                    BluetoothAdapter.getDefaultAdapter()
+                            .getRemoteDevice(String.format("00:11:22:33:44:%02X", i));
+            mDispatcher.onDeviceFound(device, "name", 0, (short) -50, false);
+        }
+
+        verify(mAdapterService)
+                .sendBroadcastMultiplePermissions(any(), any(), any(BroadcastOptions.class));
+    }
+
+    @Test
+    public void onDiscoveryStopped_flushesPendingBatches() {
+        mPackages.add(new DiscoveringPackage(BATCHED_PACKAGE_NAME, null, false, true));
+        mPackages.add(new DiscoveringPackage(PACKAGE_NAME, null, false));
+
+        mDispatcher.onDeviceFound(mDevice1, "name", 0, (short) -50, false);
+        mDispatcher.onDiscoveryStopped();
+
+        verify(mAdapterService, times(2))
+                .sendBroadcastMultiplePermissions(
+                        mIntentCaptor.capture(), any(), any(BroadcastOptions.class));
+        assertThat(mIntentCaptor.getAllValues().get(0).getAction())
+                .isEqualTo(BluetoothDevice.ACTION_FOUND);
+        assertThat(mIntentCaptor.getAllValues().get(1).getAction())
+                .isEqualTo(BluetoothDevice.ACTION_FOUND_BATCH);
+    }
+
+    @Test
+    public void reset_dropsPendingBatches() {
+        mPackages.add(new DiscoveringPackage(BATCHED_PACKAGE_NAME, null, false, true));
+
+        mDispatcher.onDeviceFound(mDevice1, "name", 0, (short) -50, false);
+        mDispatcher.reset();
+        mTestLooper.moveTimeForward(DiscoveryDispatcher.BATCH_INTERVAL_MS);
+        mTestLooper.dispatchAll();
+
+        verify(mAdapterService, never())
+                .sendBroadcastMultiplePermissions(any(), any(), any(BroadcastOptions.class));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import static com.android.bluetooth.btservice.RemoteDeviceTable.INVALID_KEY;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class RemoteDeviceKeyTableTest {
+    private final RemoteDeviceKeyTable mTable = new RemoteDeviceKeyTable(8);
+
+    @Test
+    public void putGetRemove() {
+        mTable.put(1L, 10L);
+        mTable.put(2L, 20L);
+        mTable.put(1L, 30L);
+
+        assertThat(mTable.get(1L)).isEqualTo(30L);
+        assertThat(mTable.get(3L)).isEqualTo(INVALID_KEY);
+        assertThat(mTable.size()).isEqualTo(2);
+
+        mTable.remove(1L);
+        assertThat(mTable.get(1L)).isEqualTo(INVALID_KEY);
+        assertThat(mTable.get(2L)).isEqualTo(20L);
+        assertThat(mTable.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void put_invalidKey_throws() {
+        assertThrows(IllegalArgumentException.class, () -> mTable.put(INVALID_KEY, 1L));
+        assertThrows(IllegalArgumentException.class, () -> mTable.put(1L, INVALID_KEY));
+    }
+
+    @Test
+    public void put_beyondInitialCapacity_keepsEveryEntry() {
+        for (long key = 0; key < 1000; key++) {
+            mTable.put(key, key + 1);
+        }
+        for (long key = 0; key < 1000; key += 2) {
+            mTable.remove(key);
+        }
+
+        for (long key = 0; key < 1000; key++) {
+            assertThat(mTable.get(key)).isEqualTo(key % 2 == 0 ? INVALID_KEY : key + 1);
+        }
+        assertThat(mTable.size()).isEqualTo(500);
+    }
+
+    @Test
+    public void removeValue_removesEveryEntryWithTheValue() {
+        for (long key = 0; key < 100; key++) {
+            mTable.put(key, key % 3 == 0 ? 1000L : key);
+        }
+
+        assertThat(mTable.removeValue(1000L)).isEqualTo(34);
+
+        for (long key = 0; key < 100; key++) {
+            assertThat(mTable.get(key)).isEqualTo(key % 3 == 0 ? INVALID_KEY : key);
+        }
+    }
+
+    @Test
+    public void clear_removesEverything() {
+        mTable.put(1L, 10L);
+        mTable.put(2L, 20L);
+
+        mTable.clear();
+
+        assertThat(mTable.size()).isEqualTo(0);
+        assertThat(mTable.get(1L)).isEqualTo(INVALID_KEY);
+    }
+}
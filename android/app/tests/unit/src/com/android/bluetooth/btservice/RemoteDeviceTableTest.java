@@ -0,0 +1,182 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class RemoteDeviceTableTest {
+    private final RemoteDeviceTable<String> mTable = new RemoteDeviceTable<>(8);
+
+    @Test
+    public void addressToKey_bytesAndStringMatch() {
+        byte[] address = new byte[] {0x00, 0x11, 0x22, (byte) 0xAA, (byte) 0xBB, (byte) 0xCC};
+
+        assertThat(RemoteDeviceTable.addressToKey(address)).isEqualTo(0x001122AABBCCL);
+        assertThat(RemoteDeviceTable.addressToKey("00:11:22:AA:BB:CC")).isEqualTo(0x001122AABBCCL);
+        assertThat(RemoteDeviceTable.addressToKey("00:11:22:aa:bb:cc")).isEqualTo(0x001122AABBCCL);
+    }
+
+    @Test
+    public void addressToKey_malformed_returnsInvalidKey() {
+        assertThat(RemoteDeviceTable.addressToKey((String) null))
+                .isEqualTo(RemoteDeviceTable.INVALID_KEY);
+        assertThat(RemoteDeviceTable.addressToKey("00:11:22:AA:BB"))
+                .isEqualTo(RemoteDeviceTable.INVALID_KEY);
+        assertThat(RemoteDeviceTable.addressToKey("00-11-22-AA-BB-CC"))
+                .isEqualTo(RemoteDeviceTable.INVALID_KEY);
+        assertThat(RemoteDeviceTable.addressToKey("0G:11:22:AA:BB:CC"))
+                .isEqualTo(RemoteDeviceTable.INVALID_KEY);
+        assertThat(RemoteDeviceTable.addressToKey(new byte[5]))
+                .isEqualTo(RemoteDeviceTable.INVALID_KEY);
+    }
+
+    @Test
+    public void putGetRemove() {
+        assertThat(mTable.put(1L, "a")).isNull();
+        assertThat(mTable.put(2L, "b")).isNull();
+        assertThat(mTable.put(1L, "c")).isEqualTo("a");
+
+        assertThat(mTable.get(1L)).isEqualTo("c");
+        assertThat(mTable.get(3L)).isNull();
+        assertThat(mTable.size()).isEqualTo(2);
+
+        assertThat(mTable.remove(1L)).isEqualTo("c");
+        assertThat(mTable.get(1L)).isNull();
+        assertThat(mTable.get(2L)).isEqualTo("b");
+        assertThat(mTable.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void put_beyondInitialCapacity_keepsEveryEntry() {
+        for (long key = 0; key < 1000; key++) {
+            mTable.put(key, Long.toString(key));
+        }
+        for (long key = 0; key < 1000; key += 2) {
+            mTable.remove(key);
+        }
+
+        for (long key = 0; key < 1000; key++) {
+            assertThat(mTable.get(key)).isEqualTo(key % 2 == 0 ? null : Long.toString(key));
+        }
+        assertThat(mTable.size()).isEqualTo(500);
+    }
+
+    @Test
+    public void trimTo_evictsOldestFirst() {
+        mTable.put(1L, "a");
+        mTable.put(2L, "b");
+        mTable.put(3L, "c");
+        // Replacing a value doesn't move it in the eviction order
+        mTable.put(1L, "d");
+
+        List<String> evicted = mTable.trimTo(1, value -> false);
+
+        assertThat(evicted).containsExactly("d", "b").inOrder();
+        assertThat(mTable.values()).containsExactly("c");
+    }
+
+    @Test
+    public void trimTo_pinnedEntriesStay() {
+        mTable.put(1L, "pinned");
+        mTable.put(2L, "a");
+        mTable.put(3L, "b");
+
+        List<String> evicted = mTable.trimTo(1, "pinned"::equals);
+
+        assertThat(evicted).containsExactly("a");
+        assertThat(mTable.values()).containsExactly("pinned", "b");
+        assertThat(mTable.linkedSize()).isEqualTo(1);
+
+        // Pinned entries are no longer considered
+        mTable.put(4L, "c");
+        assertThat(mTable.trimTo(1, value -> false)).containsExactly("b");
+        assertThat(mTable.get(1L)).isEqualTo("pinned");
+    }
+
+    @Test
+    public void trimTo_pinnedEntriesNeverEvicted() {
+        mTable.put(1L, "pinned1");
+        mTable.put(2L, "pinned2");
+        mTable.put(3L, "pinned3");
+        mTable.put(4L, "a");
+
+        List<String> evicted = mTable.trimTo(0, value -> value.startsWith("pinned"));
+
+        assertThat(evicted).containsExactly("a");
+        assertThat(mTable.values()).containsExactly("pinned1", "pinned2", "pinned3");
+        assertThat(mTable.pinnedSize()).isEqualTo(3);
+        assertThat(mTable.linkedSize()).isEqualTo(0);
+    }
+
+    @Test
+    public void trimTo_pinPredicateRunsWithoutTableLock() {
+        mTable.put(1L, "pinned");
+        mTable.put(2L, "a");
+
+        // A predicate writing to the table would deadlock if it ran under the write lock
+        List<String> evicted =
+                mTable.trimTo(
+                        0,
+                        value -> {
+                            mTable.put(3L, "b");
+                            return value.equals("pinned");
+                        });
+
+        assertThat(evicted).containsExactly("a", "b");
+        assertThat(mTable.values()).containsExactly("pinned");
+    }
+
+    @Test
+    public void removeIf_removesMatchingValues() {
+        List<String> expected = new ArrayList<>();
+        for (long key = 0; key < 100; key++) {
+            String value = key % 3 == 0 ? "drop" : Long.toString(key);
+            mTable.put(key, value);
+            if (!value.equals("drop")) {
+                expected.add(value);
+            }
+        }
+
+        assertThat(mTable.removeIf("drop"::equals)).isEqualTo(34);
+        assertThat(mTable.values()).containsExactlyElementsIn(expected);
+    }
+
+    @Test
+    public void clear_removesEverything() {
+        mTable.put(1L, "a");
+        mTable.put(2L, "b");
+        mTable.trimTo(0, "a"::equals);
+
+        mTable.clear();
+
+        assertThat(mTable.size()).isEqualTo(0);
+        assertThat(mTable.linkedSize()).isEqualTo(0);
+        assertThat(mTable.pinnedSize()).isEqualTo(0);
+        assertThat(mTable.get(1L)).isNull();
+    }
+}
@@ -7,6 +7,7 @@ import static org.mockito.Mockito.*;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothAssignedNumbers;
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothDeviceSnapshot;
 import android.bluetooth.BluetoothHeadset;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.BluetoothProfile;
@@ -815,6 +816,126 @@ public class RemoteDevicesTest {
         Assert.assertFalse(deviceProp.isCoordinatedSetMember());
     }
 
+    @Test
+    public void testGetDeviceSnapshot() {
+        doReturn(new BluetoothDevice[] {mDevice1}).when(mAdapterService).getBondedDevices();
+        mRemoteDevices.addDeviceProperties(Utils.getBytesFromAddress(TEST_BT_ADDR_1));
+        DeviceProperties deviceProp = mRemoteDevices.getDeviceProperties(mDevice1);
+        deviceProp.setName("Headset");
+        deviceProp.setBondState(BluetoothDevice.BOND_BONDED);
+        deviceProp.setBatteryLevelFromHfp(42);
+
+        BluetoothDeviceSnapshot snapshot =
+                mRemoteDevices.getDeviceSnapshot(
+                        BluetoothDeviceSnapshot.PROPERTY_NAME
+                                | BluetoothDeviceSnapshot.PROPERTY_BOND_STATE);
+
+        Assert.assertEquals(1, snapshot.getEntries().size());
+        BluetoothDeviceSnapshot.Entry entry = snapshot.getEntries().get(0);
+        Assert.assertEquals(mDevice1, entry.getDevice());
+        Assert.assertEquals("Headset", entry.getName());
+        Assert.assertEquals(BluetoothDevice.BOND_BONDED, entry.getBondState());
+        // Not requested, left to its default value
+        Assert.assertEquals(BluetoothDevice.BATTERY_LEVEL_UNKNOWN, entry.getBatteryLevel());
+        Assert.assertFalse(entry.isConnected());
+    }
+
+    @Test
+    public void testGetDeviceSnapshot_includesConnectedDevices() {
+        doReturn(new BluetoothDevice[0]).when(mAdapterService).getBondedDevices();
+        mRemoteDevices.addDeviceProperties(Utils.getBytesFromAddress(TEST_BT_ADDR_1));
+        DeviceProperties deviceProp = mRemoteDevices.getDeviceProperties(mDevice1);
+
+        Assert.assertTrue(
+                mRemoteDevices
+                        .getDeviceSnapshot(BluetoothDeviceSnapshot.PROPERTY_ALL)
+                        .getEntries()
+                        .isEmpty());
+
+        deviceProp.setConnectionHandle(1, BluetoothDevice.TRANSPORT_LE);
+
+        BluetoothDeviceSnapshot snapshot =
+                mRemoteDevices.getDeviceSnapshot(BluetoothDeviceSnapshot.PROPERTY_ALL);
+        Assert.assertEquals(1, snapshot.getEntries().size());
+        Assert.assertTrue(snapshot.getEntries().get(0).isConnected());
+    }
+
+    @Test
+    public void testSnapshotGeneration_changesWithProperties() {
+        mRemoteDevices.addDeviceProperties(Utils.getBytesFromAddress(TEST_BT_ADDR_1));
+        DeviceProperties deviceProp = mRemoteDevices.getDeviceProperties(mDevice1);
+        long generation = mRemoteDevices.getSnapshotGeneration();
+
+        deviceProp.setBatteryLevelFromHfp(BluetoothDevice.BATTERY_LEVEL_UNKNOWN);
+        Assert.assertEquals(generation, mRemoteDevices.getSnapshotGeneration());
+
+        deviceProp.setBatteryLevelFromHfp(50);
+        Assert.assertNotEquals(generation, mRemoteDevices.getSnapshotGeneration());
+
+        generation = mRemoteDevices.getSnapshotGeneration();
+        deviceProp.setBondState(BluetoothDevice.BOND_BONDED);
+        Assert.assertNotEquals(generation, mRemoteDevices.getSnapshotGeneration());
+
+        generation = mRemoteDevices.getSnapshotGeneration();
+        mRemoteDevices.setProfileConnectionState(
+                mDevice1, BluetoothProfile.A2DP, BluetoothProfile.STATE_CONNECTED);
+        Assert.assertNotEquals(generation, mRemoteDevices.getSnapshotGeneration());
+
+        generation = mRemoteDevices.getSnapshotGeneration();
+        mRemoteDevices.setProfileConnectionState(
+                mDevice1, BluetoothProfile.A2DP, BluetoothProfile.STATE_CONNECTED);
+        Assert.assertEquals(generation, mRemoteDevices.getSnapshotGeneration());
+    }
+
+    @Test
+    public void testSnapshotGeneration_notReusedByNewInstance() {
+        long generation = mRemoteDevices.getSnapshotGeneration();
+
+        RemoteDevices remoteDevices =
+                new RemoteDevices(mAdapterService, mHandlerThread.getLooper());
+
+        Assert.assertNotEquals(generation, remoteDevices.getSnapshotGeneration());
+    }
+
+    @Test
+    public void testGetDeviceSnapshot_profileConnectionStates() {
+        doReturn(new BluetoothDevice[] {mDevice1}).when(mAdapterService).getBondedDevices();
+        mRemoteDevices.addDeviceProperties(Utils.getBytesFromAddress(TEST_BT_ADDR_1));
+        mRemoteDevices.setProfileConnectionState(
+                mDevice1, BluetoothProfile.HEADSET, BluetoothProfile.STATE_CONNECTED);
+        mRemoteDevices.setProfileConnectionState(
+                mDevice1, BluetoothProfile.A2DP, BluetoothProfile.STATE_CONNECTING);
+
+        BluetoothDeviceSnapshot.Entry entry =
+                getSnapshotEntry(BluetoothDeviceSnapshot.PROPERTY_PROFILE_CONNECTION_STATES);
+        Assert.assertEquals(
+                BluetoothProfile.STATE_CONNECTED,
+                entry.getProfileConnectionState(BluetoothProfile.HEADSET));
+        Assert.assertEquals(
+                BluetoothProfile.STATE_CONNECTING,
+                entry.getProfileConnectionState(BluetoothProfile.A2DP));
+        Assert.assertEquals(
+                BluetoothProfile.STATE_DISCONNECTED,
+                entry.getProfileConnectionState(BluetoothProfile.HID_HOST));
+
+        mRemoteDevices.setProfileConnectionState(
+                mDevice1, BluetoothProfile.HEADSET, BluetoothProfile.STATE_DISCONNECTED);
+        entry = getSnapshotEntry(BluetoothDeviceSnapshot.PROPERTY_ALL);
+        Assert.assertEquals(
+                BluetoothProfile.STATE_DISCONNECTED,
+                entry.getProfileConnectionState(BluetoothProfile.HEADSET));
+
+        // Not requested, reported as disconnected
+        entry = getSnapshotEntry(BluetoothDeviceSnapshot.PROPERTY_NAME);
+        Assert.assertEquals(
+                BluetoothProfile.STATE_DISCONNECTED,
+                entry.getProfileConnectionState(BluetoothProfile.A2DP));
+    }
+
+    private BluetoothDeviceSnapshot.Entry getSnapshotEntry(int properties) {
+        return mRemoteDevices.getDeviceSnapshot(properties).getEntries().get(0);
+    }
+
     @Test
     public void testIsDeviceNull() {
         Assert.assertNull(mRemoteDevices.getDeviceProperties(null));
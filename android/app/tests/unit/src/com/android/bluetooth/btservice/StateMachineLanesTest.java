@@ -0,0 +1,179 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.btservice;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.test.TestLooper;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class StateMachineLanesTest {
+    private static final long INTERVAL_MS = StateMachineLanes.PROBE_INTERVAL_MS;
+    private static final long BLOCKING_TIME_MS = 50;
+
+    private final BluetoothAdapter mAdapter = BluetoothAdapter.getDefaultAdapter();
+    private StateMachineLanes mLanes;
+    private long mClockMillis;
+
+    @After
+    public void tearDown() {
+        if (mLanes != null) {
+            mLanes.quit();
+        }
+    }
+
+    @Test
+    public void getLooper_sameDevice_sameLane() {
+        mLanes = new StateMachineLanes(StateMachineLanes.MAX_LANES);
+        BluetoothDevice device = mAdapter.getRemoteDevice("00:01:02:03:04:05");
+
+        Looper looper = mLanes.getLooper(device);
+
+        assertThat(mLanes.getLooper(mAdapter.getRemoteDevice("00:01:02:03:04:05")))
+                .isSameInstanceAs(looper);
+        assertThat(looper).isNotSameInstanceAs(Looper.getMainLooper());
+    }
+
+    @Test
+    public void getLooper_devicesSpreadOverBoundedLanes() {
+        mLanes = new StateMachineLanes(2);
+
+        boolean[] used = new boolean[2];
+        for (int i = 0; i < 16; i++) {
+            BluetoothDevice device =
+                    mAdapter.getRemoteDevice(String.format("00:01:02:03:04:%02X", i));
+            used[mLanes.getLaneIndex(device)] = true;
+        }
+
+        assertThat(mLanes.getLaneCount()).isEqualTo(2);
+        assertThat(used[0]).isTrue();
+        assertThat(used[1]).isTrue();
+    }
+
+    @Test
+    public void probe_measuresDispatchLatency() {
+        TestLooper looper = new TestLooper();
+        StateMachineLanes lanes = createLanes(looper);
+        Handler handler = new Handler(looper.getLooper());
+
+        // TestLooper doesn't run idle handlers, the lane is told it ran out of messages
+        lanes.onLaneIdle(0);
+        // A message keeps the lane busy past the time the probe is due
+        handler.post(() -> mClockMillis += INTERVAL_MS + BLOCKING_TIME_MS);
+        looper.moveTimeForward(INTERVAL_MS);
+        looper.dispatchAll();
+
+        assertThat(lanes.getProbeCount(0)).isEqualTo(1);
+        assertThat(lanes.getMaxDispatchLatencyMs(0)).isEqualTo(BLOCKING_TIME_MS);
+    }
+
+    @Test
+    public void getHandler_countsWaitingMessages() {
+        TestLooper looper = new TestLooper();
+        StateMachineLanes lanes = createLanes(looper);
+        Handler handler = lanes.getHandler(mAdapter.getRemoteDevice("00:01:02:03:04:05"));
+
+        handler.post(() -> {});
+        handler.post(() -> {});
+        handler.sendEmptyMessage(1);
+        assertThat(lanes.getQueueDepth(0)).isEqualTo(3);
+
+        looper.dispatchNext();
+        assertThat(lanes.getQueueDepth(0)).isEqualTo(2);
+        looper.dispatchAll();
+        assertThat(lanes.getQueueDepth(0)).isEqualTo(0);
+        assertThat(lanes.getMaxQueueDepth(0)).isEqualTo(3);
+    }
+
+    @Test
+    public void probe_notCountedInQueueDepth() {
+        TestLooper looper = new TestLooper();
+        StateMachineLanes lanes = createLanes(looper);
+
+        lanes.onLaneIdle(0);
+        assertThat(lanes.getQueueDepth(0)).isEqualTo(0);
+        advance(looper);
+
+        assertThat(lanes.getProbeCount(0)).isEqualTo(1);
+        assertThat(lanes.getMaxQueueDepth(0)).isEqualTo(0);
+    }
+
+    @Test
+    public void probe_unusedLane_stopsSampling() {
+        TestLooper looper = new TestLooper();
+        StateMachineLanes lanes = createLanes(looper);
+
+        lanes.onLaneIdle(0);
+        advance(looper);
+
+        // The lane was used before the first probe, so it is sampled once more
+        assertThat(lanes.getProbeCount(0)).isEqualTo(1);
+        advance(looper);
+        assertThat(lanes.getProbeCount(0)).isEqualTo(2);
+        assertThat(lanes.getMaxDispatchLatencyMs(0)).isEqualTo(0);
+
+        advance(looper);
+        assertThat(lanes.getProbeCount(0)).isEqualTo(2);
+        // No probe left to wake the lane up
+        looper.moveTimeForward(10 * INTERVAL_MS);
+        assertThat(looper.isIdle()).isTrue();
+    }
+
+    @Test
+    public void probe_laneUsedAgain_restartsSampling() {
+        TestLooper looper = new TestLooper();
+        StateMachineLanes lanes = createLanes(looper);
+        lanes.onLaneIdle(0);
+        advance(looper);
+        advance(looper);
+        assertThat(lanes.getProbeCount(0)).isEqualTo(2);
+
+        // Idle right after the last probe doesn't count as use of the lane
+        lanes.onLaneIdle(0);
+        advance(looper);
+        assertThat(lanes.getProbeCount(0)).isEqualTo(2);
+
+        lanes.onLaneIdle(0);
+        advance(looper);
+        assertThat(lanes.getProbeCount(0)).isEqualTo(3);
+    }
+
+    private StateMachineLanes createLanes(TestLooper looper) {
+        // Not assigned to mLanes, the looper of a TestLooper can't be quit
+        return new StateMachineLanes(
+                new Looper[] {looper.getLooper()}, () -> mClockMillis, INTERVAL_MS);
+    }
+
+    /** Move the lane and its clock one probe interval forward and dispatch what is due. */
+    private void advance(TestLooper looper) {
+        mClockMillis += INTERVAL_MS;
+        looper.moveTimeForward(INTERVAL_MS);
+        looper.dispatchAll();
+    }
+}
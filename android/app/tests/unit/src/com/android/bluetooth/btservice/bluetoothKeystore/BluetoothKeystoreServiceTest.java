@@ -18,8 +18,12 @@ package com.android.bluetooth.btservice.bluetoothkeystore;
 
 import android.os.Binder;
 import android.os.Process;
+import android.platform.test.annotations.EnableFlags;
+import android.platform.test.flag.junit.SetFlagsRule;
 import android.util.Log;
 
+import com.android.bluetooth.flags.Flags;
+
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Assume;
@@ -47,6 +51,7 @@ public final class BluetoothKeystoreServiceTest {
     private BluetoothKeystoreService mBluetoothKeystoreService;
 
     @Rule public MockitoRule mockitoRule = MockitoJUnit.rule();
+    @Rule public final SetFlagsRule mSetFlagsRule = new SetFlagsRule();
 
     @Mock private BluetoothKeystoreNativeInterface mMockNativeInterface;
 
@@ -58,6 +63,8 @@ public final class BluetoothKeystoreServiceTest {
             "/data/misc/bluedroid/bt_config.conf.encrypted";
     private static final String CONFIG_CHECKSUM_ENCRYPTION_PATH =
             "/data/misc/bluedroid/bt_config.checksum.encrypted";
+    private static final String CONFIG_FILE_JOURNAL_PATH =
+            "/data/misc/bluedroid/bt_config.conf.encrypted.journal";
 
     // bt_config file test content.
     private final List<String> mConfigTestData =
@@ -287,4 +294,33 @@ public final class BluetoothKeystoreServiceTest {
 
         Assert.assertTrue(mBluetoothKeystoreService.getCompareResult() == 0);
     }
+
+    @Test
+    @EnableFlags(Flags.FLAG_KEYSTORE_JOURNAL)
+    public void testSaveEncryptedKeyAppendsChangesToJournal() throws IOException {
+        mBluetoothKeystoreService.cleanupAll();
+        overwriteConfigFile(mConfigTestData);
+        Assert.assertTrue(parseConfigFile(CONFIG_FILE_PATH));
+        // No encryption file yet, all the keys are written in it.
+        mBluetoothKeystoreService.saveEncryptedKey();
+        Assert.assertTrue(Files.exists(Paths.get(CONFIG_FILE_ENCRYPTION_PATH)));
+        Assert.assertFalse(Files.exists(Paths.get(CONFIG_FILE_JOURNAL_PATH)));
+
+        // Only the changes are journaled.
+        String linkKey = "aa:bb:cc:dd:ee:ff-LinkKey";
+        String lencKey = "aa:bb:cc:dd:ee:ff-LE_KEY_LENC";
+        Assert.assertTrue(setEncryptKeyOrRemoveKey(linkKey, "ffeeddccbbaa00998877665544332211"));
+        Assert.assertTrue(setEncryptKeyOrRemoveKey(lencKey, ""));
+        mBluetoothKeystoreService.saveEncryptedKey();
+        Assert.assertTrue(Files.exists(Paths.get(CONFIG_FILE_JOURNAL_PATH)));
+        Assert.assertEquals(2, mBluetoothKeystoreService.getJournalEntryCount());
+
+        // The journal is applied on top of the encryption file when loading.
+        mBluetoothKeystoreService.cleanupMemory();
+        Assert.assertTrue(loadEncryptionFile(CONFIG_FILE_ENCRYPTION_PATH, true));
+        mNameDecryptKeyResult.put(linkKey, "ffeeddccbbaa00998877665544332211");
+        mNameDecryptKeyResult.remove(lencKey);
+        Assert.assertTrue(
+                doCompareMap(mNameDecryptKeyResult, mBluetoothKeystoreService.getNameDecryptKey()));
+    }
 }
@@ -16,29 +16,39 @@
 
 package com.android.bluetooth.gatt;
 
+import static com.google.common.truth.Truth.assertThat;
+
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
+import android.bluetooth.le.AdvertiseCallback;
 import android.bluetooth.le.AdvertiseData;
 import android.bluetooth.le.AdvertisingSetParameters;
 import android.bluetooth.le.IAdvertisingSetCallback;
 import android.bluetooth.le.PeriodicAdvertisingParameters;
 import android.os.IBinder;
+import android.platform.test.annotations.EnableFlags;
+import android.platform.test.flag.junit.SetFlagsRule;
 
 import androidx.test.filters.SmallTest;
 import androidx.test.runner.AndroidJUnit4;
 
 import com.android.bluetooth.TestUtils;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.flags.Flags;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
@@ -47,9 +57,13 @@ import org.mockito.junit.MockitoRule;
 @SmallTest
 @RunWith(AndroidJUnit4.class)
 public class AdvertiseManagerTest {
+    private static final int CARRIER_ID = 4;
+    private static final int TX_POWER = -7;
 
     @Rule public MockitoRule mockitoRule = MockitoJUnit.rule();
 
+    @Rule public final SetFlagsRule mSetFlagsRule = new SetFlagsRule();
+
     @Mock private AdapterService mAdapterService;
 
     @Mock private GattService mService;
@@ -62,6 +76,14 @@ public class AdvertiseManagerTest {
 
     @Mock private IBinder mBinder;
 
+    @Mock private IAdvertisingSetCallback mSharedCallback;
+
+    @Mock private IBinder mSharedBinder;
+
+    @Mock private IAdvertisingSetCallback mOtherCallback;
+
+    @Mock private IBinder mOtherBinder;
+
     private AdvertiseManager mAdvertiseManager;
     private int mAdvertiserId;
 
@@ -158,4 +180,147 @@ public class AdvertiseManagerTest {
 
         verify(mAdvertiserMap).setPeriodicAdvertisingData(mAdvertiserId, periodicData);
     }
+
+    @Test
+    @EnableFlags(Flags.FLAG_VIRTUAL_ADVERTISING_SETS)
+    public void lastFreeSet_reservedForSharedSet() throws Exception {
+        doReturn(2).when(mAdapterService).getNumOfAdvertisementInstancesSupported();
+
+        // The advertiser started in setUp() holds the other set
+        AdvertisingSetParameters parameters =
+                startSharableAdvertisingSet(mSharedCallback, mSharedBinder);
+        int carrierRegId = AdvertiseManager.sTempRegistrationId;
+
+        verifyAdvertisingSetStarted(parameters, carrierRegId);
+        verifyNoAdvertisingSetStarted(carrierRegId + 1);
+        verify(mSharedCallback, never())
+                .onAdvertisingSetStarted(any(), anyInt(), anyInt(), anyInt());
+
+        mAdvertiseManager.onAdvertisingSetStarted(carrierRegId, CARRIER_ID, TX_POWER, 0);
+
+        ArgumentCaptor<Integer> advertiserId = ArgumentCaptor.forClass(Integer.class);
+        verify(mSharedCallback)
+                .onAdvertisingSetStarted(
+                        any(),
+                        advertiserId.capture(),
+                        eq(TX_POWER),
+                        eq(AdvertiseCallback.ADVERTISE_SUCCESS));
+        assertThat(advertiserId.getValue()).isAtLeast(AdvertisingSetMultiplexer.MEMBER_ID_BASE);
+
+        // The next advertiser the controller has no set for joins the shared set
+        startSharableAdvertisingSet(mOtherCallback, mOtherBinder);
+        mAdvertiseManager.onAdvertisingSetStarted(
+                AdvertiseManager.sTempRegistrationId,
+                0,
+                0,
+                AdvertiseCallback.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS);
+        verify(mOtherCallback)
+                .onAdvertisingSetStarted(
+                        any(), anyInt(), eq(TX_POWER), eq(AdvertiseCallback.ADVERTISE_SUCCESS));
+        verify(mNativeInterface, never()).stopAdvertisingSet(anyInt());
+
+        // Parameters of the advertiser on air are answered by the shared set
+        AdvertisingSetParameters newParameters =
+                new AdvertisingSetParameters.Builder()
+                        .setLegacyMode(true)
+                        .setConnectable(false)
+                        .setInterval(AdvertisingSetParameters.INTERVAL_HIGH)
+                        .build();
+        mAdvertiseManager.setAdvertisingParameters(advertiserId.getValue(), newParameters);
+        verify(mNativeInterface).setAdvertisingParameters(CARRIER_ID, newParameters);
+        verify(mSharedCallback, never())
+                .onAdvertisingParametersUpdated(anyInt(), anyInt(), anyInt());
+
+        mAdvertiseManager.onAdvertisingParametersUpdated(CARRIER_ID, TX_POWER + 2, 0);
+        verify(mSharedCallback)
+                .onAdvertisingParametersUpdated(advertiserId.getValue(), TX_POWER + 2, 0);
+    }
+
+    @Test
+    @EnableFlags(Flags.FLAG_VIRTUAL_ADVERTISING_SETS)
+    public void lastFreeSet_sharedSetFailsWithTooManyAdvertisers_reportsFailure()
+            throws Exception {
+        doReturn(2).when(mAdapterService).getNumOfAdvertisementInstancesSupported();
+        int status = AdvertiseCallback.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS;
+
+        startSharableAdvertisingSet(mSharedCallback, mSharedBinder);
+        mAdvertiseManager.onAdvertisingSetStarted(
+                AdvertiseManager.sTempRegistrationId, 0, 0, status);
+
+        verify(mSharedCallback).onAdvertisingSetStarted(any(), anyInt(), eq(0), eq(status));
+        verify(mNativeInterface, never()).stopAdvertisingSet(anyInt());
+
+        // The set is used by the rest of the stack, the next advertiser waits for a free one
+        startSharableAdvertisingSet(mOtherCallback, mOtherBinder);
+        mAdvertiseManager.onAdvertisingSetStarted(
+                AdvertiseManager.sTempRegistrationId, 0, 0, status);
+
+        verify(mOtherCallback).onAdvertisingSetStarted(any(), anyInt(), eq(0), eq(status));
+    }
+
+    @Test
+    @EnableFlags(Flags.FLAG_VIRTUAL_ADVERTISING_SETS)
+    public void tooManyAdvertisers_noSharedSet_reservesNextTime() throws Exception {
+        int status = AdvertiseCallback.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS;
+
+        // Number of sets unknown, the advertiser gets a set of its own
+        AdvertisingSetParameters parameters =
+                startSharableAdvertisingSet(mSharedCallback, mSharedBinder);
+        int regId = AdvertiseManager.sTempRegistrationId;
+        verifyAdvertisingSetStarted(parameters, regId);
+
+        mAdvertiseManager.onAdvertisingSetStarted(regId, 0, 0, status);
+        verify(mSharedCallback).onAdvertisingSetStarted(any(), anyInt(), eq(0), eq(status));
+
+        // The controller ran out with the set of setUp(), the next one goes to the shared set
+        parameters = startSharableAdvertisingSet(mOtherCallback, mOtherBinder);
+        int carrierRegId = AdvertiseManager.sTempRegistrationId;
+        verifyAdvertisingSetStarted(parameters, carrierRegId);
+        verifyNoAdvertisingSetStarted(carrierRegId + 1);
+    }
+
+    private AdvertisingSetParameters startSharableAdvertisingSet(
+            IAdvertisingSetCallback callback, IBinder binder) throws Exception {
+        AdvertisingSetParameters parameters =
+                new AdvertisingSetParameters.Builder()
+                        .setLegacyMode(true)
+                        .setConnectable(false)
+                        .build();
+        AdvertiseData data = new AdvertiseData.Builder().build();
+
+        doReturn(binder).when(callback).asBinder();
+        doNothing().when(binder).linkToDeath(any(), eq(0));
+
+        mAdvertiseManager.startAdvertisingSet(
+                parameters, data, data, null, null, 0, 0, 0, callback);
+        return parameters;
+    }
+
+    private void verifyAdvertisingSetStarted(AdvertisingSetParameters parameters, int regId) {
+        verify(mNativeInterface)
+                .startAdvertisingSet(
+                        eq(parameters),
+                        any(),
+                        any(),
+                        isNull(),
+                        isNull(),
+                        eq(0),
+                        eq(0),
+                        eq(regId),
+                        eq(0));
+    }
+
+    private void verifyNoAdvertisingSetStarted(int regId) {
+        verify(mNativeInterface, never())
+                .startAdvertisingSet(
+                        any(),
+                        any(),
+                        any(),
+                        any(),
+                        any(),
+                        anyInt(),
+                        anyInt(),
+                        eq(regId),
+                        anyInt());
+    }
 }
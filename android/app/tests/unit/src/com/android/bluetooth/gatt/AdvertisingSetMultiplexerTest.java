@@ -0,0 +1,323 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.bluetooth.le.AdvertiseCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
+import android.os.Handler;
+import android.os.test.TestLooper;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+/** Test cases for {@link AdvertisingSetMultiplexer}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class AdvertisingSetMultiplexerTest {
+    private static final int CARRIER_ID = 3;
+    private static final int CARRIER_REG_ID = -42;
+    private static final int TX_POWER = -7;
+    private static final byte[] OWNER_DATA = new byte[] {1};
+    private static final byte[] MEMBER_DATA = new byte[] {2};
+
+    @Rule public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock private AdvertiseManagerNativeInterface mNativeInterface;
+    @Mock private AdvertiserMap mAdvertiserMap;
+
+    private AdvertisingSetMultiplexer mMultiplexer;
+
+    @Before
+    public void setUp() {
+        TestLooper looper = new TestLooper();
+        mMultiplexer =
+                new AdvertisingSetMultiplexer(
+                        mNativeInterface,
+                        mAdvertiserMap,
+                        new Handler(looper.getLooper()),
+                        () -> CARRIER_REG_ID);
+    }
+
+    @Test
+    public void canShare() {
+        assertThat(AdvertisingSetMultiplexer.canShare(buildParameters(160))).isTrue();
+        assertThat(
+                        AdvertisingSetMultiplexer.canShare(
+                                new AdvertisingSetParameters.Builder()
+                                        .setLegacyMode(true)
+                                        .setConnectable(true)
+                                        .build()))
+                .isFalse();
+        assertThat(
+                        AdvertisingSetMultiplexer.canShare(
+                                new AdvertisingSetParameters.Builder().build()))
+                .isFalse();
+        assertThat(AdvertisingSetMultiplexer.canShare(buildParameters(160), null, 10, 0, 0))
+                .isFalse();
+    }
+
+    @Test
+    public void addMember_startsDedicatedCarrier() {
+        AdvertisingSetParameters parameters = buildParameters(160);
+        int firstId = mMultiplexer.addMember(newPayload(parameters, OWNER_DATA));
+
+        verify(mNativeInterface)
+                .startAdvertisingSet(
+                        eq(parameters),
+                        eq(OWNER_DATA),
+                        any(),
+                        isNull(),
+                        isNull(),
+                        eq(0),
+                        eq(0),
+                        eq(CARRIER_REG_ID),
+                        eq(0));
+        assertThat(mMultiplexer.isCarrierRegistration(CARRIER_REG_ID)).isTrue();
+        assertThat(mMultiplexer.hasCarrier()).isFalse();
+
+        int secondId = mMultiplexer.addMember(newPayload(parameters, MEMBER_DATA));
+        assertThat(mMultiplexer.onCarrierStarted(CARRIER_ID, TX_POWER, 0))
+                .asList()
+                .containsExactly(firstId, secondId);
+
+        assertThat(mMultiplexer.hasCarrier()).isTrue();
+        assertThat(mMultiplexer.isCarrier(CARRIER_ID)).isTrue();
+        assertThat(mMultiplexer.isMember(CARRIER_ID)).isFalse();
+        assertThat(mMultiplexer.getOnAirId()).isEqualTo(firstId);
+        verify(mAdvertiserMap).setSharedAdvertisingSet(firstId);
+        verify(mAdvertiserMap).setSharedAdvertisingSet(secondId);
+    }
+
+    @Test
+    public void onCarrierStarted_failed_removesMembers() {
+        int firstId = mMultiplexer.addMember(newPayload(buildParameters(160), OWNER_DATA));
+
+        assertThat(
+                        mMultiplexer.onCarrierStarted(
+                                0, 0, AdvertiseCallback.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS))
+                .asList()
+                .containsExactly(firstId);
+
+        assertThat(mMultiplexer.isMember(firstId)).isFalse();
+        assertThat(mMultiplexer.isCarrierRegistration(CARRIER_REG_ID)).isFalse();
+        verify(mNativeInterface, never()).stopAdvertisingSet(anyInt());
+    }
+
+    @Test
+    public void onCarrierStarted_membersLeft_stopsCarrier() {
+        int firstId = mMultiplexer.addMember(newPayload(buildParameters(160), OWNER_DATA));
+        mMultiplexer.removeMember(firstId);
+
+        mMultiplexer.onCarrierStarted(CARRIER_ID, TX_POWER, 0);
+
+        verify(mNativeInterface).stopAdvertisingSet(CARRIER_ID);
+        assertThat(mMultiplexer.hasCarrier()).isFalse();
+    }
+
+    @Test
+    public void rotate_membersTakeTurns() {
+        AdvertisingSetParameters parameters = buildParameters(160);
+        int firstId = startCarrier(newPayload(parameters, OWNER_DATA));
+        int memberId = mMultiplexer.addMember(newPayload(parameters, MEMBER_DATA));
+
+        assertThat(memberId).isAtLeast(AdvertisingSetMultiplexer.MEMBER_ID_BASE);
+        assertThat(mMultiplexer.isMember(memberId)).isTrue();
+        assertThat(mMultiplexer.getOnAirId()).isEqualTo(firstId);
+
+        mMultiplexer.rotate();
+        assertThat(mMultiplexer.getOnAirId()).isEqualTo(memberId);
+        verify(mNativeInterface).setAdvertisingData(CARRIER_ID, MEMBER_DATA);
+        // Same parameters, the carrier is not restarted
+        verify(mNativeInterface, never()).setAdvertisingParameters(eq(CARRIER_ID), eq(parameters));
+        verify(mAdvertiserMap).recordRotationSlot(eq(firstId), anyLong());
+
+        mMultiplexer.rotate();
+        assertThat(mMultiplexer.getOnAirId()).isEqualTo(firstId);
+        verify(mNativeInterface).setAdvertisingData(CARRIER_ID, OWNER_DATA);
+
+        // Nobody asked for the data of the rotation
+        assertThat(mMultiplexer.onCarrierDataSet(0)).isEqualTo(AdvertisingSetMultiplexer.NO_MEMBER);
+    }
+
+    @Test
+    public void rotate_shortIntervalGetsMoreTurns() {
+        int fastId = startCarrier(newPayload(buildParameters(160), OWNER_DATA));
+        int slowId = mMultiplexer.addMember(newPayload(buildParameters(1600), MEMBER_DATA));
+
+        int fastTurns = 0;
+        int slowTurns = 0;
+        for (int i = 0; i < 22; i++) {
+            mMultiplexer.rotate();
+            if (mMultiplexer.getOnAirId() == slowId) {
+                slowTurns++;
+            } else if (mMultiplexer.getOnAirId() == fastId) {
+                fastTurns++;
+            }
+        }
+
+        assertThat(slowTurns).isEqualTo(2);
+        assertThat(fastTurns).isEqualTo(20);
+    }
+
+    @Test
+    public void setEnabled_disabledMemberSkipped() {
+        AdvertisingSetParameters parameters = buildParameters(160);
+        int firstId = startCarrier(newPayload(parameters, OWNER_DATA));
+        int memberId = mMultiplexer.addMember(newPayload(parameters, MEMBER_DATA));
+
+        mMultiplexer.setEnabled(memberId, false);
+        mMultiplexer.rotate();
+        mMultiplexer.rotate();
+
+        assertThat(mMultiplexer.getOnAirId()).isEqualTo(firstId);
+        verify(mNativeInterface, never()).setAdvertisingData(CARRIER_ID, MEMBER_DATA);
+    }
+
+    @Test
+    public void setAdvertisingData_onAir_answeredByCarrier() {
+        AdvertisingSetParameters parameters = buildParameters(160);
+        int firstId = startCarrier(newPayload(parameters, OWNER_DATA));
+        int memberId = mMultiplexer.addMember(newPayload(parameters, MEMBER_DATA));
+        byte[] data = new byte[] {3};
+
+        assertThat(mMultiplexer.setAdvertisingData(memberId, data)).isFalse();
+        assertThat(mMultiplexer.setAdvertisingData(firstId, data)).isTrue();
+
+        verify(mNativeInterface).setAdvertisingData(CARRIER_ID, data);
+        assertThat(mMultiplexer.onCarrierDataSet(0)).isEqualTo(firstId);
+    }
+
+    @Test
+    public void setAdvertisingParameters_onAir_forwardsTxPower() {
+        AdvertisingSetMultiplexer.Payload payload = newPayload(buildParameters(160), OWNER_DATA);
+        int firstId = startCarrier(payload);
+        AdvertisingSetParameters parameters = buildParameters(400);
+
+        assertThat(mMultiplexer.setAdvertisingParameters(firstId, parameters)).isTrue();
+
+        verify(mNativeInterface).setAdvertisingParameters(CARRIER_ID, parameters);
+        assertThat(mMultiplexer.onCarrierParametersUpdated(TX_POWER + 2, 0)).isEqualTo(firstId);
+        assertThat(payload.mTxPower).isEqualTo(TX_POWER + 2);
+        assertThat(mMultiplexer.getCarrierTxPower()).isEqualTo(TX_POWER + 2);
+    }
+
+    @Test
+    public void pushScanResponse_onlyForScannableMembers() {
+        int firstId = startCarrier(newPayload(buildParameters(160), OWNER_DATA));
+        AdvertisingSetParameters scannable =
+                new AdvertisingSetParameters.Builder()
+                        .setLegacyMode(true)
+                        .setScannable(true)
+                        .setInterval(160)
+                        .build();
+        byte[] scanResponse = new byte[] {4};
+        int memberId =
+                mMultiplexer.addMember(
+                        new AdvertisingSetMultiplexer.Payload(
+                                scannable, MEMBER_DATA, scanResponse));
+
+        assertThat(mMultiplexer.setScanResponseData(firstId, new byte[] {5})).isFalse();
+        mMultiplexer.rotate();
+
+        assertThat(mMultiplexer.getOnAirId()).isEqualTo(memberId);
+        verify(mNativeInterface).setScanResponseData(anyInt(), any());
+        verify(mNativeInterface).setScanResponseData(CARRIER_ID, scanResponse);
+    }
+
+    @Test
+    public void shouldReserve_lastFreeSet() {
+        assertThat(mMultiplexer.shouldReserve(2, 4)).isFalse();
+        assertThat(mMultiplexer.shouldReserve(3, 4)).isTrue();
+        assertThat(mMultiplexer.shouldReserve(3, 0)).isFalse();
+
+        // The rest of the stack holds sets too
+        mMultiplexer.onPoolExhausted(2);
+        assertThat(mMultiplexer.shouldReserve(1, 4)).isTrue();
+        assertThat(mMultiplexer.shouldReserve(1, 0)).isTrue();
+
+        mMultiplexer.addMember(newPayload(buildParameters(160), OWNER_DATA));
+        assertThat(mMultiplexer.isSharing()).isTrue();
+        assertThat(mMultiplexer.shouldReserve(3, 4)).isFalse();
+    }
+
+    @Test
+    public void removeMember_lastMember_stopsCarrier() {
+        AdvertisingSetParameters parameters = buildParameters(160);
+        int firstId = startCarrier(newPayload(parameters, OWNER_DATA));
+        int memberId = mMultiplexer.addMember(newPayload(parameters, MEMBER_DATA));
+
+        mMultiplexer.removeMember(firstId);
+        verify(mNativeInterface, never()).stopAdvertisingSet(CARRIER_ID);
+        assertThat(mMultiplexer.isCarrier(CARRIER_ID)).isTrue();
+
+        mMultiplexer.removeMember(memberId);
+        verify(mNativeInterface).stopAdvertisingSet(CARRIER_ID);
+        assertThat(mMultiplexer.hasCarrier()).isFalse();
+    }
+
+    @Test
+    public void requestOwnAddress_answeredThroughCarrier() {
+        AdvertisingSetParameters parameters = buildParameters(160);
+        int firstId = mMultiplexer.addMember(newPayload(parameters, OWNER_DATA));
+        assertThat(mMultiplexer.requestOwnAddress(firstId)).isFalse();
+        mMultiplexer.onCarrierStarted(CARRIER_ID, TX_POWER, 0);
+        int memberId = mMultiplexer.addMember(newPayload(parameters, MEMBER_DATA));
+
+        assertThat(mMultiplexer.requestOwnAddress(memberId)).isTrue();
+
+        verify(mNativeInterface).getOwnAddress(CARRIER_ID);
+        assertThat(mMultiplexer.takeOwnAddressRequests()).asList().containsExactly(memberId);
+        assertThat(mMultiplexer.takeOwnAddressRequests()).isEmpty();
+    }
+
+    /** Add the first member and start the carrier for it. */
+    private int startCarrier(AdvertisingSetMultiplexer.Payload payload) {
+        int id = mMultiplexer.addMember(payload);
+        mMultiplexer.onCarrierStarted(CARRIER_ID, TX_POWER, 0);
+        return id;
+    }
+
+    private static AdvertisingSetParameters buildParameters(int interval) {
+        return new AdvertisingSetParameters.Builder()
+                .setLegacyMode(true)
+                .setInterval(interval)
+                .build();
+    }
+
+    private static AdvertisingSetMultiplexer.Payload newPayload(
+            AdvertisingSetParameters parameters, byte[] data) {
+        return new AdvertisingSetMultiplexer.Payload(parameters, data, new byte[0]);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.gatt;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.bluetooth.le.DistanceMeasurementResult;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Test cases for {@link DistanceMeasurementFilter}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class DistanceMeasurementFilterTest {
+    private final DistanceMeasurementFilter mFilter = new DistanceMeasurementFilter();
+
+    @Test
+    public void addSample_firstSample_deliveredAsIs() {
+        assertThat(addSample(0, 1.0, 1.0)).isTrue();
+
+        DistanceMeasurementResult result = mFilter.takeResult(0);
+        assertThat(result.getResultMeters()).isEqualTo(1.0);
+        assertThat(result.getErrorMeters()).isEqualTo(1.0);
+        assertThat(result.getAzimuthAngle()).isNaN();
+        assertThat(result.getAltitudeAngle()).isNaN();
+    }
+
+    @Test
+    public void addSample_smoothsNoisySamples() {
+        addSample(0, 2.0, 0.5);
+        addSample(100, 2.6, 0.5);
+        addSample(200, 1.4, 0.5);
+
+        DistanceMeasurementResult result = mFilter.takeResult(200);
+        assertThat(result.getResultMeters()).isWithin(0.3).of(2.0);
+        assertThat(result.getErrorMeters()).isLessThan(0.5);
+    }
+
+    @Test
+    public void addSample_outlierRejected() {
+        addSample(0, 2.0, 0.1);
+        addSample(100, 2.0, 0.1);
+
+        assertThat(addSample(200, 20.0, 0.1)).isFalse();
+
+        assertThat(mFilter.takeResult(200).getResultMeters()).isWithin(0.01).of(2.0);
+        assertThat(mFilter.getOutlierCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void addSample_consecutiveOutliers_restartsFromLatest() {
+        addSample(0, 2.0, 0.1);
+        for (int i = 1; i < DistanceMeasurementFilter.MAX_CONSECUTIVE_OUTLIERS; i++) {
+            assertThat(addSample(i * 100, 20.0, 0.1)).isFalse();
+        }
+
+        assertThat(addSample(1000, 20.0, 0.1)).isTrue();
+
+        assertThat(mFilter.takeResult(1000).getResultMeters()).isEqualTo(20.0);
+    }
+
+    @Test
+    public void addSample_azimuthWrapsAround() {
+        mFilter.addSample(0, 1.0, 0.1, 350.0, 5.0, Double.NaN, Double.NaN);
+        mFilter.addSample(0, 1.0, 0.1, 10.0, 5.0, Double.NaN, Double.NaN);
+
+        double azimuth = mFilter.takeResult(0).getAzimuthAngle();
+        assertThat(azimuth < 1.0 || azimuth > 359.0).isTrue();
+    }
+
+    @Test
+    public void scheduleDelivery_capsDeliveryRate() {
+        addSample(0, 1.0, 0.1);
+        assertThat(mFilter.scheduleDelivery(0)).isEqualTo(0);
+        mFilter.takeResult(0);
+
+        addSample(20, 1.0, 0.1);
+        assertThat(mFilter.scheduleDelivery(20))
+                .isEqualTo(DistanceMeasurementFilter.MIN_DELIVERY_INTERVAL_MS - 20);
+        // Already pending, the next sample is folded into the same delivery
+        addSample(40, 1.0, 0.1);
+        assertThat(mFilter.scheduleDelivery(40)).isEqualTo(-1);
+        mFilter.takeResult(DistanceMeasurementFilter.MIN_DELIVERY_INTERVAL_MS);
+
+        assertThat(mFilter.getSampleCount()).isEqualTo(3);
+        assertThat(mFilter.getDeliveredCount()).isEqualTo(2);
+        // 3 samples and 2 deliveries over 200ms
+        assertThat(mFilter.getSampleRateDeciHz(200)).isEqualTo(150);
+        assertThat(mFilter.getDeliveryRateDeciHz(200)).isEqualTo(100);
+    }
+
+    private boolean addSample(long nowMs, double meters, double errorMeters) {
+        return mFilter.addSample(
+                nowMs, meters, errorMeters, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+    }
+}
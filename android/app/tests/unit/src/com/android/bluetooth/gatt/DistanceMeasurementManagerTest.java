@@ -32,11 +32,14 @@ import android.bluetooth.le.DistanceMeasurementParams;
 import android.bluetooth.le.DistanceMeasurementResult;
 import android.bluetooth.le.IDistanceMeasurementCallback;
 import android.os.RemoteException;
+import android.platform.test.annotations.EnableFlags;
+import android.platform.test.flag.junit.SetFlagsRule;
 
 import androidx.test.filters.SmallTest;
 import androidx.test.runner.AndroidJUnit4;
 
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.flags.Flags;
 
 import org.junit.After;
 import org.junit.Before;
@@ -55,6 +58,7 @@ import java.util.UUID;
 @RunWith(AndroidJUnit4.class)
 public class DistanceMeasurementManagerTest {
     @Rule public MockitoRule mockitoRule = MockitoJUnit.rule();
+    @Rule public final SetFlagsRule mSetFlagsRule = new SetFlagsRule();
 
     @Mock private DistanceMeasurementNativeInterface mDistanceMeasurementNativeInterface;
     @Mock private AdapterService mAdapterService;
@@ -208,6 +212,47 @@ public class DistanceMeasurementManagerTest {
         assertThat(result.getValue().getErrorAltitudeAngle()).isEqualTo(Double.NaN);
     }
 
+    @Test
+    @EnableFlags(Flags.FLAG_DISTANCE_MEASUREMENT_FILTERING)
+    public void testHandleRssiResult_filtered() throws RemoteException {
+        DistanceMeasurementParams params =
+                new DistanceMeasurementParams.Builder(mDevice)
+                        .setDurationSeconds(1000)
+                        .setFrequency(DistanceMeasurementParams.REPORT_FREQUENCY_LOW)
+                        .setMethodId(DistanceMeasurementMethod.DISTANCE_MEASUREMENT_METHOD_RSSI)
+                        .build();
+        mDistanceMeasurementManager.startDistanceMeasurement(mUuid, params, mCallback);
+        mDistanceMeasurementManager.onDistanceMeasurementStarted(
+                IDENTITY_ADDRESS, DistanceMeasurementMethod.DISTANCE_MEASUREMENT_METHOD_RSSI);
+
+        mDistanceMeasurementManager.onDistanceMeasurementResult(
+                IDENTITY_ADDRESS,
+                100,
+                10,
+                90,
+                5,
+                -1,
+                -1,
+                DistanceMeasurementMethod.DISTANCE_MEASUREMENT_METHOD_RSSI);
+        // Far outside of the error of the first sample
+        mDistanceMeasurementManager.onDistanceMeasurementResult(
+                IDENTITY_ADDRESS,
+                2000,
+                10,
+                90,
+                5,
+                -1,
+                -1,
+                DistanceMeasurementMethod.DISTANCE_MEASUREMENT_METHOD_RSSI);
+
+        ArgumentCaptor<DistanceMeasurementResult> result =
+                ArgumentCaptor.forClass(DistanceMeasurementResult.class);
+        verify(mCallback, after(100).times(1)).onResult(eq(mDevice), result.capture());
+        assertThat(result.getValue().getResultMeters()).isEqualTo(1.00);
+        assertThat(result.getValue().getAzimuthAngle()).isEqualTo(90.0);
+        assertThat(result.getValue().getAltitudeAngle()).isEqualTo(Double.NaN);
+    }
+
     @Test
     public void testReceivedResultAfterStopped() throws RemoteException {
         DistanceMeasurementParams params =
@@ -20,9 +20,11 @@ import static com.google.common.truth.Truth.assertThat;
 
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -30,8 +32,12 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.platform.test.annotations.EnableFlags;
+import android.platform.test.flag.junit.SetFlagsRule;
 import android.provider.CallLog;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.PhoneLookup;
 import android.telephony.PhoneNumberUtils;
 
 import androidx.test.InstrumentationRegistry;
@@ -41,6 +47,7 @@ import com.android.bluetooth.BluetoothMethodProxy;
 import com.android.bluetooth.R;
 import com.android.bluetooth.TestUtils;
 import com.android.bluetooth.btservice.AdapterService;
+import com.android.bluetooth.flags.Flags;
 import com.android.bluetooth.util.DevicePolicyUtils;
 import com.android.internal.telephony.GsmAlphabet;
 
@@ -49,6 +56,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnit;
@@ -62,6 +70,7 @@ public class AtPhonebookTest {
     private BluetoothDevice mTestDevice;
 
     @Rule public MockitoRule mockitoRule = MockitoJUnit.rule();
+    @Rule public final SetFlagsRule mSetFlagsRule = new SetFlagsRule();
 
     @Mock private AdapterService mAdapterService;
     @Mock private HeadsetNativeInterface mNativeInterface;
@@ -83,6 +92,7 @@ public class AtPhonebookTest {
 
     @After
     public void tearDown() throws Exception {
+        mAtPhonebook.cleanup();
         TestUtils.clearAdapterService(mAdapterService);
         BluetoothMethodProxy.setInstanceForTesting(null);
     }
@@ -370,6 +380,96 @@ public class AtPhonebookTest {
         mAtPhonebook.processCpbrCommand(mTestDevice);
     }
 
+    @Test
+    @EnableFlags(Flags.FLAG_HFP_PHONEBOOK_SNAPSHOT)
+    public void processCpbrCommand_withSnapshot_readOnceUntilChanged() {
+        String number = "5551234";
+        mockMissedCalls(number, number, number);
+        doAnswer(invocation -> nameCursor("name"))
+                .when(mHfpMethodProxy)
+                .contentResolverQuery(any(), any(), any(), any(), any(), any());
+        mAtPhonebook.mCurrentPhonebook = "MC";
+
+        mAtPhonebook.setCpbrIndex(1);
+        mAtPhonebook.processCpbrCommand(mTestDevice);
+        mAtPhonebook.mCpbrIndex1 = 2;
+        mAtPhonebook.mCpbrIndex2 = 3;
+        mAtPhonebook.processCpbrCommand(mTestDevice);
+
+        // Call log read once, name looked up once for the three calls
+        verify(mHfpMethodProxy, times(1)).contentResolverQuery(any(), any(), any(), any(), any());
+        verify(mHfpMethodProxy, times(1))
+                .contentResolverQuery(any(), any(), any(), any(), any(), any());
+        String record =
+                ",\""
+                        + number
+                        + "\","
+                        + PhoneNumberUtils.toaFromString(number)
+                        + ",\"name\"\r\n\r\n";
+        // Both records of the second command sent at once
+        verify(mNativeInterface)
+                .atResponseString(mTestDevice, "+CPBR: 2" + record + "+CPBR: 3" + record);
+
+        mAtPhonebook.mPhonebookObserver.onChange(false);
+        mAtPhonebook.setCpbrIndex(1);
+        mAtPhonebook.processCpbrCommand(mTestDevice);
+
+        verify(mHfpMethodProxy, times(2)).contentResolverQuery(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    @EnableFlags(Flags.FLAG_HFP_PHONEBOOK_SNAPSHOT)
+    public void processCpbrCommand_withSnapshot_responsesFitAtLimit() {
+        String[] numbers = new String[20];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = "555" + "0".repeat(20) + String.format("%05d", i);
+        }
+        mockMissedCalls(numbers);
+        doAnswer(invocation -> nameCursor("k".repeat(28)))
+                .when(mHfpMethodProxy)
+                .contentResolverQuery(any(), any(), any(), any(), any(), any());
+        mAtPhonebook.mCurrentPhonebook = "MC";
+        mAtPhonebook.mCpbrIndex1 = 1;
+        mAtPhonebook.mCpbrIndex2 = numbers.length;
+
+        assertThat(mAtPhonebook.processCpbrCommand(mTestDevice))
+                .isEqualTo(HeadsetHalConstants.AT_RESPONSE_OK);
+
+        ArgumentCaptor<String> responses = ArgumentCaptor.forClass(String.class);
+        verify(mNativeInterface, atLeastOnce())
+                .atResponseString(eq(mTestDevice), responses.capture());
+        StringBuilder all = new StringBuilder();
+        for (String response : responses.getAllValues()) {
+            assertThat(response.length()).isAtMost(AtPhonebook.MAX_AT_RESPONSE_LENGTH);
+            all.append(response);
+        }
+        assertThat(responses.getAllValues().size()).isLessThan(numbers.length);
+        assertThat(all.toString().split("\\+CPBR: ")).hasLength(numbers.length + 1);
+    }
+
+    private void mockMissedCalls(String... numbers) {
+        MatrixCursor cursor =
+                new MatrixCursor(
+                        new String[] {
+                            CallLog.Calls._ID,
+                            CallLog.Calls.NUMBER,
+                            CallLog.Calls.NUMBER_PRESENTATION
+                        });
+        for (int i = 0; i < numbers.length; i++) {
+            cursor.addRow(new Object[] {i, numbers[i], CallLog.Calls.PRESENTATION_ALLOWED});
+        }
+        doReturn(cursor)
+                .when(mHfpMethodProxy)
+                .contentResolverQuery(any(), any(), any(), any(), any());
+    }
+
+    private static Cursor nameCursor(String name) {
+        MatrixCursor cursor =
+                new MatrixCursor(new String[] {PhoneLookup.DISPLAY_NAME, PhoneLookup.TYPE});
+        cursor.addRow(new Object[] {name, Phone.TYPE_MOBILE});
+        return cursor;
+    }
+
     @Test
     public void setCpbrIndex() {
         int index = 1;
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.hid;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.os.test.TestLooper;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class HidDeviceReportQueueTest {
+    private static final int STICK_ID = 1;
+    private static final int MOUSE_ID = 2;
+    private static final int BUTTONS_ID = 3;
+    private static final int KEYBOARD_ID = 4;
+    private static final int HAT_ID = 5;
+
+    // Report 1: 2 absolute axes, report 2: 2 relative axes and a constant padding byte,
+    // report 3: 8 absolute buttons, report 4: boot keyboard keys, report 5: hat switch
+    private static final byte[] DESCRIPTOR =
+            new byte[] {
+                (byte) 0x85, 0x01, // Report ID (1)
+                (byte) 0x95, 0x02, // Report Count (2)
+                0x75, 0x08, // Report Size (8)
+                (byte) 0x81, 0x02, // Input (Data, Variable, Absolute)
+                (byte) 0x85, 0x02, // Report ID (2)
+                (byte) 0x95, 0x01, // Report Count (1)
+                (byte) 0x81, 0x01, // Input (Constant)
+                (byte) 0x95, 0x02, // Report Count (2)
+                (byte) 0x81, 0x06, // Input (Data, Variable, Relative)
+                (byte) 0xA4, // Push
+                (byte) 0x85, 0x03, // Report ID (3)
+                (byte) 0x95, 0x08, // Report Count (8)
+                0x75, 0x01, // Report Size (1)
+                (byte) 0x81, 0x02, // Input (Data, Variable, Absolute)
+                (byte) 0xB4, // Pop
+                (byte) 0x85, 0x04, // Report ID (4)
+                (byte) 0x95, 0x06, // Report Count (6)
+                (byte) 0x81, 0x00, // Input (Data, Array, Absolute)
+                (byte) 0x85, 0x05, // Report ID (5)
+                (byte) 0x95, 0x01, // Report Count (1)
+                0x75, 0x04, // Report Size (4)
+                (byte) 0x81, 0x42, // Input (Data, Variable, Absolute, Null State)
+            };
+
+    @Rule public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock private HidDeviceNativeInterface mNativeInterface;
+
+    private final BluetoothDevice mDevice =
+            BluetoothAdapter.getDefaultAdapter().getRemoteDevice("10:11:12:13:14:15");
+    private TestLooper mLooper;
+    private HidDeviceReportQueue mQueue;
+
+    @Before
+    public void setUp() {
+        doReturn(true).when(mNativeInterface).sendReport(anyInt(), any(byte[].class));
+        mLooper = new TestLooper();
+        mQueue = new HidDeviceReportQueue(mNativeInterface, mLooper.getLooper());
+        mQueue.setReportDescriptor(DESCRIPTOR);
+    }
+
+    @Test
+    public void setReportDescriptor_findsStateReports() {
+        assertThat(mQueue.isStateReport(STICK_ID)).isTrue();
+        assertThat(mQueue.isStateReport(MOUSE_ID)).isFalse();
+        // On/off controls, a press must not be replaced by its release
+        assertThat(mQueue.isStateReport(BUTTONS_ID)).isFalse();
+        assertThat(mQueue.isStateReport(KEYBOARD_ID)).isFalse();
+        assertThat(mQueue.isStateReport(HAT_ID)).isFalse();
+        // Not in the descriptor
+        assertThat(mQueue.isStateReport(6)).isFalse();
+    }
+
+    @Test
+    public void offer_sentFromLooper() {
+        byte[] report = new byte[] {1};
+
+        assertThat(mQueue.offer(mDevice, MOUSE_ID, report)).isTrue();
+        verify(mNativeInterface, never()).sendReport(anyInt(), any(byte[].class));
+
+        mLooper.dispatchAll();
+        verify(mNativeInterface).sendReport(MOUSE_ID, report);
+        assertThat(mQueue.getStats(mDevice).mSent.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void offer_stateReports_coalescedToLatest() {
+        byte[] first = new byte[] {1};
+        byte[] latest = new byte[] {2};
+        byte[] event = new byte[] {3};
+
+        mQueue.offer(mDevice, STICK_ID, first);
+        mQueue.offer(mDevice, MOUSE_ID, event);
+        mQueue.offer(mDevice, STICK_ID, latest);
+        mLooper.dispatchAll();
+
+        // The latest state keeps the place of the first one
+        InOrder order = inOrder(mNativeInterface);
+        order.verify(mNativeInterface).sendReport(STICK_ID, latest);
+        order.verify(mNativeInterface).sendReport(MOUSE_ID, event);
+        verify(mNativeInterface, never()).sendReport(STICK_ID, first);
+        assertThat(mQueue.getStats(mDevice).mCoalesced.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void offer_buttonPressAndRelease_bothSent() {
+        byte[] press = new byte[] {1};
+        byte[] release = new byte[] {0};
+
+        mQueue.offer(mDevice, BUTTONS_ID, press);
+        mQueue.offer(mDevice, BUTTONS_ID, release);
+        mLooper.dispatchAll();
+
+        InOrder order = inOrder(mNativeInterface);
+        order.verify(mNativeInterface).sendReport(BUTTONS_ID, press);
+        order.verify(mNativeInterface).sendReport(BUTTONS_ID, release);
+        assertThat(mQueue.getStats(mDevice).mCoalesced.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void offer_afterFailedSend_returnsFalseOnce() {
+        doReturn(false).when(mNativeInterface).sendReport(anyInt(), any(byte[].class));
+        assertThat(mQueue.offer(mDevice, MOUSE_ID, new byte[] {1})).isTrue();
+        mLooper.dispatchAll();
+        assertThat(mQueue.getStats(mDevice).mFailed.get()).isEqualTo(1);
+
+        assertThat(mQueue.offer(mDevice, MOUSE_ID, new byte[] {2})).isFalse();
+        assertThat(mQueue.offer(mDevice, MOUSE_ID, new byte[] {2})).isTrue();
+    }
+
+    @Test
+    public void offer_eventReports_keptInOrder() {
+        byte[] first = new byte[] {1};
+        byte[] second = new byte[] {2};
+
+        mQueue.offer(mDevice, MOUSE_ID, first);
+        mQueue.offer(mDevice, MOUSE_ID, second);
+        mLooper.dispatchAll();
+
+        InOrder order = inOrder(mNativeInterface);
+        order.verify(mNativeInterface).sendReport(MOUSE_ID, first);
+        order.verify(mNativeInterface).sendReport(MOUSE_ID, second);
+    }
+
+    @Test
+    public void offer_tooManyEvents_dropped() {
+        for (int i = 0; i < HidDeviceReportQueue.MAX_QUEUED_EVENTS; i++) {
+            assertThat(mQueue.offer(mDevice, MOUSE_ID, new byte[] {1})).isTrue();
+        }
+
+        assertThat(mQueue.offer(mDevice, MOUSE_ID, new byte[] {1})).isFalse();
+        // State reports don't take room in the event queue
+        assertThat(mQueue.offer(mDevice, STICK_ID, new byte[] {1})).isTrue();
+
+        mLooper.dispatchAll();
+        verify(mNativeInterface, times(HidDeviceReportQueue.MAX_QUEUED_EVENTS))
+                .sendReport(MOUSE_ID, new byte[] {1});
+        assertThat(mQueue.getStats(mDevice).mDropped.get()).isEqualTo(1);
+        assertThat(mQueue.offer(mDevice, MOUSE_ID, new byte[] {1})).isTrue();
+    }
+
+    @Test
+    public void clear_dropsPendingReports() {
+        mQueue.offer(mDevice, MOUSE_ID, new byte[] {1});
+        mQueue.offer(mDevice, STICK_ID, new byte[] {1});
+
+        mQueue.clear();
+        mLooper.dispatchAll();
+
+        verify(mNativeInterface, never()).sendReport(anyInt(), any(byte[].class));
+        assertThat(mQueue.getStats(mDevice).mDropped.get()).isEqualTo(2);
+    }
+}
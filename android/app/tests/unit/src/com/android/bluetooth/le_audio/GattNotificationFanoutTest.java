@@ -0,0 +1,328 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.le_audio;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothStatusCodes;
+import android.os.test.TestLooper;
+import android.util.Log;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/** Test cases for {@link GattNotificationFanout}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class GattNotificationFanoutTest {
+    private static final String TAG = GattNotificationFanoutTest.class.getSimpleName();
+    private static final UUID CHAR_UUID = UUID.fromString("00002b99-0000-1000-8000-00805f9b34fb");
+    private static final long WINDOW_MS = 200;
+
+    @Rule public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock private GattNotificationFanout.Sender mSender;
+
+    private final BluetoothAdapter mAdapter = BluetoothAdapter.getDefaultAdapter();
+    private final BluetoothDevice mFirstDevice = mAdapter.getRemoteDevice("00:01:02:03:04:05");
+    private final BluetoothDevice mSecondDevice = mAdapter.getRemoteDevice("00:01:02:03:04:06");
+    private final BluetoothGattCharacteristic mCharacteristic =
+            new BluetoothGattCharacteristic(
+                    CHAR_UUID,
+                    BluetoothGattCharacteristic.PROPERTY_NOTIFY,
+                    BluetoothGattCharacteristic.PERMISSION_READ);
+    private final Set<BluetoothDevice> mUnauthorized = new HashSet<>();
+    private TestLooper mLooper;
+    private GattNotificationFanout mFanout;
+
+    @Before
+    public void setUp() {
+        doReturn(BluetoothStatusCodes.SUCCESS).when(mSender).notify(any(), any(), any());
+        mLooper = new TestLooper();
+        mFanout =
+                new GattNotificationFanout(
+                        mSender, device -> !mUnauthorized.contains(device), mLooper.getLooper());
+    }
+
+    @Test
+    public void notifyChanged_onlySubscribersNotified() {
+        byte[] value = new byte[] {1};
+        mFanout.setSubscribed(mFirstDevice, CHAR_UUID, true);
+        mFanout.setSubscribed(mSecondDevice, CHAR_UUID, true);
+        mFanout.setSubscribed(mSecondDevice, CHAR_UUID, false);
+
+        mFanout.notifyChanged(mCharacteristic, value, null);
+
+        verify(mSender).notify(mFirstDevice, mCharacteristic, value);
+        verify(mSender, never()).notify(mSecondDevice, mCharacteristic, value);
+        assertThat(mFanout.isSubscribed(mSecondDevice, CHAR_UUID)).isFalse();
+    }
+
+    @Test
+    public void notifyChanged_originAndUnauthorizedSkipped() {
+        byte[] value = new byte[] {1};
+        mFanout.setSubscribed(mFirstDevice, CHAR_UUID, true);
+        mFanout.setSubscribed(mSecondDevice, CHAR_UUID, true);
+
+        mFanout.notifyChanged(mCharacteristic, value, mFirstDevice);
+        mUnauthorized.add(mFirstDevice);
+        mFanout.notifyChanged(mCharacteristic, value, null);
+
+        verify(mSender, never()).notify(mFirstDevice, mCharacteristic, value);
+        verify(mSender, times(1)).notify(mSecondDevice, mCharacteristic, value);
+    }
+
+    @Test
+    public void notifyChanged_stateInFlight_latestValueSentNext() {
+        byte[] first = new byte[] {1};
+        byte[] second = new byte[] {2};
+        byte[] latest = new byte[] {3};
+        mFanout.setSubscribed(mFirstDevice, CHAR_UUID, true);
+        mFanout.setStateCharacteristic(CHAR_UUID);
+
+        mFanout.notifyChanged(mCharacteristic, first, null);
+        mFanout.notifyChanged(mCharacteristic, second, null);
+        mFanout.notifyChanged(mCharacteristic, latest, null);
+        verify(mSender).notify(mFirstDevice, mCharacteristic, first);
+        verify(mSender, never()).notify(mFirstDevice, mCharacteristic, latest);
+
+        mFanout.onNotificationSent(mFirstDevice, BluetoothGatt.GATT_SUCCESS);
+
+        verify(mSender).notify(mFirstDevice, mCharacteristic, latest);
+        verify(mSender, never()).notify(mFirstDevice, mCharacteristic, second);
+        assertThat(mFanout.getSentCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void notifyChanged_eventInFlight_allSentInOrder() {
+        byte[] first = new byte[] {1};
+        byte[] second = new byte[] {2};
+        byte[] third = new byte[] {3};
+        mFanout.setSubscribed(mFirstDevice, CHAR_UUID, true);
+
+        mFanout.notifyChanged(mCharacteristic, first, null);
+        mFanout.notifyChanged(mCharacteristic, second, null);
+        mFanout.notifyChanged(mCharacteristic, third, null);
+        mFanout.onNotificationSent(mFirstDevice, BluetoothGatt.GATT_SUCCESS);
+        mFanout.onNotificationSent(mFirstDevice, BluetoothGatt.GATT_SUCCESS);
+
+        InOrder inOrder = inOrder(mSender);
+        inOrder.verify(mSender).notify(mFirstDevice, mCharacteristic, first);
+        inOrder.verify(mSender).notify(mFirstDevice, mCharacteristic, second);
+        inOrder.verify(mSender).notify(mFirstDevice, mCharacteristic, third);
+        assertThat(mFanout.getSentCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void notifyDevice_queuedBehindNotificationInFlight() {
+        byte[] first = new byte[] {1};
+        byte[] direct = new byte[] {2};
+        byte[] second = new byte[] {3};
+        mFanout.setSubscribed(mFirstDevice, CHAR_UUID, true);
+
+        mFanout.notifyChanged(mCharacteristic, first, null);
+        mFanout.notifyDevice(mFirstDevice, mCharacteristic, direct);
+        mFanout.notifyChanged(mCharacteristic, second, null);
+        verify(mSender, never()).notify(mFirstDevice, mCharacteristic, direct);
+
+        // Each confirmation releases the notification in flight only
+        mFanout.onNotificationSent(mFirstDevice, BluetoothGatt.GATT_SUCCESS);
+        verify(mSender).notify(mFirstDevice, mCharacteristic, direct);
+        verify(mSender, never()).notify(mFirstDevice, mCharacteristic, second);
+
+        mFanout.onNotificationSent(mFirstDevice, BluetoothGatt.GATT_SUCCESS);
+        verify(mSender).notify(mFirstDevice, mCharacteristic, second);
+    }
+
+    @Test
+    public void onNotificationSent_nothingInFlight_ignored() {
+        byte[] first = new byte[] {1};
+        byte[] second = new byte[] {2};
+        mFanout.setSubscribed(mFirstDevice, CHAR_UUID, true);
+        mFanout.notifyChanged(mCharacteristic, first, null);
+        mFanout.onNotificationSent(mFirstDevice, BluetoothGatt.GATT_SUCCESS);
+
+        mFanout.onNotificationSent(mFirstDevice, BluetoothGatt.GATT_SUCCESS);
+        mFanout.notifyChanged(mCharacteristic, second, null);
+        mFanout.notifyChanged(mCharacteristic, first, null);
+
+        verify(mSender).notify(mFirstDevice, mCharacteristic, second);
+        verify(mSender, times(1)).notify(mFirstDevice, mCharacteristic, first);
+    }
+
+    @Test
+    public void notifyChanged_noConfirmation_nextSentAfterTimeout() {
+        byte[] first = new byte[] {1};
+        byte[] second = new byte[] {2};
+        mFanout.setSubscribed(mFirstDevice, CHAR_UUID, true);
+
+        mFanout.notifyChanged(mCharacteristic, first, null);
+        mFanout.notifyChanged(mCharacteristic, second, null);
+        mLooper.moveTimeForward(GattNotificationFanout.NOTIFICATION_TIMEOUT_MS);
+        mLooper.dispatchAll();
+
+        verify(mSender).notify(mFirstDevice, mCharacteristic, second);
+    }
+
+    @Test
+    public void notifyChanged_coalescingWindow_latestValueSentAtEnd() {
+        byte[] first = new byte[] {1};
+        byte[] second = new byte[] {2};
+        byte[] latest = new byte[] {3};
+        mFanout.setSubscribed(mFirstDevice, CHAR_UUID, true);
+        mFanout.setCoalescingWindow(CHAR_UUID, WINDOW_MS);
+
+        mFanout.notifyChanged(mCharacteristic, first, null);
+        mFanout.onNotificationSent(mFirstDevice, BluetoothGatt.GATT_SUCCESS);
+        mFanout.notifyChanged(mCharacteristic, second, null);
+        mFanout.notifyChanged(mCharacteristic, latest, null);
+        verify(mSender).notify(mFirstDevice, mCharacteristic, first);
+        verify(mSender, never()).notify(mFirstDevice, mCharacteristic, latest);
+
+        mLooper.moveTimeForward(WINDOW_MS);
+        mLooper.dispatchAll();
+
+        verify(mSender).notify(mFirstDevice, mCharacteristic, latest);
+        verify(mSender, never()).notify(mFirstDevice, mCharacteristic, second);
+        assertThat(mFanout.getCoalescedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void notifyChanged_notConnected_pendingDropped() {
+        byte[] first = new byte[] {1};
+        byte[] second = new byte[] {2};
+        mFanout.setSubscribed(mFirstDevice, CHAR_UUID, true);
+        doReturn(BluetoothStatusCodes.ERROR_DEVICE_NOT_CONNECTED)
+                .when(mSender)
+                .notify(mFirstDevice, mCharacteristic, first);
+
+        mFanout.notifyChanged(mCharacteristic, first, null);
+        // Nothing in flight, the next change is sent right away
+        mFanout.notifyChanged(mCharacteristic, second, null);
+
+        verify(mSender).notify(mFirstDevice, mCharacteristic, second);
+        // Still subscribed for the next connection
+        assertThat(mFanout.isSubscribed(mFirstDevice, CHAR_UUID)).isTrue();
+    }
+
+    @Test
+    public void removeDevice_slotReused() {
+        byte[] value = new byte[] {1};
+        mFanout.setSubscribed(mFirstDevice, CHAR_UUID, true);
+        mFanout.removeDevice(mFirstDevice);
+        mFanout.setSubscribed(mSecondDevice, CHAR_UUID, true);
+
+        mFanout.notifyChanged(mCharacteristic, value, null);
+
+        assertThat(mFanout.isSubscribed(mFirstDevice, CHAR_UUID)).isFalse();
+        verify(mSender, never()).notify(mFirstDevice, mCharacteristic, value);
+        verify(mSender).notify(mSecondDevice, mCharacteristic, value);
+    }
+
+    @Test
+    @LargeTest
+    public void benchmark_againstLegacyPerDeviceLookups() {
+        final int clients = 64;
+        final int changes = 2_000;
+        List<BluetoothDevice> devices = new ArrayList<>();
+        // Legacy state: CCC values by address, only half of the clients subscribed
+        Map<String, Map<UUID, Short>> cccValues = new HashMap<>();
+        Set<BluetoothDevice> connected = new HashSet<>();
+        int[] sent = new int[1];
+        GattNotificationFanout fanout =
+                new GattNotificationFanout(
+                        (device, characteristic, value) -> {
+                            sent[0]++;
+                            return BluetoothStatusCodes.SUCCESS;
+                        },
+                        connected::contains,
+                        mLooper.getLooper());
+        for (int i = 0; i < clients; i++) {
+            BluetoothDevice device =
+                    mAdapter.getRemoteDevice(String.format("00:01:02:03:04:%02X", i));
+            devices.add(device);
+            connected.add(device);
+            Map<UUID, Short> ccc = new HashMap<>();
+            ccc.put(CHAR_UUID, (short) (i % 2));
+            cccValues.put(device.getAddress(), ccc);
+            fanout.setSubscribed(device, CHAR_UUID, i % 2 == 1);
+        }
+        byte[] value = new byte[] {1};
+
+        long start = System.nanoTime();
+        int legacySent = 0;
+        for (int i = 0; i < changes; i++) {
+            for (BluetoothDevice device : devices) {
+                if (!connected.contains(device)) continue;
+                Map<UUID, Short> ccc = cccValues.get(device.getAddress());
+                if (ccc == null) continue;
+                Short cccValue = ccc.get(CHAR_UUID);
+                if (cccValue == null || cccValue != 1) continue;
+                legacySent++;
+            }
+        }
+        long legacyNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < changes; i++) {
+            fanout.notifyChanged(mCharacteristic, value, null);
+            for (int d = 1; d < clients; d += 2) {
+                fanout.onNotificationSent(devices.get(d), BluetoothGatt.GATT_SUCCESS);
+            }
+        }
+        long fanoutNanos = System.nanoTime() - start;
+
+        Log.i(
+                TAG,
+                "change to "
+                        + clients
+                        + " clients ns/op legacy="
+                        + legacyNanos / changes
+                        + " fanout="
+                        + fanoutNanos / changes);
+        assertThat(sent[0]).isEqualTo(legacySent);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.le_audio;
+
+import static android.bluetooth.IBluetoothLeAudio.LE_AUDIO_GROUP_ID_INVALID;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class LeAudioGroupMembershipTest {
+    private static final int GROUP_ID_1 = 1;
+    private static final int GROUP_ID_2 = 2;
+
+    private final BluetoothDevice mLeftDevice =
+            BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:11:22:33:44:55");
+    private final BluetoothDevice mRightDevice =
+            BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:11:22:33:44:66");
+    private final BluetoothDevice mSingleDevice =
+            BluetoothAdapter.getDefaultAdapter().getRemoteDevice("00:11:22:33:44:77");
+
+    private final LeAudioGroupMembership mMembership = new LeAudioGroupMembership();
+
+    @Test
+    public void addDevice_isNotInAnyGroup() {
+        mMembership.addDevice(mLeftDevice);
+
+        assertThat(mMembership.getGroupId(mLeftDevice)).isEqualTo(LE_AUDIO_GROUP_ID_INVALID);
+        assertThat(mMembership.getGroupId(mRightDevice)).isNull();
+        assertThat(mMembership.getMembers(LE_AUDIO_GROUP_ID_INVALID)).isEmpty();
+    }
+
+    @Test
+    public void setGroupId_membersKeepTheOrderDevicesWereAdded() {
+        mMembership.addDevice(mLeftDevice);
+        mMembership.addDevice(mRightDevice);
+        mMembership.addDevice(mSingleDevice);
+
+        mMembership.setGroupId(mRightDevice, GROUP_ID_1);
+        mMembership.setGroupId(mSingleDevice, GROUP_ID_2);
+        mMembership.setGroupId(mLeftDevice, GROUP_ID_1);
+
+        assertThat(mMembership.getMembers(GROUP_ID_1))
+                .containsExactly(mLeftDevice, mRightDevice)
+                .inOrder();
+        assertThat(mMembership.getMembers(GROUP_ID_2)).containsExactly(mSingleDevice);
+        assertThat(mMembership.getGroupId(mLeftDevice)).isEqualTo(GROUP_ID_1);
+        assertThat(mMembership.hasMembers(GROUP_ID_1)).isTrue();
+    }
+
+    @Test
+    public void setGroupId_invalid_leavesGroup() {
+        mMembership.setGroupId(mLeftDevice, GROUP_ID_1);
+
+        mMembership.setGroupId(mLeftDevice, LE_AUDIO_GROUP_ID_INVALID);
+
+        assertThat(mMembership.getMembers(GROUP_ID_1)).isEmpty();
+        assertThat(mMembership.hasMembers(GROUP_ID_1)).isFalse();
+        assertThat(mMembership.getGroupId(mLeftDevice)).isEqualTo(LE_AUDIO_GROUP_ID_INVALID);
+    }
+
+    @Test
+    public void getMembers_returnsImmutableSnapshot() {
+        mMembership.setGroupId(mLeftDevice, GROUP_ID_1);
+        List<BluetoothDevice> members = mMembership.getMembers(GROUP_ID_1);
+
+        mMembership.setGroupId(mRightDevice, GROUP_ID_1);
+
+        assertThat(members).containsExactly(mLeftDevice);
+        assertThrows(UnsupportedOperationException.class, () -> members.add(mRightDevice));
+    }
+
+    @Test
+    public void version_onlyChangesWithMembership() {
+        mMembership.setGroupId(mLeftDevice, GROUP_ID_1);
+        long version = mMembership.getVersion();
+
+        mMembership.setGroupId(mLeftDevice, GROUP_ID_1);
+        mMembership.addDevice(mLeftDevice);
+        assertThat(mMembership.getVersion()).isEqualTo(version);
+
+        mMembership.removeDevice(mLeftDevice);
+        assertThat(mMembership.getVersion()).isEqualTo(version + 1);
+        assertThat(mMembership.getGroupId(mLeftDevice)).isNull();
+    }
+
+    @Test
+    public void clear_removesEveryDevice() {
+        mMembership.setGroupId(mLeftDevice, GROUP_ID_1);
+        mMembership.setGroupId(mSingleDevice, GROUP_ID_2);
+
+        mMembership.clear();
+
+        assertThat(mMembership.getMembers(GROUP_ID_1)).isEmpty();
+        assertThat(mMembership.getGroupId(mSingleDevice)).isNull();
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.provider.ContactsContract;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.BluetoothMethodProxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Test cases for {@link BluetoothMapConvoIndex}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothMapConvoIndexTest {
+    private static final String TEST_RECIPIENT_IDS = "1 2";
+
+    @Rule public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock private ContentResolver mResolver;
+    @Spy private BluetoothMethodProxy mMapMethodProxy = BluetoothMethodProxy.getInstance();
+
+    private BluetoothMapConvoIndex mIndex;
+
+    @Before
+    public void setUp() {
+        BluetoothMethodProxy.setInstanceForTesting(mMapMethodProxy);
+        mIndex = new BluetoothMapConvoIndex();
+    }
+
+    @After
+    public void tearDown() {
+        BluetoothMethodProxy.setInstanceForTesting(null);
+    }
+
+    @Test
+    public void query_notTracking_returnsNull() {
+        assertThat(mIndex.query(mResolver, c -> true, 0, -1)).isNull();
+    }
+
+    @Test
+    public void query_sortedByDateAndPaged() {
+        mockThreads(null, threads(new long[] {1, 100}, new long[] {2, 300}, new long[] {3, 200}));
+        mIndex.startTracking(mResolver);
+
+        assertThat(ids(mIndex.query(mResolver, c -> true, 0, -1))).containsExactly(2L, 3L, 1L);
+        assertThat(ids(mIndex.query(mResolver, c -> true, 1, 1))).containsExactly(3L);
+        assertThat(ids(mIndex.query(mResolver, c -> c.mDate < 300, 1, -1))).containsExactly(1L);
+    }
+
+    @Test
+    public void query_onlyChangedThreadsQueriedAgain() {
+        mockThreads(null, threads(new long[] {1, 100}, new long[] {2, 200}));
+        mIndex.startTracking(mResolver);
+        mIndex.query(mResolver, c -> true, 0, -1).close();
+
+        mockThreads("_id IN (1)", threads(new long[] {1, 300}));
+        mIndex.onThreadChanged(1);
+
+        assertThat(ids(mIndex.query(mResolver, c -> true, 0, -1))).containsExactly(1L, 2L);
+        assertThat(mIndex.getLoads()).isEqualTo(1);
+        assertThat(mIndex.getRefreshedThreads()).isEqualTo(1);
+        verify(mMapMethodProxy, times(1))
+                .contentResolverQuery(any(), any(), any(), isNull(), any(), any());
+    }
+
+    @Test
+    public void query_deletedThreadRemoved() {
+        mockThreads(null, threads(new long[] {1, 100}, new long[] {2, 200}));
+        mIndex.startTracking(mResolver);
+        mIndex.query(mResolver, c -> true, 0, -1).close();
+
+        mockThreads("_id IN (2)", threads());
+        mIndex.onThreadChanged(2);
+
+        assertThat(ids(mIndex.query(mResolver, c -> true, 0, -1))).containsExactly(1L);
+        assertThat(mIndex.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void invalidate_indexLoadedAgain() {
+        mockThreads(null, threads(new long[] {1, 100}));
+        mIndex.startTracking(mResolver);
+        mIndex.query(mResolver, c -> true, 0, -1).close();
+
+        mIndex.invalidate();
+        mIndex.query(mResolver, c -> true, 0, -1).close();
+
+        assertThat(mIndex.getLoads()).isEqualTo(2);
+    }
+
+    @Test
+    public void contactsChanged_contactsCacheDropped() {
+        mIndex.startTracking(mResolver);
+        verify(mResolver)
+                .registerContentObserver(
+                        eq(ContactsContract.AUTHORITY_URI), eq(true), eq(mIndex.mContactsObserver));
+        SmsMmsContacts contacts = mIndex.getContacts();
+        assertThat(mIndex.getContacts()).isSameInstanceAs(contacts);
+
+        mIndex.mContactsObserver.onChange(false);
+
+        assertThat(mIndex.getContacts()).isNotSameInstanceAs(contacts);
+        mIndex.stopTracking();
+        verify(mResolver).unregisterContentObserver(mIndex.mContactsObserver);
+    }
+
+    @Test
+    public void stopTracking_returnsNull() {
+        mockThreads(null, threads(new long[] {1, 100}));
+        mIndex.startTracking(mResolver);
+        mIndex.query(mResolver, c -> true, 0, -1).close();
+
+        mIndex.stopTracking();
+
+        assertThat(mIndex.query(mResolver, c -> true, 0, -1)).isNull();
+        assertThat(mIndex.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void matchesConvoFilterSmsMms_readStatusAndActivity() {
+        BluetoothMapConvoIndex.Conversation unread =
+                new BluetoothMapConvoIndex.Conversation(1, 100, "", "", 0, TEST_RECIPIENT_IDS);
+        BluetoothMapAppParams params = new BluetoothMapAppParams();
+        assertThat(BluetoothMapContent.matchesConvoFilterSmsMms(unread, params)).isTrue();
+
+        params.setFilterReadStatus(0x02); // Read only
+        assertThat(BluetoothMapContent.matchesConvoFilterSmsMms(unread, params)).isFalse();
+
+        params.setFilterReadStatus(0x01); // Unread only
+        params.setFilterLastActivityBegin(200);
+        assertThat(BluetoothMapContent.matchesConvoFilterSmsMms(unread, params)).isFalse();
+    }
+
+    private void mockThreads(String selection, MatrixCursor cursor) {
+        doReturn(cursor)
+                .when(mMapMethodProxy)
+                .contentResolverQuery(
+                        any(),
+                        any(),
+                        eq(BluetoothMapContent.MMS_SMS_THREAD_PROJECTION),
+                        selection == null ? isNull() : eq(selection),
+                        any(),
+                        any());
+    }
+
+    /** Threads with the given {id, date}. */
+    private static MatrixCursor threads(long[]... threads) {
+        MatrixCursor cursor = new MatrixCursor(BluetoothMapContent.MMS_SMS_THREAD_PROJECTION);
+        for (long[] thread : threads) {
+            cursor.addRow(
+                    new Object[] {thread[0], thread[1], "snippet", "106", 1, TEST_RECIPIENT_IDS});
+        }
+        return cursor;
+    }
+
+    private static List<Long> ids(Cursor cursor) {
+        List<Long> ids = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.map;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.provider.Telephony.Sms;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.bluetooth.map.BluetoothMapContentObserver.Msg;
+import com.android.bluetooth.map.BluetoothMapUtils.TYPE;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothMapMessageCacheTest {
+    private static final long TEST_ID = 12;
+    private static final int TEST_THREAD_ID = 3;
+    private static final String TEST_VERSION = BluetoothMapUtils.MAP_V11_STR;
+    private static final byte[] TEST_DATA = new byte[] {1, 2, 3};
+
+    private BluetoothMapMessageCache mCache;
+    private Msg mMsg;
+
+    @Before
+    public void setUp() {
+        mCache = new BluetoothMapMessageCache();
+        mMsg = new Msg(TEST_ID, Sms.MESSAGE_TYPE_INBOX, TEST_THREAD_ID, 0);
+    }
+
+    @Test
+    public void get_returnsCachedMessage() {
+        put(TEST_ID, mMsg, TEST_DATA);
+
+        assertThat(get(TEST_ID, mMsg)).isSameInstanceAs(TEST_DATA);
+        assertThat(mCache.getHits()).isEqualTo(1);
+        assertThat(mCache.getMisses()).isEqualTo(0);
+    }
+
+    @Test
+    public void get_keyedByCharsetAndVersion() {
+        put(TEST_ID, mMsg, TEST_DATA);
+
+        assertThat(
+                        mCache.get(
+                                TYPE.SMS_GSM,
+                                TEST_ID,
+                                BluetoothMapContent.MAP_MESSAGE_CHARSET_NATIVE,
+                                0,
+                                TEST_VERSION,
+                                mMsg))
+                .isNull();
+        assertThat(
+                        mCache.get(
+                                TYPE.SMS_GSM,
+                                TEST_ID,
+                                BluetoothMapContent.MAP_MESSAGE_CHARSET_UTF8,
+                                0,
+                                BluetoothMapUtils.MAP_V10_STR,
+                                mMsg))
+                .isNull();
+        assertThat(mCache.getMisses()).isEqualTo(2);
+    }
+
+    @Test
+    public void get_messageStateChanged_returnsNull() {
+        put(TEST_ID, mMsg, TEST_DATA);
+
+        Msg read = new Msg(TEST_ID, Sms.MESSAGE_TYPE_INBOX, TEST_THREAD_ID, 1);
+
+        assertThat(get(TEST_ID, read)).isNull();
+        assertThat(get(TEST_ID, null)).isNull();
+        assertThat(mCache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void invalidate_dropsEntries() {
+        put(TEST_ID, mMsg, TEST_DATA);
+
+        mCache.invalidate();
+
+        assertThat(get(TEST_ID, mMsg)).isNull();
+        assertThat(mCache.getBytes()).isEqualTo(0);
+        assertThat(mCache.getInvalidations()).isEqualTo(1);
+    }
+
+    @Test
+    public void put_contentChangedWhileBuilding_notCached() {
+        long generation = mCache.getGeneration();
+        mCache.invalidate();
+
+        mCache.put(
+                TYPE.SMS_GSM,
+                TEST_ID,
+                BluetoothMapContent.MAP_MESSAGE_CHARSET_UTF8,
+                0,
+                TEST_VERSION,
+                mMsg,
+                generation,
+                TEST_DATA);
+
+        assertThat(mCache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void put_tooManyEntries_evictsLeastRecentlyUsed() {
+        for (int i = 0; i < BluetoothMapMessageCache.MAX_ENTRIES; i++) {
+            put(i, new Msg(i, Sms.MESSAGE_TYPE_INBOX, TEST_THREAD_ID, 0), TEST_DATA);
+        }
+        Msg first = new Msg(0, Sms.MESSAGE_TYPE_INBOX, TEST_THREAD_ID, 0);
+        assertThat(get(0, first)).isNotNull();
+
+        long id = BluetoothMapMessageCache.MAX_ENTRIES;
+        put(id, new Msg(id, Sms.MESSAGE_TYPE_INBOX, TEST_THREAD_ID, 0), TEST_DATA);
+
+        assertThat(mCache.size()).isEqualTo(BluetoothMapMessageCache.MAX_ENTRIES);
+        assertThat(mCache.getEvictions()).isEqualTo(1);
+        assertThat(get(0, first)).isNotNull();
+        assertThat(get(1, new Msg(1, Sms.MESSAGE_TYPE_INBOX, TEST_THREAD_ID, 0))).isNull();
+    }
+
+    @Test
+    public void put_largeMessage_notCached() {
+        put(TEST_ID, mMsg, new byte[BluetoothMapMessageCache.MAX_ENTRY_BYTES + 1]);
+
+        assertThat(mCache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void getHitRatePercent() {
+        put(TEST_ID, mMsg, TEST_DATA);
+        get(TEST_ID, mMsg);
+        get(TEST_ID + 1, mMsg);
+
+        assertThat(mCache.getHitRatePercent()).isEqualTo(50);
+    }
+
+    private void put(long id, Msg msg, byte[] data) {
+        mCache.put(
+                TYPE.SMS_GSM,
+                id,
+                BluetoothMapContent.MAP_MESSAGE_CHARSET_UTF8,
+                0,
+                TEST_VERSION,
+                msg,
+                mCache.getGeneration(),
+                data);
+    }
+
+    private byte[] get(long id, Msg msg) {
+        return mCache.get(
+                TYPE.SMS_GSM,
+                id,
+                BluetoothMapContent.MAP_MESSAGE_CHARSET_UTF8,
+                0,
+                TEST_VERSION,
+                msg);
+    }
+}
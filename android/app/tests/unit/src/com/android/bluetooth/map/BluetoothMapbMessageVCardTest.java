@@ -18,13 +18,17 @@ package com.android.bluetooth.map;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import android.platform.test.annotations.EnableFlags;
+import android.platform.test.flag.junit.SetFlagsRule;
 import android.telephony.PhoneNumberUtils;
 
 import androidx.test.runner.AndroidJUnit4;
 
+import com.android.bluetooth.flags.Flags;
 import com.android.bluetooth.map.BluetoothMapbMessage.BMsgReader;
 import com.android.bluetooth.map.BluetoothMapbMessage.VCard;
 
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
@@ -48,6 +52,8 @@ public class BluetoothMapbMessageVCardTest {
     private static final String[] TEST_BT_UIDS = new String[] {TEST_FIRST_BT_UID, "1112"};
     private static final int TEST_ENV_LEVEL = 1;
 
+    @Rule public final SetFlagsRule mSetFlagsRule = new SetFlagsRule();
+
     @Test
     public void constructor_forVersionTwoPointOne() {
         VCard vcard = new VCard(TEST_NAME, TEST_PHONE_NUMBERS, TEST_EMAIL_ADDRESSES);
@@ -133,4 +139,28 @@ public class BluetoothMapbMessageVCardTest {
         assertThat(vcardParsed.getFirstEmail()).isEqualTo(TEST_FIRST_EMAIL);
         assertThat(vcardParsed.getEnvLevel()).isEqualTo(TEST_ENV_LEVEL);
     }
+
+    @Test
+    @EnableFlags(Flags.FLAG_MAP_STREAMING_BMESSAGE)
+    public void parseVcard_streaming_keepsLastFieldOfValues() {
+        String vcard =
+                "VERSION:2.1\r\n"
+                        + "\r\n"
+                        + "N:test\\:name\r\n"
+                        + "TEL:CELL;"
+                        + TEST_FIRST_PHONE_NUMBER
+                        + ";\r\n"
+                        + "EMAIL:a:b\r\n"
+                        + "END:VCARD\r\n";
+        InputStream inputStream = new ByteArrayInputStream(vcard.getBytes());
+
+        VCard vcardParsed = VCard.parseVcard(new BMsgReader(inputStream), TEST_ENV_LEVEL);
+
+        assertThat(vcardParsed.getName()).isEqualTo("test\\:name");
+        // A trailing ';' doesn't hide the last field
+        assertThat(vcardParsed.getFirstPhoneNumber())
+                .isEqualTo(PhoneNumberUtils.stripSeparators(TEST_FIRST_PHONE_NUMBER));
+        // A second un-escaped ':' makes the value invalid
+        assertThat(vcardParsed.getFirstEmail()).isNull();
+    }
 }
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.mapclient;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.util.Base64;
+import android.util.Log;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BmessageStreamParserTest {
+    private static final String TAG = BmessageStreamParserTest.class.getSimpleName();
+
+    private static final String SIMPLE_MMS_MESSAGE =
+            "BEGIN:BMSG\r\nVERSION:1.0\r\nSTATUS:READ\r\nTYPE:MMS\r\nFOLDER:null\r\nBEGIN:BENV\r\n"
+                    + "BEGIN:VCARD\r\nVERSION:2.1\r\nN:null;;;;\r\nTEL:555-5555\r\nEND:VCARD\r\n"
+                    + "BEGIN:BBODY\r\nLENGTH:39\r\nBEGIN:MSG\r\nThis is a new msg\r\nEND:MSG\r\n"
+                    + "END:BBODY\r\nEND:BENV\r\nEND:BMSG\r\n";
+
+    private static final String WRONG_LENGTH_MESSAGE =
+            "BEGIN:BMSG\r\nVERSION:1.0\r\nSTATUS:READ\r\nTYPE:MMS\r\nFOLDER:null\r\nBEGIN:BENV\r\n"
+                    + "BEGIN:VCARD\r\nVERSION:2.1\r\nN:null;;;;\r\nTEL:555-5555\r\nEND:VCARD\r\n"
+                    + "BEGIN:BBODY\r\nLENGTH:200\r\nBEGIN:MSG\r\nThis is a new msg\r\nEND:MSG\r\n"
+                    + "END:BBODY\r\nEND:BENV\r\nEND:BMSG\r\n";
+
+    private static final String NO_END_MESSAGE =
+            "BEGIN:BMSG\r\nVERSION:1.0\r\nSTATUS:READ\r\nTYPE:MMS\r\nFOLDER:null\r\nBEGIN:BENV\r\n"
+                    + "BEGIN:VCARD\r\nVERSION:2.1\r\nN:null;;;;\r\nTEL:555-5555\r\nEND:VCARD\r\n"
+                    + "BEGIN:BBODY\r\nLENGTH:39\r\nBEGIN:MSG\r\nThis is a new msg\r\n";
+
+    private static final String NEGATIVE_LENGTH_MESSAGE =
+            "BEGIN:BMSG\r\nVERSION:1.0\r\nSTATUS:READ\r\nTYPE:MMS\r\nFOLDER:null\r\nBEGIN:BENV\r\n"
+                    + "BEGIN:VCARD\r\nVERSION:2.1\r\nN:null;;;;\r\nTEL:555-5555\r\nEND:VCARD\r\n"
+                    + "BEGIN:BBODY\r\nLENGTH:-1\r\nBEGIN:MSG\r\nThis is a new msg\r\nEND:MSG\r\n"
+                    + "END:BBODY\r\nEND:BENV\r\nEND:BMSG\r\n";
+
+    @Test
+    public void createBmessage_simpleMessage() {
+        Bmessage message = parse(SIMPLE_MMS_MESSAGE);
+
+        assertThat(message).isNotNull();
+        assertThat(message.getStatus()).isEqualTo(Bmessage.Status.READ);
+        assertThat(message.getType()).isEqualTo(Bmessage.Type.MMS);
+        assertThat(message.getFolder()).isEqualTo("null");
+        assertThat(message.getRecipients()).hasSize(1);
+        assertThat(message.getRecipients().get(0).getPhoneList().get(0).getNumber())
+                .isEqualTo("555-5555");
+        assertThat(message.getBodyContent()).isEqualTo("This is a new msg");
+    }
+
+    @Test
+    public void createBmessage_invalidMessages() {
+        assertThat(parse(WRONG_LENGTH_MESSAGE)).isNull();
+        assertThat(parse(NO_END_MESSAGE)).isNull();
+        assertThat(parse(NEGATIVE_LENGTH_MESSAGE)).isNull();
+        assertThat(parse("A".repeat(68048))).isNull();
+    }
+
+    @Test
+    public void createBmessage_lengthInCharacters_readsUpToEndOfMessage() {
+        String body = "Grüße";
+        // LENGTH counted in characters, shorter than the UTF-8 encoded content
+        Bmessage message = parse(createBmessage("SMS_GSM", body, body.length() + 22));
+
+        assertThat(message).isNotNull();
+        assertThat(message.getBodyContent()).isEqualTo(body);
+    }
+
+    @Test
+    public void createBmessage_bodyWithEmptyLines_keepsThem() {
+        String body = "First paragraph\r\n\r\n\r\nSecond paragraph\r\n";
+
+        Bmessage message = parse(createBmessage("EMAIL", body));
+
+        assertThat(message).isNotNull();
+        assertThat(message.getBodyContent()).isEqualTo(body);
+    }
+
+    @Test
+    public void createBmessage_lengthInCharacters_bodyWithEmptyLines_keepsThem() {
+        String body = "Grüße\r\n\r\nSecond paragraph\r\n\r\nEND:MSGX";
+        // LENGTH counted in characters, shorter than the UTF-8 encoded content
+        Bmessage message = parse(createBmessage("EMAIL", body, body.length() + 22));
+
+        assertThat(message).isNotNull();
+        assertThat(message.getBodyContent()).isEqualTo(body);
+    }
+
+    @Test
+    public void createBmessage_lengthEndingOnAnotherLine_readsUpToEndOfMessage() {
+        String body = "Line one\r\nEND:BBODY\r\nLine three";
+        // LENGTH ends right before a line that looks like a property, but isn't END:MSG
+        int length = "Line one".length() + 22;
+
+        Bmessage message = parse(createBmessage("EMAIL", body, length));
+
+        assertThat(message).isNotNull();
+        assertThat(message.getBodyContent()).isEqualTo(body);
+    }
+
+    @Test
+    public void createBmessage_corpus_matchesLegacyParser() {
+        for (String bmsg : createCorpus()) {
+            Bmessage legacy = BmessageParser.createBmessage(bmsg);
+            Bmessage streamed = parse(bmsg);
+
+            assertThat(streamed).isNotNull();
+            assertThat(streamed.getType()).isEqualTo(legacy.getType());
+            assertThat(streamed.getFolder()).isEqualTo(legacy.getFolder());
+            assertThat(streamed.getCharset()).isEqualTo(legacy.getCharset());
+            assertThat(streamed.getRecipients()).hasSize(legacy.getRecipients().size());
+            assertThat(streamed.getOriginators()).hasSize(legacy.getOriginators().size());
+            assertThat(streamed.getBodyContent()).isEqualTo(legacy.getBodyContent());
+        }
+    }
+
+    @Test
+    public void createBmessageBytes_parsesBack() {
+        Bmessage message = parse(SIMPLE_MMS_MESSAGE);
+        message.setBodyContent("Grüße, new msg");
+
+        byte[] bytes = BmessageBuilder.createBmessageBytes(message);
+
+        assertThat(new String(bytes, StandardCharsets.UTF_8))
+                .isEqualTo(BmessageBuilder.createBmessage(message));
+        Bmessage parsed = BmessageStreamParser.createBmessage(new ByteArrayInputStream(bytes));
+        assertThat(parsed.getBodyContent()).isEqualTo("Grüße, new msg");
+    }
+
+    /**
+     * Compares the streaming parser with the String based one on the corpus of large bMessages.
+     * Only the results are checked, the timings are logged for manual inspection.
+     */
+    @Test
+    @LargeTest
+    public void benchmark_againstLegacyParser() {
+        List<String> corpus = createCorpus();
+        List<byte[]> encoded = new ArrayList<>();
+        for (String bmsg : corpus) {
+            encoded.add(bmsg.getBytes(StandardCharsets.UTF_8));
+        }
+        final int iterations = 5;
+
+        long start = System.nanoTime();
+        int legacyLength = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (byte[] bmsg : encoded) {
+                // What the request used to do before parsing: the whole response as a String
+                String response = new String(bmsg, StandardCharsets.UTF_8);
+                legacyLength += BmessageParser.createBmessage(response).getBodyContent().length();
+            }
+        }
+        long legacyNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int streamedLength = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (byte[] bmsg : encoded) {
+                streamedLength +=
+                        BmessageStreamParser.createBmessage(new ByteArrayInputStream(bmsg))
+                                .getBodyContent()
+                                .length();
+            }
+        }
+        long streamedNanos = System.nanoTime() - start;
+
+        Log.i(
+                TAG,
+                "corpus parse ms legacy="
+                        + legacyNanos / iterations / 1_000_000
+                        + " streamed="
+                        + streamedNanos / iterations / 1_000_000);
+        assertThat(streamedLength).isEqualTo(legacyLength);
+    }
+
+    private static Bmessage parse(String bmsg) {
+        return BmessageStreamParser.createBmessage(
+                new ByteArrayInputStream(bmsg.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /** Large bMessages: MMS with attachments, a long email and a long SMS. */
+    private static List<String> createCorpus() {
+        Random random = new Random(0);
+        List<String> corpus = new ArrayList<>();
+        corpus.add(createBmessage("MMS", createMmsBody(random, 1, 300 * 1024)));
+        corpus.add(createBmessage("MMS", createMmsBody(random, 4, 256 * 1024)));
+        corpus.add(createBmessage("MMS", createMmsBody(random, 16, 32 * 1024)));
+        corpus.add(createBmessage("EMAIL", "Grüße aus dem Auto. ".repeat(20_000)));
+        corpus.add(createBmessage("SMS_GSM", "A long SMS. ".repeat(100)));
+        return corpus;
+    }
+
+    private static String createMmsBody(Random random, int attachments, int attachmentSize) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Content-Type: multipart/mixed; boundary=\"MessageBoundary\"\r\n\r\n");
+        sb.append("--MessageBoundary\r\n");
+        sb.append("Content-Type: text/plain; charset=\"UTF-8\"\r\n\r\n");
+        sb.append("Pictures from the trip\r\n");
+        byte[] attachment = new byte[attachmentSize];
+        for (int i = 0; i < attachments; i++) {
+            random.nextBytes(attachment);
+            sb.append("--MessageBoundary\r\n");
+            sb.append("Content-Type: image/jpeg; name=\"picture").append(i).append(".jpg\"\r\n");
+            sb.append("Content-Transfer-Encoding: BASE64\r\n\r\n");
+            sb.append(Base64.encodeToString(attachment, Base64.CRLF));
+            sb.append("\r\n");
+        }
+        sb.append("--MessageBoundary--\r\n");
+        return sb.toString();
+    }
+
+    private static String createBmessage(String type, String body) {
+        return createBmessage(type, body, body.getBytes(StandardCharsets.UTF_8).length + 22);
+    }
+
+    private static String createBmessage(String type, String body, int length) {
+        return "BEGIN:BMSG\r\nVERSION:1.0\r\nSTATUS:UNREAD\r\nTYPE:"
+                + type
+                + "\r\nFOLDER:telecom/msg/inbox\r\n"
+                + "BEGIN:VCARD\r\nVERSION:2.1\r\nN:Doe;John;;;\r\nTEL:555-5555\r\nEND:VCARD\r\n"
+                + "BEGIN:BENV\r\n"
+                + "BEGIN:VCARD\r\nVERSION:2.1\r\nN:null;;;;\r\nTEL:555-1234\r\nEND:VCARD\r\n"
+                + "BEGIN:BBODY\r\nCHARSET:UTF-8\r\nLENGTH:"
+                + length
+                + "\r\nBEGIN:MSG\r\n"
+                + body
+                + "\r\nEND:MSG\r\nEND:BBODY\r\nEND:BENV\r\nEND:BMSG\r\n";
+    }
+}
@@ -24,17 +24,23 @@ import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothMapClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.platform.test.annotations.EnableFlags;
+import android.platform.test.flag.junit.SetFlagsRule;
 import android.provider.Telephony.Mms;
 import android.provider.Telephony.Sms;
 import android.telephony.SubscriptionInfo;
@@ -46,6 +52,7 @@ import android.util.Log;
 import androidx.test.filters.MediumTest;
 import androidx.test.runner.AndroidJUnit4;
 
+import com.android.bluetooth.flags.Flags;
 import com.android.vcard.VCardConstants;
 import com.android.vcard.VCardEntry;
 import com.android.vcard.VCardProperty;
@@ -61,6 +68,7 @@ import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -88,6 +96,7 @@ public class MapClientContentTest {
     private MapClientContent mMapClientContent;
 
     @Rule public MockitoRule mockitoRule = MockitoJUnit.rule();
+    @Rule public final SetFlagsRule mSetFlagsRule = new SetFlagsRule();
 
     @Mock private Context mMockContext;
     @Mock private MapClientContent.Callbacks mCallbacks;
@@ -492,6 +501,68 @@ public class MapClientContentTest {
                 .delete(any(Uri.class), anyString(), any(String[].class));
     }
 
+    /** Test that queued SMS are only inserted when flushed, all in one batch. */
+    @Test
+    @EnableFlags(Flags.FLAG_MAPCLIENT_BATCHED_MESSAGE_STORE)
+    public void testQueueTwoSms_insertedInOneBatch() throws Exception {
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent.queueMessage(
+                mTestMessage1, mTestMessage1Handle, mTestMessage1Timestamp, MESSAGE_SEEN);
+        mMapClientContent.queueMessage(
+                mTestMessage1, mTestMessage2Handle, mTestMessage1Timestamp, MESSAGE_SEEN);
+        assertThat(mMapClientContent.getQueuedMessageCount()).isEqualTo(2);
+        assertThat(mMockSmsContentProvider.mContentValues).isEmpty();
+
+        mMapClientContent.flushQueuedMessages();
+
+        assertThat(mMapClientContent.getQueuedMessageCount()).isEqualTo(0);
+        assertThat(mMockSmsContentProvider.mContentValues).hasSize(2);
+        verify(mMockContentResolver).applyBatch(eq("sms"), any());
+
+        // Both messages share a thread, looked up only once
+        StringBuilder sb = new StringBuilder();
+        mMapClientContent.dump(sb);
+        assertThat(sb.toString()).contains("SMS batches (Batches/Messages/Queued): 1 / 2 / 0");
+        assertThat(sb.toString()).contains("Thread id cache (Entries/Hits/Misses): 1 / 1 / 1");
+    }
+
+    /** Test that queued SMS are inserted one by one when their batch fails. */
+    @Test
+    @EnableFlags(Flags.FLAG_MAPCLIENT_BATCHED_MESSAGE_STORE)
+    public void testQueueTwoSms_batchFails_insertedOneByOne() throws Exception {
+        doThrow(new OperationApplicationException("batch failed"))
+                .doCallRealMethod()
+                .when(mMockContentResolver)
+                .applyBatch(eq("sms"), any());
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent.queueMessage(
+                mTestMessage1, mTestMessage1Handle, mTestMessage1Timestamp, MESSAGE_SEEN);
+        mMapClientContent.queueMessage(
+                mTestMessage1, mTestMessage2Handle, mTestMessage1Timestamp, MESSAGE_SEEN);
+
+        mMapClientContent.flushQueuedMessages();
+
+        assertThat(mMapClientContent.getQueuedMessageCount()).isEqualTo(0);
+        assertThat(mMockSmsContentProvider.mContentValues).hasSize(2);
+        verify(mMockContentResolver, times(3)).applyBatch(eq("sms"), any());
+    }
+
+    /** Test that a queued SMS is inserted before a message stored after it. */
+    @Test
+    @EnableFlags(Flags.FLAG_MAPCLIENT_BATCHED_MESSAGE_STORE)
+    public void testQueueSmsThenMms_smsInsertedFirst() {
+        mMapClientContent = new MapClientContent(mMockContext, mCallbacks, mTestDevice);
+        mMapClientContent.queueMessage(
+                mTestMessage1, mTestMessage1Handle, mTestMessage1Timestamp, MESSAGE_SEEN);
+
+        mMapClientContent.queueMessage(
+                mTestMessage2, mTestMessage2Handle, mTestMessage1Timestamp, MESSAGE_SEEN);
+
+        assertThat(mMapClientContent.getQueuedMessageCount()).isEqualTo(0);
+        assertThat(mMockSmsContentProvider.mContentValues).hasSize(1);
+        assertThat(mMockMmsContentProvider.mContentValues).hasSize(1);
+    }
+
     /**
      * Test verifying dumpsys does not cause Bluetooth to crash (esp since we're querying the
      * database to generate dump).
@@ -581,6 +652,23 @@ public class MapClientContentTest {
         public int update(Uri uri, ContentValues values, Bundle extras) {
             return 0;
         }
+
+        @Override
+        public ContentProviderResult[] applyBatch(
+                String authority, ArrayList<ContentProviderOperation> operations)
+                throws OperationApplicationException {
+            return applyBatch(operations);
+        }
+
+        @Override
+        public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+                throws OperationApplicationException {
+            ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+            for (int i = 0; i < operations.size(); i++) {
+                results[i] = operations.get(i).apply(this, results, i);
+            }
+            return results;
+        }
     }
 
     public static class MissingContentProvider extends FakeContentProvider {
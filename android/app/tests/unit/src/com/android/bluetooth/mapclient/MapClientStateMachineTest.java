@@ -73,6 +73,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnit;
@@ -917,6 +918,57 @@ public class MapClientStateMachineTest {
                 dateTime);
     }
 
+    /** Test that a burst of new message notifications is fetched once the burst is over. */
+    @Test
+    @EnableFlags(Flags.FLAG_MAPCLIENT_BATCHED_MESSAGE_STORE)
+    public void testReceiveNewMessageNotificationBurst_eachMessageFetchedOnce() {
+        setupSdpRecordReceipt();
+        transitionToConnected();
+        String dateTime = new ObexTime(Instant.now()).toString();
+
+        String[] handles = {mTestMessageSmsHandle, mTestMessageMmsHandle, mTestMessageSmsHandle};
+        for (String handle : handles) {
+            mMceStateMachine.receiveEvent(
+                    createNewEventReport(
+                            "NewMessage", dateTime, handle, "telecom/msg/inbox", null, "SMS_GSM"));
+        }
+
+        // The repeated notification doesn't fetch the message again
+        verify(
+                        mMockMasClient,
+                        timeout(MceStateMachine.NEW_MESSAGE_COALESCE_MS + ASYNC_CALL_TIMEOUT_MILLIS)
+                                .times(2))
+                .makeRequest(any(RequestGetMessage.class));
+    }
+
+    /** Test that a downloaded message is stored before it is broadcast. */
+    @Test
+    @EnableFlags(Flags.FLAG_MAPCLIENT_BATCHED_MESSAGE_STORE)
+    public void testDownloadedMessage_storedInBatchBeforeBroadcast() {
+        setupSdpRecordReceipt();
+        transitionToConnected();
+        mMceStateMachine.mMessages.put(
+                mTestMessageSmsHandle,
+                new MceStateMachine.MessageMetadata(
+                        mTestMessageSmsHandle, 1234L, false, MESSAGE_NOT_SEEN));
+
+        Message msg =
+                Message.obtain(
+                        mHandler,
+                        MceStateMachine.MSG_MAS_REQUEST_COMPLETED,
+                        mMockRequestGetMessage);
+        mMceStateMachine.sendMessage(msg);
+        TestUtils.waitForLooperToBeIdle(mMceStateMachine.getHandler().getLooper());
+
+        // No other download is pending, so the message doesn't wait for more
+        InOrder inOrder = inOrder(mMockDatabase, mMockMapClientService);
+        inOrder.verify(mMockDatabase)
+                .queueMessage(any(), eq(mTestMessageSmsHandle), eq(1234L), eq(MESSAGE_NOT_SEEN));
+        inOrder.verify(mMockDatabase).flushQueuedMessages();
+        inOrder.verify(mMockMapClientService).sendBroadcast(any(Intent.class), anyString());
+        verify(mMockDatabase, never()).storeMessage(any(), any(), any(), anyBoolean());
+    }
+
     /**
      * Test MSG_GET_MESSAGE_LISTING does not grab unsupported message types of MESSAGE_TYPE_EMAIL
      * and MESSAGE_TYPE_IM
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.opp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Test cases for {@link BluetoothOppTransferEngine}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothOppTransferEngineTest {
+    private static final int PACKET_SIZE = 1000;
+
+    private final List<Long> mProgress = new ArrayList<>();
+
+    @Test
+    public void startReading_allDataReadInFullPackets() throws IOException {
+        byte[] data = testData(3 * BluetoothOppTransferEngine.MIN_BUFFER_SIZE + 7);
+        BluetoothOppTransferEngine engine =
+                BluetoothOppTransferEngine.startReading(
+                        new ByteArrayInputStream(data), PACKET_SIZE, data.length, mProgress::add);
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        InputStream in = engine.getInputStream();
+        byte[] packet = new byte[PACKET_SIZE];
+        int read;
+        while ((read = in.read(packet, 0, PACKET_SIZE)) != -1) {
+            received.write(packet, 0, read);
+            if (received.size() < data.length) {
+                assertThat(read).isEqualTo(PACKET_SIZE);
+            }
+            engine.onSent(received.size());
+        }
+        engine.stop();
+
+        assertThat(received.toByteArray()).isEqualTo(data);
+        assertThat(mProgress).isNotEmpty();
+        assertThat(mProgress.get(mProgress.size() - 1)).isEqualTo((long) data.length);
+    }
+
+    @Test
+    public void startWriting_allDataWritten() throws IOException {
+        byte[] data = testData(2 * BluetoothOppTransferEngine.MIN_BUFFER_SIZE + 123);
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        BluetoothOppTransferEngine engine =
+                BluetoothOppTransferEngine.startWriting(
+                        target, PACKET_SIZE, data.length, mProgress::add);
+
+        OutputStream out = engine.getOutputStream();
+        for (int offset = 0; offset < data.length; offset += 777) {
+            out.write(data, offset, Math.min(777, data.length - offset));
+        }
+        engine.finish();
+
+        assertThat(target.toByteArray()).isEqualTo(data);
+        assertThat(mProgress.get(mProgress.size() - 1)).isEqualTo((long) data.length);
+    }
+
+    @Test
+    public void startWriting_fileError_thrownByFinish() throws IOException {
+        OutputStream failing =
+                new OutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        throw new IOException("No space left");
+                    }
+                };
+        BluetoothOppTransferEngine engine =
+                BluetoothOppTransferEngine.startWriting(failing, PACKET_SIZE, 10, mProgress::add);
+
+        engine.getOutputStream().write(new byte[10], 0, 10);
+
+        assertThrows(IOException.class, engine::finish);
+        assertThat(mProgress).isEmpty();
+    }
+
+    @Test
+    public void getRemainingSize_regularFile() throws IOException {
+        File cacheDir =
+                InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir();
+        File file = File.createTempFile("opp", null, cacheDir);
+        try {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(testData(100));
+            }
+            try (FileInputStream in = new FileInputStream(file)) {
+                in.read(new byte[10]);
+                assertThat(BluetoothOppTransferEngine.getRemainingSize(in)).isEqualTo(90);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static byte[] testData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+}
@@ -28,6 +28,8 @@ import android.content.Intent;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Bundle;
+import android.platform.test.annotations.EnableFlags;
+import android.platform.test.flag.junit.SetFlagsRule;
 import android.telecom.BluetoothCallQualityReport;
 import android.telecom.Call;
 import android.telecom.Connection;
@@ -44,6 +46,7 @@ import androidx.test.filters.MediumTest;
 import androidx.test.runner.AndroidJUnit4;
 
 import com.android.bluetooth.TestUtils;
+import com.android.bluetooth.flags.Flags;
 import com.android.bluetooth.hfp.BluetoothHeadsetProxy;
 import com.android.bluetooth.tbs.BluetoothLeCallControlProxy;
 
@@ -92,6 +95,7 @@ public class BluetoothInCallServiceTest {
     private BluetoothInCallService mBluetoothInCallService;
 
     @Rule public MockitoRule mockitoRule = MockitoJUnit.rule();
+    @Rule public final SetFlagsRule mSetFlagsRule = new SetFlagsRule();
 
     @Mock private BluetoothHeadsetProxy mMockBluetoothHeadset;
     @Mock private BluetoothLeCallControlProxy mLeCallControl;
@@ -224,6 +228,52 @@ public class BluetoothInCallServiceTest {
         verify(mMockBluetoothHeadset).clccResponse(0, 0, 0, 0, false, null, 0);
     }
 
+    @Test
+    @EnableFlags(Flags.FLAG_HFP_CLCC_RESPONSE_CACHE)
+    public void listCurrentCalls_noCallChange_sendsCachedResponses() {
+        BluetoothCall activeCall = createActiveCall(UUID.randomUUID());
+        doReturn(Call.STATE_ACTIVE).when(activeCall).getState();
+        doReturn(Uri.parse("tel:555-000")).when(activeCall).getHandle();
+
+        doReturn(List.of(activeCall)).when(mMockCallInfo).getBluetoothCalls();
+        mBluetoothInCallService.onCallAdded(activeCall);
+        mBluetoothInCallService.listCurrentCalls();
+
+        clearInvocations(mMockBluetoothHeadset, mMockCallInfo);
+        mBluetoothInCallService.listCurrentCalls();
+
+        verify(mMockBluetoothHeadset)
+                .clccResponse(1, 0, 0, 0, false, "555000", PhoneNumberUtils.TOA_Unknown);
+        verify(mMockBluetoothHeadset).clccResponse(0, 0, 0, 0, false, null, 0);
+        verify(mMockCallInfo, never()).getBluetoothCalls();
+        Assert.assertEquals(1, mBluetoothInCallService.getClccCacheHits());
+        Assert.assertEquals(1, mBluetoothInCallService.getClccCacheMisses());
+    }
+
+    @Test
+    @EnableFlags(Flags.FLAG_HFP_CLCC_RESPONSE_CACHE)
+    public void listCurrentCalls_afterCallDetailsChanged_sendsNewResponses() {
+        BluetoothCall activeCall = createActiveCall(UUID.randomUUID());
+        doReturn(Call.STATE_ACTIVE).when(activeCall).getState();
+        doReturn(Uri.parse("tel:555-000")).when(activeCall).getHandle();
+
+        doReturn(List.of(activeCall)).when(mMockCallInfo).getBluetoothCalls();
+        mBluetoothInCallService.onCallAdded(activeCall);
+        mBluetoothInCallService.listCurrentCalls();
+
+        doReturn(Uri.parse("tel:555-001")).when(activeCall).getHandle();
+        BluetoothInCallService.CallStateCallback callback =
+                mBluetoothInCallService.mCallbacks.get(activeCall.getId());
+        callback.onDetailsChanged(activeCall, null);
+        clearInvocations(mMockBluetoothHeadset);
+        mBluetoothInCallService.listCurrentCalls();
+
+        verify(mMockBluetoothHeadset)
+                .clccResponse(1, 0, 0, 0, false, "555001", PhoneNumberUtils.TOA_Unknown);
+        verify(mMockBluetoothHeadset).clccResponse(0, 0, 0, 0, false, null, 0);
+        Assert.assertEquals(0, mBluetoothInCallService.getClccCacheHits());
+    }
+
     /**
      * Verifies bluetooth call quality reports are properly parceled and set as a call event to
      * Telecom.
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import android.bluetooth.BluetoothDevice;
+import android.util.Log;
+
+import androidx.test.filters.LargeTest;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class AddressCodecTest {
+    private static final String TAG = "AddressCodecTest";
+
+    private static final byte[] ADDRESS_BYTES =
+            new byte[] {0x00, 0x11, 0x22, (byte) 0xAA, (byte) 0xBB, (byte) 0xCC};
+    private static final String ADDRESS = "00:11:22:AA:BB:CC";
+    private static final long ADDRESS_LONG = 0x001122AABBCCL;
+
+    @After
+    public void tearDown() {
+        AddressCodec.clearCaches();
+    }
+
+    @Test
+    public void toLong_bytesAndStringMatch() {
+        assertThat(AddressCodec.toLong(ADDRESS_BYTES)).isEqualTo(ADDRESS_LONG);
+        assertThat(AddressCodec.toLong(ADDRESS)).isEqualTo(ADDRESS_LONG);
+        assertThat(AddressCodec.toLong("00:11:22:aa:bb:cc")).isEqualTo(ADDRESS_LONG);
+    }
+
+    @Test
+    public void toLong_malformed_returnsInvalid() {
+        assertThat(AddressCodec.toLong((String) null)).isEqualTo(AddressCodec.INVALID);
+        assertThat(AddressCodec.toLong((byte[]) null)).isEqualTo(AddressCodec.INVALID);
+        assertThat(AddressCodec.toLong(new byte[7])).isEqualTo(AddressCodec.INVALID);
+        assertThat(AddressCodec.toLong("00:11:22:AA:BB")).isEqualTo(AddressCodec.INVALID);
+        assertThat(AddressCodec.toLong("00-11-22-AA-BB-CC")).isEqualTo(AddressCodec.INVALID);
+        assertThat(AddressCodec.toLong("0G:11:22:AA:BB:CC")).isEqualTo(AddressCodec.INVALID);
+        assertThat(AddressCodec.toLong("00:11:22:AA:BB:C\u0663")).isEqualTo(AddressCodec.INVALID);
+    }
+
+    @Test
+    public void clearCaches_dropsInternedInstances() {
+        String string = AddressCodec.toString(ADDRESS_LONG);
+
+        AddressCodec.clearCaches();
+
+        assertThat(AddressCodec.toString(ADDRESS_LONG)).isNotSameInstanceAs(string);
+        assertThat(AddressCodec.toString(ADDRESS_LONG)).isEqualTo(string);
+    }
+
+    @Test
+    public void toBytes_roundTrips() {
+        assertThat(AddressCodec.toBytes(ADDRESS_LONG)).isEqualTo(ADDRESS_BYTES);
+        assertThat(AddressCodec.toBytes(ADDRESS)).isEqualTo(ADDRESS_BYTES);
+        assertThat(AddressCodec.toBytes("00:11:22:AA:BB")).isNull();
+    }
+
+    @Test
+    public void toString_isCanonicalAndInterned() {
+        String fromBytes = AddressCodec.toString(ADDRESS_BYTES);
+
+        assertThat(fromBytes).isEqualTo(ADDRESS);
+        assertThat(AddressCodec.toString(ADDRESS_LONG)).isSameInstanceAs(fromBytes);
+        assertThat(AddressCodec.canonicalize("00:11:22:aa:bb:cc")).isSameInstanceAs(fromBytes);
+        assertThat(AddressCodec.toString(new byte[5])).isNull();
+        assertThat(AddressCodec.canonicalize("not an address")).isNull();
+    }
+
+    @Test
+    public void toString_matchesStringFormat() {
+        Random random = new Random(0);
+        byte[] address = new byte[6];
+        for (int i = 0; i < 1000; i++) {
+            random.nextBytes(address);
+            assertThat(AddressCodec.toString(address)).isEqualTo(formatAddress(address));
+            assertThat(AddressCodec.toBytes(formatAddress(address))).isEqualTo(address);
+        }
+    }
+
+    @Test
+    public void getDevice_newInstanceForEveryCaller() {
+        BluetoothDevice device = AddressCodec.getDevice(ADDRESS_BYTES);
+
+        assertThat(device.getAddress()).isEqualTo(ADDRESS);
+        // Devices hold the attribution source of their caller, they are never shared
+        assertThat(AddressCodec.getDevice(ADDRESS)).isNotSameInstanceAs(device);
+        assertThat(AddressCodec.getDevice(ADDRESS)).isEqualTo(device);
+        assertThat(AddressCodec.getDevice("00:11:22:aa:bb:cc")).isEqualTo(device);
+        assertThat(AddressCodec.getDevice(ADDRESS_LONG)).isEqualTo(device);
+    }
+
+    @Test
+    public void getLeDevice_keepsAddressType() {
+        BluetoothDevice publicDevice =
+                AddressCodec.getLeDevice(ADDRESS, BluetoothDevice.ADDRESS_TYPE_PUBLIC);
+        BluetoothDevice randomDevice =
+                AddressCodec.getLeDevice(ADDRESS, BluetoothDevice.ADDRESS_TYPE_RANDOM);
+
+        assertThat(publicDevice).isNotSameInstanceAs(randomDevice);
+        assertThat(randomDevice.getAddressType()).isEqualTo(BluetoothDevice.ADDRESS_TYPE_RANDOM);
+        assertThat(AddressCodec.getLeDevice(ADDRESS, BluetoothDevice.ADDRESS_TYPE_RANDOM))
+                .isNotSameInstanceAs(randomDevice);
+    }
+
+    @Test
+    public void getDevice_malformed_throws() {
+        assertThrows(IllegalArgumentException.class, () -> AddressCodec.getDevice(new byte[5]));
+        assertThrows(IllegalArgumentException.class, () -> AddressCodec.getDevice("00:11:22"));
+        assertThrows(IllegalArgumentException.class, () -> AddressCodec.getDevice(1L << 48));
+    }
+
+    /**
+     * Compares the codec with the String.format and Integer.parseInt based conversions it
+     * replaced. Only the results are checked, the timings are logged for manual inspection.
+     */
+    @Test
+    @LargeTest
+    public void benchmark_againstLegacyConversions() {
+        final int addresses = 64;
+        final int iterations = 20_000;
+        byte[][] bytes = new byte[addresses][6];
+        String[] strings = new String[addresses];
+        Random random = new Random(0);
+        for (int i = 0; i < addresses; i++) {
+            random.nextBytes(bytes[i]);
+            strings[i] = formatAddress(bytes[i]);
+        }
+
+        long start = System.nanoTime();
+        int legacyHash = 0;
+        for (int i = 0; i < iterations; i++) {
+            legacyHash += formatAddress(bytes[i % addresses]).hashCode();
+            legacyHash += parseAddress(strings[i % addresses])[5];
+        }
+        long legacyNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int codecHash = 0;
+        for (int i = 0; i < iterations; i++) {
+            codecHash += AddressCodec.toString(bytes[i % addresses]).hashCode();
+            codecHash += AddressCodec.toBytes(strings[i % addresses])[5];
+        }
+        long codecNanos = System.nanoTime() - start;
+
+        Log.i(
+                TAG,
+                "encode+decode ns/op legacy="
+                        + legacyNanos / iterations
+                        + " codec="
+                        + codecNanos / iterations);
+        assertThat(codecHash).isEqualTo(legacyHash);
+    }
+
+    private static String formatAddress(byte[] address) {
+        return String.format(
+                "%02X:%02X:%02X:%02X:%02X:%02X",
+                address[0], address[1], address[2], address[3], address[4], address[5]);
+    }
+
+    private static byte[] parseAddress(String address) {
+        byte[] output = new byte[6];
+        for (int i = 0, j = 0; i < address.length(); i += 3, j++) {
+            output[j] = (byte) Integer.parseInt(address.substring(i, i + 2), 16);
+        }
+        return output;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bluetooth.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class InstrumentedLockTest {
+    private final InstrumentedLock mLock = new InstrumentedLock(new ReentrantLock());
+
+    @Test
+    public void tryLock_countsAcquisition() {
+        assertThat(mLock.tryLock()).isTrue();
+        mLock.unlock();
+        assertThat(mLock.tryLock()).isTrue();
+        mLock.unlock();
+
+        assertThat(mLock.getAcquisitions()).isEqualTo(2);
+        assertThat(mLock.getContentions()).isEqualTo(0);
+    }
+
+    @Test
+    public void lock_free_notCountedAsContention() throws Exception {
+        mLock.lock();
+        mLock.unlock();
+        mLock.lockInterruptibly();
+        mLock.unlock();
+        assertThat(mLock.tryLock(1, TimeUnit.SECONDS)).isTrue();
+        mLock.unlock();
+
+        assertThat(mLock.getAcquisitions()).isEqualTo(3);
+        assertThat(mLock.getContentions()).isEqualTo(0);
+        assertThat(mLock.getTotalWaitNanos()).isEqualTo(0);
+    }
+
+    @Test
+    public void lock_heldByAnotherThread_countsContention() throws Exception {
+        CountDownLatch locked = new CountDownLatch(1);
+        Thread holder =
+                new Thread(
+                        () -> {
+                            mLock.lock();
+                            try {
+                                locked.countDown();
+                                Thread.sleep(50);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            } finally {
+                                mLock.unlock();
+                            }
+                        });
+        holder.start();
+        locked.await();
+
+        assertThat(mLock.tryLock()).isFalse();
+        mLock.lock();
+        mLock.unlock();
+        holder.join();
+
+        assertThat(mLock.getAcquisitions()).isEqualTo(2);
+        assertThat(mLock.getContentions()).isEqualTo(1);
+        assertThat(mLock.getMaxWaitNanos()).isAtLeast(TimeUnit.MILLISECONDS.toNanos(1));
+        assertThat(mLock.getTotalWaitNanos()).isAtLeast(mLock.getMaxWaitNanos());
+    }
+}
@@ -29,6 +29,7 @@ import static java.util.Objects.requireNonNull;
 
 import android.annotation.BroadcastBehavior;
 import android.annotation.CallbackExecutor;
+import android.annotation.FlaggedApi;
 import android.annotation.IntDef;
 import android.annotation.NonNull;
 import android.annotation.Nullable;
@@ -100,6 +101,7 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 /**
  * Represents the local device Bluetooth adapter. The {@link BluetoothAdapter} lets you perform
@@ -2162,6 +2164,38 @@ public final class BluetoothAdapter {
         return false;
     }
 
+    /**
+     * Start the remote device discovery process, with found devices delivered in batches.
+     *
+     * <p>Same as {@link #startDiscovery()}, except that the calling application receives the
+     * devices found during discovery with {@link BluetoothDevice#ACTION_FOUND_BATCH} instead of one
+     * {@link BluetoothDevice#ACTION_FOUND} per device. Applications that display the results of a
+     * discovery should prefer this method: in crowded environments it replaces a large number of
+     * broadcasts with a few.
+     *
+     * @return true on success, false on error
+     */
+    @FlaggedApi(Flags.FLAG_COALESCED_DISCOVERY_DELIVERY)
+    @RequiresBluetoothScanPermission
+    @RequiresBluetoothLocationPermission
+    @RequiresPermission(BLUETOOTH_SCAN)
+    public boolean startBatchedDiscovery() {
+        if (getState() != STATE_ON) {
+            return false;
+        }
+        mServiceLock.readLock().lock();
+        try {
+            if (mService != null) {
+                return mService.startBatchedDiscovery(mAttributionSource);
+            }
+        } catch (RemoteException e) {
+            Log.e(TAG, e.toString() + "\n" + Log.getStackTraceString(new Throwable()));
+        } finally {
+            mServiceLock.readLock().unlock();
+        }
+        return false;
+    }
+
     /**
      * Cancel the current device discovery process.
      *
@@ -2333,6 +2367,114 @@ public final class BluetoothAdapter {
         return false;
     }
 
+    /**
+     * Sets device as the active devices for the use cases passed into the function, without waiting
+     * for the audio routing to be updated.
+     *
+     * <p>Unlike {@link #setActiveDevice(BluetoothDevice, int)}, this returns immediately and the
+     * result is reported through {@code callback} once the profiles were activated or failed to.
+     * Activations requested for devices of the same group (e.g. both earbuds of a set) before the
+     * first one ran are done once, and report the same result.
+     *
+     * @param device is the remote bluetooth device
+     * @param profiles represents the purpose for which we are setting this as the active device.
+     *     Possible values are: {@link BluetoothAdapter#ACTIVE_DEVICE_AUDIO}, {@link
+     *     BluetoothAdapter#ACTIVE_DEVICE_PHONE_CALL}, {@link BluetoothAdapter#ACTIVE_DEVICE_ALL}
+     * @param executor the executor that the callback will be invoked on
+     * @param callback called once with {@link BluetoothStatusCodes#SUCCESS} if the device was set
+     *     as active device, or the error code otherwise
+     * @throws IllegalArgumentException if device is null or profiles is not one of {@link
+     *     ActiveDeviceUse}
+     * @hide
+     */
+    @FlaggedApi(Flags.FLAG_ASYNC_ACTIVE_DEVICE_ACTIVATION)
+    @SystemApi
+    @RequiresBluetoothConnectPermission
+    @RequiresPermission(
+            allOf = {
+                BLUETOOTH_CONNECT,
+                BLUETOOTH_PRIVILEGED,
+                MODIFY_PHONE_STATE,
+            })
+    public void setActiveDevice(
+            @NonNull BluetoothDevice device,
+            @ActiveDeviceUse int profiles,
+            @NonNull @CallbackExecutor Executor executor,
+            @NonNull IntConsumer callback) {
+        if (device == null) {
+            Log.e(TAG, "setActiveDevice: Null device passed as parameter");
+            throw new IllegalArgumentException("device cannot be null");
+        }
+        if (profiles != ACTIVE_DEVICE_AUDIO
+                && profiles != ACTIVE_DEVICE_PHONE_CALL
+                && profiles != ACTIVE_DEVICE_ALL) {
+            Log.e(TAG, "Invalid profiles param value in setActiveDevice");
+            throw new IllegalArgumentException(
+                    "Profiles must be one of "
+                            + "BluetoothAdapter.ACTIVE_DEVICE_AUDIO, "
+                            + "BluetoothAdapter.ACTIVE_DEVICE_PHONE_CALL, or "
+                            + "BluetoothAdapter.ACTIVE_DEVICE_ALL");
+        }
+        requireNonNull(executor, "executor cannot be null");
+        requireNonNull(callback, "callback cannot be null");
+        ActiveDeviceCallbackProxy proxy = new ActiveDeviceCallbackProxy(executor, callback);
+        mServiceLock.readLock().lock();
+        try {
+            if (mService != null) {
+                if (DBG) {
+                    Log.d(TAG, "setActiveDevice, device: " + device + ", profiles: " + profiles);
+                }
+                mService.setActiveDeviceAsync(device, profiles, proxy, mAttributionSource);
+            } else {
+                proxy.onActiveDeviceSet(BluetoothStatusCodes.ERROR_PROFILE_SERVICE_NOT_BOUND);
+            }
+        } catch (RemoteException e) {
+            Log.e(TAG, e.toString() + "\n" + Log.getStackTraceString(new Throwable()));
+            proxy.onActiveDeviceSet(BluetoothStatusCodes.ERROR_UNKNOWN);
+        } finally {
+            mServiceLock.readLock().unlock();
+        }
+    }
+
+    private static class ActiveDeviceCallbackProxy extends IBluetoothActiveDeviceCallback.Stub {
+        private final Object mLock = new Object();
+
+        @Nullable
+        @GuardedBy("mLock")
+        private Executor mExecutor;
+
+        @Nullable
+        @GuardedBy("mLock")
+        private IntConsumer mCallback;
+
+        ActiveDeviceCallbackProxy(Executor executor, IntConsumer callback) {
+            mExecutor = executor;
+            mCallback = callback;
+        }
+
+        @Override
+        @RequiresNoPermission
+        public void onActiveDeviceSet(int status) {
+            Executor executor;
+            IntConsumer callback;
+            synchronized (mLock) {
+                if (mExecutor == null || mCallback == null) {
+                    return;
+                }
+                executor = mExecutor;
+                callback = mCallback;
+                mExecutor = null;
+                mCallback = null;
+            }
+            final long identity = Binder.clearCallingIdentity();
+            try {
+                executor.execute(() -> callback.accept(status));
+            } finally {
+                Binder.restoreCallingIdentity(identity);
+            }
+        }
+    }
+
     /**
      * Get the active devices for the BluetoothProfile specified
      *
@@ -2901,6 +3043,61 @@ public final class BluetoothAdapter {
         return Collections.emptyList();
     }
 
+    /**
+     * Fetch the properties of every bonded or connected remote device with a single call.
+     *
+     * <p>This replaces calling {@link #getBondedDevices} followed by one call per device and per
+     * property. When {@code previous} is given and no requested property of any remote device
+     * changed since it was taken, {@code previous} itself is returned without transferring the
+     * device list again, so callers can compare the result with {@code previous} by reference to
+     * know whether they need to refresh their state.
+     *
+     * @param properties the properties to fetch, a combination of {@code
+     *     BluetoothDeviceSnapshot.PROPERTY_*} flags
+     * @param previous a snapshot returned by an earlier call, or null
+     * @return the snapshot, empty if Bluetooth is not enabled
+     * @hide
+     */
+    @FlaggedApi(Flags.FLAG_REMOTE_DEVICE_SNAPSHOT)
+    @SystemApi
+    @RequiresBluetoothConnectPermission
+    @RequiresPermission(
+            allOf = {
+                BLUETOOTH_CONNECT,
+                BLUETOOTH_PRIVILEGED,
+            })
+    public @NonNull BluetoothDeviceSnapshot getRemoteDeviceSnapshot(
+            @BluetoothDeviceSnapshot.Property int properties,
+            @Nullable BluetoothDeviceSnapshot previous) {
+        BluetoothDeviceSnapshot empty =
+                new BluetoothDeviceSnapshot(-1, properties, Collections.emptyList());
+        if (getState() != STATE_ON) {
+            return empty;
+        }
+        long knownGeneration =
+                (previous != null && previous.getProperties() == properties)
+                        ? previous.getGeneration()
+                        : -1;
+        mServiceLock.readLock().lock();
+        try {
+            if (mService != null) {
+                BluetoothDeviceSnapshot snapshot =
+                        mService.getRemoteDeviceSnapshot(
+                                properties, knownGeneration, mAttributionSource);
+                if (snapshot == null) {
+                    // Nothing changed since the previous snapshot
+                    return knownGeneration != -1 ? previous : empty;
+                }
+                return Attributable.setAttributionSource(snapshot, mAttributionSource);
+            }
+        } catch (RemoteException e) {
+            Log.e(TAG, e.toString() + "\n" + Log.getStackTraceString(new Throwable()));
+        } finally {
+            mServiceLock.readLock().unlock();
+        }
+        return empty;
+    }
+
     /**
      * Return the set of {@link BluetoothDevice} objects that are bonded (paired) to the local
      * adapter.
@@ -150,6 +150,22 @@ public final class BluetoothDevice implements Parcelable, Attributable {
     @SdkConstant(SdkConstantType.BROADCAST_INTENT_ACTION)
     public static final String ACTION_FOUND = "android.bluetooth.device.action.FOUND";
 
+    /**
+     * Broadcast Action: Remote devices discovered.
+     *
+     * <p>Sent instead of {@link #ACTION_FOUND} to applications that started the discovery with
+     * {@link BluetoothAdapter#startBatchedDiscovery}. Devices found during discovery are grouped
+     * and delivered at most a few times per second.
+     *
+     * <p>Always contains the extra field {@link #EXTRA_FOUND_RESULTS}.
+     */
+    @FlaggedApi(Flags.FLAG_COALESCED_DISCOVERY_DELIVERY)
+    @RequiresBluetoothScanPermission
+    @RequiresBluetoothLocationPermission
+    @RequiresPermission(BLUETOOTH_SCAN)
+    @SdkConstant(SdkConstantType.BROADCAST_INTENT_ACTION)
+    public static final String ACTION_FOUND_BATCH = "android.bluetooth.device.action.FOUND_BATCH";
+
     /**
      * Broadcast Action: Bluetooth class of a remote device has changed.
      *
@@ -342,6 +358,14 @@ public final class BluetoothDevice implements Parcelable, Attributable {
      */
     public static final String EXTRA_DEVICE = "android.bluetooth.device.extra.DEVICE";
 
+    /**
+     * Used as an ArrayList of {@link android.os.Bundle} extra field in {@link #ACTION_FOUND_BATCH}
+     * intents. Each Bundle holds the extra fields of the {@link #ACTION_FOUND} intent of one
+     * discovered device, in the order the devices were found.
+     */
+    @FlaggedApi(Flags.FLAG_COALESCED_DISCOVERY_DELIVERY)
+    public static final String EXTRA_FOUND_RESULTS = "android.bluetooth.device.extra.FOUND_RESULTS";
+
     /**
      * Used as a String extra field in {@link #ACTION_NAME_CHANGED} and {@link #ACTION_FOUND}
      * intents. It contains the friendly Bluetooth name.
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.bluetooth;
+
+import android.annotation.FlaggedApi;
+import android.annotation.IntDef;
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.annotation.SystemApi;
+import android.content.AttributionSource;
+import android.os.Parcel;
+import android.os.ParcelUuid;
+import android.os.Parcelable;
+import android.util.SparseIntArray;
+
+import com.android.bluetooth.flags.Flags;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Snapshot of the properties of every bonded or connected remote device, fetched with a single
+ * call to {@link BluetoothAdapter#getRemoteDeviceSnapshot}.
+ *
+ * <p>Only the properties requested when fetching the snapshot are filled, the others hold their
+ * default value. Each snapshot carries a generation number that changes whenever one of the
+ * properties of a remote device changes on the Bluetooth stack, which lets callers skip refreshing
+ * their state when nothing changed.
+ *
+ * @hide
+ */
+@FlaggedApi(Flags.FLAG_REMOTE_DEVICE_SNAPSHOT)
+@SystemApi
+public final class BluetoothDeviceSnapshot implements Parcelable, Attributable {
+
+    /** @hide */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef(
+            flag = true,
+            prefix = "PROPERTY_",
+            value = {
+                PROPERTY_NAME,
+                PROPERTY_ALIAS,
+                PROPERTY_TYPE,
+                PROPERTY_CLASS,
+                PROPERTY_UUIDS,
+                PROPERTY_BATTERY_LEVEL,
+                PROPERTY_BOND_STATE,
+                PROPERTY_CONNECTION_STATE,
+                PROPERTY_PROFILE_CONNECTION_STATES,
+            })
+    public @interface Property {}
+
+    /** Remote device name, see {@link BluetoothDevice#getName}. */
+    public static final int PROPERTY_NAME = 1 << 0;
+
+    /** Remote device alias, see {@link BluetoothDevice#getAlias}. */
+    public static final int PROPERTY_ALIAS = 1 << 1;
+
+    /** Remote device type, see {@link BluetoothDevice#getType}. */
+    public static final int PROPERTY_TYPE = 1 << 2;
+
+    /** Remote device class, see {@link BluetoothDevice#getBluetoothClass}. */
+    public static final int PROPERTY_CLASS = 1 << 3;
+
+    /** Remote device UUIDs, see {@link BluetoothDevice#getUuids}. */
+    public static final int PROPERTY_UUIDS = 1 << 4;
+
+    /** Remote device battery level. */
+    public static final int PROPERTY_BATTERY_LEVEL = 1 << 5;
+
+    /** Remote device bond state, see {@link BluetoothDevice#getBondState}. */
+    public static final int PROPERTY_BOND_STATE = 1 << 6;
+
+    /** Remote device ACL connection state, see {@link BluetoothDevice#isConnected}. */
+    public static final int PROPERTY_CONNECTION_STATE = 1 << 7;
+
+    /**
+     * Remote device connection state of each profile, see {@link
+     * BluetoothProfile#getConnectionState}.
+     */
+    public static final int PROPERTY_PROFILE_CONNECTION_STATES = 1 << 8;
+
+    /** Every property of a remote device. */
+    public static final int PROPERTY_ALL = (1 << 9) - 1;
+
+    private final long mGeneration;
+    private final int mProperties;
+    private final List<Entry> mEntries;
+
+    /** @hide */
+    public BluetoothDeviceSnapshot(long generation, int properties, @NonNull List<Entry> entries) {
+        mGeneration = generation;
+        mProperties = properties;
+        mEntries = Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    private BluetoothDeviceSnapshot(Parcel in) {
+        mGeneration = in.readLong();
+        mProperties = in.readInt();
+        int size = in.readInt();
+        List<Entry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            entries.add(new Entry(in));
+        }
+        mEntries = Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Get the generation of this snapshot. Two snapshots with the same generation and properties
+     * hold the same values.
+     */
+    public long getGeneration() {
+        return mGeneration;
+    }
+
+    /** Get the properties filled in this snapshot, a combination of {@code PROPERTY_*} flags. */
+    public @Property int getProperties() {
+        return mProperties;
+    }
+
+    /** Get one entry per bonded or connected remote device. */
+    public @NonNull List<Entry> getEntries() {
+        return mEntries;
+    }
+
+    /** @hide */
+    @Override
+    public void setAttributionSource(@NonNull AttributionSource attributionSource) {
+        for (Entry entry : mEntries) {
+            Attributable.setAttributionSource(entry.mDevice, attributionSource);
+        }
+    }
+
+    @Override
+    public void writeToParcel(@NonNull Parcel out, int flags) {
+        out.writeLong(mGeneration);
+        out.writeInt(mProperties);
+        out.writeInt(mEntries.size());
+        for (Entry entry : mEntries) {
+            entry.writeToParcel(out, flags);
+        }
+    }
+
+    /** @hide */
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final @NonNull Parcelable.Creator<BluetoothDeviceSnapshot> CREATOR =
+            new Parcelable.Creator<BluetoothDeviceSnapshot>() {
+                @Override
+                public BluetoothDeviceSnapshot createFromParcel(@NonNull Parcel in) {
+                    return new BluetoothDeviceSnapshot(in);
+                }
+
+                @Override
+                public BluetoothDeviceSnapshot[] newArray(int size) {
+                    return new BluetoothDeviceSnapshot[size];
+                }
+            };
+
+    @Override
+    public String toString() {
+        return "BluetoothDeviceSnapshot{generation="
+                + mGeneration
+                + ", properties=0x"
+                + Integer.toHexString(mProperties)
+                + ", entries="
+                + mEntries
+                + "}";
+    }
+
+    /** Properties of a single remote device. */
+    public static final class Entry {
+        private final BluetoothDevice mDevice;
+        private final String mName;
+        private final String mAlias;
+        private final int mType;
+        private final int mBluetoothClass;
+        private final List<ParcelUuid> mUuids;
+        private final int mBatteryLevel;
+        private final int mBondState;
+        private final boolean mConnected;
+        private final SparseIntArray mProfileConnectionStates;
+
+        /** @hide */
+        public Entry(
+                @NonNull BluetoothDevice device,
+                @Nullable String name,
+                @Nullable String alias,
+                int type,
+                int bluetoothClass,
+                @Nullable List<ParcelUuid> uuids,
+                int batteryLevel,
+                int bondState,
+                boolean connected,
+                @Nullable SparseIntArray profileConnectionStates) {
+            mDevice = device;
+            mName = name;
+            mAlias = alias;
+            mType = type;
+            mBluetoothClass = bluetoothClass;
+            mUuids = uuids == null ? Collections.emptyList() : List.copyOf(uuids);
+            mBatteryLevel = batteryLevel;
+            mBondState = bondState;
+            mConnected = connected;
+            mProfileConnectionStates =
+                    profileConnectionStates == null
+                            ? new SparseIntArray()
+                            : profileConnectionStates.clone();
+        }
+
+        private Entry(Parcel in) {
+            mDevice = BluetoothDevice.CREATOR.createFromParcel(in);
+            mName = in.readString();
+            mAlias = in.readString();
+            mType = in.readInt();
+            mBluetoothClass = in.readInt();
+            List<ParcelUuid> uuids = new ArrayList<>();
+            in.readTypedList(uuids, ParcelUuid.CREATOR);
+            mUuids = Collections.unmodifiableList(uuids);
+            mBatteryLevel = in.readInt();
+            mBondState = in.readInt();
+            mConnected = in.readBoolean();
+            int profileCount = in.readInt();
+            mProfileConnectionStates = new SparseIntArray(profileCount);
+            for (int i = 0; i < profileCount; i++) {
+                mProfileConnectionStates.put(in.readInt(), in.readInt());
+            }
+        }
+
+        private void writeToParcel(Parcel out, int flags) {
+            mDevice.writeToParcel(out, flags);
+            out.writeString(mName);
+            out.writeString(mAlias);
+            out.writeInt(mType);
+            out.writeInt(mBluetoothClass);
+            out.writeTypedList(mUuids);
+            out.writeInt(mBatteryLevel);
+            out.writeInt(mBondState);
+            out.writeBoolean(mConnected);
+            out.writeInt(mProfileConnectionStates.size());
+            for (int i = 0; i < mProfileConnectionStates.size(); i++) {
+                out.writeInt(mProfileConnectionStates.keyAt(i));
+                out.writeInt(mProfileConnectionStates.valueAt(i));
+            }
+        }
+
+        /** Get the remote device. */
+        public @NonNull BluetoothDevice getDevice() {
+            return mDevice;
+        }
+
+        /** Get the remote device name, or null if unknown or not requested. */
+        public @Nullable String getName() {
+            return mName;
+        }
+
+        /** Get the remote device alias, or null if not set or not requested. */
+        public @Nullable String getAlias() {
+            return mAlias;
+        }
+
+        /**
+         * Get the remote device type, or {@link BluetoothDevice#DEVICE_TYPE_UNKNOWN} if unknown or
+         * not requested.
+         */
+        public int getType() {
+            return mType;
+        }
+
+        /** Get the raw value of the remote device class, or 0 if unknown or not requested. */
+        public int getBluetoothClass() {
+            return mBluetoothClass;
+        }
+
+        /** Get the remote device UUIDs, empty if unknown or not requested. */
+        public @NonNull List<ParcelUuid> getUuids() {
+            return mUuids;
+        }
+
+        /**
+         * Get the remote device battery level, or {@link BluetoothDevice#BATTERY_LEVEL_UNKNOWN} if
+         * unknown or not requested.
+         */
+        public int getBatteryLevel() {
+            return mBatteryLevel;
+        }
+
+        /**
+         * Get the remote device bond state, or {@link BluetoothDevice#BOND_NONE} if not requested.
+         */
+        public int getBondState() {
+            return mBondState;
+        }
+
+        /** Whether an ACL connection to the remote device exists, false if not requested. */
+        public boolean isConnected() {
+            return mConnected;
+        }
+
+        /**
+         * Get the connection state of the given profile to the remote device, or {@link
+         * BluetoothProfile#STATE_DISCONNECTED} if not connected or not requested.
+         *
+         * @param profile a profile, for instance {@link BluetoothProfile#A2DP}
+         */
+        public @BluetoothProfile.BtProfileState int getProfileConnectionState(int profile) {
+            return mProfileConnectionStates.get(profile, BluetoothProfile.STATE_DISCONNECTED);
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{device="
+                    + mDevice
+                    + ", type="
+                    + mType
+                    + ", bondState="
+                    + mBondState
+                    + ", connected="
+                    + mConnected
+                    + ", profileConnectionStates="
+                    + mProfileConnectionStates
+                    + ", batteryLevel="
+                    + mBatteryLevel
+                    + "}";
+        }
+    }
+}
@@ -21,6 +21,7 @@ import static android.Manifest.permission.BLUETOOTH_PRIVILEGED;
 import static android.Manifest.permission.LOCAL_MAC_ADDRESS;
 
 import android.annotation.FlaggedApi;
+import android.annotation.NonNull;
 import android.annotation.RequiresNoPermission;
 import android.annotation.RequiresPermission;
 import android.annotation.SystemApi;
@@ -32,17 +33,25 @@ import android.os.Build;
 import android.os.ParcelFileDescriptor;
 import android.os.ParcelUuid;
 import android.os.RemoteException;
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
 import android.util.Log;
 
 import com.android.bluetooth.flags.Flags;
+import com.android.internal.annotations.VisibleForTesting;
 
 import java.io.Closeable;
 import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Arrays;
 import java.util.Locale;
 import java.util.UUID;
@@ -140,6 +149,7 @@ public final class BluetoothSocket implements Closeable {
     private final boolean mEncrypt;
     private final BluetoothInputStream mInputStream;
     private final BluetoothOutputStream mOutputStream;
+    private final BluetoothSocketChannel mChannel;
     private final ParcelUuid mUuid;
 
     /** when true no SPP SDP record will be created */
@@ -170,6 +180,11 @@ public final class BluetoothSocket implements Closeable {
     private long mSocketCreationTimeNanos = 0;
     private long mSocketCreationLatencyNanos = 0;
 
+    private final SocketMetrics.TrafficCounters mTrafficCounters =
+            new SocketMetrics.TrafficCounters();
+    private volatile long mConnectedTimeMillis = 0;
+    private volatile long mClosedTimeMillis = 0;
+
     private enum SocketState {
         INIT,
         CONNECTED,
@@ -263,6 +278,7 @@ public final class BluetoothSocket implements Closeable {
         }
         mInputStream = new BluetoothInputStream(this);
         mOutputStream = new BluetoothOutputStream(this);
+        mChannel = new BluetoothSocketChannel(this);
         mSocketCreationLatencyNanos = System.nanoTime() - mSocketCreationTimeNanos;
     }
 
@@ -289,6 +305,30 @@ public final class BluetoothSocket implements Closeable {
         bluetoothSocket.mSocketIS = bluetoothSocket.mSocket.getInputStream();
         bluetoothSocket.mSocketOS = bluetoothSocket.mSocket.getOutputStream();
         bluetoothSocket.mSocketState = SocketState.CONNECTED;
+        bluetoothSocket.mConnectedTimeMillis = SystemClock.elapsedRealtime();
+
+        return bluetoothSocket;
+    }
+
+    /** Creates a connected L2CAP socket of the given type over an already open descriptor. */
+    @VisibleForTesting
+    /*package*/ static BluetoothSocket createL2capSocketFromOpenFd(
+            ParcelFileDescriptor pfd,
+            BluetoothDevice device,
+            int type,
+            int maxTxPacketSize,
+            int maxRxPacketSize)
+            throws IOException {
+        BluetoothSocket bluetoothSocket = new BluetoothSocket(type, true, true, device, -1, null);
+
+        bluetoothSocket.mPfd = pfd;
+        bluetoothSocket.mSocket = new LocalSocket(pfd.getFileDescriptor());
+        bluetoothSocket.mSocketIS = bluetoothSocket.mSocket.getInputStream();
+        bluetoothSocket.mSocketOS = bluetoothSocket.mSocket.getOutputStream();
+        bluetoothSocket.mMaxTxPacketSize = maxTxPacketSize;
+        bluetoothSocket.mMaxRxPacketSize = maxRxPacketSize;
+        bluetoothSocket.mSocketState = SocketState.CONNECTED;
+        bluetoothSocket.mConnectedTimeMillis = SystemClock.elapsedRealtime();
 
         return bluetoothSocket;
     }
@@ -302,6 +342,7 @@ public final class BluetoothSocket implements Closeable {
         mPort = s.mPort;
         mInputStream = new BluetoothInputStream(this);
         mOutputStream = new BluetoothOutputStream(this);
+        mChannel = new BluetoothSocketChannel(this);
         mMaxRxPacketSize = s.mMaxRxPacketSize;
         mMaxTxPacketSize = s.mMaxTxPacketSize;
         mConnectionUuid = s.mConnectionUuid;
@@ -317,6 +358,7 @@ public final class BluetoothSocket implements Closeable {
     private BluetoothSocket acceptSocket(String remoteAddr) throws IOException {
         BluetoothSocket as = new BluetoothSocket(this);
         as.mSocketState = SocketState.CONNECTED;
+        as.mConnectedTimeMillis = SystemClock.elapsedRealtime();
         FileDescriptor[] fds = mSocket.getAncillaryFileDescriptors();
         if (DBG) Log.d(TAG, "acceptSocket: socket fd passed by stack fds:" + Arrays.toString(fds));
         if (fds == null || fds.length != 1) {
@@ -401,6 +443,164 @@ public final class BluetoothSocket implements Closeable {
         return mOutputStream;
     }
 
+    /**
+     * Get a channel to read from this socket.
+     *
+     * <p>Reads go straight from the socket into the given buffer, which may be a direct buffer,
+     * avoiding the intermediate copies made by {@link #getInputStream}. For L2CAP sockets a read
+     * returns at most one received packet, and the whole packet when the buffer has at least
+     * {@link #getMaxReceivePacketSize} bytes remaining. Smaller buffers are still served, through
+     * an intermediate buffer, so that no data is lost.
+     *
+     * <p>The channel will be returned even if the socket is not yet connected, but operations on
+     * that channel will throw IOException until the associated socket is connected. Closing the
+     * channel closes the socket.
+     *
+     * @return ReadableByteChannel
+     */
+    @FlaggedApi(Flags.FLAG_SOCKET_BYTE_CHANNEL)
+    @RequiresNoPermission
+    @NonNull
+    public ReadableByteChannel getReadableChannel() {
+        return mChannel;
+    }
+
+    /**
+     * Get a channel to write to this socket.
+     *
+     * <p>Writes go straight from the given buffers, which may be direct buffers, to the socket
+     * without intermediate copies. For L2CAP sockets each write of up to {@link
+     * #getMaxTransmitPacketSize} bytes is sent as a single packet, even when gathered from several
+     * buffers, so packet boundaries chosen by the application are preserved. Larger writes are
+     * split into packets of {@link #getMaxTransmitPacketSize} bytes.
+     *
+     * <p>The channel will be returned even if the socket is not yet connected, but operations on
+     * that channel will throw IOException until the associated socket is connected. Closing the
+     * channel closes the socket.
+     *
+     * @return GatheringByteChannel
+     */
+    @FlaggedApi(Flags.FLAG_SOCKET_BYTE_CHANNEL)
+    @RequiresNoPermission
+    @NonNull
+    public GatheringByteChannel getWritableChannel() {
+        return mChannel;
+    }
+
+    /**
+     * Receive a single SDU from an L2CAP socket.
+     *
+     * <p>Unlike the stream returned by {@link #getInputStream}, this never returns part of an SDU:
+     * the whole SDU is written to {@code dst} starting at its position, and the position is
+     * advanced by the SDU length. Blocks until an SDU is available.
+     *
+     * <p>Mixing this method with reads from {@link #getInputStream} or {@link #getReadableChannel}
+     * is supported, an SDU partially consumed through them is returned here as its remaining
+     * bytes.
+     *
+     * @param dst buffer with at least {@link #getMaxReceivePacketSize} bytes remaining
+     * @return the length of the received SDU, or -1 if the remote device closed the connection
+     * @throws IllegalArgumentException if {@code dst} can't hold an SDU of the maximum size
+     * @throws UnsupportedOperationException if this isn't an L2CAP socket
+     * @throws IOException if the socket isn't connected or on error
+     */
+    @FlaggedApi(Flags.FLAG_SOCKET_SDU_API)
+    @RequiresNoPermission
+    public int receiveSdu(@NonNull ByteBuffer dst) throws IOException {
+        checkSduDestination(dst);
+        return readSdu(getConnectedFileDescriptor(), dst, false);
+    }
+
+    /**
+     * Receive several SDUs from an L2CAP socket with as few system calls as possible.
+     *
+     * <p>Blocks until at least one SDU is available, then moves the SDUs already queued on the
+     * socket into the following buffers without blocking. Each buffer receives at most one whole
+     * SDU, and its position is advanced by the SDU length; buffers past the returned count are
+     * left untouched.
+     *
+     * @param dsts buffers with at least {@link #getMaxReceivePacketSize} bytes remaining each
+     * @return the number of buffers that received an SDU, or -1 if the remote device closed the
+     *     connection before any SDU was received
+     * @throws IllegalArgumentException if a buffer can't hold an SDU of the maximum size
+     * @throws UnsupportedOperationException if this isn't an L2CAP socket
+     * @throws IOException if the socket isn't connected or on error
+     */
+    @FlaggedApi(Flags.FLAG_SOCKET_SDU_API)
+    @RequiresNoPermission
+    public int receiveSdus(@NonNull ByteBuffer[] dsts) throws IOException {
+        for (ByteBuffer dst : dsts) {
+            checkSduDestination(dst);
+        }
+        if (dsts.length == 0) {
+            return 0;
+        }
+        FileDescriptor fd = getConnectedFileDescriptor();
+        if (readSdu(fd, dsts[0], false) == -1) {
+            return -1;
+        }
+        int count = 1;
+        while (count < dsts.length && readSdu(fd, dsts[count], true) > 0) {
+            count++;
+        }
+        mTrafficCounters.onReceiveBatch(count);
+        if (VDBG) Log.d(TAG, "receiveSdus: " + count + " of " + dsts.length);
+        return count;
+    }
+
+    /**
+     * Send a single SDU on an L2CAP socket.
+     *
+     * <p>The remaining bytes of {@code src} are sent as one SDU and the buffer position is advanced
+     * to its limit. Unlike the stream returned by {@link #getOutputStream}, an SDU is never split.
+     *
+     * @param src buffer with at most {@link #getMaxTransmitPacketSize} bytes remaining
+     * @throws IllegalArgumentException if the SDU is larger than the maximum transmit size
+     * @throws UnsupportedOperationException if this isn't an L2CAP socket
+     * @throws IOException if the socket isn't connected or on error
+     */
+    @FlaggedApi(Flags.FLAG_SOCKET_SDU_API)
+    @RequiresNoPermission
+    public void sendSdu(@NonNull ByteBuffer src) throws IOException {
+        checkL2capSocket();
+        // The max transmit size is only known once connected.
+        FileDescriptor fd = getConnectedFileDescriptor();
+        int length = src.remaining();
+        if (length > mMaxTxPacketSize) {
+            throw new IllegalArgumentException(
+                    "SDU of " + length + " bytes exceeds max transmit size " + mMaxTxPacketSize);
+        }
+        try {
+            // SEQPACKET sockets send a packet atomically, a single write is always complete.
+            Os.write(fd, src);
+        } catch (ErrnoException e) {
+            throw e.rethrowAsIOException();
+        }
+        mTrafficCounters.onSent(1, length);
+    }
+
+    /**
+     * Get the traffic counters of this socket.
+     *
+     * <p>The counters cover every read and write done on the socket, whether through the streams,
+     * the channels or the SDU methods.
+     *
+     * @return a snapshot of the counters at the time of the call
+     */
+    @FlaggedApi(Flags.FLAG_SOCKET_SDU_API)
+    @RequiresNoPermission
+    @NonNull
+    public BluetoothSocketStats getStats() {
+        long connectedTime = mConnectedTimeMillis;
+        long duration = 0;
+        if (connectedTime != 0) {
+            long closedTime = mClosedTimeMillis;
+            long endTime = closedTime != 0 ? closedTime : SystemClock.elapsedRealtime();
+            duration = endTime - connectedTime;
+        }
+        return mTrafficCounters.snapshot(duration);
+    }
+
     /**
      * Get the connection status of this socket, ie, whether there is an active connection with
      * remote device.
@@ -490,6 +690,7 @@ public final class BluetoothSocket implements Closeable {
                     throw new BluetoothSocketException(BluetoothSocketException.SOCKET_CLOSED);
                 }
                 mSocketState = SocketState.CONNECTED;
+                mConnectedTimeMillis = SystemClock.elapsedRealtime();
                 Log.i(TAG, "connect(), socket connected. mPort=" + mPort);
             }
         } catch (BluetoothSocketException e) {
@@ -667,6 +868,9 @@ public final class BluetoothSocket implements Closeable {
         } else {
             if (VDBG) Log.v(TAG, "default: read(): offset: " + offset + " length:" + length);
             ret = mSocketIS.read(b, offset, length);
+            if (ret > 0) {
+                mTrafficCounters.onReceived(1, ret);
+            }
         }
         if (ret < 0) {
             throw new IOException("bt socket closed, read return: " + ret);
@@ -686,6 +890,7 @@ public final class BluetoothSocket implements Closeable {
         if ((mType == TYPE_L2CAP) || (mType == TYPE_L2CAP_LE)) {
             if (length <= mMaxTxPacketSize) {
                 mSocketOS.write(b, offset, length);
+                mTrafficCounters.onSent(1, length);
             } else {
                 if (DBG) {
                     Log.w(
@@ -700,18 +905,231 @@ public final class BluetoothSocket implements Closeable {
                     int tmpLength =
                             (bytesToWrite > mMaxTxPacketSize) ? mMaxTxPacketSize : bytesToWrite;
                     mSocketOS.write(b, tmpOffset, tmpLength);
+                    mTrafficCounters.onSent(1, tmpLength);
                     tmpOffset += tmpLength;
                     bytesToWrite -= tmpLength;
                 }
             }
         } else {
             mSocketOS.write(b, offset, length);
+            mTrafficCounters.onSent(1, length);
         }
         // There is no good way to confirm since the entire process is asynchronous anyway
         if (VDBG) Log.d(TAG, "write out: " + mSocketOS + " length: " + length);
         return length;
     }
 
+    /*package*/ int read(ByteBuffer dst) throws IOException {
+        if (VDBG) Log.d(TAG, "read in:  " + mSocketIS + " remaining: " + dst.remaining());
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        FileDescriptor fd = getConnectedFileDescriptor();
+        if ((mType == TYPE_L2CAP) || (mType == TYPE_L2CAP_LE)) {
+            if (mL2capBuffer == null) {
+                createL2capRxBuffer();
+            }
+            if (mL2capBuffer.remaining() == 0 && dst.remaining() < mMaxRxPacketSize) {
+                // A packet may not fit in the given buffer, read it into ours so nothing is lost.
+                if (VDBG) Log.v(TAG, "l2cap buffer empty, refilling...");
+                if (fillL2capRxBuffer() == -1) {
+                    return -1;
+                }
+            }
+            if (mL2capBuffer.remaining() > 0) {
+                // Hand out what is left of the packet in our buffer first.
+                int bytesToRead = Math.min(dst.remaining(), mL2capBuffer.remaining());
+                ByteBuffer packet = mL2capBuffer.slice();
+                packet.limit(bytesToRead);
+                dst.put(packet);
+                mL2capBuffer.position(mL2capBuffer.position() + bytesToRead);
+                return bytesToRead;
+            }
+        }
+        int ret;
+        try {
+            ret = Os.read(fd, dst);
+        } catch (ErrnoException e) {
+            throw e.rethrowAsIOException();
+        }
+        if (VDBG) Log.d(TAG, "read out:  " + mSocketIS + " ret: " + ret);
+        // The socket returns 0 once the remote end is closed.
+        if (ret == 0) {
+            return -1;
+        }
+        mTrafficCounters.onReceived(1, ret);
+        return ret;
+    }
+
+    /*package*/ int write(ByteBuffer src) throws IOException {
+        int length = src.remaining();
+        if (VDBG) Log.d(TAG, "write: " + mSocketOS + " length: " + length);
+        FileDescriptor fd = getConnectedFileDescriptor();
+        int maxPacketSize = getMaxWriteSize();
+        int limit = src.limit();
+        try {
+            while (src.hasRemaining()) {
+                // Each write on an L2CAP socket is sent as a single packet.
+                src.limit(Math.min(limit, src.position() + maxPacketSize));
+                int packetLength = src.remaining();
+                while (src.hasRemaining()) {
+                    Os.write(fd, src);
+                }
+                mTrafficCounters.onSent(1, packetLength);
+                src.limit(limit);
+            }
+        } catch (ErrnoException e) {
+            throw e.rethrowAsIOException();
+        } finally {
+            src.limit(limit);
+        }
+        if (VDBG) Log.d(TAG, "write out: " + mSocketOS + " length: " + length);
+        return length;
+    }
+
+    /*package*/ long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        FileDescriptor fd = getConnectedFileDescriptor();
+        int maxPacketSize = getMaxWriteSize();
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            total += srcs[i].remaining();
+        }
+        if (VDBG) Log.d(TAG, "write: " + mSocketOS + " buffers: " + length + " total: " + total);
+        long written = 0;
+        try {
+            while (written < total) {
+                written += writeGathered(fd, srcs, offset, length, maxPacketSize);
+            }
+        } catch (ErrnoException e) {
+            throw e.rethrowAsIOException();
+        }
+        return written;
+    }
+
+    /**
+     * Write up to {@code maxBytes} from the given buffers with a single system call, which on an
+     * L2CAP socket makes them a single packet, and advance the buffers by the bytes written.
+     */
+    private int writeGathered(
+            FileDescriptor fd, ByteBuffer[] srcs, int offset, int length, int maxBytes)
+            throws ErrnoException, InterruptedIOException {
+        Object[] buffers = new Object[length];
+        int[] offsets = new int[length];
+        int[] counts = new int[length];
+        ByteBuffer[] used = new ByteBuffer[length];
+        int count = 0;
+        int budget = maxBytes;
+        for (int i = offset; i < offset + length && budget > 0; i++) {
+            ByteBuffer src = srcs[i];
+            int bytes = Math.min(src.remaining(), budget);
+            if (bytes == 0) {
+                continue;
+            }
+            if (src.isDirect()) {
+                buffers[count] = src;
+                offsets[count] = src.position();
+            } else if (src.hasArray()) {
+                buffers[count] = src.array();
+                offsets[count] = src.arrayOffset() + src.position();
+            } else {
+                // Read-only heap buffers don't expose their array.
+                byte[] copy = new byte[bytes];
+                src.duplicate().get(copy);
+                buffers[count] = copy;
+                offsets[count] = 0;
+            }
+            counts[count] = bytes;
+            used[count] = src;
+            count++;
+            budget -= bytes;
+        }
+        int written =
+                Os.writev(
+                        fd,
+                        Arrays.copyOf(buffers, count),
+                        Arrays.copyOf(offsets, count),
+                        Arrays.copyOf(counts, count));
+        int left = written;
+        for (int i = 0; i < count && left > 0; i++) {
+            int advance = Math.min(left, counts[i]);
+            used[i].position(used[i].position() + advance);
+            left -= advance;
+        }
+        mTrafficCounters.onSent(1, written);
+        return written;
+    }
+
+    /**
+     * Read one whole SDU into {@code dst}, handing out what is left of a packet partially read
+     * through the stream first.
+     *
+     * @param nonBlocking when true, return 0 instead of blocking if no SDU is queued
+     * @return the SDU length, 0 if none is queued in non blocking mode, or -1 at end of stream
+     */
+    private int readSdu(FileDescriptor fd, ByteBuffer dst, boolean nonBlocking)
+            throws IOException {
+        if (mL2capBuffer != null && mL2capBuffer.remaining() > 0) {
+            int length = mL2capBuffer.remaining();
+            dst.put(mL2capBuffer);
+            return length;
+        }
+        int ret;
+        try {
+            ret =
+                    nonBlocking
+                            ? Os.recvfrom(fd, dst, OsConstants.MSG_DONTWAIT, null)
+                            : Os.read(fd, dst);
+        } catch (ErrnoException e) {
+            if (nonBlocking && e.errno == OsConstants.EAGAIN) {
+                return 0;
+            }
+            throw e.rethrowAsIOException();
+        }
+        if (ret == 0) {
+            // The socket returns 0 once the remote end is closed.
+            return nonBlocking ? 0 : -1;
+        }
+        mTrafficCounters.onReceived(1, ret);
+        return ret;
+    }
+
+    private void checkSduDestination(ByteBuffer dst) {
+        checkL2capSocket();
+        // A SEQPACKET read silently drops the part of a packet that doesn't fit.
+        if (dst.remaining() < mMaxRxPacketSize) {
+            throw new IllegalArgumentException(
+                    "Buffer of "
+                            + dst.remaining()
+                            + " bytes is smaller than max receive size "
+                            + mMaxRxPacketSize);
+        }
+    }
+
+    private void checkL2capSocket() {
+        if ((mType != TYPE_L2CAP) && (mType != TYPE_L2CAP_LE)) {
+            throw new UnsupportedOperationException("SDU methods require an L2CAP socket");
+        }
+    }
+
+    private int getMaxWriteSize() {
+        if (((mType == TYPE_L2CAP) || (mType == TYPE_L2CAP_LE)) && mMaxTxPacketSize > 0) {
+            return mMaxTxPacketSize;
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    private FileDescriptor getConnectedFileDescriptor() throws IOException {
+        LocalSocket socket = mSocket;
+        if (mSocketState != SocketState.CONNECTED || socket == null) {
+            throw new IOException("bt socket is not connected");
+        }
+        return socket.getFileDescriptor();
+    }
+
+    /*package*/ boolean isClosed() {
+        return mSocketState == SocketState.CLOSED;
+    }
+
     @Override
     public void close() throws IOException {
         Log.d(
@@ -736,6 +1154,7 @@ public final class BluetoothSocket implements Closeable {
                     return;
                 }
                 mSocketState = SocketState.CLOSED;
+                mClosedTimeMillis = SystemClock.elapsedRealtime();
                 if (mSocket != null) {
                     if (DBG) Log.d(TAG, "Closing mSocket: " + mSocket);
                     mSocket.shutdownInput();
@@ -1045,6 +1464,7 @@ public final class BluetoothSocket implements Closeable {
             return -1;
         }
         mL2capBuffer.limit(ret);
+        mTrafficCounters.onReceived(1, ret);
         return ret;
     }
 
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.bluetooth;
+
+import android.annotation.SuppressLint;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * BluetoothSocketChannel.
+ *
+ * <p>Used to read from and write to a Bluetooth socket with {@link ByteBuffer}s.
+ *
+ * @hide
+ */
+@SuppressLint("AndroidFrameworkBluetoothPermission")
+/*package*/ final class BluetoothSocketChannel
+        implements ReadableByteChannel, GatheringByteChannel {
+    private final BluetoothSocket mSocket;
+
+    /*package*/ BluetoothSocketChannel(BluetoothSocket s) {
+        mSocket = s;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        return mSocket.read(dst);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        ensureOpen();
+        return mSocket.write(src);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        if ((offset | length) < 0 || length > srcs.length - offset) {
+            throw new IndexOutOfBoundsException("invalid offset or length");
+        }
+        ensureOpen();
+        return mSocket.write(srcs, offset, length);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !mSocket.isClosed();
+    }
+
+    /** Close this channel and the socket associated with it. */
+    @Override
+    public void close() throws IOException {
+        mSocket.close();
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+}
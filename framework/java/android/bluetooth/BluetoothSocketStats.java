@@ -0,0 +1,121 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.bluetooth;
+
+import android.annotation.FlaggedApi;
+import android.annotation.NonNull;
+
+import com.android.bluetooth.flags.Flags;
+
+/**
+ * Snapshot of the traffic counters of a {@link BluetoothSocket}.
+ *
+ * <p>For L2CAP sockets a packet is a single SDU. For RFCOMM sockets a packet is a single read or
+ * write call on the socket.
+ *
+ * @see BluetoothSocket#getStats
+ */
+@FlaggedApi(Flags.FLAG_SOCKET_SDU_API)
+public final class BluetoothSocketStats {
+    private final long mPacketsSent;
+    private final long mBytesSent;
+    private final long mPacketsReceived;
+    private final long mBytesReceived;
+    private final int mReceiveBatches;
+    private final int mMaxReceiveQueueDepth;
+    private final long mConnectedDurationMillis;
+
+    /*package*/ BluetoothSocketStats(
+            long packetsSent,
+            long bytesSent,
+            long packetsReceived,
+            long bytesReceived,
+            int receiveBatches,
+            int maxReceiveQueueDepth,
+            long connectedDurationMillis) {
+        mPacketsSent = packetsSent;
+        mBytesSent = bytesSent;
+        mPacketsReceived = packetsReceived;
+        mBytesReceived = bytesReceived;
+        mReceiveBatches = receiveBatches;
+        mMaxReceiveQueueDepth = maxReceiveQueueDepth;
+        mConnectedDurationMillis = connectedDurationMillis;
+    }
+
+    /** Get the number of packets sent on the socket. */
+    public long getPacketsSent() {
+        return mPacketsSent;
+    }
+
+    /** Get the number of payload bytes sent on the socket. */
+    public long getBytesSent() {
+        return mBytesSent;
+    }
+
+    /** Get the number of packets received on the socket. */
+    public long getPacketsReceived() {
+        return mPacketsReceived;
+    }
+
+    /** Get the number of payload bytes received on the socket. */
+    public long getBytesReceived() {
+        return mBytesReceived;
+    }
+
+    /** Get the number of calls to {@link BluetoothSocket#receiveSdus} that returned data. */
+    public int getReceiveBatchCount() {
+        return mReceiveBatches;
+    }
+
+    /**
+     * Get the largest number of SDUs found queued on the socket by a single call to {@link
+     * BluetoothSocket#receiveSdus}. A value close to the number of buffers given to that call
+     * means the application is falling behind the remote device.
+     */
+    public int getMaxReceiveQueueDepth() {
+        return mMaxReceiveQueueDepth;
+    }
+
+    /**
+     * Get how long the socket has been connected, or was connected if it is closed, in
+     * milliseconds. Use it together with the byte counters to compute the throughput.
+     */
+    public long getConnectedDurationMillis() {
+        return mConnectedDurationMillis;
+    }
+
+    @Override
+    @NonNull
+    public String toString() {
+        return "BluetoothSocketStats{"
+                + "packetsSent="
+                + mPacketsSent
+                + ", bytesSent="
+                + mBytesSent
+                + ", packetsReceived="
+                + mPacketsReceived
+                + ", bytesReceived="
+                + mBytesReceived
+                + ", receiveBatches="
+                + mReceiveBatches
+                + ", maxReceiveQueueDepth="
+                + mMaxReceiveQueueDepth
+                + ", connectedDurationMillis="
+                + mConnectedDurationMillis
+                + "}";
+    }
+}
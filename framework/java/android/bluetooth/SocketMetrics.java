@@ -19,6 +19,9 @@ package android.bluetooth;
 import android.os.RemoteException;
 import android.util.Log;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 /** Utility class for socket metrics */
 class SocketMetrics {
     private static final String TAG = SocketMetrics.class.getSimpleName();
@@ -46,6 +49,46 @@ class SocketMetrics {
     private static final int RFCOMM_CONN_RESULT_GET_SOCKET_MANAGER_FAILED = 6;
     private static final int RFCOMM_CONN_RESULT_NULL_FILE_DESCRIPTOR = 7;
 
+    /**
+     * Per socket traffic counters, updated on every read and write of a {@link BluetoothSocket}.
+     * Readers and writers are usually different threads so the counters are atomic.
+     */
+    static final class TrafficCounters {
+        private final AtomicLong mPacketsSent = new AtomicLong();
+        private final AtomicLong mBytesSent = new AtomicLong();
+        private final AtomicLong mPacketsReceived = new AtomicLong();
+        private final AtomicLong mBytesReceived = new AtomicLong();
+        private final AtomicInteger mReceiveBatches = new AtomicInteger();
+        private final AtomicInteger mMaxReceiveQueueDepth = new AtomicInteger();
+
+        void onSent(int packets, long bytes) {
+            mPacketsSent.addAndGet(packets);
+            mBytesSent.addAndGet(bytes);
+        }
+
+        void onReceived(int packets, long bytes) {
+            mPacketsReceived.addAndGet(packets);
+            mBytesReceived.addAndGet(bytes);
+        }
+
+        /** Record a batched receive that found {@code depth} packets queued on the socket. */
+        void onReceiveBatch(int depth) {
+            mReceiveBatches.incrementAndGet();
+            mMaxReceiveQueueDepth.accumulateAndGet(depth, Math::max);
+        }
+
+        BluetoothSocketStats snapshot(long connectedDurationMillis) {
+            return new BluetoothSocketStats(
+                    mPacketsSent.get(),
+                    mBytesSent.get(),
+                    mPacketsReceived.get(),
+                    mBytesReceived.get(),
+                    mReceiveBatches.get(),
+                    mMaxReceiveQueueDepth.get(),
+                    connectedDurationMillis);
+        }
+    }
+
     static void logSocketConnect(
             int socketExceptionCode,
             long socketConnectionTimeNanos,
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.bluetooth;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import android.os.ParcelFileDescriptor;
+import android.os.ParcelUuid;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/** Test cases for {@link BluetoothSocketChannel}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothSocketChannelTest {
+    private static final String TEST_ADDRESS = "00:01:02:03:04:05";
+    private static final ParcelUuid TEST_UUID =
+            ParcelUuid.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    private ParcelFileDescriptor mPeer;
+    private BluetoothSocket mSocket;
+
+    @Before
+    public void setUp() throws IOException {
+        ParcelFileDescriptor[] pair = ParcelFileDescriptor.createSocketPair();
+        mPeer = pair[1];
+        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(TEST_ADDRESS);
+        mSocket = BluetoothSocket.createSocketFromOpenFd(pair[0], device, TEST_UUID);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mSocket.close();
+        mPeer.close();
+    }
+
+    @Test
+    public void read_directBuffer_receivesPeerData() throws IOException {
+        byte[] data = testData(100);
+        new FileOutputStream(mPeer.getFileDescriptor()).write(data);
+
+        ReadableByteChannel channel = mSocket.getReadableChannel();
+        ByteBuffer dst = ByteBuffer.allocateDirect(data.length);
+        while (dst.hasRemaining()) {
+            assertThat(channel.read(dst)).isGreaterThan(0);
+        }
+
+        dst.flip();
+        byte[] received = new byte[data.length];
+        dst.get(received);
+        assertThat(received).isEqualTo(data);
+    }
+
+    @Test
+    public void read_noRemaining_returnsZeroWithoutBlocking() throws IOException {
+        ByteBuffer dst = ByteBuffer.allocate(4);
+        dst.position(dst.limit());
+
+        assertThat(mSocket.getReadableChannel().read(dst)).isEqualTo(0);
+    }
+
+    @Test
+    public void read_peerClosed_returnsEndOfStream() throws IOException {
+        mPeer.close();
+
+        assertThat(mSocket.getReadableChannel().read(ByteBuffer.allocate(4))).isEqualTo(-1);
+    }
+
+    @Test
+    public void write_gatheredBuffers_sentInOrder() throws IOException {
+        byte[] data = testData(30);
+        ByteBuffer heap = ByteBuffer.wrap(data, 0, 10);
+        ByteBuffer direct = ByteBuffer.allocateDirect(10);
+        direct.put(data, 10, 10).flip();
+        ByteBuffer readOnly = ByteBuffer.wrap(data, 20, 10).asReadOnlyBuffer();
+
+        GatheringByteChannel channel = mSocket.getWritableChannel();
+        long written = channel.write(new ByteBuffer[] {heap, direct, readOnly});
+
+        assertThat(written).isEqualTo(data.length);
+        assertThat(heap.hasRemaining()).isFalse();
+        assertThat(direct.hasRemaining()).isFalse();
+        assertThat(readOnly.hasRemaining()).isFalse();
+        assertThat(readFromPeer(data.length)).isEqualTo(data);
+    }
+
+    @Test
+    public void write_invalidOffset_throws() {
+        GatheringByteChannel channel = mSocket.getWritableChannel();
+        ByteBuffer[] srcs = new ByteBuffer[] {ByteBuffer.allocate(1)};
+
+        assertThrows(IndexOutOfBoundsException.class, () -> channel.write(srcs, 1, 1));
+    }
+
+    @Test
+    public void notConnected_operationsRejected() throws IOException {
+        BluetoothDevice device = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(TEST_ADDRESS);
+        int type = BluetoothSocket.TYPE_RFCOMM;
+        try (BluetoothSocket socket =
+                new BluetoothSocket(type, true, true, device, -1, TEST_UUID)) {
+            assertThat(socket.getReadableChannel().isOpen()).isTrue();
+            assertThrows(
+                    IOException.class,
+                    () -> socket.getReadableChannel().read(ByteBuffer.allocate(4)));
+            assertThrows(
+                    IOException.class,
+                    () -> socket.getWritableChannel().write(ByteBuffer.allocate(4)));
+        }
+    }
+
+    @Test
+    public void close_closesSocketAndRejectsOperations() throws IOException {
+        ReadableByteChannel readable = mSocket.getReadableChannel();
+        GatheringByteChannel writable = mSocket.getWritableChannel();
+
+        readable.close();
+
+        assertThat(mSocket.isConnected()).isFalse();
+        assertThat(readable.isOpen()).isFalse();
+        assertThat(writable.isOpen()).isFalse();
+        assertThrows(ClosedChannelException.class, () -> readable.read(ByteBuffer.allocate(4)));
+        assertThrows(ClosedChannelException.class, () -> writable.write(ByteBuffer.allocate(4)));
+        assertThat(new FileInputStream(mPeer.getFileDescriptor()).read()).isEqualTo(-1);
+    }
+
+    private byte[] readFromPeer(int length) throws IOException {
+        FileInputStream in = new FileInputStream(mPeer.getFileDescriptor());
+        byte[] data = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int read = in.read(data, offset, length - offset);
+            assertThat(read).isGreaterThan(0);
+            offset += read;
+        }
+        return data;
+    }
+
+    private static byte[] testData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+}
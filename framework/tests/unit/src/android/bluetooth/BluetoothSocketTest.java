@@ -0,0 +1,222 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.bluetooth;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import android.os.ParcelFileDescriptor;
+import android.os.ParcelUuid;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/** Test cases for the SDU methods and traffic counters of {@link BluetoothSocket}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class BluetoothSocketTest {
+    private static final String TEST_ADDRESS = "00:01:02:03:04:05";
+    private static final int MAX_TX_PACKET_SIZE = 64;
+    private static final int MAX_RX_PACKET_SIZE = 32;
+
+    private BluetoothDevice mDevice;
+    private ParcelFileDescriptor mPeer;
+    private BluetoothSocket mSocket;
+
+    @Before
+    public void setUp() throws IOException {
+        mDevice = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(TEST_ADDRESS);
+        // L2CAP sockets are SEQPACKET sockets, a local pair has the same packet semantics.
+        ParcelFileDescriptor[] pair =
+                ParcelFileDescriptor.createSocketPair(OsConstants.SOCK_SEQPACKET);
+        mPeer = pair[1];
+        mSocket =
+                BluetoothSocket.createL2capSocketFromOpenFd(
+                        pair[0],
+                        mDevice,
+                        BluetoothSocket.TYPE_L2CAP_LE,
+                        MAX_TX_PACKET_SIZE,
+                        MAX_RX_PACKET_SIZE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mSocket.close();
+        mPeer.close();
+    }
+
+    @Test
+    public void sendSdu_sentAsSinglePacket() throws Exception {
+        byte[] sdu = testData(MAX_TX_PACKET_SIZE);
+        ByteBuffer src = ByteBuffer.wrap(sdu);
+
+        mSocket.sendSdu(src);
+
+        assertThat(src.hasRemaining()).isFalse();
+        byte[] packet = new byte[2 * MAX_TX_PACKET_SIZE];
+        int length = Os.read(mPeer.getFileDescriptor(), packet, 0, packet.length);
+        assertThat(Arrays.copyOf(packet, length)).isEqualTo(sdu);
+        BluetoothSocketStats stats = mSocket.getStats();
+        assertThat(stats.getPacketsSent()).isEqualTo(1);
+        assertThat(stats.getBytesSent()).isEqualTo(MAX_TX_PACKET_SIZE);
+    }
+
+    @Test
+    public void sendSdu_tooLarge_throws() {
+        ByteBuffer src = ByteBuffer.allocate(MAX_TX_PACKET_SIZE + 1);
+
+        assertThrows(IllegalArgumentException.class, () -> mSocket.sendSdu(src));
+        assertThat(src.position()).isEqualTo(0);
+    }
+
+    @Test
+    public void sendSdu_notConnected_throwsIOException() throws IOException {
+        try (BluetoothSocket socket =
+                new BluetoothSocket(BluetoothSocket.TYPE_L2CAP_LE, true, true, mDevice, -1, null)) {
+            assertThrows(IOException.class, () -> socket.sendSdu(ByteBuffer.allocate(10)));
+        }
+    }
+
+    @Test
+    public void sduMethods_rfcommSocket_unsupported() throws IOException {
+        ParcelUuid uuid = ParcelUuid.fromString("00001101-0000-1000-8000-00805F9B34FB");
+        try (BluetoothSocket socket =
+                new BluetoothSocket(BluetoothSocket.TYPE_RFCOMM, true, true, mDevice, -1, uuid)) {
+            assertThrows(
+                    UnsupportedOperationException.class,
+                    () -> socket.sendSdu(ByteBuffer.allocate(1)));
+            assertThrows(
+                    UnsupportedOperationException.class,
+                    () -> socket.receiveSdu(ByteBuffer.allocate(MAX_RX_PACKET_SIZE)));
+        }
+    }
+
+    @Test
+    public void receiveSdu_returnsWholeSdu() throws Exception {
+        byte[] first = testData(MAX_RX_PACKET_SIZE);
+        byte[] second = testData(5);
+        writeFromPeer(first);
+        writeFromPeer(second);
+
+        ByteBuffer dst = ByteBuffer.allocate(2 * MAX_RX_PACKET_SIZE);
+        assertThat(mSocket.receiveSdu(dst)).isEqualTo(first.length);
+        assertThat(Arrays.copyOf(dst.array(), dst.position())).isEqualTo(first);
+
+        dst.clear();
+        assertThat(mSocket.receiveSdu(dst)).isEqualTo(second.length);
+        assertThat(Arrays.copyOf(dst.array(), dst.position())).isEqualTo(second);
+    }
+
+    @Test
+    public void receiveSdu_bufferSmallerThanMaxSdu_throws() {
+        ByteBuffer dst = ByteBuffer.allocate(MAX_RX_PACKET_SIZE - 1);
+
+        assertThrows(IllegalArgumentException.class, () -> mSocket.receiveSdu(dst));
+    }
+
+    @Test
+    public void receiveSdu_afterPartialStreamRead_returnsRestOfSdu() throws Exception {
+        byte[] sdu = testData(10);
+        writeFromPeer(sdu);
+
+        byte[] head = new byte[4];
+        assertThat(mSocket.getInputStream().read(head)).isEqualTo(head.length);
+        ByteBuffer dst = ByteBuffer.allocate(MAX_RX_PACKET_SIZE);
+
+        assertThat(mSocket.receiveSdu(dst)).isEqualTo(sdu.length - head.length);
+        assertThat(Arrays.copyOf(dst.array(), dst.position()))
+                .isEqualTo(Arrays.copyOfRange(sdu, head.length, sdu.length));
+    }
+
+    @Test
+    public void receiveSdu_peerClosed_returnsEndOfStream() throws IOException {
+        mPeer.close();
+
+        assertThat(mSocket.receiveSdu(ByteBuffer.allocate(MAX_RX_PACKET_SIZE))).isEqualTo(-1);
+    }
+
+    @Test
+    public void receiveSdus_returnsQueuedSdusInOneBatch() throws Exception {
+        for (int i = 1; i <= 3; i++) {
+            writeFromPeer(testData(i));
+        }
+        ByteBuffer[] dsts = new ByteBuffer[5];
+        for (int i = 0; i < dsts.length; i++) {
+            dsts[i] = ByteBuffer.allocate(MAX_RX_PACKET_SIZE);
+        }
+
+        assertThat(mSocket.receiveSdus(dsts)).isEqualTo(3);
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(dsts[i].position()).isEqualTo(i + 1);
+        }
+        assertThat(dsts[3].position()).isEqualTo(0);
+        BluetoothSocketStats stats = mSocket.getStats();
+        assertThat(stats.getPacketsReceived()).isEqualTo(3);
+        assertThat(stats.getBytesReceived()).isEqualTo(6);
+        assertThat(stats.getReceiveBatchCount()).isEqualTo(1);
+        assertThat(stats.getMaxReceiveQueueDepth()).isEqualTo(3);
+    }
+
+    @Test
+    public void getStats_afterClose_durationStopsGrowing() throws Exception {
+        mSocket.close();
+        long duration = mSocket.getStats().getConnectedDurationMillis();
+
+        Thread.sleep(10);
+
+        assertThat(duration).isAtLeast(0);
+        assertThat(mSocket.getStats().getConnectedDurationMillis()).isEqualTo(duration);
+    }
+
+    @Test
+    public void getStats_notConnected_zero() throws IOException {
+        try (BluetoothSocket socket =
+                new BluetoothSocket(BluetoothSocket.TYPE_L2CAP_LE, true, true, mDevice, -1, null)) {
+            BluetoothSocketStats stats = socket.getStats();
+
+            assertThat(stats.getPacketsSent()).isEqualTo(0);
+            assertThat(stats.getPacketsReceived()).isEqualTo(0);
+            assertThat(stats.getConnectedDurationMillis()).isEqualTo(0);
+        }
+    }
+
+    private void writeFromPeer(byte[] sdu) throws ErrnoException, IOException {
+        assertThat(Os.write(mPeer.getFileDescriptor(), sdu, 0, sdu.length)).isEqualTo(sdu.length);
+    }
+
+    private static byte[] testData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + 7);
+        }
+        return data;
+    }
+}
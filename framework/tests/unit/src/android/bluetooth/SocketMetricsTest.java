@@ -0,0 +1,73 @@
+/*
+ * Copyright 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.bluetooth;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Test cases for {@link SocketMetrics.TrafficCounters}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SocketMetricsTest {
+
+    @Test
+    public void trafficCounters_snapshot() {
+        SocketMetrics.TrafficCounters counters = new SocketMetrics.TrafficCounters();
+
+        counters.onSent(1, 100);
+        counters.onSent(2, 50);
+        counters.onReceived(3, 30);
+        counters.onReceiveBatch(3);
+        counters.onReceiveBatch(1);
+
+        BluetoothSocketStats stats = counters.snapshot(1234);
+        assertThat(stats.getPacketsSent()).isEqualTo(3);
+        assertThat(stats.getBytesSent()).isEqualTo(150);
+        assertThat(stats.getPacketsReceived()).isEqualTo(3);
+        assertThat(stats.getBytesReceived()).isEqualTo(30);
+        assertThat(stats.getReceiveBatchCount()).isEqualTo(2);
+        assertThat(stats.getMaxReceiveQueueDepth()).isEqualTo(3);
+        assertThat(stats.getConnectedDurationMillis()).isEqualTo(1234);
+    }
+
+    @Test
+    public void trafficCounters_snapshotIsNotUpdated() {
+        SocketMetrics.TrafficCounters counters = new SocketMetrics.TrafficCounters();
+        BluetoothSocketStats stats = counters.snapshot(0);
+
+        counters.onSent(1, 10);
+
+        assertThat(stats.getPacketsSent()).isEqualTo(0);
+        assertThat(stats.getBytesSent()).isEqualTo(0);
+    }
+
+    @Test
+    public void bluetoothSocketStats_toString() {
+        BluetoothSocketStats stats = new BluetoothSocketStats(1, 2, 3, 4, 5, 6, 7);
+
+        assertThat(stats.toString())
+                .isEqualTo(
+                        "BluetoothSocketStats{packetsSent=1, bytesSent=2, packetsReceived=3,"
+                                + " bytesReceived=4, receiveBatches=5, maxReceiveQueueDepth=6,"
+                                + " connectedDurationMillis=7}");
+    }
+}